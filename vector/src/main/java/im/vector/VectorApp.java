@@ -73,6 +73,7 @@ import im.vector.gcm.GcmRegistrationManager;
 import im.vector.receiver.HeadsetConnectionReceiver;
 import im.vector.services.EventStreamService;
 import im.vector.util.BugReporter;
+import im.vector.util.MediasCacheManager;
 import im.vector.util.PhoneNumberUtils;
 import im.vector.util.PreferencesManager;
 import im.vector.util.RageShake;
@@ -152,10 +153,15 @@ public class VectorApp extends MultiDexApplication {
     public static File mLogsDirectoryFile = null;
 
     /**
-     * The last time that removeMediasBefore has been called.
+     * The last time that the medias cache cleanup has been started.
      */
     private long mLastMediasCheck = 0;
 
+    /**
+     * Min delay between two medias cache cleanups.
+     */
+    private static final long MEDIAS_CHECK_DELAY_MS = 60 * 60 * 1000;
+
     private final BroadcastReceiver mLanguageReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -368,6 +374,8 @@ public class VectorApp extends MultiDexApplication {
 
         // the sessions are not anymore seen as "online"
         ArrayList<MXSession> sessions = Matrix.getInstance(this).getSessions();
+        boolean checkMedias = (System.currentTimeMillis() - mLastMediasCheck) > MEDIAS_CHECK_DELAY_MS;
+        Set<String> mediasToKeep = new HashSet<>();
 
         for (MXSession session : sessions) {
             if (session.isAlive()) {
@@ -375,10 +383,9 @@ public class VectorApp extends MultiDexApplication {
                 session.setSyncDelay(gcmRegistrationManager.isBackgroundSyncAllowed() ? gcmRegistrationManager.getBackgroundSyncDelay() : 0);
                 session.setSyncTimeout(gcmRegistrationManager.getBackgroundSyncTimeOut());
 
-                // remove older medias
-                if ((System.currentTimeMillis() - mLastMediasCheck) < (24 * 60 * 60 * 1000)) {
-                    mLastMediasCheck = System.currentTimeMillis();
-                    session.removeMediasBefore(VectorApp.this, PreferencesManager.getMinMediasLastAccessTime(getApplicationContext()));
+                // the medias of the unsent messages must be kept
+                if (checkMedias) {
+                    mediasToKeep.addAll(MediasCacheManager.getPendingMediasPaths(session));
                 }
 
                 if (session.getDataHandler().areLeftRoomsSynced()) {
@@ -387,6 +394,13 @@ public class VectorApp extends MultiDexApplication {
             }
         }
 
+        // remove the older medias and keep the medias cache under its max size
+        if (checkMedias) {
+            mLastMediasCheck = System.currentTimeMillis();
+            MediasCacheManager.getInstance(this).startCleanup(PreferencesManager.getMinMediasLastAccessTime(getApplicationContext()),
+                    PreferencesManager.getMediasCacheMaxSize(getApplicationContext()), mediasToKeep);
+        }
+
         clearSyncingSessions();
 
         PIDsRetriever.getInstance().onAppBackgrounded();
@@ -459,6 +473,8 @@ public class VectorApp extends MultiDexApplication {
         }
 
         if (isAppInBackground() && !mIsCallingInBackground) {
+            // the medias cache cleanup runs only while the application is in background
+            MediasCacheManager.getInstance(this).cancelCleanup();
 
             // the event stream service has been killed
             if (null == EventStreamService.getInstance()) {
@@ -101,7 +101,15 @@ import im.vector.contacts.PIDsRetriever;
 import im.vector.fragments.VectorUnknownDevicesFragment;
 import im.vector.gcm.GcmRegistrationManager;
 import im.vector.services.EventStreamService;
+import im.vector.util.HomeSnapshot;
+import im.vector.util.KnownParticipantsIndex;
+import im.vector.util.MediaContentStore;
 import im.vector.util.PreferencesManager;
+import im.vector.util.PresenceAggregator;
+import im.vector.util.ReadReceiptsScheduler;
+import im.vector.util.RoomPreviewsCache;
+import im.vector.util.RoomsCategoriesIndex;
+import im.vector.util.RoomsRefreshCoordinator;
 import im.vector.util.ThemeUtils;
 import im.vector.util.VectorUtils;
 import me.leolin.shortcutbadger.ShortcutBadger;
@@ -221,6 +229,20 @@ public class CommonActivityUtils {
             // clear notification
             EventStreamService.removeNotification();
 
+            // the home snapshot contains some rooms data
+            HomeSnapshot.delete(context, session.getMyUserId());
+
+            // stop the session indexes and their pending refreshes
+            RoomsCategoriesIndex.release(session);
+            RoomsRefreshCoordinator.release(session);
+            RoomPreviewsCache.release(session);
+            KnownParticipantsIndex.release(session);
+            PresenceAggregator.release(session);
+            ReadReceiptsScheduler.release(session);
+
+            // the medias cache is cleared with the session
+            MediaContentStore.getInstance(context).clear();
+
             // unregister from the GCM.
             Matrix.getInstance(context).getSharedGCMRegistrationManager().unregister(session, null);
 
@@ -18,6 +18,8 @@ package im.vector.activity;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import org.matrix.androidsdk.util.Log;
 
 import org.matrix.androidsdk.MXSession;
@@ -30,6 +32,7 @@ import im.vector.VectorApp;
 import im.vector.gcm.GcmRegistrationManager;
 import im.vector.receiver.VectorUniversalLinkReceiver;
 import im.vector.services.EventStreamService;
+import im.vector.util.HomeSnapshot;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -53,6 +56,9 @@ public class SplashActivity extends MXCActionBarActivity {
 
     private final long mLaunchTime = System.currentTimeMillis();
 
+    // true when the home activity has been started before the sessions were ready
+    private boolean mIsHomeStarted = false;
+
     /**
      * @return true if a store is corrupted.
      */
@@ -69,53 +75,119 @@ public class SplashActivity extends MXCActionBarActivity {
     }
 
     /**
-     * Close the splash screen if the stores are fully loaded.
+     * Tells if the home activity can be started before the sessions are ready.
+     * It displays the home sections saved by the last session until the rooms are loaded.
+     * The universal links, the shared files and the room jumps need the sessions to be ready.
+     *
+     * @return true if the home activity can be started
      */
-    private void onFinish() {
-        Log.e(LOG_TAG, "##onFinish() : start VectorHomeActivity");
+    private boolean canStartHomeBeforeSync() {
+        Intent intent = getIntent();
 
-        if (!hasCorruptedStore()) {
-            VectorApp.sendGAStats(getApplicationContext(),
-                    VectorApp.GOOGLE_ANALYTICS_STATS_CATEGORY,
-                    VectorApp.GOOGLE_ANALYTICS_STARTUP_LAUNCH_SCREEN_ACTION,
-                    null,
-                    System.currentTimeMillis() - mLaunchTime
-            );
+        if (intent.hasExtra(VectorUniversalLinkReceiver.EXTRA_UNIVERSAL_LINK_URI) ||
+                intent.hasExtra(VectorHomeActivity.EXTRA_SHARED_INTENT_PARAMS) ||
+                intent.hasExtra(EXTRA_ROOM_ID)) {
+            return false;
+        }
 
-            // Go to the home page
-            Intent intent = new Intent(SplashActivity.this, VectorHomeActivity.class);
+        synchronized (LOG_TAG) {
+            for (MXSession session : mListeners.keySet()) {
+                if (!HomeSnapshot.exists(this, session.getMyUserId())) {
+                    return false;
+                }
+            }
+        }
 
-            Bundle receivedBundle = getIntent().getExtras();
+        return true;
+    }
 
-            if (null != receivedBundle) {
-                intent.putExtras(receivedBundle);
-            }
+    /**
+     * Remove the listeners of the ready sessions.
+     */
+    private void removeDoneListeners() {
+        Collection<MXSession> sessions = mDoneListeners.keySet();
 
-            // display a spinner while managing the universal link
-            if (intent.hasExtra(VectorUniversalLinkReceiver.EXTRA_UNIVERSAL_LINK_URI)) {
-                intent.putExtra(VectorHomeActivity.EXTRA_WAITING_VIEW_STATUS, VectorHomeActivity.WAITING_VIEW_START);
+        for(MXSession session : sessions) {
+            if (session.isAlive()) {
+                session.getDataHandler().removeListener(mDoneListeners.get(session));
+                session.setFailureCallback(null);
             }
+        }
+    }
 
-            // launch from a shared files menu
-            if (getIntent().hasExtra(VectorHomeActivity.EXTRA_SHARED_INTENT_PARAMS)) {
-                intent.putExtra(VectorHomeActivity.EXTRA_SHARED_INTENT_PARAMS, getIntent().getParcelableExtra(VectorHomeActivity.EXTRA_SHARED_INTENT_PARAMS));
-                getIntent().removeExtra(VectorHomeActivity.EXTRA_SHARED_INTENT_PARAMS);
-            }
+    /**
+     * Close the splash screen if the stores are fully loaded.
+     */
+    private void onFinish() {
+        if (mIsHomeStarted) {
+            Log.d(LOG_TAG, "##onFinish() : the sessions are ready");
 
-            if (getIntent().hasExtra(EXTRA_ROOM_ID) && getIntent().hasExtra(EXTRA_MATRIX_ID)) {
-                HashMap<String, Object> params = new HashMap<>();
+            // the splash screen is already closed
+            // the listeners cannot be removed while they are dispatched
+            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    removeDoneListeners();
+                }
+            });
 
-                params.put(VectorRoomActivity.EXTRA_MATRIX_ID, getIntent().getStringExtra(EXTRA_MATRIX_ID));
-                params.put(VectorRoomActivity.EXTRA_ROOM_ID, getIntent().getStringExtra(EXTRA_ROOM_ID));
-                intent.putExtra(VectorHomeActivity.EXTRA_JUMP_TO_ROOM_PARAMS, params);
+            if (hasCorruptedStore()) {
+                CommonActivityUtils.logout(VectorApp.getCurrentActivity());
             }
 
-            startActivity(intent);
-            SplashActivity.this.finish();
+            return;
+        }
+
+        if (!hasCorruptedStore()) {
+            startHomeActivity();
         } else {
             CommonActivityUtils.logout(this);
         }
+    }
+
+    /**
+     * Start the home activity and close the splash screen.
+     */
+    private void startHomeActivity() {
+        Log.e(LOG_TAG, "##startHomeActivity() : start VectorHomeActivity");
+
+        VectorApp.sendGAStats(getApplicationContext(),
+                VectorApp.GOOGLE_ANALYTICS_STATS_CATEGORY,
+                VectorApp.GOOGLE_ANALYTICS_STARTUP_LAUNCH_SCREEN_ACTION,
+                null,
+                System.currentTimeMillis() - mLaunchTime
+        );
+
+        // Go to the home page
+        Intent intent = new Intent(SplashActivity.this, VectorHomeActivity.class);
+
+        Bundle receivedBundle = getIntent().getExtras();
+
+        if (null != receivedBundle) {
+            intent.putExtras(receivedBundle);
+        }
 
+        // display a spinner while managing the universal link
+        if (intent.hasExtra(VectorUniversalLinkReceiver.EXTRA_UNIVERSAL_LINK_URI)) {
+            intent.putExtra(VectorHomeActivity.EXTRA_WAITING_VIEW_STATUS, VectorHomeActivity.WAITING_VIEW_START);
+        }
+
+        // launch from a shared files menu
+        if (getIntent().hasExtra(VectorHomeActivity.EXTRA_SHARED_INTENT_PARAMS)) {
+            intent.putExtra(VectorHomeActivity.EXTRA_SHARED_INTENT_PARAMS, getIntent().getParcelableExtra(VectorHomeActivity.EXTRA_SHARED_INTENT_PARAMS));
+            getIntent().removeExtra(VectorHomeActivity.EXTRA_SHARED_INTENT_PARAMS);
+        }
+
+        if (getIntent().hasExtra(EXTRA_ROOM_ID) && getIntent().hasExtra(EXTRA_MATRIX_ID)) {
+            HashMap<String, Object> params = new HashMap<>();
+
+            params.put(VectorRoomActivity.EXTRA_MATRIX_ID, getIntent().getStringExtra(EXTRA_MATRIX_ID));
+            params.put(VectorRoomActivity.EXTRA_ROOM_ID, getIntent().getStringExtra(EXTRA_ROOM_ID));
+            intent.putExtra(VectorHomeActivity.EXTRA_JUMP_TO_ROOM_PARAMS, params);
+        }
+
+        startActivity(intent);
+        SplashActivity.this.finish();
     }
 
     @Override
@@ -292,20 +364,16 @@ public class SplashActivity extends MXCActionBarActivity {
             // do not launch an activity if there was nothing new.
             Log.e(LOG_TAG, "nothing to do");
             onFinish();
+        } else if (canStartHomeBeforeSync()) {
+            Log.d(LOG_TAG, "display the saved home sections until the sessions are ready");
+            mIsHomeStarted = true;
+            startHomeActivity();
         }
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
-
-        Collection<MXSession> sessions = mDoneListeners.keySet();
-
-        for(MXSession session : sessions) {
-            if (session.isAlive()) {
-                session.getDataHandler().removeListener(mDoneListeners.get(session));
-                session.setFailureCallback(null);
-            }
-        }
+        removeDoneListeners();
     }
 }
@@ -74,16 +74,12 @@ import org.matrix.androidsdk.crypto.data.MXUsersDevicesMap;
 import org.matrix.androidsdk.data.MyUser;
 import org.matrix.androidsdk.data.Room;
 import org.matrix.androidsdk.data.RoomPreviewData;
-import org.matrix.androidsdk.data.RoomState;
 import org.matrix.androidsdk.data.RoomSummary;
-import org.matrix.androidsdk.data.RoomTag;
-import org.matrix.androidsdk.data.store.IMXStore;
 import org.matrix.androidsdk.listeners.MXEventListener;
 import org.matrix.androidsdk.rest.callback.ApiCallback;
 import org.matrix.androidsdk.rest.callback.SimpleApiCallback;
 import org.matrix.androidsdk.rest.model.Event;
 import org.matrix.androidsdk.rest.model.MatrixError;
-import org.matrix.androidsdk.util.BingRulesManager;
 import org.matrix.androidsdk.util.Log;
 
 import java.lang.reflect.Field;
@@ -116,7 +112,11 @@ import im.vector.services.EventStreamService;
 import im.vector.util.BugReporter;
 import im.vector.util.PreferencesManager;
 import im.vector.util.RoomUtils;
+import im.vector.util.KnownParticipantsIndex;
+import im.vector.util.RoomsCategoriesIndex;
+import im.vector.util.RoomsRefreshCoordinator;
 import im.vector.util.ThemeUtils;
+import im.vector.util.UnreadBadgesAggregator;
 import im.vector.util.VectorCallSoundManager;
 import im.vector.util.VectorUtils;
 import im.vector.view.UnreadCounterBadgeView;
@@ -521,6 +521,11 @@ public class VectorHomeActivity extends RiotAppCompatActivity implements SearchV
         }
 
         if (mSession.isAlive()) {
+            // the rooms categories must be updated before the fragments are refreshed
+            RoomsCategoriesIndex.getInstance(mSession);
+            RoomsRefreshCoordinator.getInstance(mSession);
+            // listen to the presence and membership events before the known participants are listed
+            KnownParticipantsIndex.getInstance(mSession);
             addEventsListener();
         }
 
@@ -1488,30 +1493,9 @@ public class VectorHomeActivity extends RiotAppCompatActivity implements SearchV
             mDirectChatInvitations.clear();
         }
 
-        if (null == mSession.getDataHandler().getStore()) {
-            Log.e(LOG_TAG, "## getRoomInvitations() : null store");
-            return new ArrayList<>();
-        }
-
-        Collection<RoomSummary> roomSummaries = mSession.getDataHandler().getStore().getSummaries();
-        for (RoomSummary roomSummary : roomSummaries) {
-            // reported by rageshake
-            // i don't see how it is possible to have a null roomSummary
-            if (null != roomSummary) {
-                String roomSummaryId = roomSummary.getRoomId();
-                Room room = mSession.getDataHandler().getStore().getRoom(roomSummaryId);
-
-                // check if the room exists
-                // the user conference rooms are not displayed.
-                if (room != null && !room.isConferenceUserRoom() && room.isInvited()) {
-                    if (room.isDirectChatInvitation()) {
-                        mDirectChatInvitations.add(room);
-                    } else {
-                        mRoomInvitations.add(room);
-                    }
-                }
-            }
-        }
+        RoomsCategoriesIndex index = RoomsCategoriesIndex.getInstance(mSession);
+        mDirectChatInvitations.addAll(index.getDirectChatInvitations());
+        mRoomInvitations.addAll(index.getRoomInvitations());
 
         // the invitations are sorted from the oldest to the more recent one
         Comparator<Room> invitationComparator = RoomUtils.getRoomsDateComparator(mSession, true);
@@ -1925,76 +1909,53 @@ public class VectorHomeActivity extends RiotAppCompatActivity implements SearchV
     // Badge view <-> menu entry id
     private final Map<Integer, UnreadCounterBadgeView> mBadgeViewByIndex = new HashMap<>();
 
-    // events listener to track required refresh
-    private final MXEventListener mBadgeEventsListener = new MXEventListener() {
-        private boolean mRefreshBadgeOnChunkEnd = false;
-
-        @Override
-        public void onLiveEventsChunkProcessed(String fromToken, String toToken) {
-            if (mRefreshBadgeOnChunkEnd) {
-                refreshUnreadBadges();
-                mRefreshBadgeOnChunkEnd = false;
-            }
-        }
-
-        @Override
-        public void onLiveEvent(final Event event, final RoomState roomState) {
-            String eventType = event.getType();
-
-            // refresh the UI at the end of the next events chunk
-            mRefreshBadgeOnChunkEnd |= ((event.roomId != null) && RoomSummary.isSupportedEvent(event)) ||
-                    Event.EVENT_TYPE_STATE_ROOM_MEMBER.equals(eventType) ||
-                    Event.EVENT_TYPE_REDACTION.equals(eventType) ||
-                    Event.EVENT_TYPE_TAGS.equals(eventType) ||
-                    Event.EVENT_TYPE_STATE_ROOM_THIRD_PARTY_INVITE.equals(eventType);
-
-        }
+    // the tabs unread counters
+    private UnreadBadgesAggregator mUnreadBadgesAggregator;
 
+    // refresh listener to update the counters of the updated rooms
+    private final RoomsRefreshCoordinator.IRoomsRefreshListener mBadgeRefreshListener = new RoomsRefreshCoordinator.IRoomsRefreshListener() {
         @Override
-        public void onReceiptEvent(String roomId, List<String> senderIds) {
-            // refresh only if the current user read some messages (to update the unread messages counters)
-            mRefreshBadgeOnChunkEnd |= (senderIds.indexOf(mSession.getCredentials().userId) >= 0);
-        }
+        public void onRoomsUpdated(Set<String> roomIds) {
+            UnreadBadgesAggregator aggregator = getUnreadBadgesAggregator();
 
-        @Override
-        public void onLeaveRoom(final String roomId) {
-            mRefreshBadgeOnChunkEnd = true;
-        }
-
-        @Override
-        public void onNewRoom(String roomId) {
-            mRefreshBadgeOnChunkEnd = true;
-        }
+            if (null == roomIds) {
+                aggregator.invalidate();
+            } else {
+                for (String roomId : roomIds) {
+                    aggregator.onRoomUpdated(roomId);
+                }
+            }
 
-        @Override
-        public void onJoinRoom(String roomId) {
-            mRefreshBadgeOnChunkEnd = true;
+            if (aggregator.hasPendingUpdates()) {
+                displayUnreadBadges();
+            }
         }
+    };
 
-        @Override
-        public void onDirectMessageChatRoomsListUpdate() {
-            mRefreshBadgeOnChunkEnd = true;
+    /**
+     * @return the tabs unread counters
+     */
+    private UnreadBadgesAggregator getUnreadBadgesAggregator() {
+        if (null == mUnreadBadgesAggregator) {
+            mUnreadBadgesAggregator = new UnreadBadgesAggregator(mSession);
         }
 
-        @Override
-        public void onRoomTagEvent(String roomId) {
-            mRefreshBadgeOnChunkEnd = true;
-        }
-    };
+        return mUnreadBadgesAggregator;
+    }
 
     /**
-     * Add the badge events listener
+     * Add the badge refresh listener
      */
     private void addBadgeEventsListener() {
-        mSession.getDataHandler().addListener(mBadgeEventsListener);
+        RoomsRefreshCoordinator.getInstance(mSession).addListener(mBadgeRefreshListener);
         refreshUnreadBadges();
     }
 
     /**
-     * Remove the badge events listener
+     * Remove the badge refresh listener
      */
     private void removeBadgeEventsListener() {
-        mSession.getDataHandler().removeListener(mBadgeEventsListener);
+        RoomsRefreshCoordinator.getInstance(mSession).removeListener(mBadgeRefreshListener);
     }
 
     /**
@@ -2074,37 +2035,25 @@ public class VectorHomeActivity extends RiotAppCompatActivity implements SearchV
     }
 
     /**
-     * Refresh the badges
+     * Refresh the badges of all the rooms
      */
     public void refreshUnreadBadges() {
-        MXDataHandler dataHandler = mSession.getDataHandler();
-        // fix a crash reported by GA
-        if (null == dataHandler) {
-            return;
-        }
+        getUnreadBadgesAggregator().invalidate();
+        displayUnreadBadges();
+    }
 
-        IMXStore store = dataHandler.getStore();
+    /**
+     * Apply the pending counters updates and display the badges
+     */
+    private void displayUnreadBadges() {
+        MXDataHandler dataHandler = mSession.getDataHandler();
         // fix a crash reported by GA
-        if (null == store) {
+        if ((null == dataHandler) || (null == dataHandler.getStore())) {
             return;
         }
 
-        BingRulesManager bingRulesManager = dataHandler.getBingRulesManager();
-        Collection<RoomSummary> summaries2 = store.getSummaries();
-        HashMap<Room, RoomSummary> roomSummaryByRoom = new HashMap<>();
-        HashSet<String> directChatInvitations = new HashSet<>();
-
-        for (RoomSummary summary : summaries2) {
-            Room room = store.getRoom(summary.getRoomId());
-
-            if (null != room) {
-                roomSummaryByRoom.put(room, summary);
-
-                if (!room.isConferenceUserRoom() && room.isInvited() && room.isDirectChatInvitation()) {
-                    directChatInvitations.add(room.getRoomId());
-                }
-            }
-        }
+        UnreadBadgesAggregator aggregator = getUnreadBadgesAggregator();
+        aggregator.refresh();
 
         Set<Integer> menuIndexes = new HashSet<>(mBadgeViewByIndex.keySet());
 
@@ -2112,69 +2061,20 @@ public class VectorHomeActivity extends RiotAppCompatActivity implements SearchV
         menuIndexes.remove(R.id.bottom_action_home);
 
         for (Integer id : menuIndexes) {
-            // use a map because contains is faster
-            HashSet<String> filteredRoomIdsSet = new HashSet<>();
+            int tab;
 
             if (id == R.id.bottom_action_favourites) {
-                List<Room> favRooms = mSession.roomsWithTag(RoomTag.ROOM_TAG_FAVOURITE);
-
-                for (Room room : favRooms) {
-                    filteredRoomIdsSet.add(room.getRoomId());
-                }
+                tab = UnreadBadgesAggregator.TAB_FAVOURITES;
             } else if (id == R.id.bottom_action_people) {
-                filteredRoomIdsSet.addAll(mSession.getDirectChatRoomIdsList());
-                // Add direct chat invitations
-                for (Room room : roomSummaryByRoom.keySet()) {
-                    if (room.isDirectChatInvitation() && !room.isConferenceUserRoom()) {
-                        filteredRoomIdsSet.add(room.getRoomId());
-                    }
-                }
-
-                // remove the low priority rooms
-                List<Room> lowPriorRooms = mSession.roomsWithTag(RoomTag.ROOM_TAG_LOW_PRIORITY);
-                for (Room room : lowPriorRooms) {
-                    filteredRoomIdsSet.remove(room.getRoomId());
-                }
+                tab = UnreadBadgesAggregator.TAB_PEOPLE;
             } else if (id == R.id.bottom_action_rooms) {
-                HashSet<String> directChatRoomIds = new HashSet<>(mSession.getDirectChatRoomIdsList());
-                HashSet<String> lowPriorityRoomIds = new HashSet<>(mSession.roomIdsWithTag(RoomTag.ROOM_TAG_LOW_PRIORITY));
-
-                directChatRoomIds.addAll(directChatInvitations);
-
-                for (Room room : roomSummaryByRoom.keySet()) {
-                    if (!room.isConferenceUserRoom() && // not a VOIP conference room
-                            !directChatRoomIds.contains(room.getRoomId()) && // not a direct chat
-                            !lowPriorityRoomIds.contains(room.getRoomId())) {
-                        filteredRoomIdsSet.add(room.getRoomId());
-                    }
-                }
+                tab = UnreadBadgesAggregator.TAB_ROOMS;
+            } else {
+                continue;
             }
 
-            // compute the badge value and its displays
-            int highlightCount = 0;
-            int roomCount = 0;
-
-            for (String roomId : filteredRoomIdsSet) {
-                Room room = store.getRoom(roomId);
-
-                if (null != room) {
-                    highlightCount += room.getHighlightCount();
-
-                    if (room.isInvited()) {
-                        roomCount++;
-                    } else {
-                        int notificationCount = room.getNotificationCount();
-
-                        if (bingRulesManager.isRoomMentionOnly(roomId)) {
-                            notificationCount = room.getHighlightCount();
-                        }
-
-                        if (notificationCount > 0) {
-                            roomCount++;
-                        }
-                    }
-                }
-            }
+            int highlightCount = aggregator.getHighlightCount(tab);
+            int roomCount = aggregator.getNotifiedRoomsCount(tab);
 
             int status = (0 != highlightCount) ? UnreadCounterBadgeView.HIGHLIGHTED :
                     ((0 != roomCount) ? UnreadCounterBadgeView.NOTIFIED : UnreadCounterBadgeView.DEFAULT);
@@ -2247,87 +2147,20 @@ public class VectorHomeActivity extends RiotAppCompatActivity implements SearchV
      */
     private void addEventsListener() {
         mEventsListener = new MXEventListener() {
-            // set to true when a refresh must be triggered
-            private boolean mRefreshOnChunkEnd = false;
-
-            private void onForceRefresh() {
-                if (View.VISIBLE != mSyncInProgressView.getVisibility()) {
-                    dispatchOnSummariesUpdate();
-                }
-            }
-
             @Override
             public void onAccountInfoUpdate(MyUser myUser) {
                 refreshSlidingMenu();
             }
 
-            @Override
-            public void onInitialSyncComplete(String toToken) {
-                Log.d(LOG_TAG, "## onInitialSyncComplete()");
-                dispatchOnSummariesUpdate();
-            }
-
             @Override
             public void onLiveEventsChunkProcessed(String fromToken, String toToken) {
-                if ((VectorApp.getCurrentActivity() == VectorHomeActivity.this) && mRefreshOnChunkEnd) {
-                    dispatchOnSummariesUpdate();
-                }
-
-                mRefreshOnChunkEnd = false;
-
                 mSyncInProgressView.setVisibility(View.GONE);
             }
 
-            @Override
-            public void onLiveEvent(final Event event, final RoomState roomState) {
-                String eventType = event.getType();
-
-                // refresh the UI at the end of the next events chunk
-                mRefreshOnChunkEnd |= ((event.roomId != null) && RoomSummary.isSupportedEvent(event)) ||
-                        Event.EVENT_TYPE_STATE_ROOM_MEMBER.equals(eventType) ||
-                        Event.EVENT_TYPE_TAGS.equals(eventType) ||
-                        Event.EVENT_TYPE_REDACTION.equals(eventType) ||
-                        Event.EVENT_TYPE_RECEIPT.equals(eventType) ||
-                        Event.EVENT_TYPE_STATE_ROOM_AVATAR.equals(eventType) ||
-                        Event.EVENT_TYPE_STATE_ROOM_THIRD_PARTY_INVITE.equals(eventType);
-            }
-
-            @Override
-            public void onReceiptEvent(String roomId, List<String> senderIds) {
-                // refresh only if the current user read some messages (to update the unread messages counters)
-                mRefreshOnChunkEnd |= (senderIds.indexOf(mSession.getCredentials().userId) >= 0);
-            }
-
-            @Override
-            public void onRoomTagEvent(String roomId) {
-                mRefreshOnChunkEnd = true;
-            }
-
-            @Override
-            public void onStoreReady() {
-                onForceRefresh();
-            }
-
             @Override
             public void onLeaveRoom(final String roomId) {
                 // clear any pending notification for this room
                 EventStreamService.cancelNotificationsForRoomId(mSession.getMyUserId(), roomId);
-                onForceRefresh();
-            }
-
-            @Override
-            public void onNewRoom(String roomId) {
-                onForceRefresh();
-            }
-
-            @Override
-            public void onJoinRoom(String roomId) {
-                onForceRefresh();
-            }
-
-            @Override
-            public void onDirectMessageChatRoomsListUpdate() {
-                mRefreshOnChunkEnd = true;
             }
 
             @Override
@@ -2345,6 +2178,7 @@ public class VectorHomeActivity extends RiotAppCompatActivity implements SearchV
         };
 
         mSession.getDataHandler().addListener(mEventsListener);
+        RoomsRefreshCoordinator.getInstance(mSession).addListener(mRoomsRefreshListener);
     }
 
     /**
@@ -2353,6 +2187,17 @@ public class VectorHomeActivity extends RiotAppCompatActivity implements SearchV
     private void removeEventsListener() {
         if (mSession.isAlive()) {
             mSession.getDataHandler().removeListener(mEventsListener);
+            RoomsRefreshCoordinator.getInstance(mSession).removeListener(mRoomsRefreshListener);
         }
     }
+
+    // the rooms updates are merged and throttled by the coordinator
+    private final RoomsRefreshCoordinator.IRoomsRefreshListener mRoomsRefreshListener = new RoomsRefreshCoordinator.IRoomsRefreshListener() {
+        @Override
+        public void onRoomsUpdated(Set<String> roomIds) {
+            if (VectorApp.getCurrentActivity() == VectorHomeActivity.this) {
+                dispatchOnSummariesUpdate();
+            }
+        }
+    };
 }
@@ -37,7 +37,6 @@ import android.media.CamcorderProfile;
 import android.media.MediaActionSound;
 import android.media.MediaPlayer;
 import android.media.MediaRecorder;
-import android.media.ThumbnailUtils;
 import android.net.Uri;
 import android.opengl.GLES20;
 import android.os.Build;
@@ -86,6 +85,7 @@ import javax.microedition.khronos.egl.EGLSurface;
 import im.vector.R;
 import im.vector.VectorApp;
 import im.vector.util.ResourceUtils;
+import im.vector.util.ThumbnailsService;
 import im.vector.view.RecentMediaLayout;
 import im.vector.view.VideoRecordView;
 
@@ -361,6 +361,8 @@ public class VectorMediasPickerActivity extends MXCActionBarActivity implements
     protected void onDestroy() {
         super.onDestroy();
 
+        ThumbnailsService.getInstance(this).cancel(mVideoThumbnailListener);
+
         if (null != mHandlerThread) {
             mHandlerThread.quit();
             mHandlerThread = null;
@@ -1686,6 +1688,8 @@ public class VectorMediasPickerActivity extends MXCActionBarActivity implements
      * Stop the video preview.
      */
     private void stopVideoPreview() {
+        ThumbnailsService.getInstance(this).cancel(mVideoThumbnailListener);
+
         if (mVideoView.isPlaying()) {
             mVideoView.stopPlayback();
             mVideoView.setVideoURI(null);
@@ -1702,6 +1706,21 @@ public class VectorMediasPickerActivity extends MXCActionBarActivity implements
         refreshPlayVideoButton();
     }
 
+    // the video thumbnail listener
+    private final ThumbnailsService.IThumbnailListener mVideoThumbnailListener = new ThumbnailsService.IThumbnailListener() {
+        @Override
+        public void onThumbnailReady(Uri uri, Bitmap thumbnail) {
+            // the preview might have been closed
+            if ((null != thumbnail) && (null != mVideoUri) && mVideoUri.equals(uri)) {
+                mVideoThumbnail = new BitmapDrawable(thumbnail);
+
+                if (!mVideoView.isPlaying()) {
+                    mVideoView.setBackground(mVideoThumbnail);
+                }
+            }
+        }
+    };
+
     /**
      * Start the video preview
      */
@@ -1710,18 +1729,14 @@ public class VectorMediasPickerActivity extends MXCActionBarActivity implements
         mImagePreviewLayout.setVisibility(View.GONE);
         mVideoPreviewLayout.setVisibility(View.VISIBLE);
 
-        Bitmap thumb = aThumbnail;
+        mVideoThumbnail = (null != aThumbnail) ? new BitmapDrawable(aThumbnail) : null;
 
-        if (null == thumb) {
-            ThumbnailUtils.createVideoThumbnail(mVideoUri.getPath(), MediaStore.Images.Thumbnails.FULL_SCREEN_KIND);
+        // the video thumbnail is computed in background
+        if (null == aThumbnail) {
+            ThumbnailsService.getInstance(this).cancel(mVideoThumbnailListener);
+            ThumbnailsService.getInstance(this).requestVideoThumbnail(mVideoUri, mVideoThumbnailListener);
         }
 
-        if (null == thumb) {
-            thumb = ThumbnailUtils.createVideoThumbnail(mVideoUri.getPath(), MediaStore.Images.Thumbnails.MINI_KIND);
-        }
-
-        mVideoThumbnail = (null != thumb) ? new BitmapDrawable(thumb) : null;
-
         mVideoView.setVisibility(View.VISIBLE);
         mVideoView.setBackground(mVideoThumbnail);
         mVideoView.setVideoURI(mVideoUri);
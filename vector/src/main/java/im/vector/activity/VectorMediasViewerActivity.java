@@ -48,6 +48,7 @@ import im.vector.adapters.VectorMediasViewerAdapter;
 import im.vector.db.VectorContentProvider;
 import im.vector.util.SlidableMediaInfo;
 import im.vector.util.ThemeUtils;
+import im.vector.view.TiledImageView;
 
 public class VectorMediasViewerActivity extends MXCActionBarActivity {
 
@@ -181,6 +182,19 @@ public class VectorMediasViewerActivity extends MXCActionBarActivity {
         mAdapter.stopPlayingVideo();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        // stop the downloads started in advance
+        if (null != mAdapter) {
+            mAdapter.cancelPrefetches();
+        }
+
+        // release the decoded images
+        TiledImageView.clearCache();
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // the application is in a weird state
@@ -92,8 +92,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import im.vector.Matrix;
 import im.vector.R;
@@ -102,13 +100,17 @@ import im.vector.ViewedRoomTracker;
 import im.vector.fragments.VectorMessageListFragment;
 import im.vector.fragments.VectorUnknownDevicesFragment;
 import im.vector.services.EventStreamService;
+import im.vector.util.EventGroup;
+import im.vector.util.MediaContentStore;
 import im.vector.util.NotificationUtils;
 import im.vector.util.PreferencesManager;
 import im.vector.util.ReadMarkerManager;
+import im.vector.util.ReadReceiptsScheduler;
 import im.vector.util.ResourceUtils;
 import im.vector.util.SharedDataItem;
 import im.vector.util.SlashComandsParser;
 import im.vector.util.ThemeUtils;
+import im.vector.util.TypingNotificationsScheduler;
 import im.vector.util.VectorCallSoundManager;
 import im.vector.util.VectorMarkdownParser;
 import im.vector.util.VectorRoomMediasSender;
@@ -174,7 +176,6 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
     private static final String TAG_FRAGMENT_CALL_OPTIONS = "TAG_FRAGMENT_CALL_OPTIONS";
 
     private static final String LOG_TAG = "RoomActivity";
-    private static final int TYPING_TIMEOUT_MS = 10000;
 
     private static final String FIRST_VISIBLE_ROW = "FIRST_VISIBLE_ROW";
 
@@ -276,11 +277,6 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
 
     private static String mLatestTakePictureCameraUri = null; // has to be String not Uri because of Serializable
 
-    // typing event management
-    private Timer mTypingTimer = null;
-    private TimerTask mTypingTimerTask;
-    private long mLastTypingDate = 0;
-
     // scroll to a dedicated index
     private int mScrollToIndex = -1;
 
@@ -402,6 +398,10 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
                         setTitle();
                         updateRoomHeaderMembersStatus();
                         updateRoomHeaderAvatar();
+
+                        if (Event.EVENT_TYPE_STATE_ROOM_MEMBER.equals(eventType)) {
+                            mEditText.onRoomMemberUpdate(mSession, event.stateKey);
+                        }
                     } else if (Event.EVENT_TYPE_STATE_ROOM_POWER_LEVELS.equals(eventType)) {
                         checkSendEventStatus();
                     } else if (Event.EVENT_TYPE_STATE_ROOM_TOPIC.equals(eventType)) {
@@ -464,12 +464,16 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
                 @Override
                 public void run() {
                     refreshNotificationsArea();
+                    mVectorMessageListFragment.refreshSentStates();
                 }
             });
         }
 
         @Override
         public void onEventSent(Event event, String prevEventId) {
+            // index the uploaded media to reuse its content url
+            MediaContentStore.getInstance(VectorRoomActivity.this).onEventSent(mSession.getMediasCache(), event);
+
             runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
@@ -484,6 +488,7 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
                 @Override
                 public void run() {
                     refreshNotificationsArea();
+                    mVectorMessageListFragment.refreshSentStates();
                 }
             });
         }
@@ -1423,8 +1428,8 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
         if ((null != mRoom) && (null == sRoomPreviewData)) {
             final Event latestDisplayedEvent = mLatestDisplayedEvent;
 
-            // send the read receipt
-            mRoom.sendReadReceipt(latestDisplayedEvent, new ApiCallback<Void>() {
+            // send the read receipt (coalesced with the other read receipts of the session)
+            ReadReceiptsScheduler.getInstance(mSession).scheduleReadReceipt(mRoom, latestDisplayedEvent, new ApiCallback<Void>() {
                 @Override
                 public void onSuccess(Void info) {
                     // reported by a rageshake that mLatestDisplayedEvent.evenId was null whereas it was tested before being used
@@ -1459,7 +1464,8 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
 
     @Override
     public void onScroll(int firstVisibleItem, int visibleItemCount, int totalItemCount) {
-        final Event eventAtBottom = mVectorMessageListFragment.getEvent(firstVisibleItem + visibleItemCount - 1);
+        // an EventGroup is acknowledged with its last merged event
+        final Event eventAtBottom = EventGroup.getReadableEvent(mVectorMessageListFragment.getEvent(firstVisibleItem + visibleItemCount - 1));
         final Event eventAtTop = mVectorMessageListFragment.getEvent(firstVisibleItem);
 
         if ((null != eventAtBottom) && ((null == mLatestDisplayedEvent) || !TextUtils.equals(eventAtBottom.eventId, mLatestDisplayedEvent.eventId))) {
@@ -1496,7 +1502,7 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
             if (isDisplayed && (null != mRoom)) {
                 mLatestDisplayedEvent = mRoom.getDataHandler().getStore().getLatestEvent(mRoom.getRoomId());
                 // ensure that the latest message is displayed
-                mRoom.sendReadReceipt();
+                ReadReceiptsScheduler.getInstance(mSession).scheduleReadReceipt(mRoom, null, null);
             }
 
             mIsScrolledToTheBottom = isDisplayed;
@@ -1995,127 +2001,12 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
             return;
         }
 
-        Log.d(LOG_TAG, "##handleTypingNotification() : isTyping " + isTyping);
-
-        int notificationTimeoutMS = -1;
-        if (isTyping) {
-            // Check whether a typing event has been already reported to server (We wait for the end of the local timeout before considering this new event)
-            if (null != mTypingTimer) {
-                // Refresh date of the last observed typing
-                System.currentTimeMillis();
-                mLastTypingDate = System.currentTimeMillis();
-                return;
-            }
-
-            int timerTimeoutInMs = TYPING_TIMEOUT_MS;
-
-            if (0 != mLastTypingDate) {
-                long lastTypingAge = System.currentTimeMillis() - mLastTypingDate;
-                if (lastTypingAge < timerTimeoutInMs) {
-                    // Subtract the time interval since last typing from the timer timeout
-                    timerTimeoutInMs -= lastTypingAge;
-                } else {
-                    timerTimeoutInMs = 0;
-                }
-            } else {
-                // Keep date of this typing event
-                mLastTypingDate = System.currentTimeMillis();
-            }
-
-            if (timerTimeoutInMs > 0) {
-
-                mTypingTimerTask = new TimerTask() {
-                    public void run() {
-                        synchronized (LOG_TAG) {
-                            if (mTypingTimerTask != null) {
-                                mTypingTimerTask.cancel();
-                                mTypingTimerTask = null;
-                            }
-
-                            if (mTypingTimer != null) {
-                                mTypingTimer.cancel();
-                                mTypingTimer = null;
-                            }
-
-                            Log.d(LOG_TAG, "##handleTypingNotification() : send end of typing");
-
-                            // Post a new typing notification
-                            VectorRoomActivity.this.handleTypingNotification(0 != mLastTypingDate);
-                        }
-                    }
-                };
-
-                try {
-                    synchronized (LOG_TAG) {
-                        mTypingTimer = new Timer();
-                        mTypingTimer.schedule(mTypingTimerTask, TYPING_TIMEOUT_MS);
-                    }
-                } catch (Exception e) {
-                    Log.e(LOG_TAG, "fails to launch typing timer " + e.getLocalizedMessage());
-                }
-
-                // Compute the notification timeout in ms (consider the double of the local typing timeout)
-                notificationTimeoutMS = TYPING_TIMEOUT_MS * 2;
-            } else {
-                // This typing event is too old, we will ignore it
-                isTyping = false;
-            }
-        } else {
-            // Cancel any typing timer
-            if (mTypingTimerTask != null) {
-                mTypingTimerTask.cancel();
-                mTypingTimerTask = null;
-            }
-
-            if (mTypingTimer != null) {
-                mTypingTimer.cancel();
-                mTypingTimer = null;
-            }
-            // Reset last typing date
-            mLastTypingDate = 0;
-        }
-
-        final boolean typingStatus = isTyping;
-
-        mRoom.sendTypingNotification(typingStatus, notificationTimeoutMS, new SimpleApiCallback<Void>(VectorRoomActivity.this) {
-            @Override
-            public void onSuccess(Void info) {
-                // Reset last typing date
-                mLastTypingDate = 0;
-            }
-
-            @Override
-            public void onNetworkError(Exception e) {
-                if (mTypingTimerTask != null) {
-                    mTypingTimerTask.cancel();
-                    mTypingTimerTask = null;
-                }
-
-                if (mTypingTimer != null) {
-                    mTypingTimer.cancel();
-                    mTypingTimer = null;
-                }
-                // do not send again
-                // assume that the typing event is optional
-            }
-        });
+        TypingNotificationsScheduler.getInstance().onTyping(mRoom, isTyping);
     }
 
     private void cancelTypingNotification() {
-        if (0 != mLastTypingDate) {
-            if (mTypingTimerTask != null) {
-                mTypingTimerTask.cancel();
-                mTypingTimerTask = null;
-            }
-            if (mTypingTimer != null) {
-                mTypingTimer.cancel();
-                mTypingTimer = null;
-            }
-
-            mLastTypingDate = 0;
-
-            mRoom.sendTypingNotification(false, -1, new SimpleApiCallback<Void>(VectorRoomActivity.this) {
-            });
+        if (null != mRoom) {
+            TypingNotificationsScheduler.getInstance().cancel(mRoom);
         }
     }
 
@@ -17,7 +17,6 @@
 package im.vector.adapters;
 
 import android.content.Context;
-import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -28,6 +27,7 @@ import org.matrix.androidsdk.MXSession;
 
 import im.vector.R;
 import im.vector.activity.VectorRoomActivity;
+import im.vector.util.UsersPrefixIndex;
 import im.vector.util.VectorUtils;
 import im.vector.view.VectorCircularImageView;
 
@@ -35,8 +35,6 @@ import org.matrix.androidsdk.rest.model.User;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
 /**
@@ -58,8 +56,31 @@ public class AutoCompletedUserAdapter extends ArrayAdapter<User> {
     // the filter
     private android.widget.Filter mFilter;
 
+    // the max number of proposed users
+    private static final int MAX_RESULTS_COUNT = 20;
+
+    /**
+     * Listener of the end of the proposals list
+     */
+    public interface IOnEndReachedListener {
+        /**
+         * The last proposed user is displayed.
+         */
+        void onEndReached();
+    }
+
+    // the current max number of proposed users, it grows when the list is scrolled to its end
+    private int mMaxResultsCount = MAX_RESULTS_COUNT;
+
+    // the end of list listener
+    private IOnEndReachedListener mOnEndReachedListener;
+
     // cannot use the parent list
-    private List<User> mUsersList = new ArrayList<>();
+    // the index is updated from the UI thread and it is read from the filter thread
+    private final UsersPrefixIndex mUsersIndex = new UsersPrefixIndex();
+
+    // tells if the matched users are displayed in the users list order
+    private boolean mIsUsersOrderKept = false;
 
     // tell if the current search is on matrix IDs
     private boolean mIsSearchingMatrixId = false;
@@ -67,26 +88,6 @@ public class AutoCompletedUserAdapter extends ArrayAdapter<User> {
     // tells if the matrix Id is pasted even if the search is done with an username
     private boolean mProvideMatrixIdOnly = false;
 
-    /**
-     * Comparators
-     */
-    private static final Comparator<User> mUserComparatorByUserId = new Comparator<User>() {
-        @Override
-        public int compare(User user1, User user2) {
-            return user1.user_id.compareToIgnoreCase(user2.user_id);
-        }
-    };
-
-    private static final Comparator<User> mUserComparatorByDisplayname =  new Comparator<User>() {
-        @Override
-        public int compare(User user1, User user2) {
-            String displayName1 = TextUtils.isEmpty(user1.displayname) ? user1.user_id : user1.displayname;
-            String displayName2 = TextUtils.isEmpty(user2.displayname) ? user2.user_id : user2.displayname;
-
-            return displayName1.compareToIgnoreCase(displayName2);
-        }
-    };
-
     /**
      * Construct an adapter which will display a list of users
      *
@@ -102,7 +103,7 @@ public class AutoCompletedUserAdapter extends ArrayAdapter<User> {
         mLayoutInflater = LayoutInflater.from(mContext);
         mSession = session;
         addAll(users);
-        mUsersList = new ArrayList<>(users);
+        mUsersIndex.addUsers(users);
     }
 
     /**
@@ -114,6 +115,66 @@ public class AutoCompletedUserAdapter extends ArrayAdapter<User> {
         mProvideMatrixIdOnly = provideMatrixIdOnly;
     }
 
+    /**
+     * Tells if the matched users are displayed in the users list order
+     * instead of being sorted alphabetically.
+     * @param isUsersOrderKept true to keep the users list order.
+     */
+    public void setUsersOrderKept(boolean isUsersOrderKept) {
+        mIsUsersOrderKept = isUsersOrderKept;
+    }
+
+    /**
+     * Set the listener called when the last proposed user is displayed.
+     * @param listener the listener
+     */
+    public void setOnEndReachedListener(IOnEndReachedListener listener) {
+        mOnEndReachedListener = listener;
+    }
+
+    /**
+     * Propose more users in the next filterings.
+     * This method must be called from the UI thread.
+     */
+    public void increaseMaxResultsCount() {
+        mMaxResultsCount += MAX_RESULTS_COUNT;
+    }
+
+    /**
+     * Restore the default number of proposed users.
+     * This method must be called from the UI thread.
+     */
+    public void resetMaxResultsCount() {
+        mMaxResultsCount = MAX_RESULTS_COUNT;
+    }
+
+    /**
+     * Append some users to the auto-completed users.
+     * This method must be called from the UI thread.
+     * @param users the users to add
+     */
+    public void addUsers(Collection<User> users) {
+        mUsersIndex.addUsers(users);
+    }
+
+    /**
+     * Refresh an auto-completed user, it keeps its rank.
+     * This method must be called from the UI thread.
+     * @param user the user
+     */
+    public void updateUser(User user) {
+        mUsersIndex.updateUser(user);
+    }
+
+    /**
+     * Remove an user from the auto-completed users.
+     * This method must be called from the UI thread.
+     * @param userId the user id
+     */
+    public void removeUser(String userId) {
+        mUsersIndex.removeUser(userId);
+    }
+
 
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
@@ -140,6 +201,10 @@ public class AutoCompletedUserAdapter extends ArrayAdapter<User> {
             userNameTextView.setText(user.user_id);
         }
 
+        if ((null != mOnEndReachedListener) && (position == (getCount() - 1))) {
+            mOnEndReachedListener.onEndReached();
+        }
+
         return convertView;
     }
 
@@ -161,30 +226,11 @@ public class AutoCompletedUserAdapter extends ArrayAdapter<User> {
                 newValues = new ArrayList<>();
                 mIsSearchingMatrixId = true;
             } else {
-                newValues = new ArrayList<>();
-                String prefixString = prefix.toString().toLowerCase();
+                String prefixString = prefix.toString();
                 mIsSearchingMatrixId = prefixString.startsWith("@");
 
-                if (mIsSearchingMatrixId) {
-                    for (User user : mUsersList) {
-                        if ((null != user.user_id) && user.user_id.toLowerCase().startsWith(prefixString)) {
-                            newValues.add(user);
-                        }
-                    }
-                } else {
-                    for (User user : mUsersList) {
-                        if ((null != user.displayname) && user.displayname.toLowerCase().startsWith(prefixString)) {
-                            newValues.add(user);
-                        }
-                    }
-                }
-            }
-
-            // sort the results
-            if (mIsSearchingMatrixId) {
-                Collections.sort(newValues, mUserComparatorByUserId);
-            } else {
-                Collections.sort(newValues, mUserComparatorByDisplayname);
+                // the index provides the results sorted alphabetically, or in the users list order
+                newValues = mUsersIndex.search(prefixString, mIsSearchingMatrixId, mMaxResultsCount, mIsUsersOrderKept);
             }
 
             results.values = newValues;
@@ -17,29 +17,69 @@
 package im.vector.adapters;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.support.annotation.CallSuper;
 import android.support.annotation.LayoutRes;
+import android.support.v7.util.DiffUtil;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Filter;
+import android.widget.Toast;
 
 import org.matrix.androidsdk.data.Room;
+import org.matrix.androidsdk.data.RoomSummary;
+import org.matrix.androidsdk.data.store.IMXStore;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.util.BingRulesManager;
+import org.matrix.androidsdk.util.Log;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import im.vector.R;
-import im.vector.util.RoomUtils;
+import im.vector.util.HomeSnapshot;
+import im.vector.util.RoomPreviewsCache;
+import im.vector.util.VectorUtils;
 
 public class HomeRoomAdapter extends AbsFilterableAdapter<RoomViewHolder> {
     private static final String LOG_TAG = HomeRoomAdapter.class.getSimpleName();
 
+    // the shared diff thread
+    private static Handler mDiffHandler = null;
+
     private final int mLayoutRes;
-    private final List<Room> mRooms;
+    // the rooms list is replaced, never updated, so it can be read from the filter thread
+    private volatile List<Room> mRooms;
     private final List<Room> mFilteredRooms;
+    // the displayed state of each filtered room, to detect the rows to bind again
+    private final List<String> mFilteredSignatures;
     private final OnSelectRoomListener mListener;
 
+    // the last requested filter pattern, the filter passes of the previous patterns are cancelled
+    private volatile String mRequestedPattern;
+
+    // the last filter pass result, used to narrow the next pass
+    private volatile FilterPass mLastFilterPass;
+
+    // the saved rooms, displayed until the rooms are set
+    private List<HomeSnapshot.RoomEntry> mSnapshotEntries;
+
+    // the stable ids, by room id
+    private final Map<String, Long> mStableIds = new HashMap<>();
+
+    // incremented each time the displayed rooms are replaced, to ignore the pending diffs
+    private int mDiffGeneration = 0;
+
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+
     private final AbsAdapter.MoreRoomActionListener mMoreActionListener;
 
     /*
@@ -54,10 +94,22 @@ public class HomeRoomAdapter extends AbsFilterableAdapter<RoomViewHolder> {
 
         mRooms = new ArrayList<>();
         mFilteredRooms = new ArrayList<>();
+        mFilteredSignatures = new ArrayList<>();
 
         mLayoutRes = layoutRes;
         mListener = listener;
         mMoreActionListener = moreActionListener;
+
+        synchronized (HomeRoomAdapter.class) {
+            if (null == mDiffHandler) {
+                HandlerThread handlerThread = new HandlerThread("HomeRoomAdapter", Thread.MIN_PRIORITY);
+                handlerThread.start();
+                mDiffHandler = new Handler(handlerThread.getLooper());
+            }
+        }
+
+        // the rows are identified by their room ids, so the moved rooms keep their views
+        setHasStableIds(true);
     }
 
     /*
@@ -75,6 +127,11 @@ public class HomeRoomAdapter extends AbsFilterableAdapter<RoomViewHolder> {
 
     @Override
     public void onBindViewHolder(final RoomViewHolder viewHolder, int position) {
+        if (null != mSnapshotEntries) {
+            bindSnapshotEntry(viewHolder, mSnapshotEntries.get(position));
+            return;
+        }
+
         final Room room = mFilteredRooms.get(position);
         if (mLayoutRes == R.layout.adapter_item_room_invite) {
             final InvitationViewHolder invitationViewHolder = (InvitationViewHolder) viewHolder;
@@ -99,26 +156,66 @@ public class HomeRoomAdapter extends AbsFilterableAdapter<RoomViewHolder> {
 
     @Override
     public int getItemCount() {
-        return mFilteredRooms.size();
+        return (null != mSnapshotEntries) ? mSnapshotEntries.size() : mFilteredRooms.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        String roomId = (null != mSnapshotEntries) ? mSnapshotEntries.get(position).mRoomId : mFilteredRooms.get(position).getRoomId();
+        Long stableId = mStableIds.get(roomId);
+
+        if (null == stableId) {
+            stableId = (long) mStableIds.size();
+            mStableIds.put(roomId, stableId);
+        }
+
+        return stableId;
     }
 
     @Override
     protected Filter createFilter() {
         return new Filter() {
+            @Override
+            public void filter(final CharSequence constraint, final FilterListener listener) {
+                final String pattern = getPattern(constraint);
+                mRequestedPattern = pattern;
+
+                super.filter(constraint, new FilterListener() {
+                    @Override
+                    public void onFilterComplete(int count) {
+                        // a stale pass must not be reported
+                        if ((null != listener) && TextUtils.equals(pattern, mRequestedPattern)) {
+                            listener.onFilterComplete(count);
+                        }
+                    }
+                });
+            }
+
             @Override
             protected FilterResults performFiltering(CharSequence constraint) {
                 final FilterResults results = new FilterResults();
+                final List<Room> filteredRooms = filterRooms(mRooms, getPattern(constraint), true);
 
-                filterRooms(constraint);
-
-                results.values = mFilteredRooms;
-                results.count = mFilteredRooms.size();
+                if (null != filteredRooms) {
+                    results.values = filteredRooms;
+                    results.count = filteredRooms.size();
+                }
 
                 return results;
             }
 
             @Override
+            @SuppressWarnings("unchecked")
             protected void publishResults(CharSequence constraint, FilterResults results) {
+                // the pass has been cancelled or another pattern has been requested
+                if ((null == results.values) || !TextUtils.equals(getPattern(constraint), mRequestedPattern)) {
+                    return;
+                }
+
+                List<Room> filteredRooms = (List<Room>) results.values;
+
+                mDiffGeneration++;
+                setFilteredRooms(filteredRooms, getSignatures(filteredRooms));
                 onFilterDone(constraint);
                 notifyDataSetChanged();
             }
@@ -139,13 +236,37 @@ public class HomeRoomAdapter extends AbsFilterableAdapter<RoomViewHolder> {
     @CallSuper
     public void setRooms(final List<Room> rooms) {
         if (rooms != null) {
-            mRooms.clear();
-            mRooms.addAll(rooms);
-            filterRooms(mCurrentFilterPattern);
+            mRooms = new ArrayList<>(rooms);
+
+            List<Room> filteredRooms = filterRooms(mRooms, getPattern(mCurrentFilterPattern), false);
+            List<String> signatures = getSignatures(filteredRooms);
+
+            if ((null == mSnapshotEntries) && !mFilteredRooms.isEmpty()) {
+                // only the updated rows are refreshed
+                dispatchDiff(filteredRooms, signatures);
+                return;
+            }
+
+            mSnapshotEntries = null;
+            mDiffGeneration++;
+            setFilteredRooms(filteredRooms, signatures);
         }
         notifyDataSetChanged();
     }
 
+    /**
+     * Display some saved rooms until the rooms are set
+     *
+     * @param entries the saved rooms
+     */
+    public void setSnapshotEntries(final List<HomeSnapshot.RoomEntry> entries) {
+        if (mRooms.isEmpty()) {
+            mSnapshotEntries = entries;
+            mDiffGeneration++;
+            notifyDataSetChanged();
+        }
+    }
+
     /**
      * Provides the item at the dedicated position
      *
@@ -166,7 +287,7 @@ public class HomeRoomAdapter extends AbsFilterableAdapter<RoomViewHolder> {
      * @return true if empty
      */
     public boolean isEmpty() {
-        return mRooms.isEmpty();
+        return (null != mSnapshotEntries) ? mSnapshotEntries.isEmpty() : mRooms.isEmpty();
     }
 
     /**
@@ -175,7 +296,7 @@ public class HomeRoomAdapter extends AbsFilterableAdapter<RoomViewHolder> {
      * @return true if empty
      */
     public boolean hasNoResult() {
-        return mFilteredRooms.isEmpty();
+        return (null != mSnapshotEntries) ? mSnapshotEntries.isEmpty() : mFilteredRooms.isEmpty();
     }
 
     /**
@@ -185,6 +306,14 @@ public class HomeRoomAdapter extends AbsFilterableAdapter<RoomViewHolder> {
      */
     public int getBadgeCount() {
         int badgeCount = 0;
+
+        if (null != mSnapshotEntries) {
+            for (HomeSnapshot.RoomEntry entry : mSnapshotEntries) {
+                badgeCount += entry.mNotificationCount;
+            }
+            return badgeCount;
+        }
+
         for (Room room : mFilteredRooms) {
             // sanity checks : reported by GA
             if (null != room.getDataHandler() && (null != room.getDataHandler().getBingRulesManager())) {
@@ -205,13 +334,204 @@ public class HomeRoomAdapter extends AbsFilterableAdapter<RoomViewHolder> {
      */
 
     /**
-     * Filter the room list according to the given pattern
+     * Display a saved room.
+     * The room can be opened only if it is known by the store.
      *
-     * @param constraint
+     * @param viewHolder the view holder
+     * @param entry      the saved room
      */
-    private void filterRooms(CharSequence constraint) {
+    private void bindSnapshotEntry(final RoomViewHolder viewHolder, final HomeSnapshot.RoomEntry entry) {
+        viewHolder.populateViews(mContext, mSession, entry);
+        viewHolder.itemView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                Room room = ((null != mSession.getDataHandler()) && (null != mSession.getDataHandler().getStore())) ?
+                        mSession.getDataHandler().getStore().getRoom(entry.mRoomId) : null;
+
+                if (null != room) {
+                    mListener.onSelectRoom(room, viewHolder.getAdapterPosition());
+                } else {
+                    Toast.makeText(mContext, R.string.home_room_not_loaded, Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
+        viewHolder.itemView.setOnLongClickListener(null);
+    }
+
+    /**
+     * Update the displayed rooms
+     *
+     * @param filteredRooms the filtered rooms
+     * @param signatures    their signatures
+     */
+    private void setFilteredRooms(List<Room> filteredRooms, List<String> signatures) {
         mFilteredRooms.clear();
-        mFilteredRooms.addAll(RoomUtils.getFilteredRooms(mContext, mSession, mRooms, constraint));
+        mFilteredRooms.addAll(filteredRooms);
+        mFilteredSignatures.clear();
+        mFilteredSignatures.addAll(signatures);
+    }
+
+    /**
+     * Compute in background the diff between the displayed rooms and the new ones,
+     * then dispatch it to the recycler view.
+     * Only the last requested diff is dispatched.
+     *
+     * @param newRooms      the new filtered rooms
+     * @param newSignatures their signatures
+     */
+    private void dispatchDiff(final List<Room> newRooms, final List<String> newSignatures) {
+        final int generation = ++mDiffGeneration;
+        final List<Room> oldRooms = new ArrayList<>(mFilteredRooms);
+        final List<String> oldSignatures = new ArrayList<>(mFilteredSignatures);
+
+        mDiffHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+                    @Override
+                    public int getOldListSize() {
+                        return oldRooms.size();
+                    }
+
+                    @Override
+                    public int getNewListSize() {
+                        return newRooms.size();
+                    }
+
+                    @Override
+                    public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                        return TextUtils.equals(oldRooms.get(oldItemPosition).getRoomId(), newRooms.get(newItemPosition).getRoomId());
+                    }
+
+                    @Override
+                    public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                        return TextUtils.equals(oldSignatures.get(oldItemPosition), newSignatures.get(newItemPosition));
+                    }
+                }, true);
+
+                mUiHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // some newer rooms have been set in the meantime
+                        if (generation != mDiffGeneration) {
+                            return;
+                        }
+
+                        setFilteredRooms(newRooms, newSignatures);
+                        diffResult.dispatchUpdatesTo(HomeRoomAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Provides the signatures of some rooms : two rooms with the same signature are displayed the same way.
+     *
+     * @param rooms the rooms
+     * @return the signatures
+     */
+    private List<String> getSignatures(List<Room> rooms) {
+        List<String> signatures = new ArrayList<>(rooms.size());
+        IMXStore store = ((null != mSession) && (null != mSession.getDataHandler())) ? mSession.getDataHandler().getStore() : null;
+
+        if (null == store) {
+            for (int index = 0; index < rooms.size(); index++) {
+                signatures.add(null);
+            }
+            return signatures;
+        }
+
+        Set<String> directChatRoomIds = new HashSet<>(mSession.getDirectChatRoomIdsList());
+        BingRulesManager bingRulesManager = mSession.getDataHandler().getBingRulesManager();
+        RoomPreviewsCache previewsCache = RoomPreviewsCache.getInstance(mContext, mSession);
+
+        for (Room room : rooms) {
+            String roomId = room.getRoomId();
+            RoomSummary summary = store.getSummary(roomId);
+            Event latestEvent = (null != summary) ? summary.getLatestReceivedEvent() : null;
+
+            signatures.add(((null != latestEvent) ? latestEvent.eventId : null) + "|" +
+                    ((null != summary) ? summary.getUnreadEventsCount() : 0) + "|" +
+                    room.getNotificationCount() + "|" + room.getHighlightCount() + "|" +
+                    ((null != bingRulesManager) && bingRulesManager.isRoomMentionOnly(roomId)) + "|" +
+                    directChatRoomIds.contains(roomId) + "|" + room.isEncrypted() + "|" +
+                    previewsCache.getRevision(roomId));
+        }
+
+        return signatures;
+    }
+
+    /**
+     * Provides the lower case pattern of a filter constraint
+     *
+     * @param constraint the constraint
+     * @return the pattern, null if there is no filter
+     */
+    private static String getPattern(CharSequence constraint) {
+        String pattern = (null != constraint) ? constraint.toString().trim().toLowerCase() : null;
+        return TextUtils.isEmpty(pattern) ? null : pattern;
+    }
+
+    /**
+     * Filter a room list according to the given pattern.
+     * When the pattern contains the pattern of the previous pass on the same rooms list,
+     * only the rooms matched by the previous pass are filtered again.
+     *
+     * @param rooms         the rooms list
+     * @param pattern       the lower case pattern
+     * @param isCancellable true to cancel the pass when another pattern is requested
+     * @return the filtered rooms, null if the pass has been cancelled
+     */
+    private List<Room> filterRooms(final List<Room> rooms, final String pattern, final boolean isCancellable) {
+        if (null == pattern) {
+            mLastFilterPass = null;
+            return rooms;
+        }
+
+        FilterPass lastPass = mLastFilterPass;
+        List<Room> roomsToFilter = rooms;
+
+        if ((null != lastPass) && (lastPass.mRooms == rooms) && pattern.contains(lastPass.mPattern)) {
+            roomsToFilter = lastPass.mFilteredRooms;
+        }
+
+        List<Room> filteredRooms = new ArrayList<>();
+
+        for (Room room : roomsToFilter) {
+            if (isCancellable && !TextUtils.equals(pattern, mRequestedPattern)) {
+                Log.d(LOG_TAG, "## filterRooms() : the pass is cancelled");
+                return null;
+            }
+
+            String roomName = VectorUtils.getRoomDisplayName(mContext, mSession, room);
+
+            if ((null != roomName) && roomName.toLowerCase().contains(pattern)) {
+                filteredRooms.add(room);
+            }
+        }
+
+        mLastFilterPass = new FilterPass(rooms, pattern, filteredRooms);
+
+        return filteredRooms;
+    }
+
+    /**
+     * A filter pass result
+     */
+    private static class FilterPass {
+        // the filtered rooms list
+        final List<Room> mRooms;
+        // the lower case pattern
+        final String mPattern;
+        // the matched rooms
+        final List<Room> mFilteredRooms;
+
+        FilterPass(List<Room> rooms, String pattern, List<Room> filteredRooms) {
+            mRooms = rooms;
+            mPattern = pattern;
+            mFilteredRooms = filteredRooms;
+        }
     }
 
     /*
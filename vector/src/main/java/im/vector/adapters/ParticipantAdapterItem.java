@@ -148,6 +148,13 @@ public class ParticipantAdapterItem implements java.io.Serializable {
         }
     }
 
+    /**
+     * @return the lower case display name, null if there is no display name.
+     */
+    public String getLowerCaseDisplayName() {
+        return mLowerCaseDisplayName;
+    }
+
     /**
      * @return a comparable displayname i.e. some characters are removed.
      */
@@ -349,20 +356,26 @@ public class ParticipantAdapterItem implements java.io.Serializable {
                 return true;
             }
 
+            // the known participants are searched from several threads
+            // so the list is published only once it is filled
+            ArrayList<String> displayNameComponents = mDisplayNameComponents;
+
             // build the components list
-            if (null == mDisplayNameComponents) {
+            if (null == displayNameComponents) {
                 String[] componentsArrays = mDisplayName.split(" ");
-                mDisplayNameComponents = new ArrayList<>();
+                displayNameComponents = new ArrayList<>();
 
                 if (componentsArrays.length > 0) {
                     for (int i = 0; i < componentsArrays.length; i++) {
-                        mDisplayNameComponents.add(componentsArrays[i].trim().toLowerCase());
+                        displayNameComponents.add(componentsArrays[i].trim().toLowerCase());
                     }
                 }
+
+                mDisplayNameComponents = displayNameComponents;
             }
 
             // test components
-            for (String comp : mDisplayNameComponents) {
+            for (String comp : displayNameComponents) {
                 if (comp.startsWith(prefix)) {
                     return true;
                 }
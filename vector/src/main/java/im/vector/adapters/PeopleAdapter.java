@@ -29,20 +29,19 @@ import android.widget.TextView;
 
 import org.matrix.androidsdk.MXSession;
 import org.matrix.androidsdk.data.Room;
-import org.matrix.androidsdk.rest.callback.SimpleApiCallback;
-import org.matrix.androidsdk.rest.model.User;
 import org.matrix.androidsdk.util.Log;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
 import im.vector.R;
 import im.vector.contacts.ContactsManager;
+import im.vector.util.PresenceAggregator;
 import im.vector.util.RoomUtils;
-import im.vector.util.VectorUtils;
 
 public class PeopleAdapter extends AbsAdapter {
 
@@ -58,6 +57,9 @@ public class PeopleAdapter extends AbsAdapter {
 
     private final OnSelectItemListener mListener;
 
+    // the listener warned about the displayed presences updates
+    private PresenceAggregator.IPresenceListener mPresenceListener;
+
     private final String mNoContactAccessPlaceholder;
     private final String mNoResultPlaceholder;
 
@@ -217,16 +219,25 @@ public class PeopleAdapter extends AbsAdapter {
     }
 
     /**
-     * Update the known contact corresponding to the given user id
+     * Set the listener warned when a displayed presence is updated.
+     *
+     * @param listener the presence listener
+     */
+    public void setPresenceListener(PresenceAggregator.IPresenceListener listener) {
+        mPresenceListener = listener;
+    }
+
+    /**
+     * Update the known contacts corresponding to the given user ids
      *
-     * @param user
+     * @param userIds the user ids whose displayed presence has changed
      */
-    public void updateKnownContact(final User user) {
+    public void updateKnownContacts(final Set<String> userIds) {
         int headerPos = getSectionHeaderPosition(mKnownContactsSection) + 1;
         List<ParticipantAdapterItem> knownContacts = mKnownContactsSection.getFilteredItems();
         for (int i = 0; i < knownContacts.size(); i++) {
             ParticipantAdapterItem item = knownContacts.get(i);
-            if (TextUtils.equals(user.user_id, item.mUserId)) {
+            if (userIds.contains(item.mUserId)) {
                 notifyItemChanged(headerPos + i);
             }
         }
@@ -390,16 +401,8 @@ public class PeopleAdapter extends AbsAdapter {
          */
         private void loadContactPresence(final TextView textView, final ParticipantAdapterItem item,
                                          final int position) {
-            final String presence = VectorUtils.getUserOnlineStatus(mContext, mSession, item.mUserId, new SimpleApiCallback<Void>() {
-                @Override
-                public void onSuccess(Void info) {
-                    if (textView != null) {
-                        textView.setText(VectorUtils.getUserOnlineStatus(mContext, mSession, item.mUserId, null));
-                        notifyItemChanged(position);
-                    }
-                }
-            });
-            textView.setText(presence);
+            // the refreshed presence is dispatched by the aggregator (see PeopleFragment)
+            textView.setText(PresenceAggregator.getInstance(mContext, mSession).getStatus(mPresenceListener, item.mUserId, true));
         }
     }
 
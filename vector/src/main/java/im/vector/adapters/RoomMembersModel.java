@@ -0,0 +1,430 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.adapters;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.text.TextUtils;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.data.Room;
+import org.matrix.androidsdk.rest.model.PowerLevels;
+import org.matrix.androidsdk.rest.model.RoomMember;
+import org.matrix.androidsdk.rest.model.RoomThirdPartyInvite;
+import org.matrix.androidsdk.rest.model.User;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Members model of the room details members list.
+ * The members are indexed once, then updated incrementally from the membership and presence events.
+ * The sort keys are computed when a member is updated, so the members list is sorted only once per update.
+ * The searches run on a shared background thread : a new search cancels the pending one.
+ */
+public class RoomMembersModel {
+    private static final String LOG_TAG = RoomMembersModel.class.getSimpleName();
+
+    // check the search cancellation every CANCEL_CHECK_STEP members
+    private static final int CANCEL_CHECK_STEP = 500;
+
+    // the characters ignored while sorting the members (same as ParticipantAdapterItem)
+    private static final String TRIM_REGEX = "[_!~`@#$%^&*\\-+();:=\\{\\}\\[\\],.<>?]";
+
+    /**
+     * Search results listener
+     */
+    public interface IRoomMembersSearchListener {
+        /**
+         * The search is done.
+         * This method is called on the UI thread.
+         *
+         * @param presentMembers the first present members, oneself first
+         * @param invitedMembers the first invited members
+         * @param displayNames   the display names of all the matched members
+         * @param matchedCount   the number of matched members
+         */
+        void onSearchDone(List<ParticipantAdapterItem> presentMembers, List<ParticipantAdapterItem> invitedMembers, List<String> displayNames, int matchedCount);
+    }
+
+    /**
+     * A member and its sort keys
+     */
+    private static class MemberEntry {
+        RoomMember mMember;
+        String mDisplayName;
+        String mLowerCaseDisplayName;
+        String mLowerCaseUserId;
+        boolean mIsInvited;
+        boolean mIsOneself;
+
+        // the adapter item, only created when the member is displayed
+        private ParticipantAdapterItem mItem;
+
+        // sort keys
+        boolean mIsKnownUser;
+        boolean mIsActive;
+        int mPowerLevel;
+        // the last activity timestamp, 0 if it is unknown
+        long mLastActiveTs;
+        String mSortName;
+
+        /**
+         * @return the adapter item
+         */
+        ParticipantAdapterItem getItem() {
+            if (null == mItem) {
+                mItem = new ParticipantAdapterItem(mMember);
+            }
+
+            return mItem;
+        }
+
+        /**
+         * Test if the member display name or user id contains a pattern.
+         *
+         * @param pattern the lower case pattern
+         * @return true if it matches
+         */
+        boolean contains(String pattern) {
+            return ((null != mLowerCaseDisplayName) && mLowerCaseDisplayName.contains(pattern)) ||
+                    ((null != mLowerCaseUserId) && mLowerCaseUserId.contains(pattern));
+        }
+    }
+
+    // the members comparator, on the precomputed keys
+    private static final Comparator<MemberEntry> mComparator = new Comparator<MemberEntry>() {
+        @Override
+        public int compare(MemberEntry entryA, MemberEntry entryB) {
+            if (!entryA.mIsKnownUser && !entryB.mIsKnownUser) {
+                return entryA.mSortName.compareTo(entryB.mSortName);
+            } else if (entryA.mIsKnownUser != entryB.mIsKnownUser) {
+                return entryA.mIsKnownUser ? +1 : -1;
+            } else if (entryA.mIsActive && entryB.mIsActive) {
+                if (entryA.mPowerLevel == entryB.mPowerLevel) {
+                    return entryA.mSortName.compareTo(entryB.mSortName);
+                }
+
+                return (entryB.mPowerLevel > entryA.mPowerLevel) ? +1 : -1;
+            } else if (entryA.mIsActive != entryB.mIsActive) {
+                return entryA.mIsActive ? -1 : +1;
+            }
+
+            if (entryA.mLastActiveTs == entryB.mLastActiveTs) {
+                return entryA.mSortName.compareTo(entryB.mSortName);
+            }
+
+            // if only one member has a last activity, prefer it
+            if (0 == entryA.mLastActiveTs) {
+                return +1;
+            } else if (0 == entryB.mLastActiveTs) {
+                return -1;
+            }
+
+            return (entryA.mLastActiveTs < entryB.mLastActiveTs) ? +1 : -1;
+        }
+    };
+
+    // the shared model thread
+    private static HandlerThread mHandlerThread = null;
+    private static Handler mModelHandler = null;
+
+    private final MXSession mSession;
+    private final Room mRoom;
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+
+    // the following fields are only used from the model thread
+    // the members, by user id
+    private final Map<String, MemberEntry> mEntriesByUserId = new HashMap<>();
+    // the third party invites
+    private final List<MemberEntry> mThirdPartyInvites = new ArrayList<>();
+    // the sorted members
+    private final List<MemberEntry> mSortedEntries = new ArrayList<>();
+    private boolean mIsBuilt = false;
+    private boolean mIsSorted = false;
+
+    // the latest search id, a search is cancelled when a new one is requested
+    private volatile int mSearchId = 0;
+
+    // the pending search
+    private Runnable mSearchRunnable = null;
+
+    /**
+     * Constructor
+     *
+     * @param session the session
+     * @param room    the room
+     */
+    public RoomMembersModel(MXSession session, Room room) {
+        mSession = session;
+        mRoom = room;
+
+        if (null == mHandlerThread) {
+            mHandlerThread = new HandlerThread("RoomMembersModel", Thread.MIN_PRIORITY);
+            mHandlerThread.start();
+            mModelHandler = new Handler(mHandlerThread.getLooper());
+        }
+    }
+
+    //================================================================================
+    // Updates
+    //================================================================================
+
+    /**
+     * Rebuild the whole model at the next search.
+     * It must be called when the power levels or the third party invites are updated.
+     */
+    public void invalidate() {
+        mModelHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mIsBuilt = false;
+            }
+        });
+    }
+
+    /**
+     * A room member has been updated.
+     *
+     * @param userId the member user id
+     */
+    public void onMemberUpdate(final String userId) {
+        if (null == userId) {
+            return;
+        }
+
+        mModelHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mIsBuilt) {
+                    return;
+                }
+
+                RoomMember member = mRoom.getLiveState().getMember(userId);
+
+                if ((null == member) || RoomMember.MEMBERSHIP_LEAVE.equals(member.membership) || RoomMember.MEMBERSHIP_BAN.equals(member.membership)) {
+                    mEntriesByUserId.remove(userId);
+                } else {
+                    mEntriesByUserId.put(userId, createEntry(member, mRoom.getLiveState().getPowerLevels()));
+                }
+
+                mIsSorted = false;
+            }
+        });
+    }
+
+    /**
+     * A presence has been updated.
+     *
+     * @param user the user
+     */
+    public void onPresenceUpdate(final User user) {
+        if ((null == user) || (null == user.user_id)) {
+            return;
+        }
+
+        mModelHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                MemberEntry entry = mEntriesByUserId.get(user.user_id);
+
+                if (null != entry) {
+                    // the item is renewed so that the adapter detects the update
+                    mEntriesByUserId.put(user.user_id, createEntry(entry.mMember, mRoom.getLiveState().getPowerLevels()));
+                    mIsSorted = false;
+                }
+            }
+        });
+    }
+
+    //================================================================================
+    // Search
+    //================================================================================
+
+    /**
+     * Search the members matching a pattern.
+     * The pending search is cancelled.
+     * Only the first matched members are provided, so the displayed members are created lazily.
+     *
+     * @param pattern  the lower case pattern, null to list all the members
+     * @param limit    the max number of provided present and invited members
+     * @param listener the listener
+     */
+    public void search(final String pattern, final int limit, final IRoomMembersSearchListener listener) {
+        final int searchId = ++mSearchId;
+
+        if (null != mSearchRunnable) {
+            mModelHandler.removeCallbacks(mSearchRunnable);
+        }
+
+        mSearchRunnable = new Runnable() {
+            @Override
+            public void run() {
+                if (!mIsBuilt) {
+                    build();
+                }
+
+                if (!mIsSorted) {
+                    long t0 = System.currentTimeMillis();
+                    mSortedEntries.clear();
+                    mSortedEntries.addAll(mEntriesByUserId.values());
+                    Collections.sort(mSortedEntries, mComparator);
+                    mIsSorted = true;
+                    Log.d(LOG_TAG, "## search() : sort " + mSortedEntries.size() + " members in " + (System.currentTimeMillis() - t0) + " ms");
+                }
+
+                final boolean isSearchEnabled = !TextUtils.isEmpty(pattern);
+                final List<ParticipantAdapterItem> presentMembers = new ArrayList<>();
+                final List<ParticipantAdapterItem> invitedMembers = new ArrayList<>();
+                final List<String> displayNames = new ArrayList<>();
+                int matchedCount = 0;
+                int index = 0;
+
+                for (MemberEntry entry : mSortedEntries) {
+                    // a new search has been requested
+                    if ((0 == (++index % CANCEL_CHECK_STEP)) && (searchId != mSearchId)) {
+                        Log.d(LOG_TAG, "## search() : cancelled");
+                        return;
+                    }
+
+                    if (isSearchEnabled && !entry.contains(pattern)) {
+                        continue;
+                    }
+
+                    matchedCount++;
+
+                    // oneself member ("You") is displayed on first raw
+                    if (entry.mIsOneself) {
+                        presentMembers.add(0, entry.getItem());
+                    } else if (entry.mIsInvited) {
+                        if (invitedMembers.size() < limit) {
+                            invitedMembers.add(entry.getItem());
+                        }
+                    } else if (presentMembers.size() < limit) {
+                        presentMembers.add(entry.getItem());
+                    }
+
+                    if (!TextUtils.isEmpty(entry.mDisplayName)) {
+                        displayNames.add(entry.mDisplayName);
+                    }
+                }
+
+                for (MemberEntry entry : mThirdPartyInvites) {
+                    if (!isSearchEnabled || entry.getItem().contains(pattern)) {
+                        matchedCount++;
+
+                        if (invitedMembers.size() < limit) {
+                            invitedMembers.add(entry.getItem());
+                        }
+                    }
+                }
+
+                final int fMatchedCount = matchedCount;
+
+                mUiHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (searchId == mSearchId) {
+                            listener.onSearchDone(presentMembers, invitedMembers, displayNames, fMatchedCount);
+                        }
+                    }
+                });
+            }
+        };
+
+        mModelHandler.post(mSearchRunnable);
+    }
+
+    //================================================================================
+    // Model
+    //================================================================================
+
+    /**
+     * Build the model from the room members.
+     */
+    private void build() {
+        long t0 = System.currentTimeMillis();
+
+        mEntriesByUserId.clear();
+        mThirdPartyInvites.clear();
+
+        PowerLevels powerLevels = mRoom.getLiveState().getPowerLevels();
+
+        for (RoomMember member : mRoom.getActiveMembers()) {
+            mEntriesByUserId.put(member.getUserId(), createEntry(member, powerLevels));
+        }
+
+        for (RoomThirdPartyInvite invite : mRoom.getLiveState().thirdPartyInvites()) {
+            // If the home server has converted the 3pid invite into a room member, do not show it
+            if (null == mRoom.getLiveState().memberWithThirdPartyInviteToken(invite.token)) {
+                MemberEntry entry = new MemberEntry();
+                entry.mItem = new ParticipantAdapterItem(invite.display_name, "", null, true);
+                entry.mIsInvited = true;
+                entry.mSortName = entry.getItem().getComparisonDisplayName().toLowerCase();
+                mThirdPartyInvites.add(entry);
+            }
+        }
+
+        Collections.sort(mThirdPartyInvites, mComparator);
+
+        mIsBuilt = true;
+        mIsSorted = false;
+
+        Log.d(LOG_TAG, "## build() : " + mEntriesByUserId.size() + " members in " + (System.currentTimeMillis() - t0) + " ms");
+    }
+
+    /**
+     * Create a member entry and compute its sort keys.
+     *
+     * @param member      the room member
+     * @param powerLevels the room power levels
+     * @return the member entry
+     */
+    private MemberEntry createEntry(RoomMember member, PowerLevels powerLevels) {
+        MemberEntry entry = new MemberEntry();
+
+        entry.mMember = member;
+        entry.mDisplayName = member.getName();
+        entry.mLowerCaseDisplayName = (null != entry.mDisplayName) ? entry.mDisplayName.toLowerCase() : null;
+        entry.mLowerCaseUserId = (null != member.getUserId()) ? member.getUserId().toLowerCase() : null;
+        entry.mIsOneself = TextUtils.equals(member.getUserId(), mSession.getMyUserId());
+        entry.mIsInvited = RoomMember.MEMBERSHIP_INVITE.equals(member.membership);
+        entry.mSortName = (TextUtils.isEmpty(entry.mDisplayName) ? member.getUserId() : entry.mDisplayName).replaceAll(TRIM_REGEX, "").toLowerCase();
+
+        User user = mSession.getDataHandler().getUser(member.getUserId());
+
+        if (null != user) {
+            entry.mIsKnownUser = true;
+            entry.mIsActive = (null != user.currently_active) && user.currently_active;
+
+            long lastActiveAgo = user.getAbsoluteLastActiveAgo();
+            entry.mLastActiveTs = (0 != lastActiveAgo) ? (System.currentTimeMillis() - lastActiveAgo) : 0;
+
+            if (null != powerLevels) {
+                entry.mPowerLevel = powerLevels.getUserPowerLevel(member.getUserId());
+            }
+        }
+
+        return entry;
+    }
+}
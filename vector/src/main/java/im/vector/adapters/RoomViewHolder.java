@@ -36,6 +36,7 @@ import org.matrix.androidsdk.util.Log;
 import butterknife.BindView;
 import butterknife.ButterKnife;
 import im.vector.R;
+import im.vector.util.HomeSnapshot;
 import im.vector.util.RoomUtils;
 import im.vector.util.VectorUtils;
 
@@ -228,4 +229,84 @@ public class RoomViewHolder extends RecyclerView.ViewHolder {
             });
         }
     }
+
+    /**
+     * Refresh the holder layout with a saved room, until the rooms are loaded
+     *
+     * @param context the context
+     * @param session the session
+     * @param entry   the saved room
+     */
+    public void populateViews(final Context context, final MXSession session, final HomeSnapshot.RoomEntry entry) {
+        // sanity check
+        if (null == entry) {
+            Log.e(LOG_TAG, "## populateViews() : null entry");
+            return;
+        }
+
+        int bingUnreadColor;
+        if (0 != entry.mHighlightCount) {
+            bingUnreadColor = ContextCompat.getColor(context, R.color.vector_fuchsia_color);
+        } else if (0 != entry.mNotificationCount) {
+            bingUnreadColor = ContextCompat.getColor(context, R.color.vector_green_color);
+        } else if (0 != entry.mUnreadCount) {
+            bingUnreadColor = ContextCompat.getColor(context, R.color.vector_silver_color);
+        } else {
+            bingUnreadColor = Color.TRANSPARENT;
+        }
+
+        if (entry.mNotificationCount > 0) {
+            vRoomUnreadCount.setText(RoomUtils.formatUnreadMessagesCounter(entry.mNotificationCount));
+            vRoomUnreadCount.setTypeface(null, Typeface.BOLD);
+            GradientDrawable shape = new GradientDrawable();
+            shape.setShape(GradientDrawable.RECTANGLE);
+            shape.setCornerRadius(100);
+            shape.setColor(bingUnreadColor);
+            vRoomUnreadCount.setBackground(shape);
+            vRoomUnreadCount.setVisibility(View.VISIBLE);
+        } else {
+            vRoomUnreadCount.setVisibility(View.GONE);
+        }
+
+        String roomName = (null != entry.mDisplayName) ? entry.mDisplayName : entry.mRoomId;
+        if ((vRoomNameServer != null) && MXSession.isRoomAlias(roomName)) {
+            final String[] roomAliasSplitted = roomName.split(":");
+            vRoomName.setLines(1);
+            vRoomName.setText(roomAliasSplitted[0] + ":");
+            vRoomNameServer.setText(roomAliasSplitted[1]);
+            vRoomNameServer.setVisibility(View.VISIBLE);
+            vRoomNameServer.setTypeface(null, (0 != entry.mUnreadCount) ? Typeface.BOLD : Typeface.NORMAL);
+        } else {
+            if (vRoomNameServer != null) {
+                vRoomName.setLines(2);
+                vRoomNameServer.setVisibility(View.GONE);
+            }
+            vRoomName.setText(roomName);
+        }
+        vRoomName.setTypeface(null, (0 != entry.mUnreadCount) ? Typeface.BOLD : Typeface.NORMAL);
+
+        VectorUtils.loadUserAvatar(context, session, vRoomAvatar, entry.mAvatarUrl, entry.mRoomId, roomName);
+
+        if (vRoomLastMessage != null) {
+            vRoomLastMessage.setText(entry.mLastMessage);
+        }
+
+        if (mDirectChatIndicator != null) {
+            mDirectChatIndicator.setVisibility(entry.mIsDirectChat ? View.VISIBLE : View.INVISIBLE);
+        }
+        vRoomEncryptedIcon.setVisibility(entry.mIsEncrypted ? View.VISIBLE : View.INVISIBLE);
+
+        if (vRoomUnreadIndicator != null) {
+            vRoomUnreadIndicator.setBackgroundColor(bingUnreadColor);
+            vRoomUnreadIndicator.setVisibility(View.VISIBLE);
+        }
+
+        if (vRoomTimestamp != null) {
+            vRoomTimestamp.setText((0 != entry.mTimestamp) ? RoomUtils.getRoomTimestamp(context, entry.mTimestamp) : null);
+        }
+
+        if (vRoomMoreActionClickArea != null) {
+            vRoomMoreActionClickArea.setOnClickListener(null);
+        }
+    }
 }
@@ -16,27 +16,20 @@
 
 package im.vector.adapters;
 
-import android.annotation.SuppressLint;
-import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.Context;
 import android.content.DialogInterface;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Point;
 import android.media.MediaPlayer;
 import android.net.Uri;
-import android.os.Build;
 import android.support.v4.view.PagerAdapter;
 import android.text.TextUtils;
+import android.util.SparseArray;
 
 import org.matrix.androidsdk.rest.callback.SimpleApiCallback;
 import org.matrix.androidsdk.util.Log;
-import android.view.Display;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.view.WindowManager;
 import android.webkit.MimeTypeMap;
 import android.webkit.WebView;
 import android.widget.ImageView;
@@ -49,7 +42,6 @@ import org.matrix.androidsdk.MXSession;
 import org.matrix.androidsdk.listeners.MXMediaDownloadListener;
 import org.matrix.androidsdk.rest.model.MatrixError;
 import org.matrix.androidsdk.rest.model.Message;
-import org.matrix.androidsdk.util.ImageUtils;
 import org.matrix.androidsdk.util.JsonUtils;
 import org.matrix.androidsdk.view.PieFractionView;
 import im.vector.R;
@@ -57,7 +49,11 @@ import im.vector.R;
 import org.matrix.androidsdk.db.MXMediasCache;
 
 import im.vector.activity.CommonActivityUtils;
+import im.vector.util.MediaContentStore;
+import im.vector.util.MediasCacheManager;
+import im.vector.util.MediasPrefetchScheduler;
 import im.vector.util.SlidableMediaInfo;
+import im.vector.view.TiledImageView;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -88,6 +84,15 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
 
     private int mAutoPlayItemAt = -1;
 
+    // the instantiated pages, by position
+    private final SparseArray<View> mPageViews = new SparseArray<>();
+
+    // download the medias around the displayed one
+    private final MediasPrefetchScheduler mPrefetchScheduler;
+
+    // the high res downloads started by the displayed pages, by position
+    private final SparseArray<String> mPageDownloadIds = new SparseArray<>();
+
     public VectorMediasViewerAdapter(Context context, MXSession session,  MXMediasCache mediasCache, List<SlidableMediaInfo> mediaMessagesList, int maxImageWidth, int maxImageHeight) {
         this.mContext = context;
         this.mSession = session;
@@ -96,6 +101,16 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
         this.mMaxImageHeight = maxImageHeight;
         this.mLayoutInflater = LayoutInflater.from(context);
         this.mMediasCache = mediasCache;
+        this.mPrefetchScheduler = new MediasPrefetchScheduler(context, session, mediasCache, mediaMessagesList, new MediasPrefetchScheduler.IPrefetchListener() {
+            @Override
+            public void onPrefetchStart(int position, String downloadId) {
+                View view = mPageViews.get(position);
+
+                if (null != view) {
+                    trackDownload(view, position, downloadId);
+                }
+            }
+        });
     }
 
     @Override
@@ -133,11 +148,46 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
 
                         mAutoPlayItemAt = -1;
                     }
+
+                    // the displayed media download is started : download the next ones
+                    mPrefetchScheduler.setCurrentPosition(position);
+
+                    // decode the neighbour images to swipe without delay
+                    prefetchImage(position - 1);
+                    prefetchImage(position + 1);
                 }
             });
         }
     }
 
+    /**
+     * Cancel the medias downloads started in advance.
+     */
+    public void cancelPrefetches() {
+        mPrefetchScheduler.cancelAll();
+    }
+
+    /**
+     * Decode in background the image displayed at a dedicated position, if it is already downloaded.
+     * @param position the item position
+     */
+    private void prefetchImage(int position) {
+        if ((position < 0) || (position >= mMediasMessagesList.size())) {
+            return;
+        }
+
+        SlidableMediaInfo mediaInfo = mMediasMessagesList.get(position);
+
+        // the animated images are not decoded by the tiled image view
+        if (mediaInfo.mMessageType.equals(Message.MSGTYPE_IMAGE) && !isAnimatedImage(mediaInfo)) {
+            File mediaFile = mMediasCache.mediaCacheFile(mediaInfo.mMediaUrl, MediasPrefetchScheduler.getMimeType(mediaInfo));
+
+            if (null != mediaFile) {
+                TiledImageView.prefetch(mContext, mediaFile, mediaInfo.mRotationAngle);
+            }
+        }
+    }
+
     /**
      *
      * @param position the position of the item to play.
@@ -156,10 +206,6 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
 
         // image
         if (imageInfo.mMessageType.equals(Message.MSGTYPE_IMAGE)) {
-            //
-            if (TextUtils.isEmpty(imageInfo.mMimeType)) {
-                imageInfo.mMimeType = "image/jpeg";
-            }
             downloadHighResPict(view, position);
         } else {
             downloadVideo(view, position);
@@ -214,6 +260,7 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
         String downloadId = mMediasCache.downloadMedia(mContext, mSession.getHomeServerConfig(), loadingUri, mediaInfo.mMimeType, mediaInfo.mEncryptedFileInfo);
 
         if (null != downloadId) {
+            mPageDownloadIds.put(position, downloadId);
             pieFractionView.setVisibility(View.VISIBLE);
             pieFractionView.setFraction(mMediasCache.getProgressValueForDownloadId(downloadId));
             pieFractionView.setTag(downloadId);
@@ -238,6 +285,8 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
 
                 @Override
                 public void onDownloadComplete(String aDownloadId) {
+                    MediaContentStore.getInstance(mContext).onMediaDownloaded(mMediasCache, loadingUri, mediaInfo.mMimeType, mediaInfo.mEncryptedFileInfo);
+
                     if (aDownloadId.equals(pieFractionView.getTag())) {
                         pieFractionView.setVisibility(View.GONE);
 
@@ -273,16 +322,25 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
      * @param position the item position
      */
     private void downloadHighResPict(final View view, final int position) {
-        final WebView webView = (WebView)view.findViewById(R.id.media_slider_image_webview);
+        final TiledImageView imageView = (TiledImageView)view.findViewById(R.id.media_slider_image_view);
         final PieFractionView pieFractionView = (PieFractionView)view.findViewById(R.id.media_slider_piechart);
         final SlidableMediaInfo imageInfo = mMediasMessagesList.get(position);
-        final String viewportContent = "width=640";
         final String loadingUri = imageInfo.mMediaUrl;
-        final String downloadId = mMediasCache.loadBitmap(mContext, mSession.getHomeServerConfig(), loadingUri, imageInfo.mRotationAngle, imageInfo.mOrientation, imageInfo.mMimeType, imageInfo.mEncryptedFileInfo);
+        final String mimeType = MediasPrefetchScheduler.getMimeType(imageInfo);
+        final String downloadId = mMediasCache.loadBitmap(mContext, mSession.getHomeServerConfig(), loadingUri, imageInfo.mRotationAngle, imageInfo.mOrientation, mimeType, imageInfo.mEncryptedFileInfo);
 
-        webView.getSettings().setDisplayZoomControls(false);
+        if (null == downloadId) {
+            // the image has been downloaded in advance
+            File mediaFile = mMediasCache.mediaCacheFile(loadingUri, mimeType);
+            MediasCacheManager.getInstance(mContext).onMediaLookup(mediaFile);
 
-        if (null != downloadId) {
+            if (null != mediaFile) {
+                mHighResMediaIndex.add(position);
+                pieFractionView.setVisibility(View.GONE);
+                displayImage(view, mediaFile, imageInfo);
+            }
+        } else {
+            mPageDownloadIds.put(position, downloadId);
             pieFractionView.setVisibility(View.VISIBLE);
             pieFractionView.setFraction(mMediasCache.getProgressValueForDownloadId(downloadId));
             mMediasCache.addDownloadListener(downloadId, new MXMediaDownloadListener() {
@@ -306,20 +364,16 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
                 public void onDownloadComplete(String aDownloadId) {
                     if (aDownloadId.equals(downloadId)) {
                         pieFractionView.setVisibility(View.GONE);
-                        final File mediaFile = mMediasCache.mediaCacheFile(loadingUri, imageInfo.mMimeType);
+                        final File mediaFile = mMediasCache.mediaCacheFile(loadingUri, mimeType);
 
                         if (null != mediaFile) {
                             mHighResMediaIndex.add(position);
 
-                            Uri uri = Uri.fromFile(mediaFile);
-                            final String newHighResUri = uri.toString();
-
-                            webView.post(new Runnable() {
+                            imageView.post(new Runnable() {
                                 @Override
                                 public void run() {
-                                    Uri mediaUri = Uri.parse(newHighResUri);
                                     // refresh the UI
-                                    loadImage(webView, mediaUri, viewportContent, computeCss(newHighResUri, VectorMediasViewerAdapter.this.mMaxImageWidth, VectorMediasViewerAdapter.this.mMaxImageHeight, imageInfo.mRotationAngle));
+                                    displayImage(view, mediaFile, imageInfo);
                                 }
                             });
                         }
@@ -329,6 +383,72 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
         }
     }
 
+    /**
+     * Tells if an image is animated.
+     * @param mediaInfo the image info
+     * @return true if the image is a gif
+     */
+    private static boolean isAnimatedImage(SlidableMediaInfo mediaInfo) {
+        return "image/gif".equals(mediaInfo.mMimeType);
+    }
+
+    /**
+     * Display an image in its page.
+     * The animated images are rendered by a webview, the other ones by the tiled image view.
+     * @param view the page view
+     * @param mediaFile the image file
+     * @param mediaInfo the image info
+     */
+    private void displayImage(View view, File mediaFile, SlidableMediaInfo mediaInfo) {
+        TiledImageView imageView = (TiledImageView)view.findViewById(R.id.media_slider_image_view);
+        WebView imageWebView = (WebView)view.findViewById(R.id.media_slider_image_webview);
+
+        if (isAnimatedImage(mediaInfo)) {
+            imageView.setVisibility(View.GONE);
+            imageWebView.setVisibility(View.VISIBLE);
+            imageWebView.setBackgroundColor(0xFF000000);
+            imageWebView.getSettings().setDisplayZoomControls(false);
+            imageWebView.getSettings().setLoadWithOverviewMode(true);
+            imageWebView.getSettings().setUseWideViewPort(true);
+            imageWebView.getSettings().setBuiltInZoomControls(true);
+            // the gif files have no exif data
+            imageWebView.setRotation((Integer.MAX_VALUE != mediaInfo.mRotationAngle) ? mediaInfo.mRotationAngle : 0);
+            loadImage(imageWebView, Uri.fromFile(mediaFile));
+        } else {
+            imageWebView.setVisibility(View.GONE);
+            imageView.setVisibility(View.VISIBLE);
+            imageView.setImageFile(mediaFile, mediaInfo.mRotationAngle);
+        }
+    }
+
+    /**
+     * Render an animated image in a webview.
+     * @param webView the webview
+     * @param imageUri the image Uri.
+     */
+    private void loadImage(WebView webView, Uri imageUri) {
+        String viewportContent = "width=640";
+        String css = "body { background-color: #000; height: 100%; width: 100%; margin: 0px; padding: 0px; }" +
+                ".wrap { position: absolute; left: 0px; right: 0px; width: 100%; height: 100%; " +
+                "display: -webkit-box; -webkit-box-pack: center; -webkit-box-align: center; " +
+                "display: box; box-pack: center; box-align: center; } ";
+
+        String html =
+                "<html><head><meta name='viewport' content='" +
+                        viewportContent +
+                        "'/>" +
+                        "<style type='text/css'>" +
+                        css +
+                        "</style></head>" +
+                        "<body> <div class='wrap'>" + "<img " +
+                        ( "src='" + imageUri.toString() + "'") +
+                        " onerror='this.style.display=\"none\"' id='image' " + viewportContent + "/>" + "</div>" +
+                        "</body>" + "</html>";
+
+        webView.loadDataWithBaseURL(null, html, "text/html", "utf-8", null);
+        webView.requestLayout();
+    }
+
     @Override
     public boolean isViewFromObject(View view, Object object) {
         return view == object;
@@ -337,24 +457,27 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
     @Override
     public Object instantiateItem(ViewGroup container, final int position) {
         View view  = mLayoutInflater.inflate(R.layout.adapter_vector_medias_viewer, null, false);
+        mPageViews.put(position, view);
 
         // hide the pie chart
         final PieFractionView pieFractionView = (PieFractionView)view.findViewById(R.id.media_slider_piechart);
         pieFractionView.setVisibility(View.GONE);
 
+        final TiledImageView imageView = (TiledImageView)view.findViewById(R.id.media_slider_image_view);
         final WebView imageWebView = (WebView)view.findViewById(R.id.media_slider_image_webview);
         final View videoLayout = view.findViewById(R.id.media_slider_videolayout);
         final ImageView thumbView = (ImageView)view.findViewById(R.id.media_slider_video_thumbnail);
 
-        imageWebView.getSettings().setDisplayZoomControls(false);
-
-        imageWebView.setOnLongClickListener(new View.OnLongClickListener() {
+        View.OnLongClickListener onLongClickListener = new View.OnLongClickListener() {
             @Override
             public boolean onLongClick(View v) {
                 VectorMediasViewerAdapter.this.onLongClick();
                 return true;
             }
-        });
+        };
+
+        imageView.setOnLongClickListener(onLongClickListener);
+        imageWebView.setOnLongClickListener(onLongClickListener);
 
         thumbView.setOnLongClickListener(new View.OnLongClickListener() {
             @Override
@@ -366,30 +489,21 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
 
         // black background
         view.setBackgroundColor(0xFF000000);
-        imageWebView.setBackgroundColor(0xFF000000);
+        imageView.setBackgroundColor(0xFF000000);
         videoLayout.setBackgroundColor(0xFF000000);
 
         final SlidableMediaInfo mediaInfo = mMediasMessagesList.get(position);
         String mediaUrl = mediaInfo.mMediaUrl;
 
         if (mediaInfo.mMessageType.equals(Message.MSGTYPE_IMAGE)) {
-            imageWebView.setVisibility(View.VISIBLE);
-            imageWebView.setLayerType(View.LAYER_TYPE_SOFTWARE, null);
-            imageWebView.getSettings().setJavaScriptEnabled(true);
-            imageWebView.getSettings().setLoadWithOverviewMode(true);
-            imageWebView.getSettings().setUseWideViewPort(true);
-            imageWebView.getSettings().setBuiltInZoomControls(true);
-
+            imageView.setVisibility(View.VISIBLE);
             videoLayout.setVisibility(View.GONE);
 
             final int rotationAngle = mediaInfo.mRotationAngle;
 
-            if (TextUtils.isEmpty(mediaInfo.mMimeType)) {
-                mediaInfo.mMimeType = "image/jpeg";
-            }
-
-            final String mimeType = mediaInfo.mMimeType;
+            final String mimeType = MediasPrefetchScheduler.getMimeType(mediaInfo);
             File mediaFile = mMediasCache.mediaCacheFile(mediaUrl, mimeType);
+            MediasCacheManager.getInstance(mContext).onMediaLookup(mediaFile);
 
             // is the high picture already downloaded ?
             if (null != mediaFile) {
@@ -401,61 +515,82 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
                 mediaFile = mMediasCache.mediaCacheFile(mediaUrl, mMaxImageWidth, mMaxImageHeight, null);
             }
 
-            // the thumbnail is not yet downloaded
-            if (null == mediaFile) {
-                // display nothing
-                container.addView(view, 0);
-                return view;
+            // the thumbnail is not yet downloaded : display nothing
+            if (null != mediaFile) {
+                displayImage(view, mediaFile, mediaInfo);
             }
-
-            String mediaUri = "file://" + mediaFile.getPath();
-
-            String css = computeCss(mediaUri, mMaxImageWidth, mMaxImageHeight, rotationAngle);
-            final String viewportContent = "width=640";
-            loadImage(imageWebView, Uri.parse(mediaUri), viewportContent, css);
             container.addView(view, 0);
         } else {
             loadVideo(position , view, mediaInfo.mThumbnailUrl, mediaUrl, mediaInfo.mMimeType);
             container.addView(view, 0);
         }
 
-        // check if the media is downloading
-        String downloadId = mMediasCache.downloadMedia(mContext, mSession.getHomeServerConfig(), mediaUrl, mediaInfo.mMimeType, mediaInfo.mEncryptedFileInfo);
+        // check if the media is downloaded in advance
+        String downloadId = mPrefetchScheduler.getDownloadId(position);
 
         if (null != downloadId) {
-            pieFractionView.setVisibility(View.VISIBLE);
-            pieFractionView.setFraction(mMediasCache.getProgressValueForDownloadId(downloadId));
-            pieFractionView.setTag(downloadId);
+            trackDownload(view, position, downloadId);
+        }
 
-            mMediasCache.addDownloadListener(downloadId, new MXMediaDownloadListener() {
-                @Override
-                public void onDownloadError(String downloadId, JsonElement jsonElement) {
-                    pieFractionView.setVisibility(View.GONE);
-                    MatrixError error = JsonUtils.toMatrixError(jsonElement);
+        return view;
+    }
 
-                    if ((null != error) && error.isSupportedErrorCode()) {
-                        Toast.makeText(VectorMediasViewerAdapter.this.mContext, error.getLocalizedMessage(), Toast.LENGTH_LONG).show();
-                    }
+    /**
+     * Display the progress of a media download in its page.
+     * The downloaded image is displayed when the download is completed.
+     * @param view the page view
+     * @param position the item position
+     * @param downloadId the download id
+     */
+    private void trackDownload(final View view, final int position, final String downloadId) {
+        final PieFractionView pieFractionView = (PieFractionView)view.findViewById(R.id.media_slider_piechart);
+        final SlidableMediaInfo mediaInfo = mMediasMessagesList.get(position);
+
+        pieFractionView.setVisibility(View.VISIBLE);
+        pieFractionView.setFraction(mMediasCache.getProgressValueForDownloadId(downloadId));
+        pieFractionView.setTag(downloadId);
+
+        mMediasCache.addDownloadListener(downloadId, new MXMediaDownloadListener() {
+            @Override
+            public void onDownloadError(String aDownloadId, JsonElement jsonElement) {
+                if (aDownloadId.equals(pieFractionView.getTag())) {
+                    pieFractionView.setVisibility(View.GONE);
                 }
+            }
 
-                @Override
-                public void onDownloadProgress(String aDownloadId, DownloadStats stats) {
-                    if (aDownloadId.equals(pieFractionView.getTag())) {
-                        pieFractionView.setFraction(stats.mProgress);
-                    }
+            @Override
+            public void onDownloadCancel(String aDownloadId) {
+                if (aDownloadId.equals(pieFractionView.getTag())) {
+                    pieFractionView.setVisibility(View.GONE);
                 }
+            }
 
-                @Override
-                public void onDownloadComplete(String aDownloadId) {
-                    if (aDownloadId.equals(pieFractionView.getTag())) {
-                        pieFractionView.setVisibility(View.GONE);
-                    }
+            @Override
+            public void onDownloadProgress(String aDownloadId, DownloadStats stats) {
+                if (aDownloadId.equals(pieFractionView.getTag())) {
+                    pieFractionView.setFraction(stats.mProgress);
                 }
-            });
-        }
+            }
 
+            @Override
+            public void onDownloadComplete(String aDownloadId) {
+                if (aDownloadId.equals(pieFractionView.getTag())) {
+                    pieFractionView.setVisibility(View.GONE);
 
-        return view;
+                    if (mediaInfo.mMessageType.equals(Message.MSGTYPE_IMAGE)) {
+                        File mediaFile = mMediasCache.mediaCacheFile(mediaInfo.mMediaUrl, MediasPrefetchScheduler.getMimeType(mediaInfo));
+
+                        if (null != mediaFile) {
+                            if (mHighResMediaIndex.indexOf(position) < 0) {
+                                mHighResMediaIndex.add(position);
+                            }
+
+                            displayImage(view, mediaFile, mediaInfo);
+                        }
+                    }
+                }
+            }
+        });
     }
 
     /**
@@ -561,10 +696,11 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
      */
     public void downloadMedia() {
         final SlidableMediaInfo mediaInfo = mMediasMessagesList.get(mLatestPrimaryItemPosition);
-        File file = mMediasCache.mediaCacheFile(mediaInfo.mMediaUrl, mediaInfo.mMimeType);
+        final String mimeType = MediasPrefetchScheduler.getMimeType(mediaInfo);
+        File file = mMediasCache.mediaCacheFile(mediaInfo.mMediaUrl, mimeType);
 
         if (null != file) {
-            CommonActivityUtils.saveMediaIntoDownloads(mContext, file, null, mediaInfo.mMimeType, new SimpleApiCallback<String>() {
+            CommonActivityUtils.saveMediaIntoDownloads(mContext, file, null, mimeType, new SimpleApiCallback<String>() {
                 @Override
                 public void onSuccess(String path) {
                     Toast.makeText(mContext, mContext.getText(R.string.media_slider_saved), Toast.LENGTH_LONG).show();
@@ -573,7 +709,10 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
 
         } else {
             downloadVideo(mLatestPrimaryView, mLatestPrimaryItemPosition, true);
-            final String downloadId = mMediasCache.downloadMedia(mContext, mSession.getHomeServerConfig(), mediaInfo.mMediaUrl, mediaInfo.mMimeType, mediaInfo.mEncryptedFileInfo);
+
+            // the saving must not be cancelled when the page is swiped out of view
+            mPageDownloadIds.remove(mLatestPrimaryItemPosition);
+            final String downloadId = mMediasCache.downloadMedia(mContext, mSession.getHomeServerConfig(), mediaInfo.mMediaUrl, mimeType, mediaInfo.mEncryptedFileInfo);
 
             if (null != downloadId) {
                 mMediasCache.addDownloadListener(downloadId, new MXMediaDownloadListener() {
@@ -589,10 +728,12 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
                     @Override
                     public void onDownloadComplete(String aDownloadId) {
                         if (aDownloadId.equals(downloadId)) {
-                            File file = mMediasCache.mediaCacheFile(mediaInfo.mMediaUrl, mediaInfo.mMimeType);
+                            MediaContentStore.getInstance(mContext).onMediaDownloaded(mMediasCache, mediaInfo.mMediaUrl, mimeType, mediaInfo.mEncryptedFileInfo);
+
+                            File file = mMediasCache.mediaCacheFile(mediaInfo.mMediaUrl, mimeType);
                             if (null != file) {
 
-                                CommonActivityUtils.saveMediaIntoDownloads(mContext, file, null, mediaInfo.mMimeType, new SimpleApiCallback<String>() {
+                                CommonActivityUtils.saveMediaIntoDownloads(mContext, file, null, mimeType, new SimpleApiCallback<String>() {
                                     @Override
                                     public void onSuccess(String path) {
                                         Toast.makeText(mContext, mContext.getText(R.string.media_slider_saved), Toast.LENGTH_LONG).show();
@@ -691,137 +832,18 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
         });
     }
 
-    /**
-     * Update the image page.
-     * @param webView the image is rendered in a webview.
-     * @param imageUri the image Uri.
-     * @param viewportContent  the viewport.
-     * @param css the css.
-     */
-    private void loadImage(WebView webView, Uri imageUri, String viewportContent, String css) {
-        String html =
-                "<html><head><meta name='viewport' content='" +
-                        viewportContent +
-                        "'/>" +
-                        "<style type='text/css'>" +
-                        css +
-                        "</style></head>" +
-                        "<body> <div class='wrap'>" + "<img " +
-                        ( "src='" + imageUri.toString() + "'") +
-                        " onerror='this.style.display=\"none\"' id='image' " + viewportContent + "/>" + "</div>" +
-                        "</body>" + "</html>";
-
-        String mime = "text/html";
-        String encoding = "utf-8";
-
-        webView.loadDataWithBaseURL(null, html, mime, encoding, null);
-        webView.requestLayout();
-    }
-
-    /**
-     *  Image rendering subroutine
-     */
-    private String computeCss(String mediaUrl, int thumbnailWidth, int thumbnailHeight, int rotationAngle) {
-        String css = "body { background-color: #000; height: 100%; width: 100%; margin: 0px; padding: 0px; }" +
-                ".wrap { position: absolute; left: 0px; right: 0px; width: 100%; height: 100%; " +
-                "display: -webkit-box; -webkit-box-pack: center; -webkit-box-align: center; " +
-                "display: box; box-pack: center; box-align: center; } ";
-
-        Uri mediaUri = null;
-
-        try {
-            mediaUri = Uri.parse(mediaUrl);
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "## computeCss() : Uri.parse failed " + e.getMessage());
-        }
-
-        if (null == mediaUri) {
-            return css;
-        }
-
-        // the rotation angle must be retrieved from the exif metadata
-        if (rotationAngle == Integer.MAX_VALUE) {
-            if (null != mediaUrl) {
-                rotationAngle = ImageUtils.getRotationAngleForBitmap(mContext, mediaUri);
-            }
-        }
-
-        if (rotationAngle != 0) {
-            // get the image size to scale it to fill in the device screen.
-            int imageWidth = thumbnailWidth;
-            int imageHeight = thumbnailHeight;
-
-            try {
-                FileInputStream imageStream = new FileInputStream(new File(mediaUri.getPath()));
-                BitmapFactory.Options options = new BitmapFactory.Options();
-                options.inJustDecodeBounds = true;
-                options.inPreferredConfig = Bitmap.Config.ARGB_8888;
-                options.outWidth = -1;
-                options.outHeight = -1;
-
-                // get the full size bitmap
-                Bitmap fullSizeBitmap = null;
-                try {
-                    fullSizeBitmap = BitmapFactory.decodeStream(imageStream, null, options);
-                } catch (OutOfMemoryError e) {
-                    Log.e(LOG_TAG, "## computeCss() : BitmapFactory.decodeStream failed " + e.getMessage());
-                }
-
-                imageWidth = options.outWidth;
-                imageHeight =  options.outHeight;
-
-                imageStream.close();
-                fullSizeBitmap.recycle();
-            } catch (Exception e) {
-                Log.e(LOG_TAG, "## computeCss() : failed " + e.getMessage());
-            }
-
-            String cssRotation = calcCssRotation(rotationAngle, imageWidth, imageHeight);
-
-            css += "#image { " + cssRotation + " } ";
-            css += "#thumbnail { " + cssRotation + " } ";
-        }
-
-        return css;
-    }
-
-    private String calcCssRotation(int rot, int imageWidth, int imageHeight) {
-        if (rot == 90 || rot == 180 || rot == 270) {
-            Point displaySize = getDisplaySize();
-            double scale = Math.min((double)imageWidth / imageHeight, (double)displaySize.y / displaySize.x);
-
-            final String rot180 = "-webkit-transform: rotate(180deg);";
-
-            switch (rot) {
-                case 90:
-                    return "-webkit-transform-origin: 50% 50%; -webkit-transform: rotate(90deg) scale(" + scale + " , " + scale + ");";
-                case 180:
-                    return rot180;
-                case 270:
-                    return "-webkit-transform-origin: 50% 50%; -webkit-transform: rotate(270deg) scale(" + scale + " , " + scale + ");";
-            }
-        }
-        return "";
-    }
-
-    @SuppressLint("NewApi")
-    private Point getDisplaySize() {
-        Point size = new Point();
-        WindowManager w = ((Activity)mContext).getWindowManager();
+    @Override
+    public void destroyItem(ViewGroup container, int position, Object object) {
+        // cancel the download started by the page, unless it is downloaded in advance
+        String downloadId = mPageDownloadIds.get(position);
 
-        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB)    {
-            w.getDefaultDisplay().getSize(size);
-        } else {
-            Display d = w.getDefaultDisplay();
-            size.x = d.getWidth();
-            size.y = d.getHeight();
+        if ((null != downloadId) && !TextUtils.equals(downloadId, mPrefetchScheduler.getDownloadId(position))) {
+            Log.d(LOG_TAG, "## destroyItem() : cancel the download of the media " + position);
+            mMediasCache.cancelDownload(downloadId);
         }
 
-        return size;
-    }
-
-    @Override
-    public void destroyItem(ViewGroup container, int position, Object object) {
+        mPageDownloadIds.remove(position);
+        mPageViews.remove(position);
         container.removeView((View) object);
     }
 }
@@ -45,6 +45,7 @@ import android.view.WindowManager;
 import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
 import android.widget.ImageView;
+import android.widget.ListView;
 import android.widget.PopupMenu;
 import android.widget.TextView;
 
@@ -77,9 +78,9 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.Formatter;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -92,6 +93,7 @@ import im.vector.util.MatrixLinkMovementMethod;
 import im.vector.util.MatrixURLSpan;
 import im.vector.util.EventGroup;
 import im.vector.util.PreferencesManager;
+import im.vector.util.ReadReceiptsModel;
 import im.vector.util.RiotEventDisplay;
 import im.vector.util.ThemeUtils;
 import im.vector.widgets.WidgetsManager;
@@ -147,6 +149,14 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
     static final int ROW_TYPE_EMOJI = 9;
     static final int NUM_ROW_TYPES = 10;
 
+    // the text messages around a displayed row are prepared in background
+    private static final int PREFETCH_DISTANCE = 10;
+
+    // the partial refresh flags
+    public static final int REFRESH_READ_RECEIPTS = 1;
+    public static final int REFRESH_SENT_STATES = 1 << 1;
+    public static final int REFRESH_E2E_ICONS = 1 << 2;
+
     protected final Context mContext;
     private final HashMap<Integer, Integer> mRowTypeToLayoutId = new HashMap<>();
     protected final LayoutInflater mLayoutInflater;
@@ -188,7 +198,14 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
     private final VectorMessagesAdapterMediasHelper mMediasHelper;
     protected final VectorMessagesAdapterHelper mHelper;
 
-    private final Set<String> mHiddenEventIds = new HashSet<>();
+    // the event groups, by merged event id
+    private final Map<String, EventGroup> mEventGroupByEventId = new HashMap<>();
+
+    // the merged rows are not in the adapter list : the displayed positions are virtual.
+    // mVirtualOffsets[i] is the displayed position of the i-th adapter list row, the last item is the displayed rows count.
+    // It is null when no EventGroup is expanded : the displayed positions are the list ones.
+    private int[] mVirtualOffsets = null;
+    private boolean mIsVirtualOffsetsDirty = true;
 
     private final Locale mLocale;
 
@@ -392,7 +409,11 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
             if (mIsSearchMode) {
                 mLiveMessagesRowList.add(0, row);
             } else {
-                insert(row, (!addToEventGroupToFront(row)) ? 0 : 1);
+                if (!addToEventGroupToFront(row)) {
+                    insert(row, 0);
+                }
+
+                invalidateVirtualOffsets();
             }
 
             if (row.getEvent().eventId != null) {
@@ -409,13 +430,14 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
             removeFromEventGroup(row);
 
             // get the position before removing the item
-            int position = getPosition(row);
+            int position = super.getPosition(row);
 
             // remove it
             super.remove(row);
 
             // check merge
             checkEventGroupsMerge(row, position);
+            invalidateVirtualOffsets();
         }
     }
 
@@ -434,8 +456,11 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
             if (mIsSearchMode) {
                 mLiveMessagesRowList.add(row);
             } else {
-                addToEventGroup(row);
-                super.add(row);
+                if (!addToEventGroup(row)) {
+                    super.add(row);
+                }
+
+                invalidateVirtualOffsets();
             }
 
             if (row.getEvent().eventId != null) {
@@ -452,6 +477,82 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
         }
     }
 
+    @Override
+    public int getCount() {
+        int[] offsets = getVirtualOffsets();
+        return (null != offsets) ? offsets[offsets.length - 1] : super.getCount();
+    }
+
+    @Override
+    public MessageRow getItem(int position) {
+        int[] offsets = getVirtualOffsets();
+        int index = position;
+        int groupPosition = 0;
+
+        if (null != offsets) {
+            // the last list row whose displayed position is lower than or equal to the position
+            int low = 0;
+            int high = offsets.length - 2;
+
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+
+                if (offsets[mid] <= position) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+
+            index = low;
+            groupPosition = position - offsets[index];
+        }
+
+        MessageRow row = super.getItem(index);
+
+        if (row.getEvent() instanceof EventGroup) {
+            EventGroup eventGroup = (EventGroup) row.getEvent();
+
+            if (eventGroup.isHidden()) {
+                // a single merged row is displayed instead of its group
+                row = eventGroup.isEmpty() ? row : eventGroup.getRowAt(0);
+            } else if (groupPosition > 0) {
+                // the expanded rows follow their group row
+                row = eventGroup.getRowAt(groupPosition - 1);
+            }
+        }
+
+        return row;
+    }
+
+    @Override
+    public int getPosition(MessageRow row) {
+        int position = super.getPosition(row);
+        int groupPosition = 0;
+
+        // the merged rows are displayed by their group row
+        if ((position < 0) && (null != row) && (null != row.getEvent()) && (null != row.getEvent().eventId)) {
+            EventGroup eventGroup = mEventGroupByEventId.get(row.getEvent().eventId);
+
+            if (null != eventGroup) {
+                position = super.getPosition(mEventRowMap.get(eventGroup.eventId));
+
+                // the expanded rows follow their group row
+                if (!eventGroup.isHidden() && eventGroup.isExpanded()) {
+                    groupPosition = 1 + eventGroup.indexOf(row);
+                }
+            }
+        }
+
+        int[] offsets = getVirtualOffsets();
+
+        if ((position >= 0) && (null != offsets)) {
+            position = offsets[position] + groupPosition;
+        }
+
+        return position;
+    }
+
     @Override
     public MessageRow getMessageRow(String eventId) {
         if (null != eventId) {
@@ -604,8 +705,8 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
                 if (null == mLiveMessagesRowList) {
                     // backup live events
                     mLiveMessagesRowList = new ArrayList<>();
-                    for (int pos = 0; pos < this.getCount(); pos++) {
-                        mLiveMessagesRowList.add(this.getItem(pos));
+                    for (int pos = 0; pos < super.getCount(); pos++) {
+                        mLiveMessagesRowList.add(super.getItem(pos));
                     }
                 }
             } else if (null != mLiveMessagesRowList) {
@@ -613,6 +714,7 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
                 this.clear();
                 this.addAll(mLiveMessagesRowList);
                 mLiveMessagesRowList = null;
+                invalidateVirtualOffsets();
             }
         }
     }
@@ -631,8 +733,11 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
     @Override
     public void clear() {
         super.clear();
+        invalidateVirtualOffsets();
+
         if (!mIsSearchMode) {
             mEventRowMap.clear();
+            mEventGroupByEventId.clear();
         }
     }
 
@@ -707,13 +812,39 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
 
         displayE2eIcon(inflatedView, position);
 
+        prefetchTextMessages(position);
+
         return inflatedView;
     }
 
+    /**
+     * Prepare in background the text messages around a displayed position.
+     *
+     * @param position the displayed position
+     */
+    private void prefetchTextMessages(int position) {
+        int first = Math.max(0, position - PREFETCH_DISTANCE);
+        int last = Math.min(getCount() - 1, position + PREFETCH_DISTANCE);
+
+        for (int index = first; index <= last; index++) {
+            int viewType = getItemViewType(index);
+
+            if ((index != position) && ((ROW_TYPE_TEXT == viewType) || (ROW_TYPE_EMOJI == viewType))) {
+                MessageRow row = getItem(index);
+
+                // the encrypted events might not be decrypted yet
+                if (Event.EVENT_TYPE_MESSAGE.equals(row.getEvent().getType())) {
+                    mHelper.prefetchTextMessage(row.getEvent(), row.getRoomState(), mPattern, new BackgroundColorSpan(mSearchHighlightMessageTextColor));
+                }
+            }
+        }
+    }
+
     @Override
     public void notifyDataSetChanged() {
         // the event with invalid timestamp must be pushed at the end of the history
         this.setNotifyOnChange(false);
+        invalidateVirtualOffsets();
         List<MessageRow> undeliverableEvents = new ArrayList<>();
 
         for (int i = 0; i < getCount(); i++) {
@@ -722,11 +853,14 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
 
             if ((null != event) && (!event.isValidOriginServerTs() || event.isUnkownDevice())) {
                 undeliverableEvents.add(row);
-                remove(row);
-                i--;
             }
         }
 
+        // the rows are removed once found : a removed merged row can change several displayed positions
+        for (MessageRow row : undeliverableEvents) {
+            remove(row);
+        }
+
         if (undeliverableEvents.size() > 0) {
             try {
                 Collections.sort(undeliverableEvents, new Comparator<MessageRow>() {
@@ -741,6 +875,7 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
             }
 
             this.addAll(undeliverableEvents);
+            invalidateVirtualOffsets();
         }
 
         this.setNotifyOnChange(true);
@@ -775,6 +910,11 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
      */
     public void onPause() {
         mEventFormattedTsMap.clear();
+
+        // the receipts are not tracked while the fragment is paused
+        mHelper.clearReadReceipts();
+
+        Log.d(LOG_TAG, "## onPause() : prepared texts cache hit rate " + mHelper.getPreparedTextsHitRate() + "%");
     }
 
     /**
@@ -911,7 +1051,7 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
         String eventId = event.eventId;
         String eventType = event.getType();
 
-        if ((null != eventId) && mHiddenEventIds.contains(eventId)) {
+        if (isHiddenEvent(event)) {
             return ROW_TYPE_HIDDEN;
         }
 
@@ -1054,12 +1194,7 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
         TextView tsTextView = VectorMessagesAdapterHelper.setTimestampValue(convertView, getFormattedTimestamp(event));
 
         if (null != tsTextView) {
-            if (row.getEvent().isUndeliverable() || row.getEvent().isUnkownDevice()) {
-                tsTextView.setTextColor(mNotSentMessageTextColor);
-            } else {
-                tsTextView.setTextColor(ThemeUtils.getColor(mContext, R.attr.default_text_light_color));
-            }
-
+            setTimestampTextColor(tsTextView, row.getEvent());
             tsTextView.setVisibility((((position + 1) == this.getCount()) || mIsSearchMode || mAlwaysShowTimeStamps) ? View.VISIBLE : View.GONE);
         }
 
@@ -1136,23 +1271,10 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
 
             highlightPattern(bodyTextView, body, TextUtils.equals(Message.FORMAT_MATRIX_HTML, message.format) ? mHelper.getSanitisedHtml(message.formatted_body) : null, mPattern);
 
-            int textColor;
+            bodyTextView.setTextColor(getSentStateTextColor(event, getTextMessageColor(event)));
 
-            if (row.getEvent().isEncrypting()) {
-                textColor = mEncryptingMessageTextColor;
-            } else if (row.getEvent().isSending()) {
-                textColor = mSendingMessageTextColor;
-            } else if (row.getEvent().isUndeliverable() || row.getEvent().isUnkownDevice()) {
-                textColor = mNotSentMessageTextColor;
-            } else {
-                if ((null != mVectorMessagesAdapterEventsListener) && mVectorMessagesAdapterEventsListener.shouldHighlightEvent(event)) {
-                    textColor = mHighlightMessageTextColor;
-                } else {
-                    textColor = mDefaultMessageTextColor;
-                }
-            }
-
-            bodyTextView.setTextColor(textColor);
+            // the message bodies metrics are used to lay the next texts out in background
+            mHelper.onMessageBodyBound(bodyTextView);
 
             View textLayout = convertView.findViewById(R.id.messagesAdapter_text_layout);
             this.manageSubView(position, convertView, textLayout, ROW_TYPE_TEXT);
@@ -1338,19 +1460,7 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
 
             highlightPattern(emoteTextView, new SpannableString(body), htmlString, null);
 
-            int textColor;
-
-            if (row.getEvent().isEncrypting()) {
-                textColor = mEncryptingMessageTextColor;
-            } else if (row.getEvent().isSending()) {
-                textColor = mSendingMessageTextColor;
-            } else if (row.getEvent().isUndeliverable() || row.getEvent().isUnkownDevice()) {
-                textColor = mNotSentMessageTextColor;
-            } else {
-                textColor = mDefaultMessageTextColor;
-            }
-
-            emoteTextView.setTextColor(textColor);
+            emoteTextView.setTextColor(getSentStateTextColor(row.getEvent(), mDefaultMessageTextColor));
 
             View textLayout = convertView.findViewById(R.id.messagesAdapter_text_layout);
             this.manageSubView(position, convertView, textLayout, ROW_TYPE_EMOTE);
@@ -1500,7 +1610,9 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
             headerLayout.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
+                    setNotifyOnChange(false);
                     event.setIsExpanded(!event.isExpanded());
+                    invalidateVirtualOffsets();
                     updateHighlightedEventId();
 
                     if (event.contains(mSelectedEventId)) {
@@ -1985,6 +2097,161 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
         mE2eIconByEventId = e2eIconByEventId;
     }
 
+    /*
+     * *********************************************************************************************
+     * Partial refresh
+     * *********************************************************************************************
+     */
+
+    /**
+     * Provides the text color of a message according to its sent state.
+     *
+     * @param event            the event
+     * @param defaultTextColor the text color of a sent message
+     * @return the text color
+     */
+    private int getSentStateTextColor(Event event, int defaultTextColor) {
+        if (event.isEncrypting()) {
+            return mEncryptingMessageTextColor;
+        } else if (event.isSending()) {
+            return mSendingMessageTextColor;
+        } else if (event.isUndeliverable() || event.isUnkownDevice()) {
+            return mNotSentMessageTextColor;
+        }
+
+        return defaultTextColor;
+    }
+
+    /**
+     * Provides the text color of a sent text message.
+     *
+     * @param event the event
+     * @return the text color
+     */
+    private int getTextMessageColor(Event event) {
+        if ((null != mVectorMessagesAdapterEventsListener) && mVectorMessagesAdapterEventsListener.shouldHighlightEvent(event)) {
+            return mHighlightMessageTextColor;
+        }
+
+        return mDefaultMessageTextColor;
+    }
+
+    /**
+     * Update the timestamp text color according to the event sent state.
+     *
+     * @param tsTextView the timestamp text view
+     * @param event      the event
+     */
+    private void setTimestampTextColor(TextView tsTextView, Event event) {
+        if (event.isUndeliverable() || event.isUnkownDevice()) {
+            tsTextView.setTextColor(mNotSentMessageTextColor);
+        } else {
+            tsTextView.setTextColor(ThemeUtils.getColor(mContext, R.attr.default_text_light_color));
+        }
+    }
+
+    /**
+     * Refresh some parts of the displayed rows, without rebinding them.
+     * It avoids a notifyDataSetChanged, which checks the whole history and rebinds all the visible rows,
+     * when only the read receipts, the sent states or the e2e icons are updated.
+     *
+     * @param listView the messages list view
+     * @param flags    the parts to refresh (REFRESH_READ_RECEIPTS, REFRESH_SENT_STATES, REFRESH_E2E_ICONS)
+     */
+    public void refreshVisibleRows(ListView listView, int flags) {
+        refreshVisibleRows(listView, flags, null);
+    }
+
+    /**
+     * Refresh some parts of the displayed rows of some events, without rebinding them.
+     *
+     * @param listView the messages list view
+     * @param flags    the parts to refresh (REFRESH_READ_RECEIPTS, REFRESH_SENT_STATES, REFRESH_E2E_ICONS)
+     * @param eventIds the ids of the events to refresh, null to refresh all the displayed rows
+     */
+    public void refreshVisibleRows(ListView listView, int flags, Set<String> eventIds) {
+        //  do not refresh the room when the application is in background
+        if (VectorApp.isAppInBackground() || (null == listView)) {
+            return;
+        }
+
+        if (0 != (flags & REFRESH_E2E_ICONS)) {
+            manageCryptoEvents();
+        }
+
+        int firstPosition = listView.getFirstVisiblePosition() - listView.getHeaderViewsCount();
+
+        for (int index = 0; index < listView.getChildCount(); index++) {
+            int position = firstPosition + index;
+
+            if ((position < 0) || (position >= getCount())) {
+                continue;
+            }
+
+            View rowView = listView.getChildAt(index);
+            int viewType = getItemViewType(position);
+
+            if ((ROW_TYPE_HIDDEN == viewType) || (ROW_TYPE_MERGE == viewType)) {
+                continue;
+            }
+
+            Event event = getItem(position).getEvent();
+
+            if ((null != eventIds) && !eventIds.contains(event.eventId)) {
+                continue;
+            }
+
+            if (0 != (flags & REFRESH_READ_RECEIPTS)) {
+                if (mHideReadReceipts) {
+                    mHelper.hideReadReceipts(rowView);
+                } else {
+                    mHelper.displayReadReceipts(rowView, getItem(position), mIsPreviewMode);
+                }
+            }
+
+            if (0 != (flags & REFRESH_SENT_STATES)) {
+                TextView bodyTextView = (TextView) rowView.findViewById(R.id.messagesAdapter_body);
+
+                if ((null != bodyTextView) && ((ROW_TYPE_TEXT == viewType) || (ROW_TYPE_EMOJI == viewType))) {
+                    bodyTextView.setTextColor(getSentStateTextColor(event, getTextMessageColor(event)));
+                } else if ((null != bodyTextView) && (ROW_TYPE_EMOTE == viewType)) {
+                    bodyTextView.setTextColor(getSentStateTextColor(event, mDefaultMessageTextColor));
+                }
+
+                TextView tsTextView = (TextView) rowView.findViewById(R.id.messagesAdapter_timestamp);
+
+                if (null != tsTextView) {
+                    setTimestampTextColor(tsTextView, event);
+                }
+            }
+
+            if (0 != (flags & REFRESH_E2E_ICONS)) {
+                displayE2eIcon(rowView, position);
+            }
+        }
+    }
+
+    /**
+     * Define the read receipts listener.
+     * It is called when the readers of some displayed events have been retrieved in background.
+     *
+     * @param listener the listener
+     */
+    public void setReadReceiptsListener(ReadReceiptsModel.IReadReceiptsListener listener) {
+        mHelper.setReadReceiptsListener(listener);
+    }
+
+    /**
+     * Some read receipts have been received.
+     *
+     * @param roomId    the room id
+     * @param senderIds the receipts senders
+     * @return the ids of the events whose readers changed
+     */
+    public Set<String> onReceiptsUpdate(String roomId, List<String> senderIds) {
+        return mHelper.onReceiptsUpdate(roomId, senderIds);
+    }
+
     /*
      * *********************************************************************************************
      * Read markers
@@ -2094,9 +2361,11 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
      */
     private boolean isReadMarkedEvent(Event event) {
         // if the read marked event is hidden and the event is a merged one
-        if ((null != mReadMarkerEventId) && (mHiddenEventIds.contains(mReadMarkerEventId) && (event instanceof EventGroup))) {
+        if ((null != mReadMarkerEventId) && (event instanceof EventGroup)) {
+            EventGroup eventGroup = mEventGroupByEventId.get(mReadMarkerEventId);
+
             // check it is contains in it
-            return ((EventGroup) event).contains(mReadMarkerEventId);
+            return (eventGroup == event) && eventGroup.areRowsHidden();
         }
 
         return event.eventId.equals(mReadMarkerEventId);
@@ -2317,7 +2586,72 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
      * *********************************************************************************************
      */
 
-    private final List<EventGroup> mEventGroups = new ArrayList<>();
+    /**
+     * Tells if an event is an EventGroup with a single event.
+     * getItem() provides the merged row instead of such a group row.
+     *
+     * @param event the event
+     * @return true if the event is hidden
+     */
+    private boolean isHiddenEvent(Event event) {
+        return (event instanceof EventGroup) && ((EventGroup) event).isHidden();
+    }
+
+    /**
+     * Provides the EventGroup which ends the adapter list.
+     *
+     * @return the last EventGroup, null if the adapter does not end with an EventGroup
+     */
+    private EventGroup getLastEventGroup() {
+        if (super.getCount() > 0) {
+            Event lastEvent = super.getItem(super.getCount() - 1).getEvent();
+
+            if (lastEvent instanceof EventGroup) {
+                return (EventGroup) lastEvent;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * The adapter list or an EventGroup has been updated : the displayed positions are computed again when they are required.
+     */
+    private void invalidateVirtualOffsets() {
+        mIsVirtualOffsetsDirty = true;
+    }
+
+    /**
+     * Provides the displayed positions of the adapter list rows.
+     * An expanded EventGroup row is followed by its merged rows.
+     *
+     * @return the displayed positions, null when they are the list ones
+     */
+    private int[] getVirtualOffsets() {
+        if (mIsVirtualOffsetsDirty) {
+            mIsVirtualOffsetsDirty = false;
+
+            int count = super.getCount();
+            int[] offsets = new int[count + 1];
+            boolean hasExpandedGroup = false;
+
+            for (int index = 0; index < count; index++) {
+                Event event = super.getItem(index).getEvent();
+                int rowsCount = 1;
+
+                if ((event instanceof EventGroup) && !((EventGroup) event).isHidden() && ((EventGroup) event).isExpanded()) {
+                    rowsCount += ((EventGroup) event).size();
+                    hasExpandedGroup = true;
+                }
+
+                offsets[index + 1] = offsets[index] + rowsCount;
+            }
+
+            mVirtualOffsets = hasExpandedGroup ? offsets : null;
+        }
+
+        return mVirtualOffsets;
+    }
 
     /**
      * Insert the MessageRow in an EventGroup to the front.
@@ -2329,18 +2663,20 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
         MessageRow eventGroupRow = null;
 
         if (supportMessageRowMerge(row)) {
-            if ((getCount() > 0) && (getItem(0).getEvent() instanceof EventGroup) && ((EventGroup) getItem(0).getEvent()).canAddRow(row)) {
-                eventGroupRow = getItem(0);
+            if ((super.getCount() > 0) && (super.getItem(0).getEvent() instanceof EventGroup) && ((EventGroup) super.getItem(0).getEvent()).canAddRow(row)) {
+                eventGroupRow = super.getItem(0);
             }
 
             if (null == eventGroupRow) {
-                eventGroupRow = new MessageRow(new EventGroup(mHiddenEventIds), null);
-                mEventGroups.add((EventGroup) eventGroupRow.getEvent());
+                eventGroupRow = new MessageRow(new EventGroup(), null);
                 super.insert(eventGroupRow, 0);
-                mEventRowMap.put(eventGroupRow.getEvent().eventId, row);
+                mEventRowMap.put(eventGroupRow.getEvent().eventId, eventGroupRow);
             }
 
-            ((EventGroup) eventGroupRow.getEvent()).addToFront(row);
+            EventGroup eventGroup = (EventGroup) eventGroupRow.getEvent();
+            eventGroup.addToFront(row);
+            mEventGroupByEventId.put(row.getEvent().eventId, eventGroup);
+            invalidateVirtualOffsets();
             updateHighlightedEventId();
         }
 
@@ -2351,60 +2687,54 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
      * Add a MessageRow into an EventGroup (if it is possible)
      *
      * @param row the row to added
+     * @return true if the MessageRow has been added
      */
-    private void addToEventGroup(MessageRow row) {
+    private boolean addToEventGroup(MessageRow row) {
         if (supportMessageRowMerge(row)) {
-            MessageRow eventGroupRow = null;
+            // the event can be added (same day ?)
+            EventGroup eventGroup = getLastEventGroup();
 
-            // search backward the EventGroup event
-            for (int i = getCount() - 1; i >= 0; i--) {
-                MessageRow curRow = getItem(i);
-
-                if (curRow.getEvent() instanceof EventGroup) {
-                    // the event can be added (same day ?)
-                    if (((EventGroup) curRow.getEvent()).canAddRow(row)) {
-                        eventGroupRow = curRow;
-                    }
-                    break;
-                } else
-                    // there is no more room member events
-                    if (!TextUtils.equals(curRow.getEvent().getType(), Event.EVENT_TYPE_STATE_ROOM_MEMBER)) {
-                        break;
-                    }
+            if ((null != eventGroup) && !eventGroup.canAddRow(row)) {
+                eventGroup = null;
             }
 
-            if (null == eventGroupRow) {
-                eventGroupRow = new MessageRow(new EventGroup(mHiddenEventIds), null);
+            if (null == eventGroup) {
+                MessageRow eventGroupRow = new MessageRow(new EventGroup(), null);
                 super.add(eventGroupRow);
-                mEventGroups.add((EventGroup) eventGroupRow.getEvent());
-                mEventRowMap.put(eventGroupRow.getEvent().eventId, eventGroupRow);
+                eventGroup = (EventGroup) eventGroupRow.getEvent();
+                mEventRowMap.put(eventGroup.eventId, eventGroupRow);
             }
 
-            ((EventGroup) eventGroupRow.getEvent()).add(row);
+            eventGroup.add(row);
+            mEventGroupByEventId.put(row.getEvent().eventId, eventGroup);
+            invalidateVirtualOffsets();
             updateHighlightedEventId();
+            return true;
         }
+
+        return false;
     }
 
     /**
      * Remove a message row from the known event groups
      *
      * @param row the message row
-     * @return true if the message has been removed
      */
     private void removeFromEventGroup(MessageRow row) {
         if (supportMessageRowMerge(row)) {
             String eventId = row.getEvent().eventId;
-            for (EventGroup eventGroup : mEventGroups) {
-                if (eventGroup.contains(eventId)) {
-                    eventGroup.removeByEventId(eventId);
-
-                    if (eventGroup.isEmpty()) {
-                        mEventGroups.remove(eventGroup);
-                        super.remove(row);
-                        updateHighlightedEventId();
-                        return;
-                    }
+            EventGroup eventGroup = (null != eventId) ? mEventGroupByEventId.remove(eventId) : null;
+
+            if (null != eventGroup) {
+                eventGroup.removeByEventId(eventId);
+
+                // a group with a single row displays it instead of the group row
+                if (eventGroup.isEmpty()) {
+                    super.remove(mEventRowMap.remove(eventGroup.eventId));
                 }
+
+                invalidateVirtualOffsets();
+                updateHighlightedEventId();
             }
         }
     }
@@ -2414,13 +2744,11 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
      */
     private void updateHighlightedEventId() {
         if (null != mSearchedEventId) {
-            if (!mEventGroups.isEmpty() && mHiddenEventIds.contains(mSearchedEventId)) {
-                for (EventGroup eventGroup : mEventGroups) {
-                    if (eventGroup.contains(mSearchedEventId)) {
-                        mHighlightedEventId = eventGroup.eventId;
-                        return;
-                    }
-                }
+            EventGroup eventGroup = mEventGroupByEventId.get(mSearchedEventId);
+
+            if ((null != eventGroup) && eventGroup.areRowsHidden()) {
+                mHighlightedEventId = eventGroup.eventId;
+                return;
             }
         }
 
@@ -2428,45 +2756,36 @@ public class VectorMessagesAdapter extends AbstractMessagesAdapter {
     }
 
     /**
-     * This method is called after a message deletion at position 'position'.
+     * This method is called after a message deletion at the adapter list position 'position'.
      * It checks and merges if required two EventGroup around the deleted item.
      *
      * @param deletedRow the deleted row
-     * @param position   the deleted item position
+     * @param position   the deleted item position in the adapter list
      */
     private void checkEventGroupsMerge(MessageRow deletedRow, int position) {
-        if ((position > 0) && (position < getCount() - 1) && !EventGroup.isSupported(deletedRow)) {
-            Event eventBef = getItem(position - 1).getEvent();
-            Event eventAfter = getItem(position).getEvent();
+        if ((position > 0) && (position < super.getCount()) && !EventGroup.isSupported(deletedRow)) {
+            Event eventBef = super.getItem(position - 1).getEvent();
+            Event eventAfter = super.getItem(position).getEvent();
 
-            if (TextUtils.equals(eventBef.getType(), Event.EVENT_TYPE_STATE_ROOM_MEMBER) && eventAfter instanceof EventGroup) {
+            // the merged rows are not in the adapter list : the groups are contiguous
+            if ((eventBef instanceof EventGroup) && (eventAfter instanceof EventGroup)) {
+                EventGroup eventGroupBefore = (EventGroup) eventBef;
                 EventGroup nextEventGroup = (EventGroup) eventAfter;
-                EventGroup eventGroupBefore = null;
-
-                for (int i = position - 1; i >= 0; i--) {
-                    if (getItem(i).getEvent() instanceof EventGroup) {
-                        eventGroupBefore = (EventGroup) getItem(i).getEvent();
-                        break;
-                    }
-                }
 
-                if (null != eventGroupBefore) {
-                    List<MessageRow> nextRows = new ArrayList<>(nextEventGroup.getRows());
-                    // check if the next EventGroup can be added in the previous Event group.
-                    // it might be impossible if the messages were not sent the same days
-                    if (eventGroupBefore.canAddRow(nextRows.get(0))) {
-                        for (MessageRow rowToAdd : nextRows) {
-                            eventGroupBefore.add(rowToAdd);
-                        }
+                // check if the next EventGroup can be added in the previous Event group.
+                // it might be impossible if the messages were not sent the same days
+                if (!nextEventGroup.isEmpty() && eventGroupBefore.canAddRow(nextEventGroup.getRowAt(0))) {
+                    for (MessageRow rowToAdd : nextEventGroup.getRows()) {
+                        eventGroupBefore.add(rowToAdd);
+                        mEventGroupByEventId.put(rowToAdd.getEvent().eventId, eventGroupBefore);
                     }
 
-                    MessageRow row = mEventRowMap.get(nextEventGroup.eventId);
-                    mEventGroups.remove(nextEventGroup);
-                    super.remove(row);
+                    super.remove(mEventRowMap.remove(nextEventGroup.eventId));
+                    invalidateVirtualOffsets();
 
                     updateHighlightedEventId();
                 }
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -18,14 +18,19 @@ package im.vector.adapters;
 
 import android.content.Context;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.text.Html;
 import android.text.Spannable;
+import android.text.SpannableString;
 import android.text.SpannableStringBuilder;
+import android.text.SpannedString;
 import android.text.TextUtils;
 import android.text.style.CharacterStyle;
 import android.text.style.ClickableSpan;
 import android.text.style.StyleSpan;
 import android.text.style.URLSpan;
+import android.util.LruCache;
 import android.view.Gravity;
 import android.view.View;
 import android.view.ViewGroup;
@@ -33,13 +38,15 @@ import android.widget.FrameLayout;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.facebook.fbui.textlayoutbuilder.GlyphWarmer;
+import com.facebook.fbui.textlayoutbuilder.TextLayoutBuilder;
+import com.facebook.fbui.textlayoutbuilder.glyphwarmer.GlyphWarmerImpl;
 import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
 
 import org.matrix.androidsdk.MXSession;
 import org.matrix.androidsdk.adapters.MessageRow;
 import org.matrix.androidsdk.data.RoomState;
-import org.matrix.androidsdk.data.store.IMXStore;
 import org.matrix.androidsdk.rest.model.Event;
 import org.matrix.androidsdk.rest.model.Message;
 import org.matrix.androidsdk.rest.model.ReceiptData;
@@ -52,7 +59,10 @@ import org.matrix.androidsdk.view.HtmlTagHandler;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -60,6 +70,7 @@ import im.vector.R;
 import im.vector.listeners.IMessagesAdapterActionsListener;
 import im.vector.util.MatrixLinkMovementMethod;
 import im.vector.util.MatrixURLSpan;
+import im.vector.util.ReadReceiptsModel;
 import im.vector.util.RiotEventDisplay;
 import im.vector.util.ThemeUtils;
 import im.vector.util.VectorUtils;
@@ -89,6 +100,10 @@ public class VectorMessagesAdapterHelper {
      */
     void setVectorMessagesAdapterActionsListener(IMessagesAdapterActionsListener listener) {
         mEventsListener = listener;
+
+        // the prepared texts links use the listener
+        mPreparedTexts.evictAll();
+        mPrefetchedEventKeys.clear();
     }
 
 
@@ -365,6 +380,67 @@ public class VectorMessagesAdapterHelper {
         }
     }
 
+    //================================================================================
+    // Read receipts
+    //================================================================================
+
+    // the read receipts models, by room id
+    private final Map<String, ReadReceiptsModel> mReadReceiptsModels = new HashMap<>();
+
+    private ReadReceiptsModel.IReadReceiptsListener mReadReceiptsListener;
+
+    /**
+     * Define the read receipts listener.
+     * It is called when the readers of some events have been retrieved.
+     *
+     * @param listener the listener
+     */
+    void setReadReceiptsListener(ReadReceiptsModel.IReadReceiptsListener listener) {
+        mReadReceiptsListener = listener;
+
+        for (ReadReceiptsModel model : mReadReceiptsModels.values()) {
+            model.setListener(listener);
+        }
+    }
+
+    /**
+     * Provides the read receipts model of a room.
+     *
+     * @param roomId the room id
+     * @return the read receipts model
+     */
+    private ReadReceiptsModel getReadReceiptsModel(String roomId) {
+        ReadReceiptsModel model = mReadReceiptsModels.get(roomId);
+
+        if (null == model) {
+            model = new ReadReceiptsModel(mSession, roomId);
+            model.setListener(mReadReceiptsListener);
+            mReadReceiptsModels.put(roomId, model);
+        }
+
+        return model;
+    }
+
+    /**
+     * Some read receipts have been received.
+     *
+     * @param roomId    the room id
+     * @param senderIds the receipts senders
+     * @return the ids of the events whose readers changed
+     */
+    Set<String> onReceiptsUpdate(String roomId, List<String> senderIds) {
+        return getReadReceiptsModel(roomId).onReceiptsUpdate(senderIds);
+    }
+
+    /**
+     * Forget the known readers, the receipts are not tracked anymore.
+     */
+    void clearReadReceipts() {
+        for (ReadReceiptsModel model : mReadReceiptsModels.values()) {
+            model.clear();
+        }
+    }
+
     /**
      * Hide the read receipts view
      *
@@ -401,8 +477,6 @@ public class VectorMessagesAdapterHelper {
         final String eventId = row.getEvent().eventId;
         RoomState roomState = row.getRoomState();
 
-        IMXStore store = mSession.getDataHandler().getStore();
-
         // sanity check
         if (null == roomState) {
             avatarsListView.setVisibility(View.GONE);
@@ -416,15 +490,19 @@ public class VectorMessagesAdapterHelper {
             return;
         }
 
-        List<ReceiptData> receipts = store.getEventReceipts(roomState.roomId, eventId, true, true);
+        // the readers are retrieved in background when they are not yet known
+        ReadReceiptsModel.EventReaders readers = getReadReceiptsModel(roomState.roomId).getReaders(eventId);
 
         // if there is no receipt to display
         // hide the dedicated layout
-        if ((null == receipts) || (0 == receipts.size())) {
+        if ((null == readers) || (0 == readers.getCount())) {
             avatarsListView.setVisibility(View.GONE);
             return;
         }
 
+        List<ReceiptData> receipts = readers.getReceipts();
+        List<RoomMember> members = readers.getAvatarMembers(roomState);
+
         avatarsListView.setVisibility(View.VISIBLE);
 
         ArrayList<View> imageViews = new ArrayList<>();
@@ -442,7 +520,7 @@ public class VectorMessagesAdapterHelper {
 
         for (; index < bound; index++) {
             final ReceiptData r = receipts.get(index);
-            RoomMember member = roomState.getMember(r.userId);
+            RoomMember member = members.get(index);
             ImageView imageView = (ImageView) imageViews.get(index);
 
             imageView.setVisibility(View.VISIBLE);
@@ -463,18 +541,14 @@ public class VectorMessagesAdapterHelper {
             imageViews.get(index).setVisibility(View.INVISIBLE);
         }
 
-        if (receipts.size() > 0) {
-            avatarsListView.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    if (null != mEventsListener) {
-                        mEventsListener.onMoreReadReceiptClick(eventId);
-                    }
+        avatarsListView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                if (null != mEventsListener) {
+                    mEventsListener.onMoreReadReceiptClick(eventId);
                 }
-            });
-        } else {
-            avatarsListView.setOnClickListener(null);
-        }
+            }
+        });
     }
 
     /**
@@ -543,6 +617,32 @@ public class VectorMessagesAdapterHelper {
             return;
         }
 
+        String key = getPreparedTextKey(text, htmlFormattedText, pattern);
+        CharSequence preparedText = mPreparedTexts.get(key);
+
+        if (null == preparedText) {
+            preparedText = prepareText(text, htmlFormattedText, pattern, highLightTextStyle);
+            mPreparedTexts.put(key, preparedText);
+        }
+
+        textView.setText(preparedText);
+
+        if (null != mLinkMovementMethod) {
+            textView.setMovementMethod(mLinkMovementMethod);
+        }
+    }
+
+    /**
+     * Prepare a text to display : html rendering, pattern highlight and links management.
+     * This method can be called from any thread.
+     *
+     * @param text               the text to display
+     * @param htmlFormattedText  the html formatted text
+     * @param pattern            the  pattern
+     * @param highLightTextStyle the highlight text style
+     * @return the prepared text
+     */
+    private CharSequence prepareText(Spannable text, String htmlFormattedText, String pattern, CharacterStyle highLightTextStyle) {
         if (!TextUtils.isEmpty(pattern) && !TextUtils.isEmpty(text) && (text.length() >= pattern.length())) {
 
             String lowerText = text.toString().toLowerCase();
@@ -607,10 +707,163 @@ public class VectorMessagesAdapterHelper {
         }
 
         MatrixURLSpan.refreshMatrixSpans(strBuilder, mEventsListener);
-        textView.setText(strBuilder);
 
-        if (null != mLinkMovementMethod) {
-            textView.setMovementMethod(mLinkMovementMethod);
+        // the cached texts must not be updated
+        return new SpannedString(strBuilder);
+    }
+
+    //================================================================================
+    // Prepared texts cache
+    //================================================================================
+
+    // max number of prepared texts
+    private static final int PREPARED_TEXTS_CACHE_SIZE = 300;
+
+    // the prepared texts, by pattern and content
+    private final LruCache<String, CharSequence> mPreparedTexts = new LruCache<>(PREPARED_TEXTS_CACHE_SIZE);
+
+    // the events whose text is prepared or being prepared, with the pattern
+    private final Set<String> mPrefetchedEventKeys = new HashSet<>();
+
+    // the texts preparation thread
+    private static HandlerThread mPrefetchThread = null;
+    private static Handler mPrefetchHandler = null;
+
+    /**
+     * Compute the prepared text key.
+     * The key is built from the content rather than from the event id, so a decrypted or a redacted event
+     * does not use a stale text.
+     *
+     * @param text              the text to display
+     * @param htmlFormattedText the html formatted text
+     * @param pattern           the pattern
+     * @return the key
+     */
+    private static String getPreparedTextKey(CharSequence text, String htmlFormattedText, String pattern) {
+        return (TextUtils.isEmpty(pattern) ? "" : pattern.toLowerCase()) + "\u0000" + ((null != htmlFormattedText) ? ("h" + htmlFormattedText) : ("t" + text));
+    }
+
+    /**
+     * @return the prepared texts cache hit rate, in percent
+     */
+    int getPreparedTextsHitRate() {
+        int requestsCount = mPreparedTexts.hitCount() + mPreparedTexts.missCount();
+        return (0 == requestsCount) ? 0 : (mPreparedTexts.hitCount() * 100 / requestsCount);
+    }
+
+    /**
+     * Prepare in background the body of a text message which is going to be displayed.
+     * This method must be called from the UI thread.
+     *
+     * @param event              the event
+     * @param roomState          the room state
+     * @param pattern            the highlighted pattern
+     * @param highLightTextStyle the highlight text style
+     */
+    void prefetchTextMessage(final Event event, final RoomState roomState, final String pattern, final CharacterStyle highLightTextStyle) {
+        if ((null == event.eventId) || !mPrefetchedEventKeys.add(event.eventId + "\u0000" + pattern)) {
+            return;
+        }
+
+        // the events are only tracked to avoid preparing them several times
+        if (mPrefetchedEventKeys.size() > PREPARED_TEXTS_CACHE_SIZE * 4) {
+            mPrefetchedEventKeys.clear();
+        }
+
+        if (null == mPrefetchThread) {
+            mPrefetchThread = new HandlerThread("VectorMessagesAdapterHelper_prefetch", Thread.MIN_PRIORITY);
+            mPrefetchThread.start();
+            mPrefetchHandler = new Handler(mPrefetchThread.getLooper());
+        }
+
+        mPrefetchHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Message message = JsonUtils.toMessage(event.getContent());
+                    CharSequence textualDisplay = new RiotEventDisplay(mContext, event, roomState).getTextualDisplay();
+                    SpannableString body = new SpannableString((null == textualDisplay) ? "" : textualDisplay);
+                    String html = TextUtils.equals(Message.FORMAT_MATRIX_HTML, message.format) ? getSanitisedHtml(message.formatted_body) : null;
+                    String key = getPreparedTextKey(body, html, pattern);
+
+                    CharSequence preparedText = mPreparedTexts.get(key);
+
+                    if (null == preparedText) {
+                        preparedText = prepareText(body, html, pattern, highLightTextStyle);
+                        mPreparedTexts.put(key, preparedText);
+
+                        preLayoutText(preparedText);
+                    }
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## prefetchTextMessage() failed " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    //================================================================================
+    // Text pre-layout
+    //================================================================================
+
+    // the glyphs warmer, shared by the helpers
+    private static GlyphWarmer mGlyphWarmer = null;
+
+    // the layout builder of the message bodies, only used from the prefetch thread
+    private volatile TextLayoutBuilder mTextLayoutBuilder = null;
+
+    // the message bodies layout parameters
+    private int mTextLayoutWidth = 0;
+    private float mTextLayoutTextSize = 0;
+
+    /**
+     * A message body view has been bound.
+     * Its width and its text size, which includes the font scale, are used to lay the prepared texts out.
+     * This method must be called from the UI thread.
+     *
+     * @param textView the message body view
+     */
+    void onMessageBodyBound(TextView textView) {
+        int width = textView.getWidth() - textView.getPaddingLeft() - textView.getPaddingRight();
+
+        // not yet laid out
+        if ((width <= 0) || ((width == mTextLayoutWidth) && (textView.getTextSize() == mTextLayoutTextSize))) {
+            return;
+        }
+
+        mTextLayoutWidth = width;
+        mTextLayoutTextSize = textView.getTextSize();
+
+        if (null == mGlyphWarmer) {
+            mGlyphWarmer = new GlyphWarmerImpl();
+        }
+
+        // the builder is renewed because it is used from the prefetch thread
+        mTextLayoutBuilder = new TextLayoutBuilder()
+                .setWidth(width)
+                .setTextSize((int) mTextLayoutTextSize)
+                .setTypeface(textView.getTypeface())
+                .setShouldCacheLayout(false)
+                .setShouldWarmText(true)
+                .setGlyphWarmer(mGlyphWarmer);
+    }
+
+    /**
+     * Lay a prepared text out in background, with the message bodies parameters.
+     * A TextView cannot use an external layout, but the text measurement and the glyphs
+     * are warmed up, so the text view layout is faster when the row is bound.
+     * This method must be called from the prefetch thread.
+     *
+     * @param preparedText the prepared text
+     */
+    private void preLayoutText(CharSequence preparedText) {
+        TextLayoutBuilder builder = mTextLayoutBuilder;
+
+        if (null != builder) {
+            try {
+                builder.setText(preparedText).build();
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## preLayoutText() failed " + e.getMessage());
+            }
         }
     }
 
@@ -685,11 +938,19 @@ public class VectorMessagesAdapterHelper {
             return null;
         }
 
-        String res = mHtmlMap.get(html);
+        String res;
+
+        // the texts are also prepared in background
+        synchronized (mHtmlMap) {
+            res = mHtmlMap.get(html);
+        }
 
         if (null == res) {
             res = sanitiseHTML(html);
-            mHtmlMap.put(html, res);
+
+            synchronized (mHtmlMap) {
+                mHtmlMap.put(html, res);
+            }
         }
 
         return res;
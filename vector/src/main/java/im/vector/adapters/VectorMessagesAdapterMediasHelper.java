@@ -53,6 +53,7 @@ import java.util.HashMap;
 
 import im.vector.R;
 import im.vector.listeners.IMessagesAdapterActionsListener;
+import im.vector.util.MediasCacheManager;
 
 /**
  * An helper to display medias information
@@ -253,8 +254,12 @@ public class VectorMessagesAdapterMediasHelper {
         // the thumbnails are always pre - rotated
         String downloadId = mMediasCache.loadBitmap(mSession.getHomeServerConfig(), imageView, thumbUrl, maxImageWidth, maxImageHeight, rotationAngle, ExifInterface.ORIENTATION_UNDEFINED, "image/jpeg", encryptedFileInfo);
 
+        // the thumbnail is read from the cache when it is not downloading
+        MediasCacheManager.getInstance(mContext).onMediaLookup((null == downloadId) ? mMediasCache.mediaCacheFile(thumbUrl, maxImageWidth, maxImageHeight, "image/jpeg") : null);
+
         // test if the media is downloading the thumbnail is not downloading
         if (null == downloadId) {
+
             if (message instanceof VideoMessage) {
                 downloadId = mMediasCache.downloadIdFromUrl(((VideoMessage) message).getUrl());
             } else {
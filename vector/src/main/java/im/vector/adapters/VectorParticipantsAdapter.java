@@ -36,11 +36,8 @@ import android.widget.TextView;
 import org.matrix.androidsdk.MXSession;
 import org.matrix.androidsdk.data.Room;
 import org.matrix.androidsdk.data.store.IMXStore;
-import org.matrix.androidsdk.rest.callback.ApiCallback;
 import org.matrix.androidsdk.rest.callback.SimpleApiCallback;
-import org.matrix.androidsdk.rest.model.MatrixError;
 import org.matrix.androidsdk.rest.model.RoomMember;
-import org.matrix.androidsdk.rest.model.Search.SearchUsersResponse;
 import org.matrix.androidsdk.rest.model.User;
 import org.matrix.androidsdk.util.Log;
 
@@ -59,6 +56,8 @@ import im.vector.activity.CommonActivityUtils;
 import im.vector.contacts.Contact;
 import im.vector.contacts.ContactsManager;
 import im.vector.contacts.PIDsRetriever;
+import im.vector.util.KnownParticipantsIndex;
+import im.vector.util.UserDirectorySearch;
 import im.vector.util.VectorUtils;
 
 /**
@@ -98,7 +97,11 @@ public class VectorParticipantsAdapter extends BaseExpandableListAdapter {
     private final int mHeaderLayoutResourceId;
 
     // participants list
+    // the unused phone contacts participants
     private List<ParticipantAdapterItem> mUnusedParticipants = null;
+    // the known matrix users, shared with the other screens
+    private KnownParticipantsIndex.Snapshot mKnownParticipants = null;
+    private int mUnusedKnownParticipantsCount = 0;
     private List<ParticipantAdapterItem> mContactsParticipants = null;
     private Set<String> mUsedMemberUserIds = null;
     private List<String> mDisplayNamesList = null;
@@ -133,6 +136,17 @@ public class VectorParticipantsAdapter extends BaseExpandableListAdapter {
     // tell if the contacts search has been done offline
     private boolean mIsOfflineContactsSearch;
 
+    // the users directory search
+    private final UserDirectorySearch mUserDirectorySearch;
+
+    // the last local search results, merged with the users directory ones
+    private String mLocalResultsPattern = null;
+    private List<ParticipantAdapterItem> mLocalResults = null;
+
+    // the last users directory search results
+    private String mDirectoryResultsPattern = null;
+    private List<ParticipantAdapterItem> mDirectoryResults = null;
+
     /**
      * Create a room member adapter.
      * If a room id is defined, the adapter is in edition mode : the user can add / remove dynamically members or leave the room.
@@ -157,6 +171,7 @@ public class VectorParticipantsAdapter extends BaseExpandableListAdapter {
         mWithAddIcon = withAddIcon;
 
         mSortMethod = ParticipantAdapterItem.getComparator(session);
+        mUserDirectorySearch = new UserDirectorySearch(session, MAX_USERS_SEARCH_COUNT);
     }
 
     /**
@@ -168,6 +183,7 @@ public class VectorParticipantsAdapter extends BaseExpandableListAdapter {
         mLocalContactsSectionPosition = -1;
         mKnownContactsSectionPosition = -1;
         mPattern = null;
+        mUserDirectorySearch.cancel();
 
         notifyDataSetChanged();
     }
@@ -291,28 +307,43 @@ public class VectorParticipantsAdapter extends BaseExpandableListAdapter {
     private void listOtherMembers() {
         fillUsedMembersList();
 
+        // the known matrix users are not built again for each screen
+        KnownParticipantsIndex.Snapshot knownParticipants = KnownParticipantsIndex.getInstance(mSession).getSnapshot();
+
         List<ParticipantAdapterItem> participants = new ArrayList<>();
-        // Add all known matrix users
-        participants.addAll(VectorUtils.listKnownParticipants(mSession).values());
         // Add phone contacts which have an email address
         addContacts(participants);
 
         // List of display names
-        List<String> displayNamesList = new ArrayList<>();
+        List<String> displayNamesList = new ArrayList<>(knownParticipants.size() + participants.size());
+        int unusedKnownParticipantsCount = 0;
+
+        for (ParticipantAdapterItem item : knownParticipants.getParticipants()) {
+            if (mUsedMemberUserIds.isEmpty() || !mUsedMemberUserIds.contains(item.mUserId)) {
+                unusedKnownParticipantsCount++;
+
+                if (null != item.getLowerCaseDisplayName()) {
+                    // Add to the display names list
+                    displayNamesList.add(item.getLowerCaseDisplayName());
+                }
+            }
+        }
 
         for (Iterator<ParticipantAdapterItem> iterator = participants.iterator(); iterator.hasNext(); ) {
             ParticipantAdapterItem item = iterator.next();
             if (!mUsedMemberUserIds.isEmpty() && mUsedMemberUserIds.contains(item.mUserId)) {
                 // Remove the used members from the final list
                 iterator.remove();
-            } else if (!TextUtils.isEmpty(item.mDisplayName)) {
+            } else if (null != item.getLowerCaseDisplayName()) {
                 // Add to the display names list
-                displayNamesList.add(item.mDisplayName.toLowerCase());
+                displayNamesList.add(item.getLowerCaseDisplayName());
             }
         }
 
         synchronized (LOG_TAG) {
             mDisplayNamesList = displayNamesList;
+            mKnownParticipants = knownParticipants;
+            mUnusedKnownParticipantsCount = unusedKnownParticipantsCount;
             mUnusedParticipants = participants;
         }
     }
@@ -408,6 +439,7 @@ public class VectorParticipantsAdapter extends BaseExpandableListAdapter {
         if (mLocalContactsSnapshotSession != ContactsManager.getInstance().getLocalContactsSnapshotSession()) {
             synchronized (LOG_TAG) {
                 mUnusedParticipants = null;
+                mKnownParticipants = null;
                 mContactsParticipants = null;
                 mUsedMemberUserIds = null;
                 mDisplayNamesList = null;
@@ -418,51 +450,42 @@ public class VectorParticipantsAdapter extends BaseExpandableListAdapter {
         if (!TextUtils.isEmpty(mPattern)) {
             fillUsedMembersList();
 
-            final String fPattern = mPattern;
-
-            mSession.searchUsers(mPattern, MAX_USERS_SEARCH_COUNT, mUsedMemberUserIds, new ApiCallback<SearchUsersResponse>() {
+            // the users directory results are merged with the local ones when they are received
+            mUserDirectorySearch.search(mPattern, mUsedMemberUserIds, new UserDirectorySearch.IUserDirectorySearchListener() {
                 @Override
-                public void onSuccess(SearchUsersResponse searchUsersResponse) {
-                    if (TextUtils.equals(fPattern, mPattern)) {
+                public void onSearchResults(String pattern, List<User> users, boolean isLimited) {
+                    if (TextUtils.equals(pattern, mPattern)) {
                         List<ParticipantAdapterItem> participantItemList = new ArrayList<>();
 
-                        if (null != searchUsersResponse.results) {
-                            for (User user : searchUsersResponse.results) {
-                                participantItemList.add(new ParticipantAdapterItem(user));
-                            }
+                        for (User user : users) {
+                            participantItemList.add(new ParticipantAdapterItem(user));
                         }
 
+                        mDirectoryResultsPattern = pattern;
+                        mDirectoryResults = participantItemList;
                         mIsOfflineContactsSearch = false;
-                        mKnownContactsLimited = (null != searchUsersResponse.limited) ? searchUsersResponse.limited : false;
-                        onKnownContactsSearchEnd(participantItemList, theFirstEntry, searchListener);
+                        mKnownContactsLimited = isLimited;
+                        displaySearchResults(theFirstEntry, searchListener);
                     }
                 }
 
-                private void onError() {
-                    if (TextUtils.equals(fPattern, mPattern)) {
+                @Override
+                public void onSearchFailed(String pattern) {
+                    if (TextUtils.equals(pattern, mPattern)) {
+                        mDirectoryResultsPattern = null;
+                        mDirectoryResults = null;
                         mIsOfflineContactsSearch = true;
-                        searchAccountKnownContacts(theFirstEntry, searchListener);
+                        mKnownContactsLimited = false;
+                        displaySearchResults(theFirstEntry, searchListener);
                     }
                 }
-
-                @Override
-                public void onNetworkError(Exception e) {
-                    onError();
-                }
-
-                @Override
-                public void onMatrixError(MatrixError e) {
-                    onError();
-                }
-
-                @Override
-                public void onUnexpectedError(Exception e) {
-                    onError();
-                }
             });
         } else {
-            searchAccountKnownContacts(theFirstEntry, searchListener);
+            mUserDirectorySearch.cancel();
         }
+
+        // display the local results without waiting for the users directory
+        searchAccountKnownContacts(theFirstEntry, searchListener);
     }
 
     /**
@@ -474,9 +497,6 @@ public class VectorParticipantsAdapter extends BaseExpandableListAdapter {
     private void searchAccountKnownContacts(final ParticipantAdapterItem theFirstEntry, final OnParticipantsSearchListener searchListener) {
         List<ParticipantAdapterItem> participantItemList = new ArrayList<>();
 
-        // the list is not anymore limited
-        mKnownContactsLimited = false;
-
         // displays something only if there is a pattern
         if (!TextUtils.isEmpty(mPattern)) {
             // the list members are refreshed in background to avoid UI locks
@@ -504,19 +524,43 @@ public class VectorParticipantsAdapter extends BaseExpandableListAdapter {
             }
 
             List<ParticipantAdapterItem> unusedParticipants = new ArrayList<>();
+            KnownParticipantsIndex.Snapshot knownParticipants;
 
             synchronized (LOG_TAG) {
                 if (null != mUnusedParticipants) {
                     unusedParticipants = new ArrayList<>(mUnusedParticipants);
                 }
+
+                knownParticipants = mKnownParticipants;
+            }
+
+            final String pattern = mPattern;
+            final Set<String> usedMemberUserIds = mUsedMemberUserIds;
+
+            // the known users segments are searched in parallel
+            if (null != knownParticipants) {
+                participantItemList.addAll(knownParticipants.search(new KnownParticipantsIndex.IParticipantFilter() {
+                    @Override
+                    public boolean match(ParticipantAdapterItem item) {
+                        return ((null == usedMemberUserIds) || !usedMemberUserIds.contains(item.mUserId)) && VectorParticipantsAdapter.match(item, pattern);
+                    }
+                }));
             }
 
             for (ParticipantAdapterItem item : unusedParticipants) {
-                if (match(item, mPattern)) {
+                if (match(item, pattern)) {
                     participantItemList.add(item);
                 }
             }
+
+            mLocalResultsPattern = pattern;
+            mLocalResults = participantItemList;
+            displaySearchResults(theFirstEntry, searchListener);
+            return;
         } else {
+            // the list is not anymore limited
+            mKnownContactsLimited = false;
+
             resetGroupExpansionPreferences();
 
             // display only the contacts
@@ -574,6 +618,40 @@ public class VectorParticipantsAdapter extends BaseExpandableListAdapter {
         onKnownContactsSearchEnd(participantItemList, theFirstEntry, searchListener);
     }
 
+    /**
+     * Display the local results merged with the users directory ones.
+     * The users directory results which are already known locally are ignored.
+     *
+     * @param theFirstEntry  the adapter first entry
+     * @param searchListener the search listener
+     */
+    private void displaySearchResults(final ParticipantAdapterItem theFirstEntry, final OnParticipantsSearchListener searchListener) {
+        // wait for the local search
+        if ((null == mLocalResults) || !TextUtils.equals(mLocalResultsPattern, mPattern)) {
+            return;
+        }
+
+        List<ParticipantAdapterItem> participantItemList = new ArrayList<>(mLocalResults);
+
+        if ((null != mDirectoryResults) && TextUtils.equals(mDirectoryResultsPattern, mPattern)) {
+            Set<String> userIds = new HashSet<>();
+
+            for (ParticipantAdapterItem item : participantItemList) {
+                if (null != item.mUserId) {
+                    userIds.add(item.mUserId);
+                }
+            }
+
+            for (ParticipantAdapterItem item : mDirectoryResults) {
+                if (userIds.add(item.mUserId)) {
+                    participantItemList.add(item);
+                }
+            }
+        }
+
+        onKnownContactsSearchEnd(participantItemList, theFirstEntry, searchListener);
+    }
+
     /**
      * The known contacts search is ended.
      * Search the local contacts
@@ -713,7 +791,7 @@ public class VectorParticipantsAdapter extends BaseExpandableListAdapter {
     private boolean couldHaveUnusedParticipants() {
         // if the mUnusedParticipants has been initialised
         if (null != mUnusedParticipants) {
-            return 0 != mUnusedParticipants.size();
+            return (0 != mUnusedParticipants.size()) || (0 != mUnusedKnownParticipantsCount);
         } else { // else if there are rooms with more than one user
             Collection<Room> rooms = mSession.getDataHandler().getStore().getRooms();
 
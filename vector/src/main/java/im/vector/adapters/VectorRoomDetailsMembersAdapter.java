@@ -18,7 +18,6 @@ package im.vector.adapters;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
-import android.os.Handler;
 import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
@@ -31,24 +30,19 @@ import android.widget.RelativeLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import org.matrix.androidsdk.MXDataHandler;
 import org.matrix.androidsdk.MXSession;
 import org.matrix.androidsdk.data.Room;
 import org.matrix.androidsdk.db.MXMediasCache;
 import org.matrix.androidsdk.rest.model.PowerLevels;
-import org.matrix.androidsdk.rest.model.RoomMember;
-import org.matrix.androidsdk.rest.model.RoomThirdPartyInvite;
 import org.matrix.androidsdk.rest.model.User;
 import org.matrix.androidsdk.util.Log;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.List;
 
 import im.vector.R;
 import im.vector.activity.CommonActivityUtils;
+import im.vector.util.PresenceAggregator;
 import im.vector.util.ThemeUtils;
 import im.vector.util.VectorUtils;
 
@@ -115,6 +109,21 @@ public class VectorRoomDetailsMembersAdapter extends BaseExpandableListAdapter {
 
     private ArrayList<String> mDisplayNamesList = new ArrayList<>();
 
+    // the members model, updated incrementally
+    private final RoomMembersModel mMembersModel;
+
+    // the members are displayed by pages
+    private static final int MEMBERS_PAGE_SIZE = 100;
+
+    // the max number of displayed members per group
+    private int mDisplayLimit = MEMBERS_PAGE_SIZE;
+
+    // the number of members matching the search pattern
+    private int mMatchedMembersCount = 0;
+
+    // true when a members page is loading
+    private boolean mIsLoadingMembers = false;
+
     private int mGroupIndexInvitedMembers = -1;  // "Invited" index
     private int mGroupIndexPresentMembers = -1; // "Favourites" index
 
@@ -124,6 +133,9 @@ public class VectorRoomDetailsMembersAdapter extends BaseExpandableListAdapter {
     //ParticipantAdapterItem mFirstEntry;
     private OnParticipantsListener mOnParticipantsListener;
 
+    // the listener warned about the displayed presences updates
+    private PresenceAggregator.IPresenceListener mPresenceListener;
+
     /**
      * Recycle view holder class.
      * Used in the group views of the expandable list view.
@@ -180,6 +192,7 @@ public class VectorRoomDetailsMembersAdapter extends BaseExpandableListAdapter {
         mGroupLayoutResourceId = aGroupHeaderLayoutResourceId; // R.layout.adapter_item_vector_recent_header
         mSession = aSession;
         mRoom = mSession.getDataHandler().getRoom(aRoomId);
+        mMembersModel = new RoomMembersModel(mSession, mRoom);
 
         // display check box to select multiple items
         // by default, they are not displayed
@@ -196,6 +209,10 @@ public class VectorRoomDetailsMembersAdapter extends BaseExpandableListAdapter {
     public void setSearchedPattern(String aPattern, final OnRoomMembersSearchListener searchListener, boolean aIsRefreshForced) {
         if (TextUtils.isEmpty(aPattern)) {
             // refresh list members without any pattern filter (nominal display)
+            if (null != mSearchPattern) {
+                mDisplayLimit = MEMBERS_PAGE_SIZE;
+            }
+
             mSearchPattern = null;
             updateRoomMembersDataModel(searchListener);
         }
@@ -203,6 +220,7 @@ public class VectorRoomDetailsMembersAdapter extends BaseExpandableListAdapter {
             // new pattern different from previous one?
             if (!aPattern.trim().equals(mSearchPattern) || aIsRefreshForced) {
                 mSearchPattern = aPattern.trim().toLowerCase();
+                mDisplayLimit = MEMBERS_PAGE_SIZE;
                 updateRoomMembersDataModel(searchListener);
             } else {
                 // search pattern is identical, notify listener and exit
@@ -215,13 +233,31 @@ public class VectorRoomDetailsMembersAdapter extends BaseExpandableListAdapter {
     }
 
     /**
-     * @return the total number of items
+     * @return the total number of items, including the ones which are not yet displayed
      */
     public int getItemsCount() {
         int itemsCount = getChildrenCount(mGroupIndexInvitedMembers);
         itemsCount += getChildrenCount(mGroupIndexPresentMembers);
 
-        return itemsCount;
+        return Math.max(itemsCount, mMatchedMembersCount);
+    }
+
+    /**
+     * @return true if some matched members are not yet displayed
+     */
+    public boolean hasMoreMembers() {
+        return (getChildrenCount(mGroupIndexInvitedMembers) + getChildrenCount(mGroupIndexPresentMembers)) < mMatchedMembersCount;
+    }
+
+    /**
+     * Display the next members page.
+     */
+    public void loadMoreMembers() {
+        if (!mIsLoadingMembers && hasMoreMembers()) {
+            Log.d(LOG_TAG, "## loadMoreMembers() : display " + (mDisplayLimit + MEMBERS_PAGE_SIZE) + " members");
+            mDisplayLimit += MEMBERS_PAGE_SIZE;
+            updateRoomMembersDataModel(null);
+        }
     }
 
     /**
@@ -232,6 +268,14 @@ public class VectorRoomDetailsMembersAdapter extends BaseExpandableListAdapter {
         mOnParticipantsListener = onParticipantsListener;
     }
 
+    /**
+     * Update the presence listener
+     * @param presenceListener the listener warned when a displayed presence is updated.
+     */
+    public void setPresenceListener(PresenceAggregator.IPresenceListener presenceListener) {
+        mPresenceListener = presenceListener;
+    }
+
     /**
      * @return the list of selected user ids
      */
@@ -256,19 +300,44 @@ public class VectorRoomDetailsMembersAdapter extends BaseExpandableListAdapter {
     }
 
     /**
-     * Compare 2 string and returns sort order.
-     * @param s1 string 1.
-     * @param s2 string 2.
-     * @return the sort order.
+     * @return the members model
+     */
+    public RoomMembersModel getMembersModel() {
+        return mMembersModel;
+    }
+
+    /**
+     * Tells if two members lists contain the same items.
+     * The members model renews the updated items.
+     * @param list1 the first list
+     * @param list2 the second list
+     * @return true if the lists contain the same items
+     */
+    private static boolean isSameMembersList(List<ParticipantAdapterItem> list1, List<ParticipantAdapterItem> list2) {
+        if ((null == list1) || (null == list2) || (list1.size() != list2.size())) {
+            return false;
+        }
+
+        for (int index = 0; index < list1.size(); index++) {
+            if (list1.get(index) != list2.get(index)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Provides the members list of a group.
+     * @param groupIndex the group index
+     * @return the members list, null if the group does not exist
      */
-    private int alphaComparator(String s1, String s2) {
-        if (s1 == null) {
-            return -1;
-        } else if (s2 == null) {
-            return 1;
+    private List<ParticipantAdapterItem> getGroupMembersList(int groupIndex) {
+        if ((null != mRoomMembersListByGroupPosition) && (groupIndex >= 0) && (groupIndex < mRoomMembersListByGroupPosition.size())) {
+            return mRoomMembersListByGroupPosition.get(groupIndex);
         }
 
-        return String.CASE_INSENSITIVE_ORDER.compare(s1, s2);
+        return null;
     }
 
     /**
@@ -281,241 +350,59 @@ public class VectorRoomDetailsMembersAdapter extends BaseExpandableListAdapter {
             return;
         }
 
-        final Handler uiHandler = new Handler();
-        final String fPattern = mSearchPattern;
+        final boolean isSearchEnabled = isSearchModeEnabled();
 
-        Thread t = new Thread(new Runnable() {
-            public void run() {
-                ParticipantAdapterItem participantItem;
+        mIsLoadingMembers = true;
 
-                final boolean isSearchEnabled = isSearchModeEnabled();
-                final ArrayList<ParticipantAdapterItem> presentMembersList = new ArrayList<>();
-                final ArrayList<ArrayList<ParticipantAdapterItem>> roomMembersListByGroupPosition = new ArrayList<>();
-                final ArrayList<String> displayNamesList = new ArrayList<>();
+        mMembersModel.search(isSearchEnabled ? mSearchPattern : null, mDisplayLimit, new RoomMembersModel.IRoomMembersSearchListener() {
+            @Override
+            public void onSearchDone(List<ParticipantAdapterItem> presentMembers, List<ParticipantAdapterItem> invitedMembers, List<String> displayNames, int matchedCount) {
+                mIsLoadingMembers = false;
+                mMatchedMembersCount = matchedCount;
 
-                // retrieve the room members
-                final ArrayList<ParticipantAdapterItem> actualParticipants = new ArrayList<>();
-                final ArrayList<ParticipantAdapterItem> invitedMembers = new ArrayList<>();
+                // only refresh the list when the members have been updated
+                boolean isUpdated = !isSameMembersList(presentMembers, getGroupMembersList(mGroupIndexPresentMembers)) ||
+                        !isSameMembersList(invitedMembers, getGroupMembersList(mGroupIndexInvitedMembers));
 
-                Collection<RoomMember> activeMembers = mRoom.getActiveMembers();
-                String myUserId = mSession.getMyUserId();
-                final PowerLevels powerLevels = mRoom.getLiveState().getPowerLevels();
+                if (isUpdated) {
+                    ArrayList<ArrayList<ParticipantAdapterItem>> roomMembersListByGroupPosition = new ArrayList<>();
 
-                // search loop to extract the following members: current user, invited, administrator and others
-                for (RoomMember member : activeMembers) {
-                    participantItem = new ParticipantAdapterItem(member);
+                    mDisplayNamesList = new ArrayList<>(displayNames);
+                    mRoomMembersListByGroupPosition = roomMembersListByGroupPosition;
+                    mGroupIndexPresentMembers = -1;
+                    mGroupIndexInvitedMembers = -1;
 
-                    // if search is enabled, just skipp the member if pattern does not match
-                    if(isSearchEnabled && (!participantItem.contains(mSearchPattern))){
-                        continue;
-                    }
+                    int groupIndex = 0;
 
-                    // oneself member ("You") is displayed on first raw
-                    if (member.getUserId().equals(myUserId)) {
-                        presentMembersList.add(participantItem);
-                    } else {
-                        if (RoomMember.MEMBERSHIP_INVITE.equals(member.membership)) {
-                            // invited members
-                            invitedMembers.add(participantItem);
-                        } else {
-                            // the other members..
-                            actualParticipants.add(participantItem);
-                        }
+                    // first group: members present in the room
+                    if (0 != presentMembers.size()) {
+                        roomMembersListByGroupPosition.add(new ArrayList<>(presentMembers));
+                        mGroupIndexPresentMembers = groupIndex;
+                        groupIndex++;
                     }
 
-                    if (!TextUtils.isEmpty(participantItem.mDisplayName)) {
-                        displayNamesList.add(participantItem.mDisplayName);
+                    // second group: invited members only
+                    if (0 != invitedMembers.size()) {
+                        roomMembersListByGroupPosition.add(new ArrayList<>(invitedMembers));
+                        mGroupIndexInvitedMembers = groupIndex;
                     }
                 }
 
-                // add 3rd party invite
-                Collection<RoomThirdPartyInvite> thirdPartyInvites = mRoom.getLiveState().thirdPartyInvites();
-
-                for (RoomThirdPartyInvite invite : thirdPartyInvites) {
-                    // If the home server has converted the 3pid invite into a room member, do not show it
-                    if (null == mRoom.getLiveState().memberWithThirdPartyInviteToken(invite.token)) {
-                        ParticipantAdapterItem participant =  new ParticipantAdapterItem(invite.display_name, "", null, true);
-
-                        if ((!isSearchEnabled) || participant.contains(mSearchPattern)) {
-                            invitedMembers.add(participant);
-                        }
+                // notify end of search if listener is provided
+                if (null != aSearchListener) {
+                    try {
+                        aSearchListener.onSearchEnd(getItemsCount(), isSearchEnabled);
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "## updateRoomMembersDataModel() : onSearchEnd fails " + e.getMessage());
                     }
                 }
 
-                final MXDataHandler fDataHandler = mSession.getDataHandler();
-
-                // Comparator to order members alphabetically
-                final Comparator<ParticipantAdapterItem> comparator = new Comparator<ParticipantAdapterItem>() {
-                    private final HashMap<String, User> usersMap = new HashMap<>();
-
-                    /**
-                     * Get an user snapshot from an user id.
-                     * @param userId the user id to find out
-                     * @return teh user if it exists
-                     */
-                    private User getUser(String userId) {
-                        User user = null;
-
-                        if (null != userId) {
-                            user = usersMap.get(userId);
-
-                            if (null == user) {
-                                user = fDataHandler.getUser(userId);
-
-                                if (null != user) {
-                                    // create a snapshot to avoid error while sorting the list
-                                    // some exceptions could be triggered because of updates.
-                                    user = user.deepCopy();
-                                    usersMap.put(userId, user);
-                                }
-                            }
-                        }
-
-                        return user;
-                    }
-
-                    @Override
-                    public int compare(ParticipantAdapterItem part1, ParticipantAdapterItem part2) {
-                        User userA = getUser(part1.mUserId);
-                        User userB = getUser(part2.mUserId);
-
-                        String userADisplayName = part1.getComparisonDisplayName();
-                        String userBDisplayName = part2.getComparisonDisplayName();
-
-                        boolean isUserA_Active = false;
-                        boolean isUserB_Active = false;
-
-                        if ((null != userA) && (null != userA.currently_active)) {
-                            isUserA_Active = userA.currently_active;
-                        }
-
-                        if ((null != userB) && (null != userB.currently_active)) {
-                            isUserB_Active = userB.currently_active;
-                        }
-
-                        int powerLevelA = 0;
-                        int powerLevelB = 0;
-
-                        if (null != powerLevels) {
-                            if ((null != userA) && (null != userA.user_id)) {
-                                powerLevelA = powerLevels.getUserPowerLevel(userA.user_id);
-                            }
-
-                            if ((null != userB) && (null != userB.user_id)) {
-                                powerLevelB = powerLevels.getUserPowerLevel(userB.user_id);
-                            }
-                        }
-
-                        if ((null == userA) && (null == userB)) {
-                            return alphaComparator(userADisplayName, userBDisplayName);
-                        } else if ((null != userA) && (null == userB)) {
-                            return +1;
-                        } else if ((null == userA) && (null != userB)) {
-                            return -1;
-                        } else if (isUserA_Active && isUserB_Active) {
-                            if (powerLevelA == powerLevelB) {
-                                return alphaComparator(userADisplayName, userBDisplayName);
-                            } else {
-                                return (powerLevelB - powerLevelA) > 0 ? +1 : -1;
-                            }
-                        }
-
-                        if (isUserA_Active && !isUserB_Active) {
-                            return -1;
-                        } if (!isUserA_Active && isUserB_Active) {
-                            return +1;
-                        }
-
-                        // Finally, compare the timestamps
-                        long lastActiveAgoA = (null != userA) ? userA.getAbsoluteLastActiveAgo() : 0;
-                        long lastActiveAgoB = (null != userB) ? userB.getAbsoluteLastActiveAgo() : 0;
-
-                        long diff = lastActiveAgoA - lastActiveAgoB;
-
-                        if (diff == 0) {
-                            return alphaComparator(userADisplayName, userBDisplayName);
-                        }
-
-                        // if only one member has a lastActiveAgo, prefer it
-                        if (0 == lastActiveAgoA) {
-                            return +1;
-                        } else if (0 == lastActiveAgoB) {
-                            return -1;
-                        }
-
-                        return (diff > 0) ? +1 : -1;
-                    }
-                };
-
-                // create "members present in the room" list
-                try {
-                    Collections.sort(actualParticipants, comparator);
-                } catch (Exception e) {
-                    Log.e(LOG_TAG, "## updateRoomMembersDataModel failed while sorting " + e.getMessage());
-
-                    if (TextUtils.equals(fPattern, mSearchPattern)) {
-
-                        // most of the sort exception are triggered with
-                        //  java.lang.IllegalArgumentException: Comparison method violates its general contract!
-                        // it is triggered because the presences are updated while sorting.
-                        uiHandler.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                updateRoomMembersDataModel(aSearchListener);
-                            }
-                        });
-                    }
-
-                    return;
+                if (isUpdated) {
+                    // force UI rendering update
+                    notifyDataSetChanged();
                 }
-
-                presentMembersList.addAll(actualParticipants);
-
-                uiHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        // test if the pattern has been updated while searching the items.
-                        if (TextUtils.equals(mSearchPattern, fPattern)) {
-                            mDisplayNamesList = displayNamesList;
-                            mRoomMembersListByGroupPosition = roomMembersListByGroupPosition;
-                            mGroupIndexPresentMembers = -1;
-                            mGroupIndexPresentMembers = -1;
-
-                            int groupIndex = 0;
-
-                            // first group: members present in the room
-                            if (0 != presentMembersList.size()) {
-                                roomMembersListByGroupPosition.add(presentMembersList);
-                                mGroupIndexPresentMembers = groupIndex;
-                                groupIndex++;
-                            }
-
-                            // second group: invited members only
-                            if (0 != invitedMembers.size()) {
-                                Collections.sort(invitedMembers, comparator);
-                                roomMembersListByGroupPosition.add(invitedMembers);
-                                mGroupIndexInvitedMembers = groupIndex;
-                            }
-
-                            // notify end of search if listener is provided
-                            if (null != aSearchListener) {
-                                try {
-                                    aSearchListener.onSearchEnd(getItemsCount(), isSearchEnabled);
-                                } catch (Exception e) {
-                                    Log.e(LOG_TAG, "## updateRoomMembersDataModel() : onSearchEnd fails " + e.getMessage());
-                                }
-                            }
-
-                            // force UI rendering update
-                            notifyDataSetChanged();
-                        }
-                    }
-                });
             }
         });
-
-        t.setPriority(Thread.MIN_PRIORITY);
-        t.start();
     }
 
     /**
@@ -748,7 +635,8 @@ public class VectorRoomDetailsMembersAdapter extends BaseExpandableListAdapter {
             }
         }
         // 3 - display member status
-        viewHolder.mMemberStatusTextView.setText(VectorUtils.getUserOnlineStatus(mContext, mSession, participant.mUserId, null));
+        // the aggregator warns the members list when the displayed status changes
+        viewHolder.mMemberStatusTextView.setText(PresenceAggregator.getInstance(mContext, mSession).getStatus(mPresenceListener, participant.mUserId, false));
 
         // add "remove member from room" action
         viewHolder.mDeleteActionsView.setOnClickListener(new View.OnClickListener() {
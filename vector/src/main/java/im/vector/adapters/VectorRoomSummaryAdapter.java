@@ -33,12 +33,9 @@ import android.widget.TextView;
 import org.matrix.androidsdk.MXDataHandler;
 import org.matrix.androidsdk.MXSession;
 import org.matrix.androidsdk.data.Room;
-import org.matrix.androidsdk.data.RoomState;
 import org.matrix.androidsdk.data.RoomSummary;
 import org.matrix.androidsdk.data.RoomTag;
 import org.matrix.androidsdk.rest.model.Event;
-import org.matrix.androidsdk.rest.model.User;
-import org.matrix.androidsdk.util.EventDisplay;
 import org.matrix.androidsdk.util.Log;
 
 import java.util.ArrayList;
@@ -50,7 +47,7 @@ import java.util.List;
 import im.vector.Matrix;
 import im.vector.PublicRoomsManager;
 import im.vector.R;
-import im.vector.util.RiotEventDisplay;
+import im.vector.util.RoomPreviewsCache;
 import im.vector.util.RoomUtils;
 import im.vector.util.ThemeUtils;
 import im.vector.util.VectorUtils;
@@ -872,76 +869,17 @@ public class VectorRoomSummaryAdapter extends BaseExpandableListAdapter {
         return convertView;
     }
 
-    /**
-     * Get the displayable name of the user whose ID is passed in aUserId.
-     * @param aMatrixId matrix ID
-     * @param aUserId user ID
-     * @return the user display name
-     */
-    private String getMemberDisplayNameFromUserId(String aMatrixId, String aUserId) {
-        String displayNameRetValue;
-        MXSession session;
-
-        if((null == aMatrixId) || (null == aUserId)){
-            displayNameRetValue = null;
-        }
-        else if((null == (session = Matrix.getMXSession(mContext, aMatrixId))) || (!session.isAlive())) {
-            displayNameRetValue = null;
-        }
-        else {
-            User user = session.getDataHandler().getStore().getUser(aUserId);
-
-            if ((null != user) && !TextUtils.isEmpty(user.displayname)) {
-                displayNameRetValue = user.displayname;
-            }
-            else {
-                displayNameRetValue = aUserId;
-            }
-        }
-
-        return displayNameRetValue;
-    }
-
     /**
      * Retrieves the text to display for a RoomSummary.
      * @param aChildRoomSummary the roomSummary.
      * @return the text to display.
      */
     private CharSequence getChildMessageToDisplay(RoomSummary aChildRoomSummary) {
-        CharSequence messageToDisplayRetValue = null;
-        EventDisplay eventDisplay;
-
-        if (null != aChildRoomSummary) {
-            if (aChildRoomSummary.getLatestReceivedEvent() != null) {
-                eventDisplay = new RiotEventDisplay(mContext, aChildRoomSummary.getLatestReceivedEvent(), aChildRoomSummary.getLatestRoomState());
-                eventDisplay.setPrependMessagesWithAuthor(true);
-                messageToDisplayRetValue = eventDisplay.getTextualDisplay(ThemeUtils.getColor(mContext, R.attr.riot_primary_text_color));
-            }
-
-            // check if this is an invite
-            if (aChildRoomSummary.isInvited() && (null != aChildRoomSummary.getInviterUserId())) {
-                RoomState latestRoomState = aChildRoomSummary.getLatestRoomState();
-                String inviterUserId = aChildRoomSummary.getInviterUserId();
-                String myName = aChildRoomSummary.getMatrixId();
-
-                if (null != latestRoomState) {
-                    inviterUserId = latestRoomState.getMemberName(inviterUserId);
-                    myName = latestRoomState.getMemberName(myName);
-                }
-                else {
-                    inviterUserId = getMemberDisplayNameFromUserId(aChildRoomSummary.getMatrixId(), inviterUserId);
-                    myName = getMemberDisplayNameFromUserId(aChildRoomSummary.getMatrixId(), myName);
-                }
-
-                if (TextUtils.equals(mMxSession.getMyUserId(), aChildRoomSummary.getMatrixId())) {
-                    messageToDisplayRetValue = mContext.getString(org.matrix.androidsdk.R.string.notice_room_invite_you, inviterUserId);
-                } else {
-                    messageToDisplayRetValue = mContext.getString(org.matrix.androidsdk.R.string.notice_room_invite, inviterUserId, myName);
-                }
-            }
+        if (null == aChildRoomSummary) {
+            return null;
         }
 
-        return messageToDisplayRetValue;
+        return RoomPreviewsCache.getInstance(mContext, mMxSession).getPreview(aChildRoomSummary, ThemeUtils.getColor(mContext, R.attr.riot_primary_text_color));
     }
 
     /**
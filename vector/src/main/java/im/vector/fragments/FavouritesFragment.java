@@ -32,9 +32,7 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import org.matrix.androidsdk.data.Room;
-import org.matrix.androidsdk.data.RoomSummary;
 import org.matrix.androidsdk.data.RoomTag;
-import org.matrix.androidsdk.data.store.IMXStore;
 import org.matrix.androidsdk.listeners.MXEventListener;
 import org.matrix.androidsdk.rest.callback.ApiCallback;
 import org.matrix.androidsdk.rest.model.MatrixError;
@@ -42,12 +40,15 @@ import org.matrix.androidsdk.rest.model.MatrixError;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import butterknife.BindView;
 import im.vector.R;
 import im.vector.adapters.HomeRoomAdapter;
 import im.vector.util.RoomUtils;
+import im.vector.util.RoomsCategoriesIndex;
 import im.vector.view.EmptyViewItemDecoration;
 import im.vector.view.SimpleDividerItemDecoration;
 
@@ -223,34 +224,22 @@ public class FavouritesFragment extends AbsHomeFragment implements HomeRoomAdapt
         mFavorites.clear();
 
         if (0 != favouriteRoomIdList.size()) {
-            IMXStore store = mSession.getDataHandler().getStore();
-            List<RoomSummary> roomSummaries = new ArrayList<>(store.getSummaries());
+            mFavorites.addAll(RoomsCategoriesIndex.getInstance(mSession).getRooms(RoomsCategoriesIndex.CATEGORY_FAVOURITE, 0));
 
-            for (RoomSummary summary : roomSummaries) {
-                if (favouriteRoomIdList.contains(summary.getRoomId())) {
-                    Room room = store.getRoom(summary.getRoomId());
+            // the rooms are sorted by tag order
+            final Map<String, Integer> positionByRoomId = new HashMap<>();
 
-                    if (null != room) {
-                        mFavorites.add(room);
-                    }
-                }
+            for (int index = 0; index < favouriteRoomIdList.size(); index++) {
+                positionByRoomId.put(favouriteRoomIdList.get(index), index);
             }
 
             try {
                 Comparator<Room> favComparator = new Comparator<Room>() {
                     public int compare(Room r1, Room r2) {
-                        int pos1 = -1;
-                        int pos2 = -1;
-
-                        if ((null != r1) && (null != r1.getRoomId())) {
-                            pos1 = favouriteRoomIdList.indexOf(r1.getRoomId());
-                        }
-
-                        if ((null != r2) && (null != r2.getRoomId())) {
-                            pos2 = favouriteRoomIdList.indexOf(r2.getRoomId());
-                        }
+                        Integer pos1 = (null != r1) ? positionByRoomId.get(r1.getRoomId()) : null;
+                        Integer pos2 = (null != r2) ? positionByRoomId.get(r2.getRoomId()) : null;
 
-                        return pos1 - pos2;
+                        return ((null != pos1) ? pos1 : -1) - ((null != pos2) ? pos2 : -1);
                     }
                 };
 
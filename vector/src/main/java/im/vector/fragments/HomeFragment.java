@@ -29,24 +29,25 @@ import android.view.View;
 import android.view.ViewGroup;
 
 import org.matrix.androidsdk.data.Room;
-import org.matrix.androidsdk.data.RoomAccountData;
 import org.matrix.androidsdk.data.RoomTag;
+import org.matrix.androidsdk.data.store.IMXStore;
 import org.matrix.androidsdk.listeners.MXEventListener;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 import butterknife.BindView;
 import im.vector.R;
+import im.vector.VectorApp;
 import im.vector.adapters.HomeRoomAdapter;
+import im.vector.util.HomeSnapshot;
 import im.vector.util.PreferencesManager;
 import im.vector.util.RoomUtils;
+import im.vector.util.RoomsCategoriesIndex;
 import im.vector.view.HomeSectionView;
 
 public class HomeFragment extends AbsHomeFragment implements HomeRoomAdapter.OnSelectRoomListener {
@@ -72,8 +73,26 @@ public class HomeFragment extends AbsHomeFragment implements HomeRoomAdapter.OnS
 
     private List<HomeSectionView> mHomeSectionViews;
 
+    // true when the saved sections are displayed
+    private boolean mIsSnapshotDisplayed = false;
+
+    private final Runnable mInitDataRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (isResumed()) {
+                initData();
+            }
+        }
+    };
+
     private final MXEventListener mEventsListener = new MXEventListener() {
-        //TODO
+        @Override
+        public void onStoreReady() {
+            // replace the saved sections by the loaded rooms
+            if (mIsSnapshotDisplayed && (null != mNestedScrollView)) {
+                mNestedScrollView.post(mInitDataRunnable);
+            }
+        }
     };
 
     /*
@@ -111,14 +130,22 @@ public class HomeFragment extends AbsHomeFragment implements HomeRoomAdapter.OnS
             homeSectionView.setCurrentFilter(mCurrentFilter);
         }
 
-        mActivity.showWaitingView();
+        if (!displaySnapshot()) {
+            mActivity.showWaitingView();
+        }
     }
 
     @Override
     public void onResume() {
         super.onResume();
         mSession.getDataHandler().addListener(mEventsListener);
-        initData();
+
+        if (mIsSnapshotDisplayed) {
+            // let the saved sections be rendered before sorting the rooms
+            mNestedScrollView.post(mInitDataRunnable);
+        } else {
+            initData();
+        }
 
         if (null != mHomeSectionViews) {
             for (HomeSectionView homeSectionView : mHomeSectionViews) {
@@ -131,6 +158,7 @@ public class HomeFragment extends AbsHomeFragment implements HomeRoomAdapter.OnS
     public void onPause() {
         super.onPause();
         mSession.getDataHandler().removeListener(mEventsListener);
+        mNestedScrollView.removeCallbacks(mInitDataRunnable);
     }
 
     /*
@@ -261,44 +289,29 @@ public class HomeFragment extends AbsHomeFragment implements HomeRoomAdapter.OnS
             Log.e(LOG_TAG, "## initData() : null session");
         }
 
-        final List<Room> favourites = new ArrayList<>();
-        final List<Room> directChats = new ArrayList<>();
-        final List<Room> lowPriorities = new ArrayList<>();
-        final List<Room> otherRooms = new ArrayList<>();
+        IMXStore store = mSession.getDataHandler().getStore();
 
-        if (null == mSession.getDataHandler().getStore()) {
+        if (null == store) {
             Log.e(LOG_TAG, "## initData() : null store");
             return;
         }
-        final Collection<Room> roomCollection = mSession.getDataHandler().getStore().getRooms();
-        final List<String> directChatIds = mSession.getDirectChatRoomIdsList();
-
-        for (Room room : roomCollection) {
-            if (!room.isConferenceUserRoom() && !room.isInvited() &&!room.isDirectChatInvitation()) {
-                // it seems that the server syncs some left rooms
-                if (null == room.getMember(mSession.getMyUserId())) {
-                    Log.e(LOG_TAG, "## initData(): invalid room " + room.getRoomId() + ", the user is not anymore member of it");
-                } else {
-                    final RoomAccountData accountData = room.getAccountData();
-                    final Set<String> tags = new HashSet<>();
-
-                    if (accountData != null && accountData.hasTags()) {
-                        tags.addAll(accountData.getKeys());
-                    }
-
-                    if (tags.contains(RoomTag.ROOM_TAG_FAVOURITE)) {
-                        favourites.add(room);
-                    } else if (tags.contains(RoomTag.ROOM_TAG_LOW_PRIORITY)) {
-                        lowPriorities.add(room);
-                    } else if (directChatIds.contains(room.getRoomId())) {
-                        directChats.add(room);
-                    } else {
-                        otherRooms.add(room);
-                    }
-                }
-            }
+
+        // keep on displaying the saved sections until the rooms are loaded
+        if (!store.isReady()) {
+            Log.d(LOG_TAG, "## initData() : the store is not yet ready");
+            return;
         }
 
+        // the favourites are displayed first, then the low priority rooms, then the direct chats
+        RoomsCategoriesIndex index = RoomsCategoriesIndex.getInstance(mSession);
+
+        final List<Room> favourites = index.getRooms(RoomsCategoriesIndex.CATEGORY_FAVOURITE, 0);
+        final List<Room> lowPriorities = index.getRooms(RoomsCategoriesIndex.CATEGORY_LOW_PRIORITY, RoomsCategoriesIndex.CATEGORY_FAVOURITE);
+        final List<Room> directChats = index.getRooms(RoomsCategoriesIndex.CATEGORY_DIRECT,
+                RoomsCategoriesIndex.CATEGORY_FAVOURITE | RoomsCategoriesIndex.CATEGORY_LOW_PRIORITY);
+        final List<Room> otherRooms = index.getRooms(RoomsCategoriesIndex.CATEGORY_ANY,
+                RoomsCategoriesIndex.CATEGORY_FAVOURITE | RoomsCategoriesIndex.CATEGORY_LOW_PRIORITY | RoomsCategoriesIndex.CATEGORY_DIRECT);
+
         final boolean pinMissedNotifications = PreferencesManager.pinMissedNotifications(getActivity());
         final boolean pinUnreadMessages = PreferencesManager.pinUnreadMessages(getActivity());
 
@@ -312,6 +325,35 @@ public class HomeFragment extends AbsHomeFragment implements HomeRoomAdapter.OnS
         mActivity.stopWaitingView();
 
         mInvitationsSection.setRooms(mActivity.getRoomInvitations());
+
+        mIsSnapshotDisplayed = false;
+
+        // save the sections once the sync is settled
+        if (!VectorApp.isSessionSyncing(mSession)) {
+            HomeSnapshot.getInstance(getActivity(), mSession).save(favourites, directChats, otherRooms, lowPriorities);
+        }
+    }
+
+    /**
+     * Display the sections saved by the last session, until the rooms are loaded and sorted.
+     *
+     * @return true if some saved sections are displayed
+     */
+    private boolean displaySnapshot() {
+        List<List<HomeSnapshot.RoomEntry>> sections = HomeSnapshot.getInstance(getActivity(), mSession).load();
+
+        if (null == sections) {
+            return false;
+        }
+
+        mFavouritesSection.setSnapshotEntries(sections.get(HomeSnapshot.SECTION_FAVOURITES));
+        mDirectChatsSection.setSnapshotEntries(sections.get(HomeSnapshot.SECTION_DIRECT_CHATS));
+        mRoomsSection.setSnapshotEntries(sections.get(HomeSnapshot.SECTION_ROOMS));
+        mLowPrioritySection.setSnapshotEntries(sections.get(HomeSnapshot.SECTION_LOW_PRIORITY));
+
+        mIsSnapshotDisplayed = true;
+
+        return true;
     }
 
     /**
@@ -36,13 +36,8 @@ import android.widget.CheckBox;
 import android.widget.CompoundButton;
 import android.widget.Filter;
 
-import org.matrix.androidsdk.MXDataHandler;
 import org.matrix.androidsdk.data.Room;
-import org.matrix.androidsdk.data.RoomTag;
-import org.matrix.androidsdk.data.store.IMXStore;
-import org.matrix.androidsdk.listeners.MXEventListener;
 import org.matrix.androidsdk.rest.callback.ApiCallback;
-import org.matrix.androidsdk.rest.model.Event;
 import org.matrix.androidsdk.rest.model.MatrixError;
 import org.matrix.androidsdk.rest.model.Search.SearchUsersResponse;
 import org.matrix.androidsdk.rest.model.User;
@@ -63,7 +58,9 @@ import im.vector.adapters.PeopleAdapter;
 import im.vector.contacts.Contact;
 import im.vector.contacts.ContactsManager;
 import im.vector.contacts.PIDsRetriever;
-import im.vector.util.VectorUtils;
+import im.vector.util.KnownParticipantsIndex;
+import im.vector.util.PresenceAggregator;
+import im.vector.util.RoomsCategoriesIndex;
 import im.vector.view.EmptyViewItemDecoration;
 import im.vector.view.SimpleDividerItemDecoration;
 
@@ -89,7 +86,7 @@ public class PeopleFragment extends AbsHomeFragment implements ContactsManager.C
 
     // way to detect that the contacts list has been updated
     private int mContactsSnapshotSession = -1;
-    private MXEventListener mEventsListener;
+    private PresenceAggregator.IPresenceListener mPresenceListener;
 
     /*
      * *********************************************************************************************
@@ -115,11 +112,11 @@ public class PeopleFragment extends AbsHomeFragment implements ContactsManager.C
     @Override
     public void onActivityCreated(final Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
-        mEventsListener = new MXEventListener() {
-
+        // the presence updates are batched and filtered by the aggregator
+        mPresenceListener = new PresenceAggregator.IPresenceListener() {
             @Override
-            public void onPresenceUpdate(final Event event, final User user) {
-                mAdapter.updateKnownContact(user);
+            public void onPresencesUpdated(Set<String> userIds) {
+                mAdapter.updateKnownContacts(userIds);
             }
         };
 
@@ -127,6 +124,7 @@ public class PeopleFragment extends AbsHomeFragment implements ContactsManager.C
         mSecondaryColor = ContextCompat.getColor(getActivity(), R.color.tab_people_secondary);
 
         initViews();
+        mAdapter.setPresenceListener(mPresenceListener);
 
         mOnRoomChangedListener = this;
 
@@ -144,7 +142,7 @@ public class PeopleFragment extends AbsHomeFragment implements ContactsManager.C
     @Override
     public void onResume() {
         super.onResume();
-        mSession.getDataHandler().addListener(mEventsListener);
+        PresenceAggregator.getInstance(getActivity(), mSession).addListener(mPresenceListener);
         ContactsManager.getInstance().addListener(this);
         // Direct chats
         initDirectChatsData();
@@ -164,7 +162,7 @@ public class PeopleFragment extends AbsHomeFragment implements ContactsManager.C
         super.onPause();
 
         if (mSession.isAlive()) {
-            mSession.getDataHandler().removeListener(mEventsListener);
+            PresenceAggregator.getInstance(getActivity(), mSession).removeListener(mPresenceListener);
         }
         ContactsManager.getInstance().removeListener(this);
 
@@ -285,28 +283,10 @@ public class PeopleFragment extends AbsHomeFragment implements ContactsManager.C
             Log.e(LOG_TAG, "## initDirectChatsData() : null session");
         }
 
-        final List<String> directChatIds = mSession.getDirectChatRoomIdsList();
-        final MXDataHandler dataHandler = mSession.getDataHandler();
-        final IMXStore store = dataHandler.getStore();
-
         mDirectChats.clear();
-        if (directChatIds != null && !directChatIds.isEmpty()) {
-            for (String roomId : directChatIds) {
-                Room room = store.getRoom(roomId);
-
-                if ((null != room) && !room.isConferenceUserRoom()) {
-                    // it seems that the server syncs some left rooms
-                    if (null == room.getMember(mSession.getMyUserId())) {
-                        Log.e(LOG_TAG, "## initDirectChatsData(): invalid room " + room.getRoomId() + ", the user is not anymore member of it");
-                    } else {
-                        final Set<String> tags = room.getAccountData().getKeys();
-                        if ((null == tags) || !tags.contains(RoomTag.ROOM_TAG_LOW_PRIORITY)) {
-                            mDirectChats.add(dataHandler.getRoom(roomId));
-                        }
-                    }
-                }
-            }
-        }
+
+        // the low priority direct chats are not displayed
+        mDirectChats.addAll(RoomsCategoriesIndex.getInstance(mSession).getRooms(RoomsCategoriesIndex.CATEGORY_DIRECT, RoomsCategoriesIndex.CATEGORY_LOW_PRIORITY));
     }
 
     /**
@@ -343,8 +323,9 @@ public class PeopleFragment extends AbsHomeFragment implements ContactsManager.C
                 // eg with about 17000 items
                 // sort requires about 2 seconds
                 // sort a 1000 items subset during a search requires about 75ms
+                // the participants are shared with the other screens
                 mKnownContacts.clear();
-                mKnownContacts.addAll(new ArrayList<>(VectorUtils.listKnownParticipants(mSession).values()));
+                mKnownContacts.addAll(KnownParticipantsIndex.getInstance(mSession).getSnapshot().getParticipants());
                 return null;
             }
 
@@ -19,6 +19,7 @@ package im.vector.fragments;
 
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
@@ -73,6 +74,8 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
 
 import im.vector.Matrix;
 import im.vector.R;
@@ -86,6 +89,9 @@ import im.vector.adapters.VectorMessagesAdapter;
 import im.vector.db.VectorContentProvider;
 import im.vector.listeners.IMessagesAdapterActionsListener;
 import im.vector.receiver.VectorUniversalLinkReceiver;
+import im.vector.util.MediaContentStore;
+import im.vector.util.MediasCacheManager;
+import im.vector.util.ReadReceiptsModel;
 import im.vector.util.SlidableMediaInfo;
 import im.vector.util.ThemeUtils;
 import im.vector.util.VectorUtils;
@@ -202,6 +208,7 @@ public class VectorMessageListFragment extends MatrixMessageListFragment impleme
             VectorMessagesAdapter adapter = ((VectorMessagesAdapter) mAdapter);
 
             adapter.setVectorMessagesAdapterActionsListener(null);
+            adapter.setReadReceiptsListener(null);
             adapter.onPause();
         }
     }
@@ -213,6 +220,10 @@ public class VectorMessageListFragment extends MatrixMessageListFragment impleme
         if (mAdapter instanceof VectorMessagesAdapter) {
             VectorMessagesAdapter adapter = ((VectorMessagesAdapter) mAdapter);
             adapter.setVectorMessagesAdapterActionsListener(this);
+            adapter.setReadReceiptsListener(mReadReceiptsListener);
+
+            // the readers have been cleared while the fragment was paused
+            adapter.refreshVisibleRows(mMessageListView, VectorMessagesAdapter.REFRESH_READ_RECEIPTS);
         }
     }
 
@@ -280,6 +291,61 @@ public class VectorMessageListFragment extends MatrixMessageListFragment impleme
         mAdapter.notifyDataSetChanged();
     }
 
+    /**
+     * Tells if the room is encrypted.
+     *
+     * @return true if the room is encrypted
+     */
+    public boolean isRoomEncrypted() {
+        return (null != mRoom) && mRoom.isEncrypted();
+    }
+
+    /**
+     * Send a media message whose content has already been uploaded.
+     *
+     * @param message the media message
+     */
+    public void sendMediaMessage(Message message) {
+        final Event event = new Event(message, mSession.getMyUserId(), mRoom.getRoomId());
+
+        mRoom.storeOutgoingEvent(event);
+        mAdapter.add(new MessageRow(event, mRoom.getState()));
+        scrollToBottom();
+
+        mRoom.sendEvent(event, new ApiCallback<Void>() {
+            @Override
+            public void onSuccess(Void info) {
+                Log.d(LOG_TAG, "## sendMediaMessage() : " + event.eventId + " is sent");
+            }
+
+            private void onError(String errorMessage) {
+                Log.e(LOG_TAG, "## sendMediaMessage() : failed " + errorMessage);
+
+                mUiHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        refreshSentStates();
+                    }
+                });
+            }
+
+            @Override
+            public void onNetworkError(Exception e) {
+                onError(e.getMessage());
+            }
+
+            @Override
+            public void onMatrixError(MatrixError e) {
+                onError(e.getMessage());
+            }
+
+            @Override
+            public void onUnexpectedError(Exception e) {
+                onError(e.getMessage());
+            }
+        });
+    }
+
     /**
      * Get the message list view
      *
@@ -314,25 +380,63 @@ public class VectorMessageListFragment extends MatrixMessageListFragment impleme
         ((VectorMessagesAdapter) mAdapter).cancelSelectionMode();
     }
 
+    /**
+     * Refresh the sent state of the displayed messages.
+     * The rows are not rebound.
+     */
+    public void refreshSentStates() {
+        ((VectorMessagesAdapter) mAdapter).refreshVisibleRows(mMessageListView, VectorMessagesAdapter.REFRESH_SENT_STATES);
+    }
+
+    @Override
+    public void onReceiptEvent(List<String> senderIds) {
+        if (null == mRoom) {
+            return;
+        }
+
+        VectorMessagesAdapter adapter = (VectorMessagesAdapter) mAdapter;
+
+        // only refresh the displayed rows whose readers changed, without rebinding them
+        Set<String> eventIds = adapter.onReceiptsUpdate(mRoom.getRoomId(), senderIds);
+
+        if (!eventIds.isEmpty()) {
+            adapter.refreshVisibleRows(mMessageListView, VectorMessagesAdapter.REFRESH_READ_RECEIPTS, eventIds);
+        }
+    }
+
+    private final ReadReceiptsModel.IReadReceiptsListener mReadReceiptsListener = new ReadReceiptsModel.IReadReceiptsListener() {
+        @Override
+        public void onReadReceiptsUpdated(Set<String> eventIds) {
+            ((VectorMessagesAdapter) mAdapter).refreshVisibleRows(mMessageListView, VectorMessagesAdapter.REFRESH_READ_RECEIPTS, eventIds);
+        }
+    };
+
     private final ApiCallback<Void> mDeviceVerificationCallback = new ApiCallback<Void>() {
         @Override
         public void onSuccess(Void info) {
-            mAdapter.notifyDataSetChanged();
+            refreshE2eIcons();
         }
 
         @Override
         public void onNetworkError(Exception e) {
-            mAdapter.notifyDataSetChanged();
+            refreshE2eIcons();
         }
 
         @Override
         public void onMatrixError(MatrixError e) {
-            mAdapter.notifyDataSetChanged();
+            refreshE2eIcons();
         }
 
         @Override
         public void onUnexpectedError(Exception e) {
-            mAdapter.notifyDataSetChanged();
+            refreshE2eIcons();
+        }
+
+        /**
+         * The device verification is updated : only the e2e icons are refreshed.
+         */
+        private void refreshE2eIcons() {
+            ((VectorMessagesAdapter) mAdapter).refreshVisibleRows(mMessageListView, VectorMessagesAdapter.REFRESH_E2E_ICONS);
         }
     };
 
@@ -761,8 +865,9 @@ public class VectorMessageListFragment extends MatrixMessageListFragment impleme
      * @param filename      the filename
      */
     protected void onMediaAction(final int menuAction, final String mediaUrl, final String mediaMimeType, final String filename, final EncryptedFileInfo encryptedFileInfo) {
-        MXMediasCache mediasCache = Matrix.getInstance(getActivity()).getMediasCache();
+        final MXMediasCache mediasCache = Matrix.getInstance(getActivity()).getMediasCache();
         File file = mediasCache.mediaCacheFile(mediaUrl, mediaMimeType);
+        MediasCacheManager.getInstance(getActivity()).onMediaLookup(file);
 
         // check if the media has already been downloaded
         if (null != file) {
@@ -822,7 +927,8 @@ public class VectorMessageListFragment extends MatrixMessageListFragment impleme
             }
         } else {
             // else download it
-            final String downloadId = mediasCache.downloadMedia(getActivity().getApplicationContext(), mSession.getHomeServerConfig(), mediaUrl, mediaMimeType, encryptedFileInfo);
+            final Context appContext = getActivity().getApplicationContext();
+            final String downloadId = mediasCache.downloadMedia(appContext, mSession.getHomeServerConfig(), mediaUrl, mediaMimeType, encryptedFileInfo);
             mAdapter.notifyDataSetChanged();
 
             if (null != downloadId) {
@@ -839,6 +945,7 @@ public class VectorMessageListFragment extends MatrixMessageListFragment impleme
                     @Override
                     public void onDownloadComplete(String aDownloadId) {
                         if (aDownloadId.equals(downloadId)) {
+                            MediaContentStore.getInstance(appContext).onMediaDownloaded(mediasCache, mediaUrl, mediaMimeType, encryptedFileInfo);
 
                             VectorMessageListFragment.this.getActivity().runOnUiThread(new Runnable() {
                                 @Override
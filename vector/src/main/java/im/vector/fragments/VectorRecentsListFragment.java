@@ -39,7 +39,6 @@ import org.matrix.androidsdk.MXSession;
 import org.matrix.androidsdk.data.Room;
 import org.matrix.androidsdk.data.RoomAccountData;
 import org.matrix.androidsdk.data.RoomPreviewData;
-import org.matrix.androidsdk.data.RoomState;
 import org.matrix.androidsdk.data.RoomSummary;
 import org.matrix.androidsdk.data.RoomTag;
 import org.matrix.androidsdk.listeners.MXEventListener;
@@ -50,7 +49,7 @@ import org.matrix.androidsdk.util.BingRulesManager;
 import org.matrix.androidsdk.util.Log;
 
 import java.util.HashMap;
-import java.util.List;
+import java.util.Set;
 
 import im.vector.Matrix;
 import im.vector.PublicRoomsManager;
@@ -61,6 +60,7 @@ import im.vector.activity.VectorRoomActivity;
 import im.vector.adapters.VectorRoomSummaryAdapter;
 import im.vector.services.EventStreamService;
 import im.vector.util.RoomUtils;
+import im.vector.util.RoomsRefreshCoordinator;
 import im.vector.view.RecentsExpandableListView;
 
 public class VectorRecentsListFragment extends Fragment implements VectorRoomSummaryAdapter.RoomEventListener, RecentsExpandableListView.DragAndDropEventsListener, RoomUtils.MoreActionListener {
@@ -122,9 +122,6 @@ public class VectorRecentsListFragment extends Fragment implements VectorRoomSum
 
     protected boolean mIsPaused = false;
 
-    // set to true to force refresh when an events chunk has been processed.
-    protected boolean refreshOnChunkEnd = false;
-
     // public room management
     private boolean mIsLoadingPublicRooms = false;
     private long mLatestPublicRoomsRefresh = System.currentTimeMillis();
@@ -550,109 +547,20 @@ public class VectorRecentsListFragment extends Fragment implements VectorRoomSum
      */
     private void addSessionListener() {
         mEventsListener = new MXEventListener() {
-            private boolean mInitialSyncComplete = false;
-
-            @Override
-            public void onInitialSyncComplete(String toToken) {
-                Log.d(LOG_TAG, "## onInitialSyncComplete()");
-                getActivity().runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        mInitialSyncComplete = true;
-                        notifyDataSetChanged();
-                    }
-                });
-            }
-
-            @Override
-            public void onLiveEventsChunkProcessed(String fromToken, String toToken) {
-                getActivity().runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        Log.d(LOG_TAG, "onLiveEventsChunkProcessed");
-                        if (!mIsPaused && refreshOnChunkEnd && !mIsWaitingTagOrderEcho && !mIsWaitingDirectChatEcho) {
-                            notifyDataSetChanged();
-                        }
-
-                        refreshOnChunkEnd = false;
-                    }
-                });
-            }
-
-            @Override
-            public void onLiveEvent(final Event event, final RoomState roomState) {
-                getActivity().runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-
-                        String eventType = event.getType();
-
-                        // refresh the UI at the end of the next events chunk
-                        refreshOnChunkEnd |= ((event.roomId != null) && RoomSummary.isSupportedEvent(event)) ||
-                                Event.EVENT_TYPE_STATE_ROOM_MEMBER.equals(eventType) ||
-                                Event.EVENT_TYPE_TAGS.equals(eventType) ||
-                                Event.EVENT_TYPE_REDACTION.equals(eventType) ||
-                                Event.EVENT_TYPE_RECEIPT.equals(eventType) ||
-                                Event.EVENT_TYPE_STATE_ROOM_AVATAR.equals(eventType) ||
-                                Event.EVENT_TYPE_STATE_ROOM_THIRD_PARTY_INVITE.equals(eventType);
-                    }
-                });
-            }
-
-            @Override
-            public void onReceiptEvent(String roomId, List<String> senderIds) {
-                // refresh only if the current user read some messages (to update the unread messages counters)
-                refreshOnChunkEnd |= (senderIds.indexOf(VectorRecentsListFragment.this.mSession.getCredentials().userId) >= 0);
-            }
-
             @Override
             public void onRoomTagEvent(String roomId) {
                 mIsWaitingTagOrderEcho = false;
-                refreshOnChunkEnd = true;
-            }
-
-            /**
-             * These methods trigger an UI refresh asap because the user could have created / joined / left a room
-             * but the server events echos are not yet received.
-             *
-             */
-            private void onForceRefresh() {
-                if (mInitialSyncComplete) {
-                    getActivity().runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            notifyDataSetChanged();
-                        }
-                    });
-                }
-            }
-
-            @Override
-            public void onStoreReady() {
-                onForceRefresh();
             }
 
             @Override
             public void onLeaveRoom(final String roomId) {
                 // clear any pending notification for this room
                 EventStreamService.cancelNotificationsForRoomId(mSession.getMyUserId(), roomId);
-                onForceRefresh();
-            }
-
-            @Override
-            public void onNewRoom(String roomId) {
-                onForceRefresh();
-            }
-
-            @Override
-            public void onJoinRoom(String roomId) {
-                onForceRefresh();
             }
 
             @Override
             public void onDirectMessageChatRoomsListUpdate() {
                 mIsWaitingDirectChatEcho = false;
-                refreshOnChunkEnd = true;
             }
 
             @Override
@@ -675,6 +583,7 @@ public class VectorRecentsListFragment extends Fragment implements VectorRoomSum
         };
 
         mSession.getDataHandler().addListener(mEventsListener);
+        RoomsRefreshCoordinator.getInstance(mSession).addListener(mRoomsRefreshListener);
     }
 
     /**
@@ -683,9 +592,21 @@ public class VectorRecentsListFragment extends Fragment implements VectorRoomSum
     private void removeSessionListener() {
         if (mSession.isAlive()) {
             mSession.getDataHandler().removeListener(mEventsListener);
+            RoomsRefreshCoordinator.getInstance(mSession).removeListener(mRoomsRefreshListener);
         }
     }
 
+    // the rooms updates are merged and throttled by the coordinator
+    private final RoomsRefreshCoordinator.IRoomsRefreshListener mRoomsRefreshListener = new RoomsRefreshCoordinator.IRoomsRefreshListener() {
+        @Override
+        public void onRoomsUpdated(Set<String> roomIds) {
+            // the list is not refreshed while the user plays with a cell
+            if (!mIsPaused && !mAdapter.isInDragAndDropMode() && !mIsWaitingTagOrderEcho && !mIsWaitingDirectChatEcho) {
+                notifyDataSetChanged();
+            }
+        }
+    };
+
     @Override
     public void onGroupCollapsedNotif(int aGroupPosition){
         updateGroupExpandStatus(aGroupPosition, CommonActivityUtils.GROUP_IS_COLLAPSED);
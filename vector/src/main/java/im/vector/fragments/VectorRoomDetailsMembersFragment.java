@@ -51,7 +51,6 @@ import org.matrix.androidsdk.data.RoomState;
 import org.matrix.androidsdk.db.MXMediasCache;
 import org.matrix.androidsdk.listeners.MXEventListener;
 import org.matrix.androidsdk.rest.callback.ApiCallback;
-import org.matrix.androidsdk.rest.callback.SimpleApiCallback;
 import org.matrix.androidsdk.rest.model.Event;
 import org.matrix.androidsdk.rest.model.MatrixError;
 import org.matrix.androidsdk.rest.model.PowerLevels;
@@ -62,6 +61,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -73,8 +73,8 @@ import im.vector.activity.VectorMemberDetailsActivity;
 import im.vector.activity.VectorRoomInviteMembersActivity;
 import im.vector.adapters.ParticipantAdapterItem;
 import im.vector.adapters.VectorRoomDetailsMembersAdapter;
+import im.vector.util.PresenceAggregator;
 import im.vector.util.ThemeUtils;
-import im.vector.util.VectorUtils;
 
 public class VectorRoomDetailsMembersFragment extends Fragment {
     private static final String LOG_TAG = "VectorRoomDetailsMembers";
@@ -86,6 +86,9 @@ public class VectorRoomDetailsMembersFragment extends Fragment {
     private static final boolean REFRESH_FORCED = true;
     private static final boolean REFRESH_NOT_FORCED = false;
 
+    // load the next members page when the list end is closer than this number of rows
+    private static final int LOAD_MORE_MEMBERS_THRESHOLD = 20;
+
     // class members
     private MXSession mSession;
     private Room mRoom;
@@ -108,9 +111,6 @@ public class VectorRoomDetailsMembersFragment extends Fragment {
     private Timer mRefreshTimer;
     private TimerTask mRefreshTimerTask;
 
-    // list the up to date presence to avoid refreshing it twice
-    private final List<String> mUpdatedPresenceUserIds = new ArrayList<>();
-
     // avoid dismissing the loading wheel when some new members are added
     private boolean mIsInvitingNewMembers;
 
@@ -126,6 +126,15 @@ public class VectorRoomDetailsMembersFragment extends Fragment {
                     if (Event.EVENT_TYPE_STATE_ROOM_MEMBER.equals(eventType) ||
                             Event.EVENT_TYPE_STATE_ROOM_THIRD_PARTY_INVITE.equals(eventType) ||
                             Event.EVENT_TYPE_STATE_ROOM_POWER_LEVELS.equals(eventType)) {
+                        if (null != mAdapter) {
+                            // a membership update only impacts one member
+                            if (Event.EVENT_TYPE_STATE_ROOM_MEMBER.equals(eventType)) {
+                                mAdapter.getMembersModel().onMemberUpdate(event.stateKey);
+                            } else {
+                                mAdapter.getMembersModel().invalidate();
+                            }
+                        }
+
                         refreshRoomMembersList(mPatternValue, REFRESH_FORCED);
                     }
                 }
@@ -137,6 +146,10 @@ public class VectorRoomDetailsMembersFragment extends Fragment {
             getActivity().runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
+                    if (null != mAdapter) {
+                        mAdapter.getMembersModel().invalidate();
+                    }
+
                     refreshRoomMembersList(mPatternValue, REFRESH_FORCED);
                 }
             });
@@ -148,16 +161,31 @@ public class VectorRoomDetailsMembersFragment extends Fragment {
                 getActivity().runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
-                        // test if the user is a member of the room
-                        if (mAdapter.getUserIdsList().indexOf(user.user_id) >= 0) {
-                            delayedUpdateRoomMembersDataModel();
-                        }
+                        // the model ignores the non members
+                        // the list is refreshed when a displayed status changes (see mPresenceListener)
+                        mAdapter.getMembersModel().onPresenceUpdate(user);
                     }
                 });
             }
         }
     };
 
+    // the presence updates listener
+    private final PresenceAggregator.IPresenceListener mPresenceListener = new PresenceAggregator.IPresenceListener() {
+        @Override
+        public void onPresencesUpdated(Set<String> userIds) {
+            List<String> displayedUserIds = mAdapter.getUserIdsList();
+
+            // refresh the list only if a displayed member status has changed
+            for (String userId : userIds) {
+                if (displayedUserIds.indexOf(userId) >= 0) {
+                    delayedUpdateRoomMembersDataModel();
+                    break;
+                }
+            }
+        }
+    };
+
     //  search result listener
     private final VectorRoomDetailsMembersAdapter.OnRoomMembersSearchListener mSearchListener = new VectorRoomDetailsMembersAdapter.OnRoomMembersSearchListener() {
         @Override
@@ -325,6 +353,10 @@ public class VectorRoomDetailsMembersFragment extends Fragment {
             mRoom.removeEventListener(mEventListener);
         }
 
+        if ((null != mSession) && mSession.isAlive()) {
+            PresenceAggregator.getInstance(getActivity(), mSession).removeListener(mPresenceListener);
+        }
+
         if (mIsMultiSelectionMode) {
             toggleMultiSelectionMode();
         }
@@ -365,6 +397,10 @@ public class VectorRoomDetailsMembersFragment extends Fragment {
             mRoom.addEventListener(mEventListener);
         }
 
+        if (null != mSession) {
+            PresenceAggregator.getInstance(getActivity(), mSession).addListener(mPresenceListener);
+        }
+
         // sanity check
         refreshRoomMembersList(mPatternValue, REFRESH_NOT_FORCED);
 
@@ -582,9 +618,15 @@ public class VectorRoomDetailsMembersFragment extends Fragment {
      * because they did not change since the application launch.
      */
     private void refreshMemberPresences() {
+        // sanity check
+        if ((null == mSession) || (null == getActivity())) {
+            return;
+        }
+
         int firstPos = mParticipantsListView.getFirstVisiblePosition();
         int lastPos = mParticipantsListView.getLastVisiblePosition() + 20; // add a margin to refresh more
         int count = mParticipantsListView.getCount();
+        PresenceAggregator presenceAggregator = PresenceAggregator.getInstance(getActivity(), mSession);
 
         for (int i = firstPos; (i <= lastPos) && (i < count); i++) {
             Object item = mParticipantsListView.getItemAtPosition(i);
@@ -592,23 +634,9 @@ public class VectorRoomDetailsMembersFragment extends Fragment {
             if (item instanceof ParticipantAdapterItem) {
                 ParticipantAdapterItem participantAdapterItem = (ParticipantAdapterItem) item;
 
-                // test if a request has been done
-                if (mUpdatedPresenceUserIds.indexOf(participantAdapterItem.mUserId) < 0) {
-                    mUpdatedPresenceUserIds.add(participantAdapterItem.mUserId);
-
-                    VectorUtils.getUserOnlineStatus(getActivity(), mSession, participantAdapterItem.mUserId, new SimpleApiCallback<Void>() {
-                        @Override
-                        public void onSuccess(Void info) {
-                            mUIHandler.post(new Runnable() {
-                                @Override
-                                public void run() {
-                                    delayedUpdateRoomMembersDataModel();
-                                }
-                            });
-                        }
-                    });
-
-                }
+                // the refresh requests are limited by the aggregator
+                // and the refreshed presences are dispatched to mPresenceListener
+                presenceAggregator.getStatus(mPresenceListener, participantAdapterItem.mUserId, true);
             }
         }
     }
@@ -803,6 +831,7 @@ public class VectorRoomDetailsMembersFragment extends Fragment {
         mParticipantsListView = (ExpandableListView) mViewHierarchy.findViewById(R.id.room_details_members_exp_list_view);
         mAdapter = new VectorRoomDetailsMembersAdapter(getActivity(), R.layout.adapter_item_vector_add_participants, R.layout.adapter_item_vector_recent_header, mSession, mRoom.getRoomId(), mxMediasCache);
         mParticipantsListView.setAdapter(mAdapter);
+        mAdapter.setPresenceListener(mPresenceListener);
         // the group indicator is managed in the adapter (group view creation)
         mParticipantsListView.setGroupIndicator(null);
 
@@ -815,6 +844,11 @@ public class VectorRoomDetailsMembersFragment extends Fragment {
             @Override
             public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
                 refreshMemberPresences();
+
+                // display the next members page before reaching the list end
+                if ((totalItemCount > 0) && ((firstVisibleItem + visibleItemCount) >= (totalItemCount - LOAD_MORE_MEMBERS_THRESHOLD))) {
+                    mAdapter.loadMoreMembers();
+                }
             }
         });
 
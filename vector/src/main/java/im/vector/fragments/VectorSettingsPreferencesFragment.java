@@ -106,6 +106,8 @@ import im.vector.gcm.GcmRegistrationManager;
 import im.vector.preference.ProgressBarPreference;
 import im.vector.preference.UserAvatarPreference;
 import im.vector.preference.VectorCustomActionEditTextPreference;
+import im.vector.util.MediaContentStore;
+import im.vector.util.MediasCacheManager;
 import im.vector.util.PhoneNumberUtils;
 import im.vector.util.PreferencesManager;
 import im.vector.util.ResourceUtils;
@@ -418,41 +420,57 @@ public class VectorSettingsPreferencesFragment extends PreferenceFragment implem
             });
         }
 
-        // clear medias cache
-        final EditTextPreference clearMediaCachePreference = (EditTextPreference) findPreference(PreferencesManager.SETTINGS_CLEAR_MEDIA_CACHE_PREFERENCE_KEY);
+        // update the medias cache max size
+        final EditTextPreference mediaCacheMaxSizePreference = (EditTextPreference) findPreference(PreferencesManager.SETTINGS_MEDIA_CACHE_MAX_SIZE_KEY);
 
-        if (null != clearMediaCachePreference) {
-            MXMediasCache.getCachesSize(getActivity(), new SimpleApiCallback<Long>() {
+        if (null != mediaCacheMaxSizePreference) {
+            mediaCacheMaxSizePreference.setSummary(PreferencesManager.getSelectedMediasCacheMaxSizeString(getActivity()));
+
+            mediaCacheMaxSizePreference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
                 @Override
-                public void onSuccess(Long size) {
-                    if (null != getActivity()) {
-                        clearMediaCachePreference.setSummary(android.text.format.Formatter.formatFileSize(getActivity(), size));
-                    }
+                public boolean onPreferenceClick(Preference preference) {
+                    new AlertDialog.Builder(getActivity()).
+                            setSingleChoiceItems(PreferencesManager.getMediasCacheMaxSizeItemsChoicesList(getActivity()),
+                                    PreferencesManager.getSelectedMediasCacheMaxSize(getActivity()),
+                                    new DialogInterface.OnClickListener() {
+                                        @Override
+                                        public void onClick(DialogInterface d, int n) {
+                                            PreferencesManager.setSelectedMediasCacheMaxSize(getActivity(), n);
+                                            d.cancel();
+
+                                            mediaCacheMaxSizePreference.setSummary(PreferencesManager.getSelectedMediasCacheMaxSizeString(getActivity()));
+                                        }
+                                    }).show();
+                    return false;
                 }
             });
+        }
+
+        // clear medias cache
+        final EditTextPreference clearMediaCachePreference = (EditTextPreference) findPreference(PreferencesManager.SETTINGS_CLEAR_MEDIA_CACHE_PREFERENCE_KEY);
+
+        if (null != clearMediaCachePreference) {
+            refreshMediaCacheSummary(clearMediaCachePreference);
 
             clearMediaCachePreference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
                 @Override
                 public boolean onPreferenceClick(Preference preference) {
                     displayLoadingView();
 
+                    final MediaContentStore contentStore = MediaContentStore.getInstance(getActivity());
+
                     AsyncTask<Void, Void, Void> task = new AsyncTask<Void, Void, Void>() {
                         @Override
                         protected Void doInBackground(Void... params) {
                             mSession.getMediasCache().clear();
+                            contentStore.clear();
                             return null;
                         }
 
                         @Override
                         protected void onPostExecute(Void result) {
                             hideLoadingView();
-
-                            MXMediasCache.getCachesSize(getActivity(), new SimpleApiCallback<Long>() {
-                                @Override
-                                public void onSuccess(Long size) {
-                                    clearMediaCachePreference.setSummary(android.text.format.Formatter.formatFileSize(getActivity(), size));
-                                }
-                            });
+                            refreshMediaCacheSummary(clearMediaCachePreference);
                         }
                     };
 
@@ -836,6 +854,35 @@ public class VectorSettingsPreferencesFragment extends PreferenceFragment implem
     // Display methods
     //==============================================================================================================
 
+    /**
+     * Refresh the medias cache size and hit ratio.
+     *
+     * @param preference the medias cache preference
+     */
+    private void refreshMediaCacheSummary(final Preference preference) {
+        MXMediasCache.getCachesSize(getActivity(), new SimpleApiCallback<Long>() {
+            @Override
+            public void onSuccess(final Long size) {
+                if (null != getActivity()) {
+                    MediasCacheManager.getInstance(getActivity()).getHitRatio(new SimpleApiCallback<Integer>() {
+                        @Override
+                        public void onSuccess(Integer ratio) {
+                            if (null != getActivity()) {
+                                String sizeAsString = android.text.format.Formatter.formatFileSize(getActivity(), size);
+
+                                if (ratio < 0) {
+                                    preference.setSummary(sizeAsString);
+                                } else {
+                                    preference.setSummary(getString(R.string.settings_media_cache_summary, sizeAsString, ratio));
+                                }
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
     /**
      * Display the loading view.
      */
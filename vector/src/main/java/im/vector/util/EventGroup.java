@@ -37,7 +37,10 @@ import im.vector.adapters.AdapterUtils;
 import org.matrix.androidsdk.util.Log;
 
 /**
- * A EventGroup is a special event that can contain MessageRows
+ * A EventGroup is a special event that can contain MessageRows.
+ * The hidden state of the group and of its rows is derived from the expanded state,
+ * so the group is expanded or collapsed in constant time.
+ * The merged rows are not inserted in the messages adapter : it exposes them by index.
  */
 public class EventGroup extends Event {
 
@@ -47,25 +50,21 @@ public class EventGroup extends Event {
     private final Map<String, MessageRow> mRowsMap;
 
     // rows list (ordered)
-    private final List<MessageRow> mRows;
+    private final ArrayList<MessageRow> mRows;
 
     // true the merged events are expanded
     private boolean mIsExpanded;
 
-    // hidden event ids list
-    private final Set<String> mHiddenEventIds;
-
     /**
      * Constructors
      */
-    public EventGroup(Set<String> hiddenGroupIds) {
+    public EventGroup() {
         // defines an MessageRowGroup unique ID
         eventId =  getClass().getName() + '@' + Integer.toHexString(hashCode()) + "-" + System.currentTimeMillis();
 
         // init field
         mRowsMap = new HashMap<>();
         mRows = new ArrayList<>();
-        mHiddenEventIds = hiddenGroupIds;
     }
 
     /**
@@ -81,6 +80,22 @@ public class EventGroup extends Event {
                 !TextUtils.equals(row.getEvent().stateKey, MXCallsManager.getConferenceUserId(row.getEvent().roomId));
     }
 
+    /**
+     * Provides the event to send in the read receipts and in the read markers.
+     * The EventGroup event id is a local one : its last merged event is used instead.
+     *
+     * @param event the displayed event
+     * @return the event, null if it is an empty EventGroup
+     */
+    public static Event getReadableEvent(Event event) {
+        if (event instanceof EventGroup) {
+            EventGroup eventGroup = (EventGroup) event;
+            return eventGroup.isEmpty() ? null : eventGroup.getRowAt(eventGroup.size() - 1).getEvent();
+        }
+
+        return event;
+    }
+
     /**
      * Tells if a messageRow is defined for the provided eventId.
      *
@@ -101,6 +116,25 @@ public class EventGroup extends Event {
         return (null != row) && (null != row.getEvent()) && mRowsMap.containsKey(row.getEvent().eventId);
     }
 
+    /**
+     * Tells if the group row is hidden.
+     * A group with a single row is not displayed, the row is displayed instead.
+     *
+     * @return true if the group row is hidden
+     */
+    public boolean isHidden() {
+        return mRows.size() < 2;
+    }
+
+    /**
+     * Tells if the rows of this group are hidden.
+     *
+     * @return true if the merged rows are hidden
+     */
+    public boolean areRowsHidden() {
+        return !mIsExpanded && (mRows.size() > 1);
+    }
+
     /**
      * Update the event Ts to the first item.
      */
@@ -117,32 +151,7 @@ public class EventGroup extends Event {
      */
     private void onRowAdded(MessageRow row) {
         // update the map
-        String addedEventId = row.getEvent().eventId;
-        mRowsMap.put(addedEventId, row);
-
-        // the group is is hidden if t
-        if (mRowsMap.size() > 1) {
-            if (mHiddenEventIds.contains(eventId)) {
-                mHiddenEventIds.remove(eventId);
-
-                if (mIsExpanded) {
-                    mHiddenEventIds.removeAll(mRowsMap.keySet());
-                } else {
-                    mHiddenEventIds.addAll(mRowsMap.keySet());
-                }
-
-            } else {
-                if (mIsExpanded) {
-                    mHiddenEventIds.remove(addedEventId);
-                } else {
-                    mHiddenEventIds.add(addedEventId);
-                }
-            }
-        } else {
-            mHiddenEventIds.removeAll(mRowsMap.keySet());
-            mHiddenEventIds.add(eventId);
-        }
-
+        mRowsMap.put(row.getEvent().eventId, row);
         refreshOriginServerTs();
     }
 
@@ -165,11 +174,7 @@ public class EventGroup extends Event {
      */
     public void addToFront(MessageRow row) {
         if (!contains(row)) {
-            if (mRows.size() > 0) {
-                mRows.add(0, row);
-            } else {
-                mRows.add(row);
-            }
+            mRows.add(0, row);
             onRowAdded(row);
         }
     }
@@ -197,16 +202,9 @@ public class EventGroup extends Event {
         if (mRows.size() < 2) {
             Log.e(LOG_TAG, "## setIsExpanded() : cannot collapse a group when there is only one item");
             mIsExpanded = true;
-            mHiddenEventIds.add(eventId);
         } else {
             mIsExpanded = isExpanded;
         }
-
-        if (mIsExpanded) {
-            mHiddenEventIds.removeAll(mRowsMap.keySet());
-        } else {
-            mHiddenEventIds.addAll(mRowsMap.keySet());
-        }
     }
 
     /**
@@ -233,19 +231,39 @@ public class EventGroup extends Event {
             if (null != row) {
                 mRowsMap.remove(eventIdToRemove);
                 mRows.remove(row);
-
-                mHiddenEventIds.remove(eventIdToRemove);
-            }
-
-            if (mRowsMap.size() == 1) {
-                mHiddenEventIds.removeAll(mRowsMap.keySet());
-                mHiddenEventIds.add(eventId);
             }
 
             refreshOriginServerTs();
         }
     }
 
+    /**
+     * @return the number of rows
+     */
+    public int size() {
+        return mRows.size();
+    }
+
+    /**
+     * Provides a row without copying the rows list.
+     *
+     * @param index the row index
+     * @return the row
+     */
+    public MessageRow getRowAt(int index) {
+        return mRows.get(index);
+    }
+
+    /**
+     * Provides the index of a row.
+     *
+     * @param row the row
+     * @return the row index, -1 if the row is not in this group
+     */
+    public int indexOf(MessageRow row) {
+        return contains(row) ? mRows.indexOf(mRowsMap.get(row.getEvent().eventId)) : -1;
+    }
+
     /**
      * @return a copy of the rows
      */
@@ -0,0 +1,529 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.data.Room;
+import org.matrix.androidsdk.data.RoomSummary;
+import org.matrix.androidsdk.data.store.IMXStore;
+import org.matrix.androidsdk.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot of the home sections of a session, saved on the disk.
+ * It is saved once the rooms lists are settled, then it is mapped when the home screen is created,
+ * so the sections can be displayed before the rooms are categorized and sorted again.
+ * The snapshot only contains the first rooms of each section.
+ */
+public class HomeSnapshot {
+    private static final String LOG_TAG = HomeSnapshot.class.getSimpleName();
+
+    // the snapshot files directory, in the application cache directory
+    private static final String SNAPSHOTS_DIR_NAME = "home_snapshots";
+
+    // the snapshot file version
+    private static final int SNAPSHOT_VERSION = 2;
+
+    // the sections
+    public static final int SECTION_FAVOURITES = 0;
+    public static final int SECTION_DIRECT_CHATS = 1;
+    public static final int SECTION_ROOMS = 2;
+    public static final int SECTION_LOW_PRIORITY = 3;
+
+    private static final int SECTIONS_COUNT = 4;
+
+    // the max number of rooms saved by section
+    private static final int MAX_ROOMS_BY_SECTION = 20;
+
+    // the min size of a saved entry : 4 string lengths, the timestamp, 3 counters and the flags
+    private static final int MIN_ENTRY_SIZE = 4 * 4 + 8 + 3 * 4 + 1;
+
+    // the delay before saving the last sections
+    private static final long SAVE_DELAY_MS = 2000;
+
+    // the entry flags
+    private static final int FLAG_DIRECT_CHAT = 1;
+    private static final int FLAG_ENCRYPTED = 1 << 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * A saved room
+     */
+    public static class RoomEntry {
+        public String mRoomId;
+        public String mDisplayName;
+        public String mAvatarUrl;
+        public String mLastMessage;
+        // the latest event timestamp, 0 if it is unknown
+        public long mTimestamp;
+        public int mNotificationCount;
+        public int mHighlightCount;
+        public int mUnreadCount;
+        public boolean mIsDirectChat;
+        public boolean mIsEncrypted;
+    }
+
+    // the snapshots, by user id
+    private static final Map<String, HomeSnapshot> mInstances = new HashMap<>();
+
+    // the shared writing thread
+    private static Handler mWritingHandler = null;
+
+    private final Context mContext;
+    private final MXSession mSession;
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+
+    // the sections rooms to save
+    private List<List<Room>> mPendingSections = null;
+
+    private final Runnable mSaveRunnable = new Runnable() {
+        @Override
+        public void run() {
+            saveSections();
+        }
+    };
+
+    /**
+     * Provides the snapshot of a session.
+     * This method must be called from the UI thread.
+     *
+     * @param context the context
+     * @param session the session
+     * @return the snapshot
+     */
+    public static HomeSnapshot getInstance(Context context, MXSession session) {
+        HomeSnapshot snapshot = mInstances.get(session.getMyUserId());
+
+        if ((null == snapshot) || (snapshot.mSession != session)) {
+            if (null != snapshot) {
+                snapshot.mUiHandler.removeCallbacks(snapshot.mSaveRunnable);
+            }
+
+            snapshot = new HomeSnapshot(context.getApplicationContext(), session);
+            mInstances.put(session.getMyUserId(), snapshot);
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Delete the snapshot of an user, when the user logs out.
+     *
+     * @param context the context
+     * @param userId  the user id
+     */
+    public static void delete(Context context, String userId) {
+        HomeSnapshot snapshot = mInstances.remove(userId);
+
+        if (null != snapshot) {
+            snapshot.mUiHandler.removeCallbacks(snapshot.mSaveRunnable);
+        }
+
+        deleteSnapshotFile(getSnapshotFile(context, userId));
+    }
+
+    /**
+     * Tells if a snapshot has been saved for an user.
+     *
+     * @param context the context
+     * @param userId  the user id
+     * @return true if a snapshot file exists
+     */
+    public static boolean exists(Context context, String userId) {
+        return getSnapshotFile(context, userId).exists();
+    }
+
+    /**
+     * Constructor
+     *
+     * @param context the application context
+     * @param session the session
+     */
+    private HomeSnapshot(Context context, MXSession session) {
+        mContext = context;
+        mSession = session;
+    }
+
+    /**
+     * @return the writing thread handler
+     */
+    private static synchronized Handler getWritingHandler() {
+        if (null == mWritingHandler) {
+            HandlerThread handlerThread = new HandlerThread("HomeSnapshot", Thread.MIN_PRIORITY);
+            handlerThread.start();
+            mWritingHandler = new Handler(handlerThread.getLooper());
+        }
+
+        return mWritingHandler;
+    }
+
+    /**
+     * Provides the snapshot file of an user.
+     *
+     * @param context the context
+     * @param userId  the user id
+     * @return the snapshot file
+     */
+    private static File getSnapshotFile(Context context, String userId) {
+        return new File(new File(context.getCacheDir(), SNAPSHOTS_DIR_NAME), userId.replaceAll("[^A-Za-z0-9._-]", "_"));
+    }
+
+    //================================================================================
+    // Load
+    //================================================================================
+
+    /**
+     * Load the saved sections.
+     *
+     * @return the rooms entries by section (see SECTION_XX), null if there is no valid snapshot
+     */
+    public List<List<RoomEntry>> load() {
+        File file = getSnapshotFile(mContext, mSession.getMyUserId());
+
+        if (!file.exists()) {
+            return null;
+        }
+
+        long t0 = System.currentTimeMillis();
+        RandomAccessFile randomAccessFile = null;
+
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (SNAPSHOT_VERSION != buffer.getInt()) {
+                Log.d(LOG_TAG, "## load() : unsupported version");
+                return null;
+            }
+
+            int sectionsCount = buffer.getInt();
+
+            if (SECTIONS_COUNT != sectionsCount) {
+                Log.d(LOG_TAG, "## load() : unexpected sections count " + sectionsCount);
+                return null;
+            }
+
+            List<List<RoomEntry>> sections = new ArrayList<>(SECTIONS_COUNT);
+            int entriesCount = 0;
+
+            for (int section = 0; section < SECTIONS_COUNT; section++) {
+                int count = buffer.getInt();
+
+                // the file might be corrupted
+                if ((count < 0) || (count > MAX_ROOMS_BY_SECTION) || ((long) count * MIN_ENTRY_SIZE > buffer.remaining())) {
+                    Log.e(LOG_TAG, "## load() : invalid rooms count " + count);
+                    deleteSnapshotFile(file);
+                    return null;
+                }
+
+                List<RoomEntry> entries = new ArrayList<>(count);
+
+                for (int index = 0; index < count; index++) {
+                    RoomEntry entry = new RoomEntry();
+                    entry.mRoomId = readString(buffer);
+                    entry.mDisplayName = readString(buffer);
+                    entry.mAvatarUrl = readString(buffer);
+                    entry.mLastMessage = readString(buffer);
+                    entry.mTimestamp = buffer.getLong();
+                    entry.mNotificationCount = buffer.getInt();
+                    entry.mHighlightCount = buffer.getInt();
+                    entry.mUnreadCount = buffer.getInt();
+
+                    int flags = buffer.get();
+                    entry.mIsDirectChat = (0 != (flags & FLAG_DIRECT_CHAT));
+                    entry.mIsEncrypted = (0 != (flags & FLAG_ENCRYPTED));
+
+                    entries.add(entry);
+                }
+
+                sections.add(entries);
+                entriesCount += count;
+            }
+
+            Log.d(LOG_TAG, "## load() : " + entriesCount + " rooms in " + (System.currentTimeMillis() - t0) + " ms");
+
+            return sections;
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## load() : failed " + e.getMessage());
+        } finally {
+            if (null != randomAccessFile) {
+                try {
+                    randomAccessFile.close();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## load() : close failed " + e.getMessage());
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Delete a snapshot file.
+     * The deletion is done on the writing thread to be serialized with the saves.
+     *
+     * @param file the snapshot file
+     */
+    private static void deleteSnapshotFile(final File file) {
+        getWritingHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                if (file.exists() && !file.delete()) {
+                    Log.e(LOG_TAG, "## deleteSnapshotFile() : failed");
+                }
+            }
+        });
+    }
+
+    /**
+     * Read a string from a mapped buffer.
+     *
+     * @param buffer the buffer
+     * @return the string, null if it was not defined
+     * @throws IOException if the length is invalid
+     */
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+
+        if (length < 0) {
+            return null;
+        }
+
+        // the file might be corrupted
+        if (length > buffer.remaining()) {
+            throw new IOException("invalid string length " + length);
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+
+        return new String(bytes, UTF8);
+    }
+
+    //================================================================================
+    // Save
+    //================================================================================
+
+    /**
+     * Save the displayed sections.
+     * The sections are saved after a delay, so only the settled rooms lists are saved.
+     * This method must be called from the UI thread.
+     *
+     * @param favourites    the sorted favourites
+     * @param directChats   the sorted direct chats
+     * @param rooms         the sorted rooms
+     * @param lowPriorities the sorted low priority rooms
+     */
+    public void save(List<Room> favourites, List<Room> directChats, List<Room> rooms, List<Room> lowPriorities) {
+        List<List<Room>> sections = new ArrayList<>(SECTIONS_COUNT);
+
+        for (List<Room> section : Arrays.asList(favourites, directChats, rooms, lowPriorities)) {
+            sections.add(new ArrayList<>(section.subList(0, Math.min(section.size(), MAX_ROOMS_BY_SECTION))));
+        }
+
+        mPendingSections = sections;
+
+        mUiHandler.removeCallbacks(mSaveRunnable);
+        mUiHandler.postDelayed(mSaveRunnable, SAVE_DELAY_MS);
+    }
+
+    /**
+     * Build the entries of the pending sections, then write them in background.
+     */
+    private void saveSections() {
+        List<List<Room>> sections = mPendingSections;
+        mPendingSections = null;
+
+        if ((null == sections) || !mSession.isAlive()) {
+            return;
+        }
+
+        IMXStore store = mSession.getDataHandler().getStore();
+
+        if ((null == store) || !store.isReady()) {
+            return;
+        }
+
+        final List<List<RoomEntry>> entriesBySection = new ArrayList<>(SECTIONS_COUNT);
+        List<String> directChatRoomIds = mSession.getDirectChatRoomIdsList();
+
+        for (List<Room> rooms : sections) {
+            List<RoomEntry> entries = new ArrayList<>(rooms.size());
+
+            for (Room room : rooms) {
+                RoomEntry entry = buildEntry(store, room, directChatRoomIds.contains(room.getRoomId()));
+
+                if (null != entry) {
+                    entries.add(entry);
+                }
+            }
+
+            entriesBySection.add(entries);
+        }
+
+        final File file = getSnapshotFile(mContext, mSession.getMyUserId());
+
+        getWritingHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                write(file, entriesBySection);
+            }
+        });
+    }
+
+    /**
+     * Build the saved entry of a room.
+     *
+     * @param store        the store
+     * @param room         the room
+     * @param isDirectChat true if the room is a direct chat
+     * @return the entry, null if the room has no summary
+     */
+    private RoomEntry buildEntry(IMXStore store, Room room, boolean isDirectChat) {
+        RoomSummary summary = store.getSummary(room.getRoomId());
+
+        if (null == summary) {
+            return null;
+        }
+
+        RoomEntry entry = new RoomEntry();
+        entry.mRoomId = room.getRoomId();
+        entry.mDisplayName = VectorUtils.getRoomDisplayName(mContext, mSession, room);
+        entry.mAvatarUrl = room.getAvatarUrl();
+
+        entry.mIsEncrypted = room.isEncrypted();
+
+        // the messages of the encrypted rooms are not saved in plain text
+        if (!entry.mIsEncrypted) {
+            CharSequence lastMessage = RoomUtils.getRoomMessageToDisplay(mContext, mSession, summary);
+            entry.mLastMessage = (null != lastMessage) ? lastMessage.toString() : null;
+        }
+
+        if (null != summary.getLatestReceivedEvent()) {
+            entry.mTimestamp = summary.getLatestReceivedEvent().getOriginServerTs();
+        }
+
+        entry.mHighlightCount = summary.getHighlightCount();
+        entry.mNotificationCount = mSession.getDataHandler().getBingRulesManager().isRoomMentionOnly(room.getRoomId()) ?
+                entry.mHighlightCount : summary.getNotificationCount();
+        entry.mUnreadCount = summary.getUnreadEventsCount();
+        entry.mIsDirectChat = isDirectChat;
+
+        return entry;
+    }
+
+    /**
+     * Write the snapshot file.
+     * The snapshot is written in a temporary file which replaces the previous one,
+     * so a mapped snapshot is never partially written.
+     *
+     * @param file             the snapshot file
+     * @param entriesBySection the entries by section
+     */
+    private static void write(File file, List<List<RoomEntry>> entriesBySection) {
+        File dir = file.getParentFile();
+
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.e(LOG_TAG, "## write() : cannot create the snapshots directory");
+            return;
+        }
+
+        File tmpFile = new File(dir, file.getName() + ".tmp");
+        DataOutputStream stream = null;
+        boolean isWritten = false;
+
+        try {
+            stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+
+            stream.writeInt(SNAPSHOT_VERSION);
+            stream.writeInt(entriesBySection.size());
+
+            for (List<RoomEntry> entries : entriesBySection) {
+                stream.writeInt(entries.size());
+
+                for (RoomEntry entry : entries) {
+                    writeString(stream, entry.mRoomId);
+                    writeString(stream, entry.mDisplayName);
+                    writeString(stream, entry.mAvatarUrl);
+                    writeString(stream, entry.mLastMessage);
+                    stream.writeLong(entry.mTimestamp);
+                    stream.writeInt(entry.mNotificationCount);
+                    stream.writeInt(entry.mHighlightCount);
+                    stream.writeInt(entry.mUnreadCount);
+                    stream.writeByte((entry.mIsDirectChat ? FLAG_DIRECT_CHAT : 0) | (entry.mIsEncrypted ? FLAG_ENCRYPTED : 0));
+                }
+            }
+
+            isWritten = true;
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## write() : failed " + e.getMessage());
+        } finally {
+            if (null != stream) {
+                try {
+                    stream.close();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## write() : close failed " + e.getMessage());
+                    isWritten = false;
+                }
+            }
+        }
+
+        if (!isWritten || !tmpFile.renameTo(file)) {
+            Log.e(LOG_TAG, "## write() : the snapshot is not saved");
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Write a string, prefixed by its length.
+     *
+     * @param stream the stream
+     * @param value  the string
+     * @throws IOException if the write fails
+     */
+    private static void writeString(DataOutputStream stream, String value) throws IOException {
+        if (null == value) {
+            stream.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(UTF8);
+            stream.writeInt(bytes.length);
+            stream.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,497 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.text.TextUtils;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.call.MXCallsManager;
+import org.matrix.androidsdk.data.RoomState;
+import org.matrix.androidsdk.data.store.IMXStore;
+import org.matrix.androidsdk.listeners.MXEventListener;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.User;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import im.vector.adapters.ParticipantAdapterItem;
+
+/**
+ * Index of the users known by a session i.e the users of the joined / invited rooms.
+ * The participants are built once, then only the users updated by the presence and the membership events
+ * are built again. The participants are exposed through immutable snapshots, split in segments
+ * which can be searched in parallel.
+ * The methods are thread safe.
+ */
+public class KnownParticipantsIndex {
+    private static final String LOG_TAG = KnownParticipantsIndex.class.getSimpleName();
+
+    // the number of participants by segment
+    private static final int SEGMENT_SIZE = 2048;
+
+    /**
+     * Search filter
+     */
+    public interface IParticipantFilter {
+        /**
+         * Tells if a participant matches the search.
+         * This method is called from several threads at the same time.
+         *
+         * @param item the participant
+         * @return true if the participant matches
+         */
+        boolean match(ParticipantAdapterItem item);
+    }
+
+    /**
+     * Immutable list of the known participants.
+     */
+    public static class Snapshot {
+        // the segments, all of them are full except the last one
+        private final List<List<ParticipantAdapterItem>> mSegments;
+        private final int mSize;
+
+        /**
+         * Constructor
+         *
+         * @param segments the segments
+         * @param size     the participants count
+         */
+        private Snapshot(List<List<ParticipantAdapterItem>> segments, int size) {
+            mSegments = segments;
+            mSize = size;
+        }
+
+        /**
+         * @return the participants count
+         */
+        public int size() {
+            return mSize;
+        }
+
+        /**
+         * Provides the participants, as a read only list backed by the segments.
+         *
+         * @return the participants
+         */
+        public List<ParticipantAdapterItem> getParticipants() {
+            return new AbstractList<ParticipantAdapterItem>() {
+                @Override
+                public ParticipantAdapterItem get(int index) {
+                    return mSegments.get(index / SEGMENT_SIZE).get(index % SEGMENT_SIZE);
+                }
+
+                @Override
+                public int size() {
+                    return mSize;
+                }
+            };
+        }
+
+        /**
+         * Search the participants matching a filter.
+         * The segments are searched in parallel, the results are returned in the snapshot order.
+         *
+         * @param filter the filter
+         * @return the matching participants
+         */
+        public List<ParticipantAdapterItem> search(final IParticipantFilter filter) {
+            List<ParticipantAdapterItem> res = new ArrayList<>();
+
+            if (mSegments.size() < 2) {
+                for (List<ParticipantAdapterItem> segment : mSegments) {
+                    res.addAll(searchSegment(segment, filter));
+                }
+
+                return res;
+            }
+
+            long t0 = System.currentTimeMillis();
+            List<Future<List<ParticipantAdapterItem>>> futures = new ArrayList<>(mSegments.size());
+
+            for (final List<ParticipantAdapterItem> segment : mSegments) {
+                futures.add(getSearchExecutor().submit(new Callable<List<ParticipantAdapterItem>>() {
+                    @Override
+                    public List<ParticipantAdapterItem> call() throws Exception {
+                        return searchSegment(segment, filter);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    res.addAll(futures.get(i).get());
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## search() : segment " + i + " failed " + e.getMessage());
+                    res.addAll(searchSegment(mSegments.get(i), filter));
+                }
+            }
+
+            Log.d(LOG_TAG, "## search() : " + res.size() + " / " + mSize + " participants in " + (System.currentTimeMillis() - t0) + " ms");
+
+            return res;
+        }
+
+        /**
+         * Search the participants of a segment.
+         *
+         * @param segment the segment
+         * @param filter  the filter
+         * @return the matching participants
+         */
+        private static List<ParticipantAdapterItem> searchSegment(List<ParticipantAdapterItem> segment, IParticipantFilter filter) {
+            List<ParticipantAdapterItem> res = new ArrayList<>();
+
+            for (ParticipantAdapterItem item : segment) {
+                if (filter.match(item)) {
+                    res.add(item);
+                }
+            }
+
+            return res;
+        }
+    }
+
+    // the indexes, by user id
+    private static final Map<String, KnownParticipantsIndex> mInstances = new HashMap<>();
+
+    // the shared search threads
+    private static ExecutorService mSearchExecutor = null;
+
+    private final MXSession mSession;
+
+    // held while a snapshot is built, the pending updates are guarded by mUpdatedUserIds
+    private final Object mBuildLock = new Object();
+
+    // the current snapshot, null when the index is not built
+    private Snapshot mSnapshot = null;
+
+    // the participant position in the snapshot, by user id
+    private final Map<String, Integer> mPositionByUserId = new HashMap<>();
+
+    // the users updated since the last snapshot
+    private final Set<String> mUpdatedUserIds = new HashSet<>();
+
+    // true when the participants must be listed again
+    private boolean mIsInvalidated = true;
+
+    private final MXEventListener mEventsListener = new MXEventListener() {
+        @Override
+        public void onStoreReady() {
+            invalidate();
+        }
+
+        @Override
+        public void onInitialSyncComplete(String toToken) {
+            invalidate();
+        }
+
+        @Override
+        public void onPresenceUpdate(Event event, User user) {
+            if (null != user) {
+                onUserUpdated(user.user_id);
+            }
+        }
+
+        @Override
+        public void onLiveEvent(Event event, RoomState roomState) {
+            if (Event.EVENT_TYPE_STATE_ROOM_MEMBER.equals(event.getType())) {
+                onUserUpdated(event.stateKey);
+            }
+        }
+    };
+
+    /**
+     * Provides the index of a session.
+     *
+     * @param session the session
+     * @return the index
+     */
+    public static synchronized KnownParticipantsIndex getInstance(MXSession session) {
+        KnownParticipantsIndex index = mInstances.get(session.getMyUserId());
+
+        if ((null == index) || (index.mSession != session)) {
+            if (null != index) {
+                index.release();
+            }
+
+            index = new KnownParticipantsIndex(session);
+            mInstances.put(session.getMyUserId(), index);
+        }
+
+        return index;
+    }
+
+    /**
+     * Release the index of a session on logout.
+     *
+     * @param session the session
+     */
+    public static synchronized void release(MXSession session) {
+        KnownParticipantsIndex index = mInstances.remove(session.getMyUserId());
+
+        if (null != index) {
+            index.release();
+        }
+    }
+
+    /**
+     * @return the shared search executor
+     */
+    private static synchronized ExecutorService getSearchExecutor() {
+        if (null == mSearchExecutor) {
+            mSearchExecutor = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+        }
+
+        return mSearchExecutor;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param session the session
+     */
+    private KnownParticipantsIndex(MXSession session) {
+        mSession = session;
+        mSession.getDataHandler().addListener(mEventsListener);
+    }
+
+    /**
+     * Stop listening to the session events.
+     */
+    private void release() {
+        if (mSession.isAlive()) {
+            mSession.getDataHandler().removeListener(mEventsListener);
+        }
+    }
+
+    /**
+     * The participants will be listed again with the next snapshot.
+     * The unchanged participants are kept.
+     */
+    private void invalidate() {
+        synchronized (mUpdatedUserIds) {
+            mIsInvalidated = true;
+            mUpdatedUserIds.clear();
+        }
+    }
+
+    /**
+     * The participant of an user will be built again with the next snapshot.
+     *
+     * @param userId the user id
+     */
+    private void onUserUpdated(String userId) {
+        synchronized (mUpdatedUserIds) {
+            if (!mIsInvalidated && !TextUtils.isEmpty(userId)) {
+                mUpdatedUserIds.add(userId);
+            }
+        }
+    }
+
+    /**
+     * Provides the known participants snapshot.
+     * This method could require a long time to process when the index has not been built yet,
+     * so it should be called in background.
+     * The updates received while the snapshot is built are applied to the next one.
+     *
+     * @return the snapshot
+     */
+    public Snapshot getSnapshot() {
+        synchronized (mBuildLock) {
+            boolean isInvalidated;
+            Set<String> updatedUserIds;
+
+            synchronized (mUpdatedUserIds) {
+                isInvalidated = mIsInvalidated;
+                updatedUserIds = new HashSet<>(mUpdatedUserIds);
+                mIsInvalidated = false;
+                mUpdatedUserIds.clear();
+            }
+
+            if (isInvalidated || (null == mSnapshot)) {
+                rebuild();
+            } else if (!updatedUserIds.isEmpty()) {
+                update(updatedUserIds);
+            }
+
+            return mSnapshot;
+        }
+    }
+
+    /**
+     * List the known users again.
+     * The participants are reused when the user display name and avatar are unchanged.
+     */
+    private void rebuild() {
+        long t0 = System.currentTimeMillis();
+
+        IMXStore store = mSession.isAlive() ? mSession.getDataHandler().getStore() : null;
+        Collection<User> users = (null != store) ? store.getUsers() : Collections.<User>emptyList();
+
+        List<ParticipantAdapterItem> previousParticipants = (null != mSnapshot) ? mSnapshot.getParticipants() : null;
+        Map<String, Integer> previousPositions = new HashMap<>(mPositionByUserId);
+
+        List<List<ParticipantAdapterItem>> segments = new ArrayList<>();
+        List<ParticipantAdapterItem> segment = null;
+        int size = 0;
+        int reusedCount = 0;
+
+        mPositionByUserId.clear();
+
+        // we don't need to populate the room members or each room
+        // because an user is created for each joined / invited room member event
+        for (User user : users) {
+            if (MXCallsManager.isConferenceUserId(user.user_id) || mPositionByUserId.containsKey(user.user_id)) {
+                continue;
+            }
+
+            ParticipantAdapterItem item = null;
+            Integer previousPosition = previousPositions.get(user.user_id);
+
+            if ((null != previousParticipants) && (null != previousPosition)) {
+                item = previousParticipants.get(previousPosition);
+
+                if (isUpToDate(item, user)) {
+                    reusedCount++;
+                } else {
+                    item = null;
+                }
+            }
+
+            if (null == item) {
+                item = new ParticipantAdapterItem(user);
+            }
+
+            if ((null == segment) || (segment.size() == SEGMENT_SIZE)) {
+                segment = new ArrayList<>(SEGMENT_SIZE);
+                segments.add(segment);
+            }
+
+            segment.add(item);
+            mPositionByUserId.put(user.user_id, size);
+            size++;
+        }
+
+        for (int i = 0; i < segments.size(); i++) {
+            segments.set(i, Collections.unmodifiableList(segments.get(i)));
+        }
+
+        mSnapshot = new Snapshot(Collections.unmodifiableList(segments), size);
+
+        Log.d(LOG_TAG, "## rebuild() : " + size + " participants (" + reusedCount + " reused) in " + (System.currentTimeMillis() - t0) + " ms");
+    }
+
+    /**
+     * Build again the participants of the updated users.
+     * Only the updated segments are copied.
+     *
+     * @param updatedUserIds the updated user ids
+     */
+    private void update(Set<String> updatedUserIds) {
+        IMXStore store = mSession.isAlive() ? mSession.getDataHandler().getStore() : null;
+
+        if (null == store) {
+            return;
+        }
+
+        List<List<ParticipantAdapterItem>> segments = new ArrayList<>(mSnapshot.mSegments);
+        Set<Integer> copiedSegments = new HashSet<>();
+        int size = mSnapshot.size();
+        int updatedCount = 0;
+
+        for (String userId : updatedUserIds) {
+            User user = store.getUser(userId);
+
+            if ((null == user) || MXCallsManager.isConferenceUserId(userId)) {
+                continue;
+            }
+
+            Integer position = mPositionByUserId.get(userId);
+            int segmentIndex;
+
+            if (null != position) {
+                segmentIndex = position / SEGMENT_SIZE;
+
+                if (isUpToDate(segments.get(segmentIndex).get(position % SEGMENT_SIZE), user)) {
+                    continue;
+                }
+            } else {
+                // append the new user
+                position = size;
+                segmentIndex = position / SEGMENT_SIZE;
+
+                if (segmentIndex == segments.size()) {
+                    segments.add(new ArrayList<ParticipantAdapterItem>(SEGMENT_SIZE));
+                    copiedSegments.add(segmentIndex);
+                }
+
+                mPositionByUserId.put(userId, position);
+                size++;
+            }
+
+            if (copiedSegments.add(segmentIndex)) {
+                segments.set(segmentIndex, new ArrayList<>(segments.get(segmentIndex)));
+            }
+
+            List<ParticipantAdapterItem> segment = segments.get(segmentIndex);
+            ParticipantAdapterItem item = new ParticipantAdapterItem(user);
+
+            if (position % SEGMENT_SIZE < segment.size()) {
+                segment.set(position % SEGMENT_SIZE, item);
+            } else {
+                segment.add(item);
+            }
+
+            updatedCount++;
+        }
+
+        if (0 != updatedCount) {
+            for (Integer segmentIndex : copiedSegments) {
+                segments.set(segmentIndex, Collections.unmodifiableList(segments.get(segmentIndex)));
+            }
+
+            mSnapshot = new Snapshot(Collections.unmodifiableList(segments), size);
+            Log.d(LOG_TAG, "## update() : " + updatedCount + " participants updated in " + copiedSegments.size() + " segments");
+        }
+    }
+
+    /**
+     * Tells if a participant still describes an user.
+     *
+     * @param item the participant
+     * @param user the user
+     * @return true if the participant is up to date
+     */
+    private static boolean isUpToDate(ParticipantAdapterItem item, User user) {
+        String displayName = TextUtils.isEmpty(user.displayname) ? user.user_id : user.displayname;
+        return TextUtils.equals(item.mDisplayName, displayName) && TextUtils.equals(item.mAvatarUrl, user.getAvatarUrl());
+    }
+}
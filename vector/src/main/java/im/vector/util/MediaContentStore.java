@@ -0,0 +1,606 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.HandlerThread;
+import android.text.TextUtils;
+
+import org.matrix.androidsdk.db.MXMediasCache;
+import org.matrix.androidsdk.rest.model.EncryptedFileInfo;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.FileMessage;
+import org.matrix.androidsdk.rest.model.ImageMessage;
+import org.matrix.androidsdk.rest.model.Message;
+import org.matrix.androidsdk.util.JsonUtils;
+import org.matrix.androidsdk.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Content addressed layer over the medias cache.
+ * The uploaded medias are indexed by their SHA-256 digest so that an identical payload
+ * is stored once (in the medias cache) and its content url is reused instead of being uploaded again.
+ * Only the unencrypted medias are indexed : the encrypted ones are uploaded with a dedicated key.
+ * An entry is referenced by the medias cache files holding its payload (uploaded or downloaded ones),
+ * and it is released when the last of them is deleted.
+ */
+public class MediaContentStore {
+    private static final String LOG_TAG = MediaContentStore.class.getSimpleName();
+
+    // the index file, stored in the application files directory
+    private static final String INDEX_FILE_NAME = "MXMediaContentIndex";
+
+    // the index file version
+    private static final int INDEX_VERSION = 3;
+
+    // the digest algorithm
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /**
+     * An uploaded content
+     */
+    private static class ContentEntry {
+        // the content url (mxc://...)
+        String mContentUrl;
+        // the mime type
+        String mMimeType;
+        // number of medias cache files which hold this content
+        int mRefCount;
+    }
+
+    // the instance
+    private static MediaContentStore mInstance = null;
+
+    private final Context mContext;
+
+    // the hashing thread
+    private final android.os.Handler mHashingHandler;
+
+    // the uploaded contents, by digest
+    private final Map<String, ContentEntry> mContentByDigest = new HashMap<>();
+
+    // the digests of the medias saved before their upload, by local url
+    private final Map<String, String> mDigestByLocalUrl = new HashMap<>();
+
+    // the digests of the indexed medias cache files, by file path
+    private final Map<String, String> mDigestByCachePath = new HashMap<>();
+
+    // true when the index has been loaded
+    private boolean mIsIndexLoaded = false;
+
+    /**
+     * Provides the store instance.
+     *
+     * @param context the context
+     * @return the instance
+     */
+    public static synchronized MediaContentStore getInstance(Context context) {
+        if (null == mInstance) {
+            mInstance = new MediaContentStore(context.getApplicationContext());
+        }
+
+        return mInstance;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param context the application context
+     */
+    private MediaContentStore(Context context) {
+        mContext = context;
+
+        HandlerThread handlerThread = new HandlerThread("MediaContentStore", Thread.MIN_PRIORITY);
+        handlerThread.start();
+        mHashingHandler = new android.os.Handler(handlerThread.getLooper());
+
+        // load the index before the first lookup
+        mHashingHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                loadIndex();
+            }
+        });
+    }
+
+    //================================================================================
+    // Local medias
+    //================================================================================
+
+    /**
+     * Save a media stream in the medias cache and compute its digest.
+     * This method must be called from a background thread.
+     *
+     * @param mediasCache the medias cache
+     * @param stream      the media stream
+     * @param mimeType    the mime type
+     * @param isEncrypted true when the media is sent in an encrypted room : it is not hashed
+     * @return the local media url
+     */
+    public String saveMedia(MXMediasCache mediasCache, InputStream stream, String mimeType, boolean isEncrypted) {
+        String mediaUrl = mediasCache.saveMedia(stream, null, mimeType);
+
+        if (!isEncrypted) {
+            onMediaSaved(mediaUrl);
+        }
+
+        return mediaUrl;
+    }
+
+    /**
+     * Compute the digest of a media saved in the medias cache.
+     * This method must be called from a background thread, once the media content is final.
+     *
+     * @param mediaUrl the local media url
+     */
+    public void onMediaSaved(String mediaUrl) {
+        if (null == mediaUrl) {
+            return;
+        }
+
+        String digest = computeDigest(new File(Uri.parse(mediaUrl).getPath()));
+
+        if (null != digest) {
+            synchronized (this) {
+                mDigestByLocalUrl.put(mediaUrl, digest);
+            }
+        }
+    }
+
+    /**
+     * Provides the content url of an already uploaded media with the same payload.
+     * It does not wait for the index loading.
+     *
+     * @param mediaUrl the local media url
+     * @param mimeType the media mime type
+     * @return the content url, null if the payload has never been uploaded
+     */
+    public String getUploadedContentUrl(String mediaUrl, String mimeType) {
+        synchronized (this) {
+            String digest = mDigestByLocalUrl.get(mediaUrl);
+
+            if (null != digest) {
+                ContentEntry entry = mContentByDigest.get(digest);
+
+                if ((null != entry) && TextUtils.equals(entry.mMimeType, mimeType)) {
+                    return entry.mContentUrl;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * The media content url has been reused : the local copy is released.
+     *
+     * @param mediaUrl the local media url
+     */
+    public void onContentReused(String mediaUrl) {
+        forgetMedia(mediaUrl);
+        deleteLocalMedia(mediaUrl);
+    }
+
+    /**
+     * Delete in background a local media which will not be uploaded.
+     *
+     * @param mediaUrl the local media url
+     */
+    public void deleteLocalMedia(final String mediaUrl) {
+        if (null == mediaUrl) {
+            return;
+        }
+
+        mHashingHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                File file = new File(Uri.parse(mediaUrl).getPath());
+
+                if (file.exists() && !file.delete()) {
+                    Log.e(LOG_TAG, "## deleteLocalMedia() : cannot delete " + file.getPath());
+                }
+            }
+        });
+    }
+
+    /**
+     * Forget a local media which will not be sent.
+     *
+     * @param mediaUrl the local media url
+     */
+    public synchronized void forgetMedia(String mediaUrl) {
+        if (null != mediaUrl) {
+            mDigestByLocalUrl.remove(mediaUrl);
+        }
+    }
+
+    //================================================================================
+    // Cached medias
+    //================================================================================
+
+    /**
+     * Index the media of a sent event.
+     * Once uploaded, the media is moved to the medias cache with its content url.
+     *
+     * @param mediasCache the medias cache
+     * @param event       the sent event
+     */
+    public void onEventSent(MXMediasCache mediasCache, Event event) {
+        if ((null == event) || !Event.EVENT_TYPE_MESSAGE.equals(event.getType()) || event.isEncrypted()) {
+            return;
+        }
+
+        Message message = JsonUtils.toMessage(event.getContent());
+        String contentUrl = null;
+        String mimeType = null;
+
+        if (Message.MSGTYPE_IMAGE.equals(message.msgtype)) {
+            ImageMessage imageMessage = JsonUtils.toImageMessage(event.getContent());
+
+            if (null == imageMessage.file) {
+                contentUrl = imageMessage.url;
+                mimeType = imageMessage.getMimeType();
+            }
+        } else if (Message.MSGTYPE_FILE.equals(message.msgtype)) {
+            FileMessage fileMessage = JsonUtils.toFileMessage(event.getContent());
+
+            if (null == fileMessage.file) {
+                contentUrl = fileMessage.url;
+                mimeType = fileMessage.getMimeType();
+            }
+        }
+
+        onMediaCached(mediasCache, contentUrl, mimeType);
+    }
+
+    /**
+     * Index a downloaded media, so that sharing it again reuses its content url.
+     *
+     * @param mediasCache       the medias cache
+     * @param contentUrl        the content url
+     * @param mimeType          the mime type
+     * @param encryptedFileInfo the encryption info, null if the media is not encrypted
+     */
+    public void onMediaDownloaded(MXMediasCache mediasCache, String contentUrl, String mimeType, EncryptedFileInfo encryptedFileInfo) {
+        // the content url of an encrypted media references the encrypted payload
+        if (null == encryptedFileInfo) {
+            onMediaCached(mediasCache, contentUrl, mimeType);
+        }
+    }
+
+    /**
+     * Index in background a media stored in the medias cache.
+     *
+     * @param mediasCache the medias cache
+     * @param contentUrl  the content url
+     * @param mimeType    the mime type
+     */
+    private void onMediaCached(final MXMediasCache mediasCache, final String contentUrl, final String mimeType) {
+        if ((null == mediasCache) || (null == contentUrl) || !contentUrl.startsWith("mxc://")) {
+            return;
+        }
+
+        mHashingHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                registerContent(contentUrl, mediasCache.mediaCacheFile(contentUrl, mimeType), mimeType);
+            }
+        });
+    }
+
+    /**
+     * Index a medias cache file.
+     * This method must be called from the hashing thread.
+     *
+     * @param contentUrl the content url
+     * @param file       the media file in the medias cache
+     * @param mimeType   the mime type
+     */
+    private void registerContent(String contentUrl, File file, String mimeType) {
+        if (null == file) {
+            return;
+        }
+
+        loadIndex();
+
+        String path = file.getAbsolutePath();
+
+        synchronized (this) {
+            // already indexed
+            if (mDigestByCachePath.containsKey(path)) {
+                return;
+            }
+        }
+
+        String digest = computeDigest(file);
+
+        if (null == digest) {
+            return;
+        }
+
+        synchronized (this) {
+            mDigestByCachePath.put(path, digest);
+
+            ContentEntry entry = mContentByDigest.get(digest);
+
+            // the first uploaded content url is kept
+            if (null == entry) {
+                entry = new ContentEntry();
+                entry.mContentUrl = contentUrl;
+                entry.mMimeType = mimeType;
+                mContentByDigest.put(digest, entry);
+            }
+
+            entry.mRefCount++;
+        }
+
+        saveIndex();
+    }
+
+    /**
+     * A medias cache file has been deleted : its content entry is released.
+     *
+     * @param path the deleted file path
+     */
+    public void onMediaDeleted(final String path) {
+        mHashingHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                loadIndex();
+
+                synchronized (MediaContentStore.this) {
+                    String digest = mDigestByCachePath.remove(path);
+
+                    if (null == digest) {
+                        return;
+                    }
+
+                    ContentEntry entry = mContentByDigest.get(digest);
+
+                    if ((null != entry) && (--entry.mRefCount <= 0)) {
+                        mContentByDigest.remove(digest);
+                    }
+                }
+
+                saveIndex();
+            }
+        });
+    }
+
+    /**
+     * The medias cache has been cleared : all the entries are released.
+     */
+    public void clear() {
+        mHashingHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                loadIndex();
+
+                synchronized (MediaContentStore.this) {
+                    mContentByDigest.clear();
+                    mDigestByCachePath.clear();
+                    mDigestByLocalUrl.clear();
+                }
+
+                saveIndex();
+            }
+        });
+    }
+
+    /**
+     * Compute the SHA-256 digest of a file.
+     *
+     * @param file the file
+     * @return the hexadecimal digest, null on failure
+     */
+    private static String computeDigest(File file) {
+        if ((null == file) || !file.exists()) {
+            return null;
+        }
+
+        InputStream stream = null;
+
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            stream = new BufferedInputStream(new FileInputStream(file));
+
+            byte[] buffer = new byte[32 * 1024];
+            int len;
+
+            while ((len = stream.read(buffer)) > 0) {
+                messageDigest.update(buffer, 0, len);
+            }
+
+            byte[] digest = messageDigest.digest();
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+
+            for (byte b : digest) {
+                builder.append(String.format("%02x", b & 0xff));
+            }
+
+            return builder.toString();
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## computeDigest() : failed " + e.getMessage());
+        } finally {
+            if (null != stream) {
+                try {
+                    stream.close();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## computeDigest() : close failed " + e.getMessage());
+                }
+            }
+        }
+
+        return null;
+    }
+
+    //================================================================================
+    // Index management
+    //================================================================================
+
+    /**
+     * Load the index file.
+     * This method must be called from the hashing thread.
+     */
+    private void loadIndex() {
+        synchronized (this) {
+            if (mIsIndexLoaded) {
+                return;
+            }
+        }
+
+        // the file is read without holding the lock : the UI thread lookups must not wait for it
+        Map<String, ContentEntry> contentByDigest = new HashMap<>();
+        Map<String, String> digestByCachePath = new HashMap<>();
+        File indexFile = new File(mContext.getFilesDir(), INDEX_FILE_NAME);
+
+        if (indexFile.exists()) {
+            DataInputStream stream = null;
+
+            try {
+                stream = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+
+                if (INDEX_VERSION != stream.readInt()) {
+                    Log.d(LOG_TAG, "## loadIndex() : unsupported version");
+                } else {
+                    int count = stream.readInt();
+
+                    for (int i = 0; i < count; i++) {
+                        String digest = stream.readUTF();
+
+                        ContentEntry entry = new ContentEntry();
+                        entry.mContentUrl = stream.readUTF();
+                        entry.mMimeType = stream.readUTF();
+                        entry.mRefCount = stream.readInt();
+
+                        contentByDigest.put(digest, entry);
+                    }
+
+                    count = stream.readInt();
+
+                    for (int i = 0; i < count; i++) {
+                        String path = stream.readUTF();
+                        digestByCachePath.put(path, stream.readUTF());
+                    }
+                }
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## loadIndex() : failed " + e.getMessage());
+                contentByDigest.clear();
+                digestByCachePath.clear();
+            } finally {
+                if (null != stream) {
+                    try {
+                        stream.close();
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "## loadIndex() : close failed " + e.getMessage());
+                    }
+                }
+            }
+        }
+
+        synchronized (this) {
+            mContentByDigest.putAll(contentByDigest);
+            mDigestByCachePath.putAll(digestByCachePath);
+            mIsIndexLoaded = true;
+        }
+
+        Log.d(LOG_TAG, "## loadIndex() : " + contentByDigest.size() + " contents");
+    }
+
+    /**
+     * Save the index file in the hashing thread.
+     */
+    private void saveIndex() {
+        mHashingHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Map<String, ContentEntry> contentByDigest;
+                Map<String, String> digestByCachePath;
+
+                synchronized (MediaContentStore.this) {
+                    contentByDigest = new HashMap<>();
+
+                    // the entries are copied : their reference count is updated under the lock
+                    for (Map.Entry<String, ContentEntry> entry : mContentByDigest.entrySet()) {
+                        ContentEntry copy = new ContentEntry();
+                        copy.mContentUrl = entry.getValue().mContentUrl;
+                        copy.mMimeType = entry.getValue().mMimeType;
+                        copy.mRefCount = entry.getValue().mRefCount;
+                        contentByDigest.put(entry.getKey(), copy);
+                    }
+
+                    digestByCachePath = new HashMap<>(mDigestByCachePath);
+                }
+
+                // the index is written in a temporary file to never leave a truncated index
+                File indexFile = new File(mContext.getFilesDir(), INDEX_FILE_NAME);
+                File tmpFile = new File(mContext.getFilesDir(), INDEX_FILE_NAME + ".tmp");
+                DataOutputStream stream = null;
+
+                try {
+                    stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+
+                    stream.writeInt(INDEX_VERSION);
+                    stream.writeInt(contentByDigest.size());
+
+                    for (Map.Entry<String, ContentEntry> entry : contentByDigest.entrySet()) {
+                        stream.writeUTF(entry.getKey());
+                        stream.writeUTF(entry.getValue().mContentUrl);
+                        stream.writeUTF((null != entry.getValue().mMimeType) ? entry.getValue().mMimeType : "");
+                        stream.writeInt(entry.getValue().mRefCount);
+                    }
+
+                    stream.writeInt(digestByCachePath.size());
+
+                    for (Map.Entry<String, String> entry : digestByCachePath.entrySet()) {
+                        stream.writeUTF(entry.getKey());
+                        stream.writeUTF(entry.getValue());
+                    }
+
+                    stream.close();
+                    stream = null;
+
+                    if (!tmpFile.renameTo(indexFile)) {
+                        Log.e(LOG_TAG, "## saveIndex() : rename failed");
+                    }
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## saveIndex() : failed " + e.getMessage());
+                } finally {
+                    if (null != stream) {
+                        try {
+                            stream.close();
+                        } catch (Exception e) {
+                            Log.e(LOG_TAG, "## saveIndex() : close failed " + e.getMessage());
+                        }
+                    }
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,548 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.text.TextUtils;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.data.Room;
+import org.matrix.androidsdk.data.store.IMXStore;
+import org.matrix.androidsdk.rest.callback.SimpleApiCallback;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.util.ContentUtils;
+import org.matrix.androidsdk.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the medias cache under control.
+ * The medias last access times are tracked in a compact index file, and the cleanup pass
+ * removes the medias older than the saving period then the least recently used ones until
+ * the cache fits in its max size.
+ * The pass runs by small steps in a background thread while the application is in background.
+ * The cache lookups are counted to provide the cache hit ratio.
+ */
+public class MediasCacheManager {
+    private static final String LOG_TAG = MediasCacheManager.class.getSimpleName();
+
+    // the medias cache folder (defined by the matrix SDK)
+    private static final String MEDIAS_FOLDER_NAME = "MXMediaStore";
+
+    // the index file
+    private static final String INDEX_FILE_NAME = "MXMediaStoreIndex";
+    private static final int INDEX_VERSION = 3;
+
+    // number of files checked or deleted by step
+    private static final int FILES_BY_STEP = 100;
+
+    // delay between two steps
+    private static final long STEP_DELAY_MS = 500;
+
+    // the medias accessed during this delay are never removed (in seconds)
+    private static final long MIN_EVICTION_AGE_SECS = 60 * 60;
+
+    /**
+     * Index entry
+     */
+    private static class CacheEntry {
+        final File mFile;
+        long mLastAccessTime;
+        long mSize;
+
+        CacheEntry(File file, long lastAccessTime, long size) {
+            mFile = file;
+            mLastAccessTime = lastAccessTime;
+            mSize = size;
+        }
+    }
+
+    private static MediasCacheManager mInstance = null;
+
+    private final File mMediasFolder;
+    private final File mIndexFile;
+
+    // the content index of the cached medias
+    private final MediaContentStore mContentStore;
+
+    private final HandlerThread mHandlerThread;
+    private final Handler mHandler;
+    private final Handler mUIHandler;
+
+    // the index : the last access time (in seconds) by media path
+    // it is only used in the background thread
+    private final Map<String, Long> mLastAccessTimes = new HashMap<>();
+    private boolean mIsIndexLoaded = false;
+    private boolean mIsIndexUpdated = false;
+
+    // cache lookups stats
+    private long mHitsCount = 0;
+    private long mMissesCount = 0;
+
+    // the running cleanup pass (incremented to cancel it)
+    private int mCleanupGeneration = 0;
+
+    /**
+     * Provides the manager instance.
+     *
+     * @param context the context
+     * @return the instance
+     */
+    public static synchronized MediasCacheManager getInstance(Context context) {
+        if (null == mInstance) {
+            mInstance = new MediasCacheManager(context.getApplicationContext());
+        }
+
+        return mInstance;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param context the application context
+     */
+    private MediasCacheManager(Context context) {
+        mMediasFolder = new File(context.getFilesDir(), MEDIAS_FOLDER_NAME);
+        mIndexFile = new File(context.getFilesDir(), INDEX_FILE_NAME);
+        mContentStore = MediaContentStore.getInstance(context);
+
+        mHandlerThread = new HandlerThread("MediasCacheManager", Thread.MIN_PRIORITY);
+        mHandlerThread.start();
+        mHandler = new Handler(mHandlerThread.getLooper());
+        mUIHandler = new Handler(Looper.getMainLooper());
+    }
+
+    //==============================================================================================================
+    // Access tracking
+    //==============================================================================================================
+
+    /**
+     * Track a medias cache lookup.
+     * The least recently accessed medias are removed first.
+     *
+     * @param file the retrieved media file, null if the media is not cached
+     */
+    public void onMediaLookup(final File file) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                loadIndex();
+
+                if (null != file) {
+                    mHitsCount++;
+                    mLastAccessTimes.put(file.getAbsolutePath(), System.currentTimeMillis() / 1000);
+                } else {
+                    mMissesCount++;
+                }
+
+                mIsIndexUpdated = true;
+            }
+        });
+    }
+
+    /**
+     * Provides the medias cache hit ratio.
+     *
+     * @param callback the callback, called in the UI thread with the ratio in percent (-1 if unknown)
+     */
+    public void getHitRatio(final SimpleApiCallback<Integer> callback) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                loadIndex();
+
+                long lookupsCount = mHitsCount + mMissesCount;
+                final int ratio = (0 == lookupsCount) ? -1 : (int) (mHitsCount * 100 / lookupsCount);
+
+                mUIHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onSuccess(ratio);
+                    }
+                });
+            }
+        });
+    }
+
+    //==============================================================================================================
+    // Index file
+    //==============================================================================================================
+
+    /**
+     * Load the index file if it is not yet done.
+     */
+    private void loadIndex() {
+        if (mIsIndexLoaded) {
+            return;
+        }
+
+        mIsIndexLoaded = true;
+
+        if (!mIndexFile.exists()) {
+            return;
+        }
+
+        DataInputStream inputStream = null;
+
+        try {
+            inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(mIndexFile)));
+
+            if (INDEX_VERSION != inputStream.readInt()) {
+                Log.e(LOG_TAG, "## loadIndex() : unsupported version");
+                return;
+            }
+
+            mHitsCount = inputStream.readLong();
+            mMissesCount = inputStream.readLong();
+
+            int count = inputStream.readInt();
+            String folderPath = mMediasFolder.getAbsolutePath();
+
+            for (int i = 0; i < count; i++) {
+                String relativePath = inputStream.readUTF();
+                long lastAccessTime = inputStream.readLong();
+                mLastAccessTimes.put(folderPath + relativePath, lastAccessTime);
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## loadIndex() : failed " + e.getMessage());
+            mLastAccessTimes.clear();
+        } finally {
+            if (null != inputStream) {
+                try {
+                    inputStream.close();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## loadIndex() : close failed " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Save the index file if it has been updated.
+     */
+    private void saveIndex() {
+        if (!mIsIndexUpdated) {
+            return;
+        }
+
+        mIsIndexUpdated = false;
+
+        File tmpFile = new File(mIndexFile.getPath() + ".tmp");
+        DataOutputStream outputStream = null;
+
+        try {
+            outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+
+            String folderPath = mMediasFolder.getAbsolutePath();
+
+            // the paths are saved relatively to the medias folder
+            List<Map.Entry<String, Long>> entries = new ArrayList<>();
+
+            for (Map.Entry<String, Long> entry : mLastAccessTimes.entrySet()) {
+                if (entry.getKey().startsWith(folderPath)) {
+                    entries.add(entry);
+                }
+            }
+
+            outputStream.writeInt(INDEX_VERSION);
+            outputStream.writeLong(mHitsCount);
+            outputStream.writeLong(mMissesCount);
+            outputStream.writeInt(entries.size());
+
+            for (Map.Entry<String, Long> entry : entries) {
+                outputStream.writeUTF(entry.getKey().substring(folderPath.length()));
+                outputStream.writeLong(entry.getValue());
+            }
+
+            outputStream.close();
+            outputStream = null;
+
+            if (!tmpFile.renameTo(mIndexFile)) {
+                Log.e(LOG_TAG, "## saveIndex() : rename failed");
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## saveIndex() : failed " + e.getMessage());
+        } finally {
+            if (null != outputStream) {
+                try {
+                    outputStream.close();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## saveIndex() : close failed " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    //==============================================================================================================
+    // Cleanup
+    //==============================================================================================================
+
+    /**
+     * Provides the local medias used by the unsent messages, they must not be removed.
+     *
+     * @param session the session
+     * @return the files paths
+     */
+    public static Set<String> getPendingMediasPaths(MXSession session) {
+        Set<String> paths = new HashSet<>();
+
+        if ((null == session) || !session.isAlive()) {
+            return paths;
+        }
+
+        IMXStore store = session.getDataHandler().getStore();
+
+        for (Room room : store.getRooms()) {
+            List<Event> events = new ArrayList<>();
+
+            List<Event> undeliverableEvents = store.getUndeliverableEvents(room.getRoomId());
+            if (null != undeliverableEvents) {
+                events.addAll(undeliverableEvents);
+            }
+
+            List<Event> unsentEvents = store.getLatestUnsentEvents(room.getRoomId());
+            if (null != unsentEvents) {
+                events.addAll(unsentEvents);
+            }
+
+            for (Event event : events) {
+                if (TextUtils.equals(Event.EVENT_TYPE_MESSAGE, event.getType())) {
+                    JsonObject content = event.getContentAsJsonObject();
+
+                    if (null != content) {
+                        addLocalPath(paths, content.get("url"));
+
+                        if (content.has("info") && content.get("info").isJsonObject()) {
+                            addLocalPath(paths, content.getAsJsonObject("info").get("thumbnail_url"));
+                        }
+                    }
+                }
+            }
+        }
+
+        return paths;
+    }
+
+    /**
+     * Add the file path of a local media url.
+     *
+     * @param paths the paths set
+     * @param url   the media url
+     */
+    private static void addLocalPath(Set<String> paths, JsonElement url) {
+        if ((null != url) && url.isJsonPrimitive()) {
+            String urlAsString = url.getAsString();
+
+            if ((null != urlAsString) && urlAsString.startsWith("file://")) {
+                paths.add(Uri.parse(urlAsString).getPath());
+            }
+        }
+    }
+
+    /**
+     * Cancel the running cleanup pass.
+     */
+    public void cancelCleanup() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mCleanupGeneration++;
+                saveIndex();
+            }
+        });
+    }
+
+    /**
+     * Start a cleanup pass.
+     *
+     * @param minLastAccessTime the medias which have not been accessed since this time are removed (in seconds, 0 to keep them)
+     * @param maxSize           the max cache size in bytes (0 for no limit)
+     * @param filesToKeep       the files which must not be removed
+     */
+    public void startCleanup(final long minLastAccessTime, final long maxSize, final Set<String> filesToKeep) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final int generation = ++mCleanupGeneration;
+
+                loadIndex();
+
+                final List<File> foldersToScan = new ArrayList<>();
+                foldersToScan.add(mMediasFolder);
+
+                scanStep(generation, foldersToScan, new ArrayList<CacheEntry>(), minLastAccessTime, maxSize, filesToKeep);
+            }
+        });
+    }
+
+    /**
+     * Scan a part of the medias folder.
+     *
+     * @param generation        the cleanup pass generation
+     * @param foldersToScan     the folders which remain to scan
+     * @param entries           the scanned medias
+     * @param minLastAccessTime the min last access time
+     * @param maxSize           the max cache size
+     * @param filesToKeep       the files which must not be removed
+     */
+    private void scanStep(final int generation, final List<File> foldersToScan, final List<CacheEntry> entries, final long minLastAccessTime, final long maxSize, final Set<String> filesToKeep) {
+        if (generation != mCleanupGeneration) {
+            Log.d(LOG_TAG, "## scanStep() : the cleanup is cancelled");
+            return;
+        }
+
+        int checkedFiles = 0;
+
+        while (!foldersToScan.isEmpty() && (checkedFiles < FILES_BY_STEP)) {
+            File folder = foldersToScan.remove(foldersToScan.size() - 1);
+            File[] files = folder.listFiles();
+
+            if (null != files) {
+                for (File file : files) {
+                    if (file.isDirectory()) {
+                        foldersToScan.add(file);
+                    } else {
+                        String path = file.getAbsolutePath();
+                        long lastAccessTime = ContentUtils.getLastAccessTime(file);
+                        Long indexedAccessTime = mLastAccessTimes.get(path);
+
+                        if ((null != indexedAccessTime) && (indexedAccessTime > lastAccessTime)) {
+                            lastAccessTime = indexedAccessTime;
+                        }
+
+                        entries.add(new CacheEntry(file, lastAccessTime, file.length()));
+                        checkedFiles++;
+                    }
+                }
+            }
+        }
+
+        if (!foldersToScan.isEmpty()) {
+            mHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    scanStep(generation, foldersToScan, entries, minLastAccessTime, maxSize, filesToKeep);
+                }
+            }, STEP_DELAY_MS);
+            return;
+        }
+
+        // the deleted files are removed from the index
+        Set<String> scannedPaths = new HashSet<>();
+        long cacheSize = 0;
+
+        for (CacheEntry entry : entries) {
+            scannedPaths.add(entry.mFile.getAbsolutePath());
+            cacheSize += entry.mSize;
+        }
+
+        if (mLastAccessTimes.keySet().retainAll(scannedPaths)) {
+            mIsIndexUpdated = true;
+        }
+
+        // oldest first
+        Collections.sort(entries, new Comparator<CacheEntry>() {
+            @Override
+            public int compare(CacheEntry entry1, CacheEntry entry2) {
+                return (entry1.mLastAccessTime < entry2.mLastAccessTime) ? -1 : ((entry1.mLastAccessTime == entry2.mLastAccessTime) ? 0 : 1);
+            }
+        });
+
+        Log.d(LOG_TAG, "## scanStep() : " + entries.size() + " medias for " + cacheSize + " bytes");
+
+        evictStep(generation, entries, 0, cacheSize, minLastAccessTime, maxSize, filesToKeep);
+    }
+
+    /**
+     * Remove a part of the expired medias.
+     *
+     * @param generation        the cleanup pass generation
+     * @param entries           the medias sorted by last access time
+     * @param index             the index of the first media to check
+     * @param cacheSize         the current cache size
+     * @param minLastAccessTime the min last access time
+     * @param maxSize           the max cache size
+     * @param filesToKeep       the files which must not be removed
+     */
+    private void evictStep(final int generation, final List<CacheEntry> entries, int index, long cacheSize, final long minLastAccessTime, final long maxSize, final Set<String> filesToKeep) {
+        if (generation != mCleanupGeneration) {
+            Log.d(LOG_TAG, "## evictStep() : the cleanup is cancelled");
+            return;
+        }
+
+        long recentAccessTime = (System.currentTimeMillis() / 1000) - MIN_EVICTION_AGE_SECS;
+        int lastIndex = Math.min(entries.size(), index + FILES_BY_STEP);
+
+        for (; index < lastIndex; index++) {
+            CacheEntry entry = entries.get(index);
+
+            boolean isExpired = (minLastAccessTime > 0) && (entry.mLastAccessTime < minLastAccessTime);
+            boolean isOverSized = (maxSize > 0) && (cacheSize > maxSize);
+
+            // the entries are sorted : the next ones are more recent
+            if ((!isExpired && !isOverSized) || (entry.mLastAccessTime > recentAccessTime)) {
+                index = entries.size();
+                break;
+            }
+
+            String path = entry.mFile.getAbsolutePath();
+
+            if (!filesToKeep.contains(path) && entry.mFile.delete()) {
+                cacheSize -= entry.mSize;
+                mLastAccessTimes.remove(path);
+                mIsIndexUpdated = true;
+                mContentStore.onMediaDeleted(path);
+            }
+        }
+
+        if (index < entries.size()) {
+            final int fIndex = index;
+            final long fCacheSize = cacheSize;
+
+            mHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    evictStep(generation, entries, fIndex, fCacheSize, minLastAccessTime, maxSize, filesToKeep);
+                }
+            }, STEP_DELAY_MS);
+        } else {
+            Log.d(LOG_TAG, "## evictStep() : the cache size is now " + cacheSize + " bytes");
+            saveIndex();
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.os.Build;
+import android.text.TextUtils;
+
+import com.google.gson.JsonElement;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.db.MXMediasCache;
+import org.matrix.androidsdk.listeners.MXMediaDownloadListener;
+import org.matrix.androidsdk.rest.model.Message;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Schedules the downloads of the medias displayed in the medias slider.
+ * The medias around the displayed one are downloaded in advance, nearest first,
+ * and the downloads which leave the window are cancelled.
+ * On metered networks or in data save mode, the prefetched data is limited by a bytes budget and the videos are not prefetched.
+ */
+public class MediasPrefetchScheduler {
+    private static final String LOG_TAG = MediasPrefetchScheduler.class.getSimpleName();
+
+    // number of medias prefetched before and after the displayed one
+    private static final int PREFETCH_WINDOW = 2;
+
+    // max number of parallel prefetches, to let the bandwidth to the displayed media
+    private static final int MAX_PARALLEL_PREFETCHES = 2;
+
+    // max number of prefetched bytes on metered networks
+    private static final long DATA_SAVER_BYTES_BUDGET = 5 * 1024 * 1024;
+
+    /**
+     * Prefetch listener
+     */
+    public interface IPrefetchListener {
+        /**
+         * A media download has been started in advance.
+         *
+         * @param position   the media position
+         * @param downloadId the download id
+         */
+        void onPrefetchStart(int position, String downloadId);
+    }
+
+    private final Context mContext;
+    private final MXSession mSession;
+    private final MXMediasCache mMediasCache;
+    private final List<SlidableMediaInfo> mMediasList;
+    private final IPrefetchListener mListener;
+
+    // the displayed media position
+    private int mCurrentPosition = -1;
+
+    // the running prefetches
+    private final Map<Integer, String> mDownloadIdByPosition = new HashMap<>();
+
+    // the downloaded bytes, by download id
+    private final Map<String, Integer> mDownloadedBytesById = new HashMap<>();
+
+    // the total of prefetched bytes
+    private long mPrefetchedBytes = 0;
+
+    /**
+     * Constructor
+     *
+     * @param context     the context
+     * @param session     the session
+     * @param mediasCache the medias cache
+     * @param mediasList  the slider medias
+     * @param listener    the listener
+     */
+    public MediasPrefetchScheduler(Context context, MXSession session, MXMediasCache mediasCache, List<SlidableMediaInfo> mediasList, IPrefetchListener listener) {
+        mContext = context;
+        mSession = session;
+        mMediasCache = mediasCache;
+        mMediasList = mediasList;
+        mListener = listener;
+    }
+
+    /**
+     * Provides the mime type used to download and to cache a media.
+     * The images without mime type are downloaded as jpeg.
+     *
+     * @param mediaInfo the media info
+     * @return the mime type
+     */
+    public static String getMimeType(SlidableMediaInfo mediaInfo) {
+        if (Message.MSGTYPE_IMAGE.equals(mediaInfo.mMessageType) && TextUtils.isEmpty(mediaInfo.mMimeType)) {
+            return "image/jpeg";
+        }
+
+        return mediaInfo.mMimeType;
+    }
+
+    /**
+     * Provides the prefetch download id of a media.
+     *
+     * @param position the media position
+     * @return the download id, null if the media is not prefetched
+     */
+    public String getDownloadId(int position) {
+        return mDownloadIdByPosition.get(position);
+    }
+
+    /**
+     * Update the displayed media.
+     * The prefetches out of the window are cancelled and the missing ones are started.
+     *
+     * @param position the displayed media position
+     */
+    public void setCurrentPosition(int position) {
+        if (mCurrentPosition == position) {
+            return;
+        }
+
+        mCurrentPosition = position;
+
+        Iterator<Map.Entry<Integer, String>> iterator = mDownloadIdByPosition.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, String> entry = iterator.next();
+            int entryPosition = entry.getKey();
+
+            // the displayed media download is managed by the caller
+            if (entryPosition == position) {
+                mDownloadedBytesById.remove(entry.getValue());
+                iterator.remove();
+            } else if (Math.abs(entryPosition - position) > PREFETCH_WINDOW) {
+                Log.d(LOG_TAG, "## setCurrentPosition() : cancel the prefetch of the media " + entryPosition);
+                mMediasCache.cancelDownload(entry.getValue());
+                mDownloadedBytesById.remove(entry.getValue());
+                iterator.remove();
+            }
+        }
+
+        schedulePrefetches();
+    }
+
+    /**
+     * Cancel all the running prefetches.
+     */
+    public void cancelAll() {
+        for (String downloadId : mDownloadIdByPosition.values()) {
+            mMediasCache.cancelDownload(downloadId);
+        }
+
+        mDownloadIdByPosition.clear();
+        mDownloadedBytesById.clear();
+        mCurrentPosition = -1;
+    }
+
+    /**
+     * Tells if the device network usage must be limited.
+     *
+     * @return true if the application data save mode is enabled, if the network is metered or if the system data saver is enabled.
+     */
+    private boolean isDataSaverMode() {
+        if (PreferencesManager.useDataSaveMode(mContext)) {
+            return true;
+        }
+
+        ConnectivityManager connectivityManager = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+
+        if (null == connectivityManager) {
+            return false;
+        }
+
+        if ((Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) && (ConnectivityManager.RESTRICT_BACKGROUND_STATUS_ENABLED == connectivityManager.getRestrictBackgroundStatus())) {
+            return true;
+        }
+
+        return connectivityManager.isActiveNetworkMetered();
+    }
+
+    /**
+     * Start the missing prefetches, nearest medias first.
+     */
+    private void schedulePrefetches() {
+        if (mCurrentPosition < 0) {
+            return;
+        }
+
+        boolean isDataSaverMode = isDataSaverMode();
+
+        for (int offset = 1; offset <= PREFETCH_WINDOW; offset++) {
+            for (int position : new int[]{mCurrentPosition + offset, mCurrentPosition - offset}) {
+                if (mDownloadIdByPosition.size() >= MAX_PARALLEL_PREFETCHES) {
+                    return;
+                }
+
+                if (isDataSaverMode && (mPrefetchedBytes >= DATA_SAVER_BYTES_BUDGET)) {
+                    Log.d(LOG_TAG, "## schedulePrefetches() : the data saver budget is reached");
+                    return;
+                }
+
+                if ((position >= 0) && (position < mMediasList.size()) && !mDownloadIdByPosition.containsKey(position)) {
+                    startPrefetch(position, isDataSaverMode);
+                }
+            }
+        }
+    }
+
+    /**
+     * Start a media prefetch.
+     *
+     * @param position        the media position
+     * @param isDataSaverMode true if the network usage must be limited
+     */
+    private void startPrefetch(final int position, boolean isDataSaverMode) {
+        final SlidableMediaInfo mediaInfo = mMediasList.get(position);
+        boolean isImage = Message.MSGTYPE_IMAGE.equals(mediaInfo.mMessageType);
+
+        // the videos are too large to be downloaded in advance on metered networks
+        if (!isImage && isDataSaverMode) {
+            return;
+        }
+
+        final String mimeType = getMimeType(mediaInfo);
+
+        // already downloaded
+        if (null != mMediasCache.mediaCacheFile(mediaInfo.mMediaUrl, mimeType)) {
+            return;
+        }
+
+        final String downloadId = mMediasCache.downloadMedia(mContext, mSession.getHomeServerConfig(), mediaInfo.mMediaUrl, mimeType, mediaInfo.mEncryptedFileInfo);
+
+        if (null == downloadId) {
+            return;
+        }
+
+        Log.d(LOG_TAG, "## startPrefetch() : prefetch the media " + position);
+
+        mDownloadIdByPosition.put(position, downloadId);
+        mDownloadedBytesById.put(downloadId, 0);
+
+        mMediasCache.addDownloadListener(downloadId, new MXMediaDownloadListener() {
+            @Override
+            public void onDownloadProgress(String aDownloadId, DownloadStats stats) {
+                updateDownloadedBytes(aDownloadId, stats.mDownloadedSize);
+            }
+
+            @Override
+            public void onDownloadComplete(String aDownloadId) {
+                MediaContentStore.getInstance(mContext).onMediaDownloaded(mMediasCache, mediaInfo.mMediaUrl, mimeType, mediaInfo.mEncryptedFileInfo);
+                onPrefetchDone(position, aDownloadId);
+            }
+
+            @Override
+            public void onDownloadError(String aDownloadId, JsonElement jsonElement) {
+                onPrefetchDone(position, aDownloadId);
+            }
+
+            @Override
+            public void onDownloadCancel(String aDownloadId) {
+                onPrefetchDone(position, aDownloadId);
+            }
+        });
+
+        if (null != mListener) {
+            mListener.onPrefetchStart(position, downloadId);
+        }
+    }
+
+    /**
+     * Update the prefetched bytes count.
+     *
+     * @param downloadId     the download id
+     * @param downloadedSize the downloaded bytes of this download
+     */
+    private void updateDownloadedBytes(String downloadId, int downloadedSize) {
+        Integer previousSize = mDownloadedBytesById.get(downloadId);
+
+        if ((null != previousSize) && (downloadedSize > previousSize)) {
+            mPrefetchedBytes += downloadedSize - previousSize;
+            mDownloadedBytesById.put(downloadId, downloadedSize);
+        }
+    }
+
+    /**
+     * A prefetch is done : start the next one.
+     *
+     * @param position   the media position
+     * @param downloadId the download id
+     */
+    private void onPrefetchDone(int position, String downloadId) {
+        if (TextUtils.equals(downloadId, mDownloadIdByPosition.get(position))) {
+            mDownloadIdByPosition.remove(position);
+            mDownloadedBytesById.remove(downloadId);
+            schedulePrefetches();
+        }
+    }
+}
@@ -102,6 +102,8 @@ public class PreferencesManager {
 
     public static final String SETTINGS_MEDIA_SAVING_PERIOD_KEY = "SETTINGS_MEDIA_SAVING_PERIOD_KEY";
     public static final String SETTINGS_MEDIA_SAVING_PERIOD_SELECTED_KEY = "SETTINGS_MEDIA_SAVING_PERIOD_SELECTED_KEY";
+    public static final String SETTINGS_MEDIA_CACHE_MAX_SIZE_KEY = "SETTINGS_MEDIA_CACHE_MAX_SIZE_KEY";
+    public static final String SETTINGS_MEDIA_CACHE_MAX_SIZE_SELECTED_KEY = "SETTINGS_MEDIA_CACHE_MAX_SIZE_SELECTED_KEY";
 
     public static final String SETTINGS_PIN_UNREAD_MESSAGES_PREFERENCE_KEY = "SETTINGS_PIN_UNREAD_MESSAGES_PREFERENCE_KEY";
     public static final String SETTINGS_PIN_MISSED_NOTIFICATIONS_PREFERENCE_KEY = "SETTINGS_PIN_MISSED_NOTIFICATIONS_PREFERENCE_KEY";
@@ -122,6 +124,11 @@ public class PreferencesManager {
     private static final int MEDIA_SAVING_1_MONTH = 2;
     private static final int MEDIA_SAVING_FOREVER = 3;
 
+    private static final int MEDIA_CACHE_MAX_SIZE_250_MB = 0;
+    private static final int MEDIA_CACHE_MAX_SIZE_500_MB = 1;
+    private static final int MEDIA_CACHE_MAX_SIZE_1_GB = 2;
+    private static final int MEDIA_CACHE_MAX_SIZE_UNLIMITED = 3;
+
     // some preferences keys must be kept after a logout
     private static final List<String> mKeysToKeepAfterLogout = Arrays.asList(
             SETTINGS_HIDE_READ_RECEIPTS_KEY,
@@ -132,6 +139,8 @@ public class PreferencesManager {
             SETTINGS_HIDE_AVATAR_DISPLAY_NAME_CHANGES_MESSAGES_KEY,
             SETTINGS_MEDIA_SAVING_PERIOD_KEY,
             SETTINGS_MEDIA_SAVING_PERIOD_SELECTED_KEY,
+            SETTINGS_MEDIA_CACHE_MAX_SIZE_KEY,
+            SETTINGS_MEDIA_CACHE_MAX_SIZE_SELECTED_KEY,
 
             SETTINGS_PIN_UNREAD_MESSAGES_PREFERENCE_KEY,
             SETTINGS_PIN_MISSED_NOTIFICATIONS_PREFERENCE_KEY,
@@ -427,6 +436,88 @@ public class PreferencesManager {
         return "?";
     }
 
+    /**
+     * Provides the medias cache max size choice list.
+     *
+     * @param context the context
+     * @return the list
+     */
+    public static CharSequence[] getMediasCacheMaxSizeItemsChoicesList(Context context) {
+        return new CharSequence[]{
+                context.getString(R.string.media_cache_max_size_250_mb),
+                context.getString(R.string.media_cache_max_size_500_mb),
+                context.getString(R.string.media_cache_max_size_1_gb),
+                context.getString(R.string.media_cache_max_size_unlimited)};
+    }
+
+    /**
+     * Provides the selected medias cache max size.
+     *
+     * @param context the context
+     * @return the selected max size index
+     */
+    public static int getSelectedMediasCacheMaxSize(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getInt(SETTINGS_MEDIA_CACHE_MAX_SIZE_SELECTED_KEY, MEDIA_CACHE_MAX_SIZE_UNLIMITED);
+    }
+
+    /**
+     * Updates the selected medias cache max size.
+     *
+     * @param context the context
+     * @param index the selected max size index
+     */
+    public static void setSelectedMediasCacheMaxSize(Context context, int index) {
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.putInt(SETTINGS_MEDIA_CACHE_MAX_SIZE_SELECTED_KEY, index);
+        editor.commit();
+    }
+
+    /**
+     * Provides the medias cache max size.
+     *
+     * @param context the context
+     * @return the max size in bytes (0 for no limit)
+     */
+    public static long getMediasCacheMaxSize(Context context) {
+        int selection = getSelectedMediasCacheMaxSize(context);
+
+        switch (selection) {
+            case MEDIA_CACHE_MAX_SIZE_250_MB:
+                return 250L * 1024 * 1024;
+            case MEDIA_CACHE_MAX_SIZE_500_MB:
+                return 500L * 1024 * 1024;
+            case MEDIA_CACHE_MAX_SIZE_1_GB:
+                return 1024L * 1024 * 1024;
+            case MEDIA_CACHE_MAX_SIZE_UNLIMITED:
+                return 0;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Provides the selected medias cache max size.
+     *
+     * @param context the context
+     * @return the selected max size
+     */
+    public static String getSelectedMediasCacheMaxSizeString(Context context) {
+        int selection = getSelectedMediasCacheMaxSize(context);
+
+        switch (selection) {
+            case MEDIA_CACHE_MAX_SIZE_250_MB:
+                return context.getString(R.string.media_cache_max_size_250_mb);
+            case MEDIA_CACHE_MAX_SIZE_500_MB:
+                return context.getString(R.string.media_cache_max_size_500_mb);
+            case MEDIA_CACHE_MAX_SIZE_1_GB:
+                return context.getString(R.string.media_cache_max_size_1_gb);
+            case MEDIA_CACHE_MAX_SIZE_UNLIMITED:
+                return context.getString(R.string.media_cache_max_size_unlimited);
+        }
+        return "?";
+    }
+
     /**
      * Fix some migration issues
      */
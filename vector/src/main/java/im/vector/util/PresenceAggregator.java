@@ -0,0 +1,325 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.view.Choreographer;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.listeners.MXEventListener;
+import org.matrix.androidsdk.rest.callback.SimpleApiCallback;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.User;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Aggregates the presence updates of a session for the users lists.
+ * The updates are batched until the next frame, and each listener is only warned about the users
+ * it displays whose status text has changed. The presence refresh requests are limited per user.
+ * The methods must be called from the UI thread.
+ */
+public class PresenceAggregator {
+    private static final String LOG_TAG = PresenceAggregator.class.getSimpleName();
+
+    // the min delay between two presence refresh requests of an user
+    private static final long MIN_REFRESH_INTERVAL_MS = 5 * 60 * 1000;
+
+    /**
+     * Presence listener
+     */
+    public interface IPresenceListener {
+        /**
+         * The displayed status of some users has changed.
+         * This method is called at most once per frame.
+         *
+         * @param userIds the user ids
+         */
+        void onPresencesUpdated(Set<String> userIds);
+    }
+
+    // the aggregators, by user id
+    private static final Map<String, PresenceAggregator> mInstances = new HashMap<>();
+
+    private final Context mContext;
+    private final MXSession mSession;
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+
+    // the displayed statuses by user id, by listener
+    // they are forgotten when the listener is removed
+    private final Map<IPresenceListener, Map<String, String>> mStatusesByListener = new HashMap<>();
+
+    // the last presence refresh request time, by user id
+    private final Map<String, Long> mRefreshTimeByUserId = new HashMap<>();
+
+    // the users updated since the last frame
+    private final Set<String> mUpdatedUserIds = new HashSet<>();
+
+    // true when the updates dispatch is scheduled
+    private boolean mIsDispatchScheduled = false;
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            dispatchUpdates();
+        }
+    };
+
+    private final Runnable mScheduleDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(mFrameCallback);
+        }
+    };
+
+    private final MXEventListener mEventsListener = new MXEventListener() {
+        @Override
+        public void onPresenceUpdate(Event event, User user) {
+            if (null != user) {
+                onUserUpdated(user.user_id);
+            }
+        }
+    };
+
+    /**
+     * Provides the aggregator of a session.
+     *
+     * @param context the context
+     * @param session the session
+     * @return the aggregator
+     */
+    public static PresenceAggregator getInstance(Context context, MXSession session) {
+        PresenceAggregator aggregator = mInstances.get(session.getMyUserId());
+
+        if ((null == aggregator) || (aggregator.mSession != session)) {
+            if (null != aggregator) {
+                aggregator.release();
+            }
+
+            aggregator = new PresenceAggregator(context.getApplicationContext(), session);
+            mInstances.put(session.getMyUserId(), aggregator);
+        }
+
+        return aggregator;
+    }
+
+    /**
+     * Release the aggregator of a session on logout.
+     * The pending dispatch is cancelled.
+     *
+     * @param session the session
+     */
+    public static void release(MXSession session) {
+        PresenceAggregator aggregator = mInstances.remove(session.getMyUserId());
+
+        if (null != aggregator) {
+            aggregator.release();
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param context the application context
+     * @param session the session
+     */
+    private PresenceAggregator(Context context, MXSession session) {
+        mContext = context;
+        mSession = session;
+        mSession.getDataHandler().addListener(mEventsListener);
+    }
+
+    /**
+     * Stop listening to the session events.
+     */
+    private void release() {
+        Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+        mUiHandler.removeCallbacks(mScheduleDispatchRunnable);
+
+        if (mSession.isAlive()) {
+            mSession.getDataHandler().removeListener(mEventsListener);
+        }
+    }
+
+    /**
+     * Add a presence listener.
+     *
+     * @param listener the listener
+     */
+    public void addListener(IPresenceListener listener) {
+        if ((null != listener) && !mStatusesByListener.containsKey(listener)) {
+            mStatusesByListener.put(listener, new HashMap<String, String>());
+        }
+    }
+
+    /**
+     * Remove a presence listener.
+     *
+     * @param listener the listener
+     */
+    public void removeListener(IPresenceListener listener) {
+        mStatusesByListener.remove(listener);
+    }
+
+    /**
+     * Provides the status to display for an user.
+     * The listener will be warned when it changes, until it is removed.
+     *
+     * @param listener   the listener of the list which displays the status
+     * @param userId     the user id
+     * @param canRefresh true to refresh the presence if it is unknown or obsolete
+     * @return the status, null if the user is unknown
+     */
+    public String getStatus(IPresenceListener listener, final String userId, boolean canRefresh) {
+        if (null == userId) {
+            return null;
+        }
+
+        SimpleApiCallback<Void> refreshCallback = null;
+
+        if (canRefresh && isPresenceObsolete(userId) && canRefreshPresence(userId)) {
+            refreshCallback = new SimpleApiCallback<Void>() {
+                @Override
+                public void onSuccess(Void info) {
+                    onUserUpdated(userId);
+                }
+            };
+        }
+
+        String status = VectorUtils.getUserOnlineStatus(mContext, mSession, userId, refreshCallback);
+        Map<String, String> statuses = mStatusesByListener.get(listener);
+
+        if (null != statuses) {
+            statuses.put(userId, status);
+        }
+
+        return status;
+    }
+
+    /**
+     * Tells if the presence of an user is unknown or obsolete.
+     * VectorUtils.getUserOnlineStatus only refreshes it in this case.
+     *
+     * @param userId the user id
+     * @return true if the presence should be refreshed
+     */
+    private boolean isPresenceObsolete(String userId) {
+        User user = mSession.getDataHandler().getStore().getUser(userId);
+        return (null == user) || user.isPresenceObsolete();
+    }
+
+    /**
+     * Tells if a presence refresh request can be sent for an user.
+     *
+     * @param userId the user id
+     * @return true if no request has been sent for a while
+     */
+    private boolean canRefreshPresence(String userId) {
+        long now = SystemClock.elapsedRealtime();
+        Long lastRefreshTime = mRefreshTimeByUserId.get(userId);
+
+        if ((null != lastRefreshTime) && (now - lastRefreshTime < MIN_REFRESH_INTERVAL_MS)) {
+            return false;
+        }
+
+        mRefreshTimeByUserId.put(userId, now);
+        return true;
+    }
+
+    /**
+     * The presence of an user has been updated.
+     * The update is dispatched with the next frame.
+     *
+     * @param userId the user id
+     */
+    private void onUserUpdated(String userId) {
+        if (null == userId) {
+            return;
+        }
+
+        synchronized (mUpdatedUserIds) {
+            mUpdatedUserIds.add(userId);
+
+            if (mIsDispatchScheduled) {
+                return;
+            }
+
+            mIsDispatchScheduled = true;
+        }
+
+        // the frame callback must be posted from the UI thread
+        mUiHandler.post(mScheduleDispatchRunnable);
+    }
+
+    /**
+     * Warn the listeners about the users whose displayed status has changed.
+     */
+    private void dispatchUpdates() {
+        Set<String> userIds;
+
+        synchronized (mUpdatedUserIds) {
+            userIds = new HashSet<>(mUpdatedUserIds);
+            mUpdatedUserIds.clear();
+            mIsDispatchScheduled = false;
+        }
+
+        // the statuses are computed once for all the listeners
+        Map<String, String> statusByUserId = new HashMap<>();
+
+        for (Map.Entry<IPresenceListener, Map<String, String>> entry : new ArrayList<>(mStatusesByListener.entrySet())) {
+            Map<String, String> statuses = entry.getValue();
+            Set<String> updatedUserIds = new HashSet<>();
+
+            for (String userId : userIds) {
+                // the status is not displayed by this list
+                if (!statuses.containsKey(userId)) {
+                    continue;
+                }
+
+                if (!statusByUserId.containsKey(userId)) {
+                    statusByUserId.put(userId, VectorUtils.getUserOnlineStatus(mContext, mSession, userId, null));
+                }
+
+                String status = statusByUserId.get(userId);
+
+                if (!TextUtils.equals(status, statuses.get(userId))) {
+                    statuses.put(userId, status);
+                    updatedUserIds.add(userId);
+                }
+            }
+
+            if (!updatedUserIds.isEmpty()) {
+                Log.d(LOG_TAG, "## dispatchUpdates() : " + updatedUserIds.size() + " / " + userIds.size() + " displayed statuses updated");
+
+                try {
+                    entry.getKey().onPresencesUpdated(updatedUserIds);
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## dispatchUpdates() : onPresencesUpdated failed " + e.getMessage());
+                }
+            }
+        }
+    }
+}
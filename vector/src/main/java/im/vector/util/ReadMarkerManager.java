@@ -114,7 +114,7 @@ public class ReadMarkerManager implements VectorMessagesAdapter.ReadMarkerListen
         mRoom = room;
         mRoomSummary = mRoom.getDataHandler().getStore().getSummary(mRoom.getRoomId());
 
-        mReadMarkerEventId = mRoomSummary.getReadMarkerEventId();
+        mReadMarkerEventId = getReadMarkerEventId();
         Log.d(LOG_TAG, "Create ReadMarkerManager instance id:" + mReadMarkerEventId + " for room:" + mRoom.getRoomId());
 
         mUpdateMode = updateMode;
@@ -232,7 +232,7 @@ public class ReadMarkerManager implements VectorMessagesAdapter.ReadMarkerListen
      */
     public void onReadMarkerChanged(String roomId) {
         if (TextUtils.equals(mRoom.getRoomId(), roomId)) {
-            final String newReadMarkerEventId = mRoomSummary.getReadMarkerEventId();
+            final String newReadMarkerEventId = getReadMarkerEventId();
             if (!TextUtils.equals(newReadMarkerEventId, mReadMarkerEventId)) {
                 Log.d(LOG_TAG, "onReadMarkerChanged" + newReadMarkerEventId);
                 refresh();
@@ -240,6 +240,21 @@ public class ReadMarkerManager implements VectorMessagesAdapter.ReadMarkerListen
         }
     }
 
+    /**
+     * Provides the room read marker, including the update which is not yet sent.
+     *
+     * @return the read marker event id
+     */
+    private String getReadMarkerEventId() {
+        String readMarkerEventId = ReadReceiptsScheduler.getInstance(mSession).getPendingReadMarkerEventId(mRoom.getRoomId());
+
+        if ((null == readMarkerEventId) && (null != mRoomSummary)) {
+            readMarkerEventId = mRoomSummary.getReadMarkerEventId();
+        }
+
+        return readMarkerEventId;
+    }
+
     /**
      * Handle jump to bottom action
      */
@@ -299,7 +314,7 @@ public class ReadMarkerManager implements VectorMessagesAdapter.ReadMarkerListen
      * Make sure we have the correct read marker event id
      */
     private void updateReadMarkerValue() {
-        mReadMarkerEventId = mRoomSummary.getReadMarkerEventId();
+        mReadMarkerEventId = getReadMarkerEventId();
         mVectorMessageListFragment.getMessageAdapter().updateReadMarker(mReadMarkerEventId, mRoomSummary.getReadReceiptEventId());
     }
 
@@ -320,7 +335,7 @@ public class ReadMarkerManager implements VectorMessagesAdapter.ReadMarkerListen
         //Log.d(LOG_TAG, "updateJumpToBanner");
         boolean showJumpToView = false;
 
-        mReadMarkerEventId = mRoomSummary.getReadMarkerEventId();
+        mReadMarkerEventId = getReadMarkerEventId();
         if (mRoomSummary != null && mReadMarkerEventId != null && !mHasJumpedToFirstUnread) {
             final String readReceiptEventId = mRoomSummary.getReadReceiptEventId();
 
@@ -545,10 +560,13 @@ public class ReadMarkerManager implements VectorMessagesAdapter.ReadMarkerListen
                 newReadMarkerEvent = mVectorMessageListFragment.getEvent(lastVisiblePos - 1);
             }
 
+            // the read marker is never set to the local id of an EventGroup
+            newReadMarkerEvent = EventGroup.getReadableEvent(newReadMarkerEvent);
+
             // Update read marker
             // In preview mode, check events from adapter and only update if new read marker is more recent
             final Event currentReadMarkerEvent = getEvent(mReadMarkerEventId);
-            if (currentReadMarkerEvent != null) {
+            if ((currentReadMarkerEvent != null) && (newReadMarkerEvent != null)) {
                 final long currentReadMarkerTs = currentReadMarkerEvent.getOriginServerTs();
                 final MessageRow closestRow = mVectorMessageListFragment.getMessageAdapter().getClosestRow(newReadMarkerEvent);
 
@@ -559,7 +577,9 @@ public class ReadMarkerManager implements VectorMessagesAdapter.ReadMarkerListen
                             + " TS:" + currentReadMarkerTs + " closestEvent:" + closestEvent.eventId + " TS:" + closestEvent.getOriginServerTs());
                     if (newReadMarkerTs > currentReadMarkerTs) {
                         Log.d(LOG_TAG, "setReadMarkerToLastVisibleRow update read marker to:" + newReadMarkerEvent.eventId + " isMessageId:" + MXSession.isMessageId(newReadMarkerEvent.eventId));
-                        mRoom.setReadMakerEventId(newReadMarkerEvent.eventId);
+                        // the read marker updates are coalesced with the read receipts
+                        // but it is displayed without waiting for the request
+                        ReadReceiptsScheduler.getInstance(mSession).scheduleReadMarker(mRoom, newReadMarkerEvent, null);
                         onReadMarkerChanged(mRoom.getRoomId());
                     }
                 }
@@ -617,7 +637,7 @@ public class ReadMarkerManager implements VectorMessagesAdapter.ReadMarkerListen
                 // In case it is triggered before any onScroll callback
                 // crash reported by rage shake
                 try {
-                    mLastVisibleEvent = mVectorMessageListFragment.getEvent(mVectorMessageListFragment.getMessageListView().getLastVisiblePosition());
+                    mLastVisibleEvent = EventGroup.getReadableEvent(mVectorMessageListFragment.getEvent(mVectorMessageListFragment.getMessageListView().getLastVisiblePosition()));
                 } catch (Exception e) {
                     Log.e(LOG_TAG, "## onReadMarkerDisplayed() : crash while retrieving mLastVisibleEvent " + e.getMessage());
                 }
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.text.TextUtils;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.data.RoomState;
+import org.matrix.androidsdk.rest.model.ReceiptData;
+import org.matrix.androidsdk.rest.model.RoomMember;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read receipts of the displayed events of a room.
+ * The readers of an event are retrieved once, on a background thread, then they are updated
+ * incrementally when some receipts are received : only the events whose readers changed are refreshed.
+ * The methods must be called from the UI thread.
+ */
+public class ReadReceiptsModel {
+    private static final String LOG_TAG = ReadReceiptsModel.class.getSimpleName();
+
+    // the number of displayed avatars
+    public static final int MAX_AVATARS_COUNT = 5;
+
+    /**
+     * Read receipts listener
+     */
+    public interface IReadReceiptsListener {
+        /**
+         * The readers of some events have been retrieved.
+         * This method is called on the UI thread.
+         *
+         * @param eventIds the event ids
+         */
+        void onReadReceiptsUpdated(Set<String> eventIds);
+    }
+
+    /**
+     * The readers of an event
+     */
+    public static class EventReaders {
+        // the receipts, the latest first
+        private final List<ReceiptData> mReceipts;
+
+        /**
+         * Constructor
+         *
+         * @param receipts the sorted receipts
+         */
+        EventReaders(List<ReceiptData> receipts) {
+            mReceipts = receipts;
+        }
+
+        /**
+         * @return the readers count
+         */
+        public int getCount() {
+            return mReceipts.size();
+        }
+
+        /**
+         * @return the receipts, the latest first
+         */
+        public List<ReceiptData> getReceipts() {
+            return mReceipts;
+        }
+
+        /**
+         * Provides the members whose avatars are displayed.
+         * They are resolved with the room state of the displayed event.
+         *
+         * @param roomState the room state
+         * @return the members, null when a receipt user is not a member
+         */
+        public List<RoomMember> getAvatarMembers(RoomState roomState) {
+            List<RoomMember> members = new ArrayList<>();
+
+            for (int index = 0; index < Math.min(mReceipts.size(), MAX_AVATARS_COUNT); index++) {
+                members.add((null != roomState) ? roomState.getMember(mReceipts.get(index).userId) : null);
+            }
+
+            return members;
+        }
+    }
+
+    // the shared model thread
+    private static HandlerThread mHandlerThread = null;
+    private static Handler mModelHandler = null;
+
+    private final MXSession mSession;
+    private final String mRoomId;
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+
+    // the events readers, by event id
+    private final Map<String, EventReaders> mReadersByEventId = new HashMap<>();
+
+    // the event read by each known reader
+    private final Map<String, String> mEventIdByReader = new HashMap<>();
+
+    // the events whose readers are being retrieved
+    private final Set<String> mPendingEventIds = new HashSet<>();
+
+    // the receipts senders received while some readers were being retrieved
+    private final Set<String> mUpdatedSenderIds = new HashSet<>();
+
+    // incremented when the model is cleared, to ignore the pending retrievals
+    private int mVersion = 0;
+
+    private IReadReceiptsListener mListener;
+
+    /**
+     * Constructor
+     *
+     * @param session the session
+     * @param roomId  the room id
+     */
+    public ReadReceiptsModel(MXSession session, String roomId) {
+        mSession = session;
+        mRoomId = roomId;
+
+        synchronized (ReadReceiptsModel.class) {
+            if (null == mHandlerThread) {
+                mHandlerThread = new HandlerThread("ReadReceiptsModel", Thread.MIN_PRIORITY);
+                mHandlerThread.start();
+                mModelHandler = new Handler(mHandlerThread.getLooper());
+            }
+        }
+    }
+
+    /**
+     * Set the listener
+     *
+     * @param listener the listener
+     */
+    public void setListener(IReadReceiptsListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Provides the readers of an event.
+     * If they are not yet known, they are retrieved in background and the listener is called.
+     *
+     * @param eventId the event id
+     * @return the readers, null if they are not yet known
+     */
+    public EventReaders getReaders(final String eventId) {
+        if (null == eventId) {
+            return null;
+        }
+
+        EventReaders readers = mReadersByEventId.get(eventId);
+
+        if ((null == readers) && mPendingEventIds.add(eventId)) {
+            final int version = mVersion;
+
+            mModelHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    List<ReceiptData> storeReceipts = new ArrayList<>();
+                    boolean isRetrieved = true;
+
+                    try {
+                        List<ReceiptData> eventReceipts = mSession.getDataHandler().getStore().getEventReceipts(mRoomId, eventId, true, true);
+
+                        if (null != eventReceipts) {
+                            storeReceipts.addAll(eventReceipts);
+                        }
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "## getReaders() failed " + e.getMessage());
+                        isRetrieved = false;
+                    }
+
+                    // the readers are not cached on failure, they will be retrieved again
+                    final List<ReceiptData> receipts = isRetrieved ? storeReceipts : null;
+
+                    mUiHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            // the model has been cleared in the meantime
+                            if (version != mVersion) {
+                                return;
+                            }
+
+                            mPendingEventIds.remove(eventId);
+
+                            if (null != receipts) {
+                                onReadersRetrieved(eventId, receipts);
+                            } else if (mPendingEventIds.isEmpty()) {
+                                mUpdatedSenderIds.clear();
+                            }
+                        }
+                    });
+                }
+            });
+        }
+
+        return readers;
+    }
+
+    /**
+     * Some receipts have been received.
+     * The known readers are moved to their new read event.
+     *
+     * @param senderIds the receipts senders
+     * @return the ids of the events whose readers changed
+     */
+    public Set<String> onReceiptsUpdate(List<String> senderIds) {
+        Set<String> updatedEventIds = new HashSet<>();
+
+        for (String senderId : senderIds) {
+            // the user own receipts are not displayed
+            if (TextUtils.equals(senderId, mSession.getMyUserId())) {
+                continue;
+            }
+
+            // the pending retrievals might not include this receipt
+            if (!mPendingEventIds.isEmpty()) {
+                mUpdatedSenderIds.add(senderId);
+            }
+
+            ReceiptData receipt = mSession.getDataHandler().getStore().getReceipt(mRoomId, senderId);
+            String newEventId = (null != receipt) ? receipt.eventId : null;
+            String oldEventId = mEventIdByReader.get(senderId);
+
+            if (TextUtils.equals(newEventId, oldEventId)) {
+                continue;
+            }
+
+            // remove the reader from its previous event
+            if (null != oldEventId) {
+                mEventIdByReader.remove(senderId);
+                EventReaders readers = mReadersByEventId.get(oldEventId);
+
+                if (null != readers) {
+                    List<ReceiptData> receipts = new ArrayList<>(readers.getReceipts());
+
+                    for (int index = 0; index < receipts.size(); index++) {
+                        if (TextUtils.equals(receipts.get(index).userId, senderId)) {
+                            receipts.remove(index);
+                            break;
+                        }
+                    }
+
+                    mReadersByEventId.put(oldEventId, new EventReaders(receipts));
+                }
+
+                updatedEventIds.add(oldEventId);
+            }
+
+            // add it to the new one, the latest first
+            if (null != newEventId) {
+                EventReaders readers = mReadersByEventId.get(newEventId);
+
+                if (null != readers) {
+                    List<ReceiptData> receipts = new ArrayList<>(readers.getReceipts());
+                    receipts.add(0, receipt);
+                    mReadersByEventId.put(newEventId, new EventReaders(receipts));
+                    mEventIdByReader.put(senderId, newEventId);
+                }
+
+                updatedEventIds.add(newEventId);
+            }
+        }
+
+        return updatedEventIds;
+    }
+
+    /**
+     * Forget the readers, they will be retrieved again.
+     */
+    public void clear() {
+        mVersion++;
+        mReadersByEventId.clear();
+        mEventIdByReader.clear();
+        mPendingEventIds.clear();
+        mUpdatedSenderIds.clear();
+    }
+
+    /**
+     * The readers of an event have been retrieved from the store.
+     * The receipts which have been received during the retrieval are merged.
+     *
+     * @param eventId  the event id
+     * @param receipts the retrieved receipts
+     */
+    private void onReadersRetrieved(String eventId, List<ReceiptData> receipts) {
+        if (!mUpdatedSenderIds.isEmpty()) {
+            for (int index = receipts.size() - 1; index >= 0; index--) {
+                if (mUpdatedSenderIds.contains(receipts.get(index).userId)) {
+                    receipts.remove(index);
+                }
+            }
+
+            for (String senderId : mUpdatedSenderIds) {
+                ReceiptData receipt = mSession.getDataHandler().getStore().getReceipt(mRoomId, senderId);
+
+                if ((null != receipt) && TextUtils.equals(receipt.eventId, eventId)) {
+                    receipts.add(receipt);
+                }
+            }
+
+            Collections.sort(receipts, ReceiptData.descComparator);
+
+            if (mPendingEventIds.isEmpty()) {
+                mUpdatedSenderIds.clear();
+            }
+        }
+
+        for (ReceiptData receipt : receipts) {
+            mEventIdByReader.put(receipt.userId, eventId);
+        }
+
+        mReadersByEventId.put(eventId, new EventReaders(receipts));
+        onReadersUpdated(Collections.singleton(eventId));
+    }
+
+    /**
+     * Warn the listener that some readers have been updated.
+     *
+     * @param eventIds the event ids
+     */
+    private void onReadersUpdated(Set<String> eventIds) {
+        if (null != mListener) {
+            try {
+                mListener.onReadReceiptsUpdated(eventIds);
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## onReadersUpdated() failed " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.data.Room;
+import org.matrix.androidsdk.data.RoomSummary;
+import org.matrix.androidsdk.rest.callback.ApiCallback;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.MatrixError;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coalesces the read receipts and the read markers of a session.
+ * The updates are delayed for a short time window : only the newest read receipt and read marker
+ * of each room are sent, in a single read markers request.
+ * The requests which fail because of a network error are retried with an exponential backoff.
+ */
+public class ReadReceiptsScheduler {
+    private static final String LOG_TAG = ReadReceiptsScheduler.class.getSimpleName();
+
+    // the coalescing time window
+    private static final long COALESCING_DELAY_MS = 500;
+
+    // the retry delays
+    private static final long MIN_RETRY_DELAY_MS = 2 * 1000;
+    private static final long MAX_RETRY_DELAY_MS = 5 * 60 * 1000;
+
+    /**
+     * The pending read markers of a room
+     */
+    private static class PendingReadMarkers {
+        // the read marker event
+        Event mReadMarkerEvent;
+        // the read receipt event
+        Event mReadReceiptEvent;
+        // the caller callbacks
+        final List<ApiCallback<Void>> mCallbacks = new ArrayList<>();
+    }
+
+    /**
+     * A failed request to retry
+     */
+    private static class RetryRequest {
+        String mReadMarkerEventId;
+        String mReadReceiptEventId;
+        long mDelayMs;
+        Runnable mRunnable;
+    }
+
+    // the schedulers, by user id
+    private static final Map<String, ReadReceiptsScheduler> mInstances = new HashMap<>();
+
+    private final MXSession mSession;
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+
+    // the pending updates, by room id
+    private final Map<String, PendingReadMarkers> mPendingReadMarkers = new HashMap<>();
+
+    // the requests to retry, by room id
+    private final Map<String, RetryRequest> mRetryRequests = new HashMap<>();
+
+    // statistics
+    private int mSentRequestsCount = 0;
+    private int mSuppressedRequestsCount = 0;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Provides the scheduler of a session.
+     * This method must be called from the UI thread.
+     *
+     * @param session the session
+     * @return the scheduler
+     */
+    public static ReadReceiptsScheduler getInstance(MXSession session) {
+        ReadReceiptsScheduler scheduler = mInstances.get(session.getMyUserId());
+
+        if ((null == scheduler) || (scheduler.mSession != session)) {
+            scheduler = new ReadReceiptsScheduler(session);
+            mInstances.put(session.getMyUserId(), scheduler);
+        }
+
+        return scheduler;
+    }
+
+    /**
+     * Release the scheduler of a session on logout.
+     * The pending read markers and the retries are cancelled.
+     *
+     * @param session the session
+     */
+    public static void release(MXSession session) {
+        ReadReceiptsScheduler scheduler = mInstances.remove(session.getMyUserId());
+
+        if (null != scheduler) {
+            scheduler.release();
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param session the session
+     */
+    private ReadReceiptsScheduler(MXSession session) {
+        mSession = session;
+    }
+
+    /**
+     * Cancel the pending read markers and the retries.
+     */
+    private void release() {
+        mUiHandler.removeCallbacks(mFlushRunnable);
+        mPendingReadMarkers.clear();
+
+        for (String roomId : new ArrayList<>(mRetryRequests.keySet())) {
+            cancelRetry(roomId);
+        }
+    }
+
+    /**
+     * @return the number of sent read markers requests
+     */
+    public int getSentRequestsCount() {
+        return mSentRequestsCount;
+    }
+
+    /**
+     * @return the number of read markers requests which have been coalesced or which were useless
+     */
+    public int getSuppressedRequestsCount() {
+        return mSuppressedRequestsCount;
+    }
+
+    /**
+     * Schedule a read receipt.
+     *
+     * @param room     the room
+     * @param event    the read event, null to use the latest room event
+     * @param callback the callback, called when the read receipt has been sent
+     */
+    public void scheduleReadReceipt(Room room, Event event, ApiCallback<Void> callback) {
+        if (null == event) {
+            event = mSession.getDataHandler().getStore().getLatestEvent(room.getRoomId());
+        }
+
+        if (null == event) {
+            return;
+        }
+
+        PendingReadMarkers pendingReadMarkers = getPendingReadMarkers(room.getRoomId());
+
+        // keep the newest event
+        if ((null == pendingReadMarkers.mReadReceiptEvent) || (event.getOriginServerTs() >= pendingReadMarkers.mReadReceiptEvent.getOriginServerTs())) {
+            pendingReadMarkers.mReadReceiptEvent = event;
+        }
+
+        if (null != callback) {
+            pendingReadMarkers.mCallbacks.add(callback);
+        }
+    }
+
+    /**
+     * Schedule a read marker update.
+     *
+     * @param room     the room
+     * @param event    the read marker event
+     * @param callback the callback, called when the read marker has been sent
+     */
+    public void scheduleReadMarker(Room room, Event event, ApiCallback<Void> callback) {
+        if (null == event) {
+            return;
+        }
+
+        PendingReadMarkers pendingReadMarkers = getPendingReadMarkers(room.getRoomId());
+
+        // keep the newest event : the read marker never moves backward
+        if ((null == pendingReadMarkers.mReadMarkerEvent) || (event.getOriginServerTs() >= pendingReadMarkers.mReadMarkerEvent.getOriginServerTs())) {
+            pendingReadMarkers.mReadMarkerEvent = event;
+        }
+
+        if (null != callback) {
+            pendingReadMarkers.mCallbacks.add(callback);
+        }
+    }
+
+    /**
+     * Provides the read marker of a room which is not yet sent.
+     *
+     * @param roomId the room id
+     * @return the read marker event id, null if there is no pending read marker update
+     */
+    public String getPendingReadMarkerEventId(String roomId) {
+        PendingReadMarkers pendingReadMarkers = mPendingReadMarkers.get(roomId);
+        return ((null != pendingReadMarkers) && (null != pendingReadMarkers.mReadMarkerEvent)) ? pendingReadMarkers.mReadMarkerEvent.eventId : null;
+    }
+
+    /**
+     * Provides the pending read markers of a room and starts the coalescing window.
+     *
+     * @param roomId the room id
+     * @return the pending read markers
+     */
+    private PendingReadMarkers getPendingReadMarkers(String roomId) {
+        PendingReadMarkers pendingReadMarkers = mPendingReadMarkers.get(roomId);
+
+        if (null == pendingReadMarkers) {
+            // the window starts with the first pending update
+            if (mPendingReadMarkers.isEmpty()) {
+                mUiHandler.postDelayed(mFlushRunnable, COALESCING_DELAY_MS);
+            }
+
+            pendingReadMarkers = new PendingReadMarkers();
+            mPendingReadMarkers.put(roomId, pendingReadMarkers);
+        } else {
+            mSuppressedRequestsCount++;
+        }
+
+        return pendingReadMarkers;
+    }
+
+    /**
+     * Send the pending read markers.
+     */
+    private void flush() {
+        Map<String, PendingReadMarkers> pendingReadMarkersMap = new HashMap<>(mPendingReadMarkers);
+        mPendingReadMarkers.clear();
+
+        for (Map.Entry<String, PendingReadMarkers> entry : pendingReadMarkersMap.entrySet()) {
+            final String roomId = entry.getKey();
+            final PendingReadMarkers pendingReadMarkers = entry.getValue();
+            Room room = mSession.getDataHandler().getRoom(roomId, false);
+
+            if (null == room) {
+                continue;
+            }
+
+            String readReceiptEventId = (null != pendingReadMarkers.mReadReceiptEvent) ? pendingReadMarkers.mReadReceiptEvent.eventId : null;
+
+            // keep the current read receipt when only the read marker is updated
+            if (null == readReceiptEventId) {
+                RoomSummary summary = mSession.getDataHandler().getStore().getSummary(roomId);
+
+                if (null != summary) {
+                    readReceiptEventId = summary.getReadReceiptEventId();
+                }
+            }
+
+            final String fReadReceiptEventId = readReceiptEventId;
+            final String readMarkerEventId = (null != pendingReadMarkers.mReadMarkerEvent) ? pendingReadMarkers.mReadMarkerEvent.eventId : null;
+
+            // the room updates its read markers and sends them in a single request
+            boolean isSent = room.sendReadMarkers(readMarkerEventId, readReceiptEventId, new ApiCallback<Void>() {
+                @Override
+                public void onSuccess(Void info) {
+                    for (ApiCallback<Void> callback : pendingReadMarkers.mCallbacks) {
+                        callback.onSuccess(info);
+                    }
+                }
+
+                @Override
+                public void onNetworkError(Exception e) {
+                    Log.e(LOG_TAG, "## flush() : failed " + e.getMessage());
+                    scheduleRetry(roomId, readMarkerEventId, fReadReceiptEventId, MIN_RETRY_DELAY_MS);
+
+                    for (ApiCallback<Void> callback : pendingReadMarkers.mCallbacks) {
+                        callback.onNetworkError(e);
+                    }
+                }
+
+                @Override
+                public void onMatrixError(MatrixError e) {
+                    Log.e(LOG_TAG, "## flush() : failed " + e.getMessage());
+
+                    for (ApiCallback<Void> callback : pendingReadMarkers.mCallbacks) {
+                        callback.onMatrixError(e);
+                    }
+                }
+
+                @Override
+                public void onUnexpectedError(Exception e) {
+                    Log.e(LOG_TAG, "## flush() : failed " + e.getMessage());
+
+                    for (ApiCallback<Void> callback : pendingReadMarkers.mCallbacks) {
+                        callback.onUnexpectedError(e);
+                    }
+                }
+            });
+
+            if (isSent) {
+                mSentRequestsCount++;
+
+                // a newer update supersedes the failed one
+                cancelRetry(roomId);
+            } else {
+                // the read markers were already up to date
+                mSuppressedRequestsCount++;
+            }
+        }
+
+        Log.d(LOG_TAG, "## flush() : " + mSentRequestsCount + " sent requests, " + mSuppressedRequestsCount + " suppressed requests");
+    }
+
+    //================================================================================
+    // Retry management
+    //================================================================================
+
+    /**
+     * Schedule the retry of a failed request.
+     * The room read markers have already been updated locally, so the request is sent with the rest client.
+     *
+     * @param roomId             the room id
+     * @param readMarkerEventId  the read marker event id
+     * @param readReceiptEventId the read receipt event id
+     * @param delayMs            the delay before retrying
+     */
+    private void scheduleRetry(final String roomId, String readMarkerEventId, String readReceiptEventId, long delayMs) {
+        cancelRetry(roomId);
+
+        final RetryRequest retryRequest = new RetryRequest();
+        retryRequest.mReadMarkerEventId = readMarkerEventId;
+        retryRequest.mReadReceiptEventId = readReceiptEventId;
+        retryRequest.mDelayMs = delayMs;
+        retryRequest.mRunnable = new Runnable() {
+            @Override
+            public void run() {
+                if (mRetryRequests.get(roomId) != retryRequest) {
+                    return;
+                }
+
+                mRetryRequests.remove(roomId);
+                mSentRequestsCount++;
+
+                Log.d(LOG_TAG, "## scheduleRetry() : retry the read markers of " + roomId);
+
+                mSession.getRoomsApiClient().sendReadMarker(roomId, retryRequest.mReadMarkerEventId, retryRequest.mReadReceiptEventId, new ApiCallback<Void>() {
+                    @Override
+                    public void onSuccess(Void info) {
+                        Log.d(LOG_TAG, "## scheduleRetry() : succeeded");
+                    }
+
+                    @Override
+                    public void onNetworkError(Exception e) {
+                        // don't override a newer request
+                        if (!mRetryRequests.containsKey(roomId) && !mPendingReadMarkers.containsKey(roomId)) {
+                            scheduleRetry(roomId, retryRequest.mReadMarkerEventId, retryRequest.mReadReceiptEventId, Math.min(retryRequest.mDelayMs * 2, MAX_RETRY_DELAY_MS));
+                        }
+                    }
+
+                    @Override
+                    public void onMatrixError(MatrixError e) {
+                        Log.e(LOG_TAG, "## scheduleRetry() : failed " + e.getMessage());
+                    }
+
+                    @Override
+                    public void onUnexpectedError(Exception e) {
+                        Log.e(LOG_TAG, "## scheduleRetry() : failed " + e.getMessage());
+                    }
+                });
+            }
+        };
+
+        mRetryRequests.put(roomId, retryRequest);
+        mUiHandler.postDelayed(retryRequest.mRunnable, delayMs);
+    }
+
+    /**
+     * Cancel the pending retry of a room.
+     *
+     * @param roomId the room id
+     */
+    private void cancelRetry(String roomId) {
+        RetryRequest retryRequest = mRetryRequests.remove(roomId);
+
+        if (null != retryRequest) {
+            mUiHandler.removeCallbacks(retryRequest.mRunnable);
+        }
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.text.TextUtils;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.data.Room;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.PowerLevels;
+import org.matrix.androidsdk.rest.model.RoomMember;
+import org.matrix.androidsdk.rest.model.User;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Provides the users of the room members by pages, ordered by relevance :
+ * the members with the highest power level first, then the recent speakers, then the others alphabetically.
+ * The first page only contains the recent speakers and the members with a custom power level,
+ * the other members are only loaded when they match the typed prefix : only the matched members are sorted,
+ * and they are provided page by page.
+ * The members names are folded once, and a longer prefix only filters the members matched by the previous one.
+ * The pages are computed on a shared background thread.
+ */
+public class RoomMembersPager {
+    private static final String LOG_TAG = RoomMembersPager.class.getSimpleName();
+
+    // the users page size
+    public static final int PAGE_SIZE = 200;
+
+    // the max number of latest room messages checked to find the recent speakers
+    private static final int MAX_SCANNED_EVENTS = 500;
+
+    /**
+     * Page listener
+     */
+    public interface IRoomMembersPageListener {
+        /**
+         * A users page has been loaded.
+         * This method is called on the UI thread.
+         *
+         * @param users        the page users
+         * @param hasMorePages true if some other members match
+         */
+        void onPageLoaded(List<User> users, boolean hasMorePages);
+    }
+
+    /**
+     * A member and its folded names
+     */
+    private static class FoldedMember {
+        RoomMember mMember;
+        String mFoldedName;
+        String mFoldedUserId;
+    }
+
+    /**
+     * A member and its sort keys
+     */
+    private static class MemberEntry {
+        String mUserId;
+        int mPowerLevel;
+        // the speaker rank, Integer.MAX_VALUE if the member did not speak recently
+        int mSpeakerRank;
+        String mSortName;
+    }
+
+    // the members comparator, on the precomputed keys
+    private static final Comparator<MemberEntry> mComparator = new Comparator<MemberEntry>() {
+        @Override
+        public int compare(MemberEntry entryA, MemberEntry entryB) {
+            if (entryA.mPowerLevel != entryB.mPowerLevel) {
+                return (entryB.mPowerLevel > entryA.mPowerLevel) ? +1 : -1;
+            }
+
+            if (entryA.mSpeakerRank != entryB.mSpeakerRank) {
+                return (entryA.mSpeakerRank < entryB.mSpeakerRank) ? -1 : +1;
+            }
+
+            return entryA.mSortName.compareTo(entryB.mSortName);
+        }
+    };
+
+    // the shared pager thread
+    private static HandlerThread mHandlerThread = null;
+    private static Handler mPagerHandler = null;
+
+    private final MXSession mSession;
+    private final Room mRoom;
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+
+    // the following fields are only used from the pager thread
+    // the recent speakers ranks, the latest first, null until they are computed
+    private Map<String, Integer> mSpeakerRanks = null;
+    // the folded prefixes whose matched members have all been loaded
+    private final Set<String> mLoadedPrefixes = new HashSet<>();
+    // the room members with their folded names, null until they are computed
+    private List<FoldedMember> mFoldedMembers = null;
+    // the latest folded prefix and its matched members
+    private String mMatchedPrefix = null;
+    private List<FoldedMember> mMatchedMembers = null;
+    // the sorted members matching the latest prefix, and the number of dispatched ones
+    private List<MemberEntry> mMatchedEntries = null;
+    private int mDispatchedCount = 0;
+
+    // true when the pager has been cancelled
+    private volatile boolean mIsCancelled = false;
+
+    /**
+     * Constructor
+     *
+     * @param session the session
+     * @param room    the room
+     */
+    public RoomMembersPager(MXSession session, Room room) {
+        mSession = session;
+        mRoom = room;
+
+        synchronized (RoomMembersPager.class) {
+            if (null == mHandlerThread) {
+                mHandlerThread = new HandlerThread("RoomMembersPager", Thread.MIN_PRIORITY);
+                mHandlerThread.start();
+                mPagerHandler = new Handler(mHandlerThread.getLooper());
+            }
+        }
+    }
+
+    /**
+     * Cancel the pending pages loading.
+     * The listeners are not called anymore.
+     */
+    public void cancel() {
+        mIsCancelled = true;
+    }
+
+    /**
+     * The room members have been updated : the folded names and the matched members are computed again.
+     */
+    public void onMembersUpdate() {
+        mPagerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mFoldedMembers = null;
+                mMatchedPrefix = null;
+                mMatchedMembers = null;
+                mLoadedPrefixes.clear();
+            }
+        });
+    }
+
+    /**
+     * Load the first users page : the recent speakers and the members with a custom power level.
+     *
+     * @param listener the listener
+     */
+    public void loadFirstPage(final IRoomMembersPageListener listener) {
+        mPagerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mIsCancelled) {
+                    return;
+                }
+
+                Set<String> userIds = new HashSet<>(getSpeakerRanks().keySet());
+                PowerLevels powerLevels = mRoom.getLiveState().getPowerLevels();
+
+                if ((null != powerLevels) && (null != powerLevels.users)) {
+                    userIds.addAll(powerLevels.users.keySet());
+                }
+
+                List<MemberEntry> entries = new ArrayList<>();
+
+                for (String userId : userIds) {
+                    RoomMember member = mRoom.getMember(userId);
+
+                    if ((null != member) && !RoomMember.MEMBERSHIP_LEAVE.equals(member.membership) && !RoomMember.MEMBERSHIP_BAN.equals(member.membership)) {
+                        entries.add(buildEntry(member, powerLevels));
+                    }
+                }
+
+                Collections.sort(entries, mComparator);
+                dispatchPage(entries, 0, listener);
+            }
+        });
+    }
+
+    /**
+     * Load the first page of the members matching a prefix.
+     * The listener is not called when the matched members have already been loaded.
+     *
+     * @param prefix   the typed prefix, it is matched with the user ids when it starts with @, else with the display names
+     * @param listener the listener
+     */
+    public void loadMatchingMembers(final String prefix, final IRoomMembersPageListener listener) {
+        mPagerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mIsCancelled || TextUtils.isEmpty(prefix)) {
+                    return;
+                }
+
+                long t0 = System.currentTimeMillis();
+                String foldedPrefix = UsersPrefixIndex.fold(prefix);
+
+                // a shorter prefix has already provided all its members
+                for (String loadedPrefix : mLoadedPrefixes) {
+                    if (foldedPrefix.startsWith(loadedPrefix)) {
+                        return;
+                    }
+                }
+
+                boolean isUserIdSearch = prefix.startsWith("@");
+
+                // a longer prefix only filters the members matched by the previous one
+                List<FoldedMember> candidates = ((null != mMatchedPrefix) && foldedPrefix.startsWith(mMatchedPrefix)) ? mMatchedMembers : getFoldedMembers();
+                List<FoldedMember> matchedMembers = new ArrayList<>();
+
+                for (FoldedMember foldedMember : candidates) {
+                    String key = isUserIdSearch ? foldedMember.mFoldedUserId : foldedMember.mFoldedName;
+
+                    if (key.startsWith(foldedPrefix)) {
+                        matchedMembers.add(foldedMember);
+                    }
+                }
+
+                mMatchedPrefix = foldedPrefix;
+                mMatchedMembers = matchedMembers;
+
+                // the sort keys are only computed for the matched members
+                PowerLevels powerLevels = mRoom.getLiveState().getPowerLevels();
+                List<MemberEntry> entries = new ArrayList<>(matchedMembers.size());
+
+                for (FoldedMember foldedMember : matchedMembers) {
+                    entries.add(buildEntry(foldedMember.mMember, powerLevels));
+                }
+
+                Collections.sort(entries, mComparator);
+                mMatchedEntries = entries;
+                mDispatchedCount = 0;
+
+                Log.d(LOG_TAG, "## loadMatchingMembers() : " + entries.size() + " matched members in " + (System.currentTimeMillis() - t0) + " ms");
+
+                dispatchNextMatchedPage(listener);
+            }
+        });
+    }
+
+    /**
+     * Load the next page of the members matching the latest prefix.
+     *
+     * @param listener the listener
+     */
+    public void loadNextPage(final IRoomMembersPageListener listener) {
+        mPagerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mIsCancelled && (null != mMatchedEntries)) {
+                    dispatchNextMatchedPage(listener);
+                }
+            }
+        });
+    }
+
+    /**
+     * Dispatch the next page of the members matching the latest prefix.
+     * This method must be called from the pager thread.
+     *
+     * @param listener the listener
+     */
+    private void dispatchNextMatchedPage(IRoomMembersPageListener listener) {
+        int startIndex = mDispatchedCount;
+        mDispatchedCount = Math.min(mMatchedEntries.size(), startIndex + PAGE_SIZE);
+
+        // all the matched members have been provided
+        if (mDispatchedCount == mMatchedEntries.size()) {
+            mLoadedPrefixes.add(mMatchedPrefix);
+        }
+
+        dispatchPage(mMatchedEntries, startIndex, listener);
+    }
+
+    /**
+     * Dispatch a page of sorted members.
+     * This method must be called from the pager thread.
+     *
+     * @param entries    the sorted members
+     * @param startIndex the index of the first member of the page
+     * @param listener   the listener
+     */
+    private void dispatchPage(List<MemberEntry> entries, int startIndex, final IRoomMembersPageListener listener) {
+        final List<User> users = new ArrayList<>();
+        int endIndex = Math.min(startIndex + PAGE_SIZE, entries.size());
+
+        for (int index = startIndex; index < endIndex; index++) {
+            User user = mSession.getDataHandler().getUser(entries.get(index).mUserId);
+
+            if (null != user) {
+                users.add(user);
+            }
+        }
+
+        final boolean hasMorePages = entries.size() > endIndex;
+
+        mUiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mIsCancelled) {
+                    listener.onPageLoaded(users, hasMorePages);
+                }
+            }
+        });
+    }
+
+    /**
+     * Compute the sort keys of a member.
+     *
+     * @param member      the member
+     * @param powerLevels the room power levels
+     * @return the member entry
+     */
+    private MemberEntry buildEntry(RoomMember member, PowerLevels powerLevels) {
+        MemberEntry entry = new MemberEntry();
+        entry.mUserId = member.getUserId();
+        entry.mPowerLevel = (null != powerLevels) ? powerLevels.getUserPowerLevel(entry.mUserId) : 0;
+
+        Integer rank = getSpeakerRanks().get(entry.mUserId);
+        entry.mSpeakerRank = (null != rank) ? rank : Integer.MAX_VALUE;
+
+        String name = member.getName();
+        entry.mSortName = (TextUtils.isEmpty(name) ? entry.mUserId : name).toLowerCase();
+
+        return entry;
+    }
+
+    /**
+     * Provides the room members with their folded names.
+     * They are computed once per members list.
+     *
+     * @return the folded members
+     */
+    private List<FoldedMember> getFoldedMembers() {
+        if (null == mFoldedMembers) {
+            Collection<RoomMember> members = mRoom.getMembers();
+            mFoldedMembers = new ArrayList<>(members.size());
+
+            for (RoomMember member : members) {
+                String userId = member.getUserId();
+
+                if (null == userId) {
+                    continue;
+                }
+
+                FoldedMember foldedMember = new FoldedMember();
+                foldedMember.mMember = member;
+                foldedMember.mFoldedUserId = UsersPrefixIndex.fold(userId);
+                foldedMember.mFoldedName = UsersPrefixIndex.fold(member.getName());
+                mFoldedMembers.add(foldedMember);
+            }
+        }
+
+        return mFoldedMembers;
+    }
+
+    /**
+     * Provides the recent speakers ranks.
+     * Only the latest room messages are checked.
+     *
+     * @return the ranks by user id, the latest speaker first
+     */
+    private Map<String, Integer> getSpeakerRanks() {
+        if (null == mSpeakerRanks) {
+            mSpeakerRanks = new HashMap<>();
+            Collection<Event> events = mSession.getDataHandler().getStore().getRoomMessages(mRoom.getRoomId());
+
+            if (null != events) {
+                Event[] eventsArray = events.toArray(new Event[events.size()]);
+                int lastIndex = Math.max(0, eventsArray.length - MAX_SCANNED_EVENTS);
+
+                for (int index = eventsArray.length - 1; index >= lastIndex; index--) {
+                    String sender = eventsArray[index].getSender();
+
+                    if ((null != sender) && !mSpeakerRanks.containsKey(sender)) {
+                        mSpeakerRanks.put(sender, mSpeakerRanks.size());
+                    }
+                }
+            }
+        }
+
+        return mSpeakerRanks;
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.data.RoomState;
+import org.matrix.androidsdk.data.RoomSummary;
+import org.matrix.androidsdk.data.store.IMXStore;
+import org.matrix.androidsdk.listeners.MXEventListener;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cache of the last message previews displayed in the rooms lists.
+ * A preview is identified by the room latest event and by the room members version,
+ * so it is formatted again only when the latest event or a sender display name changes.
+ * The outdated previews are formatted on a background thread, and the rooms lists are refreshed
+ * once they are ready : the cached preview is displayed in the meantime.
+ */
+public class RoomPreviewsCache {
+    private static final String LOG_TAG = RoomPreviewsCache.class.getSimpleName();
+
+    /**
+     * A cached preview
+     */
+    private static class PreviewEntry {
+        final String mKey;
+        final CharSequence mPreview;
+
+        PreviewEntry(String key, CharSequence preview) {
+            mKey = key;
+            mPreview = preview;
+        }
+    }
+
+    // the caches, by user id
+    private static final Map<String, RoomPreviewsCache> mInstances = new HashMap<>();
+
+    // the shared formatting thread
+    private static HandlerThread mHandlerThread = null;
+    private static Handler mFormattingHandler = null;
+
+    private final Context mContext;
+    private final MXSession mSession;
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+
+    // true when the session has been logged out, the pending formattings are then ignored
+    private volatile boolean mIsReleased = false;
+
+    // the previews, by room id and text color
+    private final Map<String, PreviewEntry> mPreviews = new HashMap<>();
+
+    // the members version of each room, incremented when a member is updated
+    private final Map<String, Integer> mMembersVersions = new HashMap<>();
+
+    // the number of background updates of each room previews
+    private final Map<String, Integer> mRevisions = new HashMap<>();
+
+    // the previews which are being formatted
+    private final Set<String> mPendingCacheKeys = new HashSet<>();
+
+    // the rooms whose latest event has been updated by the current events chunk
+    private final Set<String> mUpdatedRoomIds = new HashSet<>();
+
+    private final MXEventListener mEventsListener = new MXEventListener() {
+        @Override
+        public void onLiveEvent(Event event, RoomState roomState) {
+            if (null == event.roomId) {
+                return;
+            }
+
+            if (Event.EVENT_TYPE_STATE_ROOM_MEMBER.equals(event.getType())) {
+                synchronized (mPreviews) {
+                    Integer version = mMembersVersions.get(event.roomId);
+                    mMembersVersions.put(event.roomId, (null != version) ? version + 1 : 1);
+                }
+                mUpdatedRoomIds.add(event.roomId);
+            } else if (RoomSummary.isSupportedEvent(event)) {
+                mUpdatedRoomIds.add(event.roomId);
+            }
+        }
+
+        @Override
+        public void onLiveEventsChunkProcessed(String fromToken, String toToken) {
+            if (!mUpdatedRoomIds.isEmpty()) {
+                refreshRooms(new HashSet<>(mUpdatedRoomIds));
+                mUpdatedRoomIds.clear();
+            }
+        }
+
+        @Override
+        public void onLeaveRoom(String roomId) {
+            removeRoom(roomId);
+        }
+
+        @Override
+        public void onRoomFlush(String roomId) {
+            removeRoom(roomId);
+        }
+    };
+
+    /**
+     * Provides the cache of a session.
+     * This method must be called from the UI thread.
+     *
+     * @param context the context
+     * @param session the session
+     * @return the cache
+     */
+    public static RoomPreviewsCache getInstance(Context context, MXSession session) {
+        RoomPreviewsCache cache = mInstances.get(session.getMyUserId());
+
+        if ((null == cache) || (cache.mSession != session)) {
+            if (null != cache) {
+                cache.release();
+            }
+
+            cache = new RoomPreviewsCache(context.getApplicationContext(), session);
+            mInstances.put(session.getMyUserId(), cache);
+        }
+
+        return cache;
+    }
+
+    /**
+     * Release the cache of a session on logout.
+     * The pending formattings are ignored.
+     *
+     * @param session the session
+     */
+    public static void release(MXSession session) {
+        RoomPreviewsCache cache = mInstances.remove(session.getMyUserId());
+
+        if (null != cache) {
+            cache.release();
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param context the application context
+     * @param session the session
+     */
+    private RoomPreviewsCache(Context context, MXSession session) {
+        mContext = context;
+        mSession = session;
+
+        synchronized (RoomPreviewsCache.class) {
+            if (null == mHandlerThread) {
+                mHandlerThread = new HandlerThread("RoomPreviewsCache", Thread.MIN_PRIORITY);
+                mHandlerThread.start();
+                mFormattingHandler = new Handler(mHandlerThread.getLooper());
+            }
+        }
+
+        mSession.getDataHandler().addListener(mEventsListener);
+    }
+
+    /**
+     * Stop listening to the session events.
+     */
+    private void release() {
+        mIsReleased = true;
+
+        if (mSession.isAlive()) {
+            mSession.getDataHandler().removeListener(mEventsListener);
+        }
+    }
+
+    /**
+     * Provides the preview of a room.
+     * The preview is formatted synchronously only the first time the room is displayed.
+     * An outdated preview is returned while its update is formatted in background.
+     *
+     * @param summary   the room summary
+     * @param textColor the display name highlighted color
+     * @return the preview
+     */
+    public CharSequence getPreview(RoomSummary summary, int textColor) {
+        String cacheKey = summary.getRoomId() + "|" + textColor;
+        String key = getPreviewKey(summary);
+        PreviewEntry entry;
+
+        synchronized (mPreviews) {
+            entry = mPreviews.get(cacheKey);
+        }
+
+        if (null == entry) {
+            CharSequence preview = RoomUtils.formatRoomMessageToDisplay(mContext, mSession, summary, textColor);
+
+            synchronized (mPreviews) {
+                mPreviews.put(cacheKey, new PreviewEntry(key, preview));
+            }
+
+            return preview;
+        }
+
+        if (!entry.mKey.equals(key)) {
+            format(summary.getRoomId(), textColor);
+        }
+
+        return entry.mPreview;
+    }
+
+    /**
+     * Provides the revision of a room previews.
+     * It is incremented each time a preview is updated in background,
+     * so the rooms lists can detect that a displayed preview is outdated.
+     *
+     * @param roomId the room id
+     * @return the revision
+     */
+    public int getRevision(String roomId) {
+        Integer revision;
+
+        synchronized (mPreviews) {
+            revision = mRevisions.get(roomId);
+        }
+
+        return (null != revision) ? revision : 0;
+    }
+
+    /**
+     * Provides the key of a room preview.
+     *
+     * @param summary the room summary
+     * @return the key
+     */
+    private String getPreviewKey(RoomSummary summary) {
+        Event latestEvent = summary.getLatestReceivedEvent();
+        Integer membersVersion;
+
+        synchronized (mPreviews) {
+            membersVersion = mMembersVersions.get(summary.getRoomId());
+        }
+
+        // the preview changes when the event is decrypted or redacted
+        String eventKey = (null != latestEvent) ?
+                latestEvent.eventId + "|" + latestEvent.getType() + "|" + latestEvent.isRedacted() + "|" + (null != latestEvent.getClearEvent()) : "";
+
+        return eventKey + "|" + ((null != membersVersion) ? membersVersion : 0) +
+                "|" + summary.isInvited() + "|" + summary.getInviterUserId();
+    }
+
+    /**
+     * The latest event of some rooms has been updated : format their cached previews again.
+     *
+     * @param roomIds the room ids
+     */
+    private void refreshRooms(Set<String> roomIds) {
+        List<String> cacheKeys = new ArrayList<>();
+
+        synchronized (mPreviews) {
+            for (String cacheKey : mPreviews.keySet()) {
+                if (roomIds.contains(cacheKey.substring(0, cacheKey.lastIndexOf('|')))) {
+                    cacheKeys.add(cacheKey);
+                }
+            }
+        }
+
+        for (String cacheKey : cacheKeys) {
+            int separatorPos = cacheKey.lastIndexOf('|');
+            format(cacheKey.substring(0, separatorPos), Integer.parseInt(cacheKey.substring(separatorPos + 1)));
+        }
+    }
+
+    /**
+     * Remove the cached previews of a room.
+     *
+     * @param roomId the room id
+     */
+    private void removeRoom(String roomId) {
+        String prefix = roomId + "|";
+
+        synchronized (mPreviews) {
+            Iterator<String> iterator = mPreviews.keySet().iterator();
+
+            while (iterator.hasNext()) {
+                if (iterator.next().startsWith(prefix)) {
+                    iterator.remove();
+                }
+            }
+
+            mMembersVersions.remove(roomId);
+            mRevisions.remove(roomId);
+        }
+    }
+
+    /**
+     * Format a room preview in background.
+     * The rooms lists are refreshed when it is done.
+     *
+     * @param roomId    the room id
+     * @param textColor the display name highlighted color
+     */
+    private void format(final String roomId, final int textColor) {
+        final String cacheKey = roomId + "|" + textColor;
+
+        synchronized (mPreviews) {
+            if (!mPendingCacheKeys.add(cacheKey)) {
+                return;
+            }
+        }
+
+        mFormattingHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                boolean isUpdated = false;
+
+                if (mIsReleased) {
+                    return;
+                }
+
+                try {
+                    IMXStore store = mSession.isAlive() ? mSession.getDataHandler().getStore() : null;
+                    RoomSummary summary = (null != store) ? store.getSummary(roomId) : null;
+
+                    if (null != summary) {
+                        String key = getPreviewKey(summary);
+                        CharSequence preview = RoomUtils.formatRoomMessageToDisplay(mContext, mSession, summary, textColor);
+
+                        synchronized (mPreviews) {
+                            PreviewEntry entry = mPreviews.get(cacheKey);
+
+                            // the room might have been removed in the meantime
+                            if ((null != entry) && !entry.mKey.equals(key)) {
+                                mPreviews.put(cacheKey, new PreviewEntry(key, preview));
+
+                                Integer revision = mRevisions.get(roomId);
+                                mRevisions.put(roomId, (null != revision) ? revision + 1 : 1);
+                                isUpdated = true;
+                            }
+                        }
+                    }
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## format() failed " + e.getMessage());
+                }
+
+                synchronized (mPreviews) {
+                    mPendingCacheKeys.remove(cacheKey);
+                }
+
+                if (isUpdated) {
+                    mUiHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!mIsReleased) {
+                                RoomsRefreshCoordinator.getInstance(mSession).onRoomPreviewUpdated(roomId);
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+}
@@ -336,7 +336,18 @@ public class RoomUtils {
      * @return the formatted timestamp to display.
      */
     public static String getRoomTimestamp(final Context context, final Event latestEvent) {
-        String text = AdapterUtils.tsToString(context, latestEvent.getOriginServerTs(), false);
+        return getRoomTimestamp(context, latestEvent.getOriginServerTs());
+    }
+
+    /**
+     * Format a room timestamp.
+     *
+     * @param context the context
+     * @param ts      the timestamp
+     * @return the formatted timestamp to display
+     */
+    public static String getRoomTimestamp(final Context context, final long ts) {
+        String text = AdapterUtils.tsToString(context, ts, false);
 
         // don't display the today before the time
         String today = context.getString(R.string.today) + " ";
@@ -349,6 +360,7 @@ public class RoomUtils {
 
     /**
      * Retrieve the text to display for a RoomSummary.
+     * The text is provided by the previews cache, so it is not formatted each time a room is displayed.
      *
      * @param context
      * @param session
@@ -357,14 +369,33 @@ public class RoomUtils {
      */
     public static CharSequence getRoomMessageToDisplay(final Context context, final MXSession session,
                                                        final RoomSummary roomSummary) {
+        if (null == roomSummary) {
+            return null;
+        }
+
+        return RoomPreviewsCache.getInstance(context, session).getPreview(roomSummary, ThemeUtils.getColor(context, R.attr.room_notification_text_color));
+    }
+
+    /**
+     * Format the text to display for a RoomSummary.
+     * This method can be called from any thread.
+     *
+     * @param context
+     * @param session
+     * @param roomSummary the roomSummary.
+     * @param textColor   the display name highlighted color.
+     * @return the text to display.
+     */
+    public static CharSequence formatRoomMessageToDisplay(final Context context, final MXSession session,
+                                                          final RoomSummary roomSummary, final int textColor) {
         CharSequence messageToDisplay = null;
         EventDisplay eventDisplay;
 
         if (null != roomSummary) {
             if (roomSummary.getLatestReceivedEvent() != null) {
-                eventDisplay = new EventDisplay(context, roomSummary.getLatestReceivedEvent(), roomSummary.getLatestRoomState());
+                eventDisplay = new RiotEventDisplay(context, roomSummary.getLatestReceivedEvent(), roomSummary.getLatestRoomState());
                 eventDisplay.setPrependMessagesWithAuthor(true);
-                messageToDisplay = eventDisplay.getTextualDisplay(ThemeUtils.getColor(context, R.attr.room_notification_text_color));
+                messageToDisplay = eventDisplay.getTextualDisplay(textColor);
             }
 
             // check if this is an invite
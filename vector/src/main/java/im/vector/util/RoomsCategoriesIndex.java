@@ -0,0 +1,432 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.text.TextUtils;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.data.Room;
+import org.matrix.androidsdk.data.RoomAccountData;
+import org.matrix.androidsdk.data.RoomState;
+import org.matrix.androidsdk.data.RoomTag;
+import org.matrix.androidsdk.data.store.IMXStore;
+import org.matrix.androidsdk.listeners.MXEventListener;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Categorizes the rooms of a session : favourites, direct chats, low priority, invitations and other rooms.
+ * The index is built once, then it is updated room by room from the session events,
+ * so the home tabs only have to read some snapshots of it.
+ * The methods must be called from the UI thread.
+ */
+public class RoomsCategoriesIndex {
+    private static final String LOG_TAG = RoomsCategoriesIndex.class.getSimpleName();
+
+    // the joined rooms categories
+    public static final int CATEGORY_ANY = 0;
+    public static final int CATEGORY_FAVOURITE = 1;
+    public static final int CATEGORY_DIRECT = 1 << 1;
+    public static final int CATEGORY_LOW_PRIORITY = 1 << 2;
+
+    // the indexes, by user id
+    private static final Map<String, RoomsCategoriesIndex> mInstances = new HashMap<>();
+
+    private final MXSession mSession;
+
+    // true when the index has been built
+    private boolean mIsBuilt = false;
+
+    // the joined rooms, by room id
+    private final Map<String, Room> mJoinedRooms = new HashMap<>();
+
+    // the joined rooms categories, by room id
+    private final Map<String, Integer> mCategoriesByRoomId = new HashMap<>();
+
+    // the joined rooms ids, by category
+    private final Map<Integer, Set<String>> mRoomIdsByCategory = new HashMap<>();
+
+    // the invitations, by room id
+    private final Map<String, Room> mRoomInvitations = new HashMap<>();
+    private final Map<String, Room> mDirectChatInvitations = new HashMap<>();
+
+    // the direct chats room ids
+    private Set<String> mDirectChatRoomIds = new HashSet<>();
+
+    private final MXEventListener mEventsListener = new MXEventListener() {
+        @Override
+        public void onStoreReady() {
+            invalidate();
+        }
+
+        @Override
+        public void onInitialSyncComplete(String toToken) {
+            invalidate();
+        }
+
+        @Override
+        public void onNewRoom(String roomId) {
+            refreshRoom(roomId);
+        }
+
+        @Override
+        public void onJoinRoom(String roomId) {
+            refreshRoom(roomId);
+        }
+
+        @Override
+        public void onLeaveRoom(String roomId) {
+            removeRoom(roomId);
+        }
+
+        @Override
+        public void onRoomFlush(String roomId) {
+            refreshRoom(roomId);
+        }
+
+        @Override
+        public void onRoomTagEvent(String roomId) {
+            refreshRoom(roomId);
+        }
+
+        @Override
+        public void onLiveEvent(Event event, RoomState roomState) {
+            // the user membership might have been updated
+            if (Event.EVENT_TYPE_STATE_ROOM_MEMBER.equals(event.getType()) && TextUtils.equals(event.stateKey, mSession.getMyUserId())) {
+                refreshRoom(event.roomId);
+            }
+        }
+
+        @Override
+        public void onDirectMessageChatRoomsListUpdate() {
+            refreshDirectChatRoomIds();
+        }
+    };
+
+    /**
+     * Provides the index of a session.
+     *
+     * @param session the session
+     * @return the index
+     */
+    public static RoomsCategoriesIndex getInstance(MXSession session) {
+        RoomsCategoriesIndex index = mInstances.get(session.getMyUserId());
+
+        if ((null == index) || (index.mSession != session)) {
+            if (null != index) {
+                index.release();
+            }
+
+            index = new RoomsCategoriesIndex(session);
+            mInstances.put(session.getMyUserId(), index);
+        }
+
+        return index;
+    }
+
+    /**
+     * Release the index of a session on logout.
+     *
+     * @param session the session
+     */
+    public static void release(MXSession session) {
+        RoomsCategoriesIndex index = mInstances.remove(session.getMyUserId());
+
+        if (null != index) {
+            index.release();
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param session the session
+     */
+    private RoomsCategoriesIndex(MXSession session) {
+        mSession = session;
+        mRoomIdsByCategory.put(CATEGORY_FAVOURITE, new HashSet<String>());
+        mRoomIdsByCategory.put(CATEGORY_DIRECT, new HashSet<String>());
+        mRoomIdsByCategory.put(CATEGORY_LOW_PRIORITY, new HashSet<String>());
+
+        mSession.getDataHandler().addListener(mEventsListener);
+    }
+
+    /**
+     * Stop listening to the session events.
+     */
+    private void release() {
+        if (mSession.isAlive()) {
+            mSession.getDataHandler().removeListener(mEventsListener);
+        }
+    }
+
+    //================================================================================
+    // Snapshots
+    //================================================================================
+
+    /**
+     * Provides the joined rooms of a category.
+     *
+     * @param category           the category (CATEGORY_ANY for all the joined rooms)
+     * @param excludedCategories the categories of the rooms to exclude
+     * @return the rooms
+     */
+    public List<Room> getRooms(int category, int excludedCategories) {
+        buildIfNeeded();
+
+        Set<String> roomIds = (CATEGORY_ANY == category) ? mJoinedRooms.keySet() : mRoomIdsByCategory.get(category);
+        List<Room> rooms = new ArrayList<>(roomIds.size());
+
+        for (String roomId : roomIds) {
+            if (0 == (mCategoriesByRoomId.get(roomId) & excludedCategories)) {
+                rooms.add(mJoinedRooms.get(roomId));
+            }
+        }
+
+        return rooms;
+    }
+
+    /**
+     * @return the rooms invitations, excluding the direct chats ones
+     */
+    public List<Room> getRoomInvitations() {
+        buildIfNeeded();
+        return new ArrayList<>(mRoomInvitations.values());
+    }
+
+    /**
+     * @return the direct chats invitations
+     */
+    public List<Room> getDirectChatInvitations() {
+        buildIfNeeded();
+        return new ArrayList<>(mDirectChatInvitations.values());
+    }
+
+    /**
+     * Provides the categories of a joined room.
+     *
+     * @param roomId the room id
+     * @return the room categories, -1 if the room is not a joined one
+     */
+    public int getRoomCategories(String roomId) {
+        buildIfNeeded();
+
+        Integer categories = mCategoriesByRoomId.get(roomId);
+        return (null != categories) ? categories : -1;
+    }
+
+    /**
+     * Tells if a room is a pending invitation.
+     *
+     * @param roomId the room id
+     * @return true if the room is a pending rooms invitation
+     */
+    public boolean isRoomInvitation(String roomId) {
+        buildIfNeeded();
+        return mRoomInvitations.containsKey(roomId);
+    }
+
+    /**
+     * Tells if a room is a pending direct chat invitation.
+     *
+     * @param roomId the room id
+     * @return true if the room is a pending direct chat invitation
+     */
+    public boolean isDirectChatInvitation(String roomId) {
+        buildIfNeeded();
+        return mDirectChatInvitations.containsKey(roomId);
+    }
+
+    //================================================================================
+    // Updates
+    //================================================================================
+
+    /**
+     * The index will be built again with its next snapshot.
+     */
+    private void invalidate() {
+        mIsBuilt = false;
+    }
+
+    /**
+     * Build the index from the store rooms, if it is not yet done.
+     */
+    private void buildIfNeeded() {
+        if (mIsBuilt) {
+            return;
+        }
+
+        IMXStore store = mSession.getDataHandler().getStore();
+
+        if ((null == store) || !store.isReady()) {
+            return;
+        }
+
+        long t0 = System.currentTimeMillis();
+
+        mJoinedRooms.clear();
+        mCategoriesByRoomId.clear();
+        mRoomInvitations.clear();
+        mDirectChatInvitations.clear();
+
+        for (Set<String> roomIds : mRoomIdsByCategory.values()) {
+            roomIds.clear();
+        }
+
+        mDirectChatRoomIds = new HashSet<>(mSession.getDirectChatRoomIdsList());
+
+        for (Room room : store.getRooms()) {
+            addRoom(room);
+        }
+
+        mIsBuilt = true;
+
+        Log.d(LOG_TAG, "## buildIfNeeded() : index " + mCategoriesByRoomId.size() + " rooms in " + (System.currentTimeMillis() - t0) + " ms");
+    }
+
+    /**
+     * The direct chats list has been updated : only the rooms whose direct state changed are refreshed.
+     */
+    private void refreshDirectChatRoomIds() {
+        if (!mIsBuilt) {
+            return;
+        }
+
+        Set<String> directChatRoomIds = new HashSet<>(mSession.getDirectChatRoomIdsList());
+        Set<String> updatedRoomIds = new HashSet<>();
+
+        for (String roomId : directChatRoomIds) {
+            if (!mDirectChatRoomIds.contains(roomId)) {
+                updatedRoomIds.add(roomId);
+            }
+        }
+
+        for (String roomId : mDirectChatRoomIds) {
+            if (!directChatRoomIds.contains(roomId)) {
+                updatedRoomIds.add(roomId);
+            }
+        }
+
+        mDirectChatRoomIds = directChatRoomIds;
+
+        for (String roomId : updatedRoomIds) {
+            refreshRoom(roomId);
+        }
+    }
+
+    /**
+     * Compute again the categories of a room.
+     *
+     * @param roomId the room id
+     */
+    private void refreshRoom(String roomId) {
+        if (!mIsBuilt || (null == roomId)) {
+            return;
+        }
+
+        removeRoom(roomId);
+
+        Room room = mSession.getDataHandler().getStore().getRoom(roomId);
+
+        if (null != room) {
+            addRoom(room);
+        }
+    }
+
+    /**
+     * Remove a room from the index.
+     *
+     * @param roomId the room id
+     */
+    private void removeRoom(String roomId) {
+        if (!mIsBuilt || (null == roomId)) {
+            return;
+        }
+
+        mJoinedRooms.remove(roomId);
+        mCategoriesByRoomId.remove(roomId);
+        mRoomInvitations.remove(roomId);
+        mDirectChatInvitations.remove(roomId);
+
+        for (Set<String> roomIds : mRoomIdsByCategory.values()) {
+            roomIds.remove(roomId);
+        }
+    }
+
+    /**
+     * Add a room to the index.
+     *
+     * @param room the room
+     */
+    private void addRoom(Room room) {
+        // the user conference rooms are not displayed
+        if (room.isConferenceUserRoom()) {
+            return;
+        }
+
+        String roomId = room.getRoomId();
+
+        if (room.isInvited()) {
+            if (room.isDirectChatInvitation()) {
+                mDirectChatInvitations.put(roomId, room);
+            } else {
+                mRoomInvitations.put(roomId, room);
+            }
+            return;
+        }
+
+        // it seems that the server syncs some left rooms
+        if (null == room.getMember(mSession.getMyUserId())) {
+            return;
+        }
+
+        int categories = 0;
+        RoomAccountData accountData = room.getAccountData();
+
+        if ((null != accountData) && accountData.hasTags()) {
+            Set<String> tags = accountData.getKeys();
+
+            if (tags.contains(RoomTag.ROOM_TAG_FAVOURITE)) {
+                categories |= CATEGORY_FAVOURITE;
+            }
+
+            if (tags.contains(RoomTag.ROOM_TAG_LOW_PRIORITY)) {
+                categories |= CATEGORY_LOW_PRIORITY;
+            }
+        }
+
+        if (mDirectChatRoomIds.contains(roomId)) {
+            categories |= CATEGORY_DIRECT;
+        }
+
+        mJoinedRooms.put(roomId, room);
+        mCategoriesByRoomId.put(roomId, categories);
+
+        for (Integer category : mRoomIdsByCategory.keySet()) {
+            if (0 != (categories & category)) {
+                mRoomIdsByCategory.get(category).add(roomId);
+            }
+        }
+    }
+}
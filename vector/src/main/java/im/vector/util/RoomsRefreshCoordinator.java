@@ -0,0 +1,355 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.data.RoomState;
+import org.matrix.androidsdk.data.RoomSummary;
+import org.matrix.androidsdk.listeners.MXEventListener;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Coordinates the rooms lists refreshes of a session.
+ * The rooms updated by the sync chunks are merged, and the listeners are warned at most once per refresh interval,
+ * so a catch-up after a long time offline does not refresh the rooms lists for each received chunk.
+ * The last updates are always dispatched once the refresh interval is elapsed.
+ */
+public class RoomsRefreshCoordinator {
+    private static final String LOG_TAG = RoomsRefreshCoordinator.class.getSimpleName();
+
+    // the min delay between two refreshes
+    private static final long MIN_REFRESH_INTERVAL_MS = 500;
+
+    /**
+     * Refresh listener
+     */
+    public interface IRoomsRefreshListener {
+        /**
+         * Some rooms have been updated.
+         * This method is called on the UI thread.
+         *
+         * @param roomIds the updated room ids, null if all the rooms must be refreshed
+         */
+        void onRoomsUpdated(Set<String> roomIds);
+    }
+
+    // the coordinators, by user id
+    private static final Map<String, RoomsRefreshCoordinator> mInstances = new HashMap<>();
+
+    private final MXSession mSession;
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+
+    private final List<IRoomsRefreshListener> mListeners = new ArrayList<>();
+
+    // the rooms updated since the last refresh
+    private Set<String> mUpdatedRoomIds = new HashSet<>();
+
+    // true when all the rooms must be refreshed
+    private boolean mIsFullRefresh = false;
+
+    // true when a refresh is scheduled
+    private boolean mIsRefreshScheduled = false;
+
+    // true when the session has been logged out
+    private boolean mIsReleased = false;
+
+    // the last refresh time
+    private long mLastRefreshTime = 0;
+
+    // statistics
+    private int mChunksCount = 0;
+
+    private final Runnable mRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+        }
+    };
+
+    private final MXEventListener mEventsListener = new MXEventListener() {
+        @Override
+        public void onStoreReady() {
+            onAllRoomsUpdated();
+        }
+
+        @Override
+        public void onInitialSyncComplete(String toToken) {
+            onAllRoomsUpdated();
+        }
+
+        @Override
+        public void onLiveEventsChunkProcessed(String fromToken, String toToken) {
+            onChunkProcessed();
+        }
+
+        @Override
+        public void onLiveEvent(final Event event, final RoomState roomState) {
+            String eventType = event.getType();
+
+            // refresh the rooms at the end of the next events chunk
+            if (((event.roomId != null) && RoomSummary.isSupportedEvent(event)) ||
+                    Event.EVENT_TYPE_STATE_ROOM_MEMBER.equals(eventType) ||
+                    Event.EVENT_TYPE_TAGS.equals(eventType) ||
+                    Event.EVENT_TYPE_REDACTION.equals(eventType) ||
+                    Event.EVENT_TYPE_RECEIPT.equals(eventType) ||
+                    Event.EVENT_TYPE_STATE_ROOM_AVATAR.equals(eventType) ||
+                    Event.EVENT_TYPE_STATE_ROOM_THIRD_PARTY_INVITE.equals(eventType)) {
+                onRoomUpdated(event.roomId);
+            }
+        }
+
+        @Override
+        public void onReceiptEvent(String roomId, List<String> senderIds) {
+            // refresh only if the current user read some messages (to update the unread messages counters)
+            if (senderIds.indexOf(mSession.getMyUserId()) >= 0) {
+                onRoomUpdated(roomId);
+            }
+        }
+
+        @Override
+        public void onRoomTagEvent(String roomId) {
+            onRoomUpdated(roomId);
+        }
+
+        @Override
+        public void onDirectMessageChatRoomsListUpdate() {
+            // the updated rooms are not provided
+            onAllRoomsUpdated();
+        }
+
+        @Override
+        public void onBingRulesUpdate() {
+            // the rooms notifications settings might have been updated
+            onAllRoomsUpdated();
+        }
+
+        // the user could have created / joined / left a room : refresh asap
+        // without waiting the end of the events chunk because the server echos might not be yet received
+
+        @Override
+        public void onLeaveRoom(final String roomId) {
+            onRoomUpdated(roomId);
+            scheduleRefresh();
+        }
+
+        @Override
+        public void onNewRoom(String roomId) {
+            onRoomUpdated(roomId);
+            scheduleRefresh();
+        }
+
+        @Override
+        public void onJoinRoom(String roomId) {
+            onRoomUpdated(roomId);
+            scheduleRefresh();
+        }
+    };
+
+    /**
+     * Provides the coordinator of a session.
+     * This method must be called from the UI thread.
+     *
+     * @param session the session
+     * @return the coordinator
+     */
+    public static RoomsRefreshCoordinator getInstance(MXSession session) {
+        RoomsRefreshCoordinator coordinator = mInstances.get(session.getMyUserId());
+
+        if ((null == coordinator) || (coordinator.mSession != session)) {
+            if (null != coordinator) {
+                coordinator.release();
+            }
+
+            coordinator = new RoomsRefreshCoordinator(session);
+            mInstances.put(session.getMyUserId(), coordinator);
+        }
+
+        return coordinator;
+    }
+
+    /**
+     * Release the coordinator of a session on logout.
+     * The scheduled refresh is cancelled.
+     *
+     * @param session the session
+     */
+    public static void release(MXSession session) {
+        RoomsRefreshCoordinator coordinator = mInstances.remove(session.getMyUserId());
+
+        if (null != coordinator) {
+            coordinator.release();
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param session the session
+     */
+    private RoomsRefreshCoordinator(MXSession session) {
+        mSession = session;
+        mSession.getDataHandler().addListener(mEventsListener);
+    }
+
+    /**
+     * Stop listening to the session events.
+     */
+    private void release() {
+        mIsReleased = true;
+        mUiHandler.removeCallbacks(mRefreshRunnable);
+
+        if (mSession.isAlive()) {
+            mSession.getDataHandler().removeListener(mEventsListener);
+        }
+    }
+
+    /**
+     * Add a refresh listener.
+     *
+     * @param listener the listener
+     */
+    public void addListener(IRoomsRefreshListener listener) {
+        if ((null != listener) && !mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+    }
+
+    /**
+     * Remove a refresh listener.
+     *
+     * @param listener the listener
+     */
+    public void removeListener(IRoomsRefreshListener listener) {
+        mListeners.remove(listener);
+    }
+
+    //================================================================================
+    // Updates tracking
+    //================================================================================
+
+    /**
+     * The last message preview of a room has been formatted again.
+     *
+     * @param roomId the room id
+     */
+    public void onRoomPreviewUpdated(String roomId) {
+        onRoomUpdated(roomId);
+        scheduleRefresh();
+    }
+
+    /**
+     * A room has been updated.
+     *
+     * @param roomId the room id
+     */
+    private synchronized void onRoomUpdated(String roomId) {
+        if (null != roomId) {
+            mUpdatedRoomIds.add(roomId);
+        }
+    }
+
+    /**
+     * All the rooms must be refreshed.
+     */
+    private void onAllRoomsUpdated() {
+        synchronized (this) {
+            mIsFullRefresh = true;
+        }
+
+        scheduleRefresh();
+    }
+
+    /**
+     * An events chunk has been processed.
+     */
+    private void onChunkProcessed() {
+        boolean hasUpdates;
+
+        synchronized (this) {
+            mChunksCount++;
+            hasUpdates = mIsFullRefresh || !mUpdatedRoomIds.isEmpty();
+        }
+
+        if (hasUpdates) {
+            scheduleRefresh();
+        }
+    }
+
+    //================================================================================
+    // Refresh
+    //================================================================================
+
+    /**
+     * Schedule a refresh, at least the min refresh interval after the previous one.
+     */
+    private void scheduleRefresh() {
+        mUiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mIsRefreshScheduled && !mIsReleased) {
+                    mIsRefreshScheduled = true;
+
+                    long delay = Math.max(0, mLastRefreshTime + MIN_REFRESH_INTERVAL_MS - SystemClock.elapsedRealtime());
+                    mUiHandler.postDelayed(mRefreshRunnable, delay);
+                }
+            }
+        });
+    }
+
+    /**
+     * Dispatch the pending updates to the listeners.
+     */
+    private void refresh() {
+        Set<String> roomIds;
+        int chunksCount;
+
+        synchronized (this) {
+            roomIds = mIsFullRefresh ? null : Collections.unmodifiableSet(mUpdatedRoomIds);
+            chunksCount = mChunksCount;
+
+            mUpdatedRoomIds = new HashSet<>();
+            mIsFullRefresh = false;
+            mChunksCount = 0;
+        }
+
+        mIsRefreshScheduled = false;
+        mLastRefreshTime = SystemClock.elapsedRealtime();
+
+        Log.d(LOG_TAG, "## refresh() : " + ((null == roomIds) ? "all the rooms" : (roomIds.size() + " rooms")) + " updated by " + chunksCount + " chunks");
+
+        for (IRoomsRefreshListener listener : new ArrayList<>(mListeners)) {
+            try {
+                listener.onRoomsUpdated(roomIds);
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## refresh() : onRoomsUpdated failed " + e.getMessage());
+            }
+        }
+    }
+}
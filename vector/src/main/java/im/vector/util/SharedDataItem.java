@@ -18,7 +18,6 @@ package im.vector.util;
 
 import android.content.ClipData;
 import android.content.ClipDescription;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
@@ -301,28 +300,8 @@ public class SharedDataItem implements Parcelable {
             return null;
         }
 
-        Bitmap thumbnailBitmap = null;
-
-        try {
-            ContentResolver resolver = context.getContentResolver();
-
-            List uriPath = getUri().getPathSegments();
-            long imageId;
-            String lastSegment = (String) uriPath.get(uriPath.size() - 1);
-
-            // > Kitkat
-            if (lastSegment.startsWith("image:")) {
-                lastSegment = lastSegment.substring("image:".length());
-            }
-
-            imageId = Long.parseLong(lastSegment);
-
-            thumbnailBitmap = MediaStore.Images.Thumbnails.getThumbnail(resolver, imageId, kind, null);
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "MediaStore.Images.Thumbnails.getThumbnail " + e.getMessage());
-        }
-
-        return thumbnailBitmap;
+        // the MediaStore lookups are done by the thumbnails service, which caches them
+        return ThumbnailsService.getInstance(context).getImageThumbnail(getUri(), kind);
     }
 
     /**
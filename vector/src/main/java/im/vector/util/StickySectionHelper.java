@@ -99,31 +99,47 @@ public class StickySectionHelper extends RecyclerView.OnScrollListener implement
      */
 
     /**
-     * Reset the section views position
+     * Reset the section views position.
+     * The sticky coordinates are computed again only when a section is shown / hidden or when its header height changes,
+     * otherwise only the adapter positions of the sections are updated.
      *
      * @param sections updated list of sections
      */
     public void resetSticky(List<Pair<Integer, AdapterSection>> sections) {
-        Log.d(LOG_TAG, "resetSticky");
-
         if (!mSectionViews.isEmpty()) {
+            boolean isLayoutUpdated = false;
+
             List<Pair<Integer, SectionView>> newList = new ArrayList<>();
             for (int i = 0; i < sections.size(); i++) {
                 Pair<Integer, SectionView> pair = mSectionViews.get(i);
                 if (pair != null) {
-                    newList.add(new Pair<>(sections.get(i).first, pair.second));
-                    mSectionViews.get(i).second.updateTitle();
+                    SectionView sectionView = pair.second;
+                    boolean wasHidden = (View.GONE == sectionView.getVisibility());
+                    int headerHeight = sectionView.getStickyHeaderHeight();
+
+                    sectionView.updateTitle();
+                    sectionView.measure(View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED), View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+
+                    isLayoutUpdated |= (wasHidden != sectionView.getSection().shouldBeHidden()) || (headerHeight != sectionView.getStickyHeaderHeight());
+
+                    newList.add(new Pair<>(sections.get(i).first, sectionView));
                 }
             }
 
             mSectionViews.clear();
             mSectionViews.addAll(newList);
 
-            setBottom(mFooterBottom);
-            mHeaderBottom = 0;
+            if (isLayoutUpdated || (null == mSectionViews.get(0).second.getParent())) {
+                Log.d(LOG_TAG, "resetSticky : compute the coordinates");
 
-            // Calculate the coordinates (header/footer) of section views
-            computeSectionViewsCoordinates(mRecyclerView, mSectionViews);
+                setBottom(mFooterBottom);
+                mHeaderBottom = 0;
+
+                // Calculate the coordinates (header/footer) of section views
+                computeSectionViewsCoordinates(mRecyclerView, mSectionViews);
+            } else {
+                updateStickySection(-1);
+            }
         }
     }
 
@@ -0,0 +1,404 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ThumbnailUtils;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+
+import org.matrix.androidsdk.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Computes the medias thumbnails in a worker pool.
+ * The identical requests are coalesced and the thumbnails are cached on the disk,
+ * keyed by the media uri, its modification time and the thumbnail kind.
+ */
+public class ThumbnailsService {
+    private static final String LOG_TAG = ThumbnailsService.class.getSimpleName();
+
+    // the thumbnails cache directory, in the application cache directory
+    private static final String THUMBNAILS_DIR_NAME = "ThumbnailsService";
+
+    // number of workers
+    private static final int WORKERS_COUNT = 2;
+
+    // the cached thumbnails quality
+    private static final int THUMBNAIL_QUALITY = 85;
+
+    /**
+     * Thumbnail listener
+     */
+    public interface IThumbnailListener {
+        /**
+         * The thumbnail has been computed.
+         * This method is called on the UI thread.
+         *
+         * @param uri       the media uri
+         * @param thumbnail the thumbnail, null if it cannot be computed
+         */
+        void onThumbnailReady(Uri uri, Bitmap thumbnail);
+    }
+
+    /**
+     * A pending thumbnail computation, shared by the identical requests.
+     */
+    private class ThumbnailTask {
+        final String mKey;
+        final List<IThumbnailListener> mListeners = new ArrayList<>();
+        // true when a caller waits for the result
+        boolean mHasBlockingRequest = false;
+        Future<Bitmap> mFuture;
+
+        ThumbnailTask(String key) {
+            mKey = key;
+        }
+    }
+
+    // the instance
+    private static ThumbnailsService mInstance = null;
+
+    private final Context mContext;
+    private final ExecutorService mExecutor;
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+
+    // the pending tasks, by cache key
+    private final Map<String, ThumbnailTask> mPendingTasks = new HashMap<>();
+
+    /**
+     * Provides the service instance.
+     *
+     * @param context the context
+     * @return the instance
+     */
+    public static synchronized ThumbnailsService getInstance(Context context) {
+        if (null == mInstance) {
+            mInstance = new ThumbnailsService(context.getApplicationContext());
+        }
+
+        return mInstance;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param context the application context
+     */
+    private ThumbnailsService(Context context) {
+        mContext = context;
+        mExecutor = Executors.newFixedThreadPool(WORKERS_COUNT, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ThumbnailsService");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    //================================================================================
+    // Public API
+    //================================================================================
+
+    /**
+     * Request a video thumbnail.
+     * The FULL_SCREEN_KIND thumbnail is computed, the MINI_KIND one is used as fallback.
+     *
+     * @param videoUri the video file uri
+     * @param listener the listener
+     */
+    public void requestVideoThumbnail(final Uri videoUri, IThumbnailListener listener) {
+        request(videoUri, "video", listener, new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() throws Exception {
+                Bitmap thumbnail = ThumbnailUtils.createVideoThumbnail(videoUri.getPath(), MediaStore.Images.Thumbnails.FULL_SCREEN_KIND);
+
+                if (null == thumbnail) {
+                    thumbnail = ThumbnailUtils.createVideoThumbnail(videoUri.getPath(), MediaStore.Images.Thumbnails.MINI_KIND);
+                }
+
+                return thumbnail;
+            }
+        });
+    }
+
+    /**
+     * Provides a MediaStore image thumbnail.
+     * This method blocks until the thumbnail is computed : it must not be called from the UI thread.
+     *
+     * @param imageUri the MediaStore image uri
+     * @param kind     the thumbnail kind (MediaStore.Images.Thumbnails.MINI_KIND or FULL_SCREEN_KIND)
+     * @return the thumbnail, null if it does not exist
+     */
+    public Bitmap getImageThumbnail(final Uri imageUri, final int kind) {
+        Future<Bitmap> future = request(imageUri, "image" + kind, null, new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() throws Exception {
+                List<String> uriPath = imageUri.getPathSegments();
+                String lastSegment = uriPath.get(uriPath.size() - 1);
+
+                // > Kitkat
+                if (lastSegment.startsWith("image:")) {
+                    lastSegment = lastSegment.substring("image:".length());
+                }
+
+                return MediaStore.Images.Thumbnails.getThumbnail(mContext.getContentResolver(), Long.parseLong(lastSegment), kind, null);
+            }
+        });
+
+        try {
+            return future.get();
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## getImageThumbnail() : failed " + e.getMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * Cancel the thumbnail requests of a listener.
+     * The thumbnail computation is cancelled when no other request is pending.
+     *
+     * @param listener the listener
+     */
+    public synchronized void cancel(IThumbnailListener listener) {
+        List<String> keysToCancel = new ArrayList<>();
+
+        for (ThumbnailTask task : mPendingTasks.values()) {
+            if (task.mListeners.remove(listener) && task.mListeners.isEmpty() && !task.mHasBlockingRequest) {
+                keysToCancel.add(task.mKey);
+            }
+        }
+
+        for (String key : keysToCancel) {
+            ThumbnailTask task = mPendingTasks.remove(key);
+            Log.d(LOG_TAG, "## cancel() : cancel " + key);
+            task.mFuture.cancel(false);
+        }
+    }
+
+    //================================================================================
+    // Tasks management
+    //================================================================================
+
+    /**
+     * Request a thumbnail.
+     * The request is merged with a pending one for the same media.
+     *
+     * @param uri      the media uri
+     * @param kind     the thumbnail kind
+     * @param listener the listener, null for a blocking request
+     * @param builder  the thumbnail builder
+     * @return the thumbnail future
+     */
+    private synchronized Future<Bitmap> request(final Uri uri, String kind, IThumbnailListener listener, final Callable<Bitmap> builder) {
+        final String key = getCacheKey(uri, kind);
+        ThumbnailTask task = mPendingTasks.get(key);
+
+        if (null == task) {
+            final ThumbnailTask fTask = new ThumbnailTask(key);
+            task = fTask;
+            mPendingTasks.put(key, task);
+
+            task.mFuture = mExecutor.submit(new Callable<Bitmap>() {
+                @Override
+                public Bitmap call() throws Exception {
+                    Bitmap thumbnail = loadCachedThumbnail(key);
+
+                    if (null == thumbnail) {
+                        try {
+                            thumbnail = builder.call();
+                        } catch (Exception e) {
+                            Log.e(LOG_TAG, "## request() : failed " + e.getMessage());
+                        } catch (OutOfMemoryError oom) {
+                            Log.e(LOG_TAG, "## request() : out of memory");
+                        }
+
+                        if (null != thumbnail) {
+                            saveCachedThumbnail(key, thumbnail);
+                        }
+                    }
+
+                    onTaskDone(fTask, uri, thumbnail);
+
+                    return thumbnail;
+                }
+            });
+        } else {
+            Log.d(LOG_TAG, "## request() : coalesce the request " + key);
+        }
+
+        if (null != listener) {
+            task.mListeners.add(listener);
+        } else {
+            task.mHasBlockingRequest = true;
+        }
+
+        return task.mFuture;
+    }
+
+    /**
+     * Dispatch a computed thumbnail.
+     *
+     * @param task      the task
+     * @param uri       the media uri
+     * @param thumbnail the thumbnail
+     */
+    private void onTaskDone(ThumbnailTask task, final Uri uri, final Bitmap thumbnail) {
+        final List<IThumbnailListener> listeners;
+
+        synchronized (this) {
+            if (mPendingTasks.get(task.mKey) == task) {
+                mPendingTasks.remove(task.mKey);
+            }
+
+            listeners = new ArrayList<>(task.mListeners);
+        }
+
+        if (!listeners.isEmpty()) {
+            mUiHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (IThumbnailListener listener : listeners) {
+                        listener.onThumbnailReady(uri, thumbnail);
+                    }
+                }
+            });
+        }
+    }
+
+    //================================================================================
+    // Disk cache
+    //================================================================================
+
+    /**
+     * Compute the cache key of a thumbnail.
+     *
+     * @param uri  the media uri
+     * @param kind the thumbnail kind
+     * @return the cache key
+     */
+    private String getCacheKey(Uri uri, String kind) {
+        return Integer.toHexString(uri.toString().hashCode()) + "_" + Long.toHexString(getModificationTime(uri)) + "_" + kind;
+    }
+
+    /**
+     * Provides the media modification time.
+     *
+     * @param uri the media uri
+     * @return the modification time, 0 if it is unknown
+     */
+    private long getModificationTime(Uri uri) {
+        if (ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())) {
+            Cursor cursor = null;
+
+            try {
+                cursor = mContext.getContentResolver().query(uri, new String[]{MediaStore.MediaColumns.DATE_MODIFIED}, null, null, null);
+
+                if ((null != cursor) && cursor.moveToFirst()) {
+                    return cursor.getLong(0);
+                }
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## getModificationTime() : failed " + e.getMessage());
+            } finally {
+                if (null != cursor) {
+                    cursor.close();
+                }
+            }
+
+            return 0;
+        }
+
+        return (null != uri.getPath()) ? new File(uri.getPath()).lastModified() : 0;
+    }
+
+    /**
+     * @return the thumbnails cache directory
+     */
+    private File getCacheDir() {
+        File dir = new File(mContext.getCacheDir(), THUMBNAILS_DIR_NAME);
+
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+
+        return dir;
+    }
+
+    /**
+     * Load a cached thumbnail.
+     *
+     * @param key the cache key
+     * @return the thumbnail, null if it is not cached
+     */
+    private Bitmap loadCachedThumbnail(String key) {
+        File file = new File(getCacheDir(), key);
+
+        if (file.exists()) {
+            try {
+                return BitmapFactory.decodeFile(file.getPath());
+            } catch (OutOfMemoryError oom) {
+                Log.e(LOG_TAG, "## loadCachedThumbnail() : out of memory");
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Save a thumbnail in the disk cache.
+     *
+     * @param key       the cache key
+     * @param thumbnail the thumbnail
+     */
+    private void saveCachedThumbnail(String key, Bitmap thumbnail) {
+        FileOutputStream stream = null;
+
+        try {
+            stream = new FileOutputStream(new File(getCacheDir(), key));
+            thumbnail.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, stream);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## saveCachedThumbnail() : failed " + e.getMessage());
+        } finally {
+            if (null != stream) {
+                try {
+                    stream.close();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## saveCachedThumbnail() : close failed " + e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.matrix.androidsdk.data.Room;
+import org.matrix.androidsdk.rest.callback.SimpleApiCallback;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sends the typing notifications of all the rooms.
+ * The typing state of each room is refreshed at most once per typing timeout,
+ * and a stop quickly followed by a new start is not sent.
+ * All the timers run on the UI thread handler : no thread is created.
+ * The methods must be called from the UI thread.
+ */
+public class TypingNotificationsScheduler {
+    private static final String LOG_TAG = TypingNotificationsScheduler.class.getSimpleName();
+
+    // the local typing timeout
+    private static final int TYPING_TIMEOUT_MS = 10000;
+
+    // delay before sending a typing stop, to coalesce the stop / start transitions
+    private static final int STOP_DELAY_MS = 1000;
+
+    /**
+     * The typing state of a room
+     */
+    private class RoomTypingState {
+        final Room mRoom;
+        // the last user typing time
+        long mLastTypingTs;
+        // the timer runnable
+        final Runnable mTimeoutRunnable = new Runnable() {
+            @Override
+            public void run() {
+                onTypingTimeout(RoomTypingState.this);
+            }
+        };
+        // the pending typing stop
+        final Runnable mStopRunnable = new Runnable() {
+            @Override
+            public void run() {
+                stopTyping(RoomTypingState.this);
+            }
+        };
+
+        RoomTypingState(Room room) {
+            mRoom = room;
+        }
+    }
+
+    // the instance
+    private static TypingNotificationsScheduler mInstance = null;
+
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+
+    // the rooms in which the user is typing, by room id
+    private final Map<String, RoomTypingState> mTypingStates = new HashMap<>();
+
+    /**
+     * @return the scheduler instance
+     */
+    public static TypingNotificationsScheduler getInstance() {
+        if (null == mInstance) {
+            mInstance = new TypingNotificationsScheduler();
+        }
+
+        return mInstance;
+    }
+
+    /**
+     * Update the user typing state in a room.
+     *
+     * @param room     the room
+     * @param isTyping true if the user is typing
+     */
+    public void onTyping(Room room, boolean isTyping) {
+        RoomTypingState state = mTypingStates.get(room.getRoomId());
+
+        if (isTyping) {
+            if (null == state) {
+                state = new RoomTypingState(room);
+                state.mLastTypingTs = System.currentTimeMillis();
+                mTypingStates.put(room.getRoomId(), state);
+
+                sendTypingNotification(room, true);
+                mUiHandler.postDelayed(state.mTimeoutRunnable, TYPING_TIMEOUT_MS);
+            } else {
+                // the typing notification has already been sent : it will be refreshed on timeout
+                state.mLastTypingTs = System.currentTimeMillis();
+                mUiHandler.removeCallbacks(state.mStopRunnable);
+            }
+        } else if (null != state) {
+            mUiHandler.removeCallbacks(state.mStopRunnable);
+            mUiHandler.postDelayed(state.mStopRunnable, STOP_DELAY_MS);
+        }
+    }
+
+    /**
+     * Stop at once the typing notification of a room.
+     *
+     * @param room the room
+     */
+    public void cancel(Room room) {
+        RoomTypingState state = mTypingStates.get(room.getRoomId());
+
+        if (null != state) {
+            stopTyping(state);
+        }
+    }
+
+    /**
+     * The local typing timeout is reached.
+     *
+     * @param state the room typing state
+     */
+    private void onTypingTimeout(RoomTypingState state) {
+        if ((System.currentTimeMillis() - state.mLastTypingTs) < TYPING_TIMEOUT_MS) {
+            // the user is still typing
+            sendTypingNotification(state.mRoom, true);
+            mUiHandler.postDelayed(state.mTimeoutRunnable, TYPING_TIMEOUT_MS);
+        } else {
+            Log.d(LOG_TAG, "## onTypingTimeout() : send end of typing");
+            stopTyping(state);
+        }
+    }
+
+    /**
+     * Send the typing stop of a room.
+     *
+     * @param state the room typing state
+     */
+    private void stopTyping(RoomTypingState state) {
+        mUiHandler.removeCallbacks(state.mTimeoutRunnable);
+        mUiHandler.removeCallbacks(state.mStopRunnable);
+
+        if (mTypingStates.get(state.mRoom.getRoomId()) == state) {
+            mTypingStates.remove(state.mRoom.getRoomId());
+            sendTypingNotification(state.mRoom, false);
+        }
+    }
+
+    /**
+     * Send a typing notification.
+     *
+     * @param room     the room
+     * @param isTyping the typing state
+     */
+    private void sendTypingNotification(Room room, boolean isTyping) {
+        Log.d(LOG_TAG, "## sendTypingNotification() : isTyping " + isTyping + " in " + room.getRoomId());
+
+        // consider the double of the local typing timeout
+        room.sendTypingNotification(isTyping, isTyping ? TYPING_TIMEOUT_MS * 2 : -1, new SimpleApiCallback<Void>() {
+            @Override
+            public void onNetworkError(Exception e) {
+                // do not send again
+                // assume that the typing event is optional
+                Log.e(LOG_TAG, "## sendTypingNotification() : failed " + e.getMessage());
+            }
+        });
+    }
+}
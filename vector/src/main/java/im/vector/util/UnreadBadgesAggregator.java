@@ -0,0 +1,269 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.data.Room;
+import org.matrix.androidsdk.data.store.IMXStore;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Aggregates the unread counters of the home tabs.
+ * The contribution of each room is kept, so an update only applies the delta of the updated rooms
+ * to the tabs running totals.
+ * The methods must be called from the UI thread.
+ */
+public class UnreadBadgesAggregator {
+    private static final String LOG_TAG = UnreadBadgesAggregator.class.getSimpleName();
+
+    // the tabs
+    public static final int TAB_FAVOURITES = 0;
+    public static final int TAB_PEOPLE = 1;
+    public static final int TAB_ROOMS = 2;
+
+    private static final int TABS_COUNT = 3;
+
+    /**
+     * The contribution of a room to the tabs counters
+     */
+    private static class RoomCounters {
+        // the tabs in which the room is displayed, as a bit mask
+        int mTabs;
+        int mHighlightCount;
+        // true if the room has some unread notifications or if it is an invitation
+        boolean mIsNotified;
+    }
+
+    private final MXSession mSession;
+
+    // the rooms contributions, by room id
+    private final Map<String, RoomCounters> mCountersByRoomId = new HashMap<>();
+
+    // the running totals, by tab
+    private final int[] mHighlightCounts = new int[TABS_COUNT];
+    private final int[] mNotifiedRoomsCounts = new int[TABS_COUNT];
+
+    // the rooms to refresh
+    private final Set<String> mUpdatedRoomIds = new HashSet<>();
+
+    // true when the counters must be computed again for all the rooms
+    private boolean mIsInvalidated = true;
+
+    /**
+     * Constructor
+     *
+     * @param session the session
+     */
+    public UnreadBadgesAggregator(MXSession session) {
+        mSession = session;
+    }
+
+    /**
+     * The counters of all the rooms will be computed again with the next refresh.
+     */
+    public void invalidate() {
+        mIsInvalidated = true;
+        mUpdatedRoomIds.clear();
+    }
+
+    /**
+     * The counters of a room will be computed again with the next refresh.
+     *
+     * @param roomId the room id
+     */
+    public void onRoomUpdated(String roomId) {
+        if (!mIsInvalidated && (null != roomId)) {
+            mUpdatedRoomIds.add(roomId);
+        }
+    }
+
+    /**
+     * @return true if some counters have to be computed again
+     */
+    public boolean hasPendingUpdates() {
+        return mIsInvalidated || !mUpdatedRoomIds.isEmpty();
+    }
+
+    /**
+     * Apply the pending updates.
+     */
+    public void refresh() {
+        if (mIsInvalidated) {
+            rebuild();
+        } else if (!mUpdatedRoomIds.isEmpty()) {
+            for (String roomId : mUpdatedRoomIds) {
+                refreshRoom(roomId);
+            }
+
+            mUpdatedRoomIds.clear();
+        }
+    }
+
+    /**
+     * Provides the highlight count of a tab.
+     *
+     * @param tab the tab
+     * @return the highlight count
+     */
+    public int getHighlightCount(int tab) {
+        return mHighlightCounts[tab];
+    }
+
+    /**
+     * Provides the number of rooms with unread notifications of a tab.
+     *
+     * @param tab the tab
+     * @return the notified rooms count
+     */
+    public int getNotifiedRoomsCount(int tab) {
+        return mNotifiedRoomsCounts[tab];
+    }
+
+    /**
+     * Compute the counters of all the rooms.
+     */
+    private void rebuild() {
+        long t0 = System.currentTimeMillis();
+
+        mCountersByRoomId.clear();
+
+        for (int tab = 0; tab < TABS_COUNT; tab++) {
+            mHighlightCounts[tab] = 0;
+            mNotifiedRoomsCounts[tab] = 0;
+        }
+
+        RoomsCategoriesIndex index = RoomsCategoriesIndex.getInstance(mSession);
+        List<Room> rooms = new ArrayList<>(index.getRooms(RoomsCategoriesIndex.CATEGORY_ANY, 0));
+        rooms.addAll(index.getDirectChatInvitations());
+        rooms.addAll(index.getRoomInvitations());
+
+        for (Room room : rooms) {
+            refreshRoom(room.getRoomId());
+        }
+
+        mIsInvalidated = false;
+        mUpdatedRoomIds.clear();
+
+        Log.d(LOG_TAG, "## rebuild() : " + rooms.size() + " rooms in " + (System.currentTimeMillis() - t0) + " ms");
+    }
+
+    /**
+     * Compute again the contribution of a room.
+     *
+     * @param roomId the room id
+     */
+    private void refreshRoom(String roomId) {
+        RoomCounters counters = mCountersByRoomId.remove(roomId);
+
+        // remove the previous contribution
+        if (null != counters) {
+            apply(counters, -1);
+        }
+
+        counters = computeCounters(roomId);
+
+        if (null != counters) {
+            mCountersByRoomId.put(roomId, counters);
+            apply(counters, +1);
+        }
+    }
+
+    /**
+     * Add or remove a room contribution to the tabs totals.
+     *
+     * @param counters the room counters
+     * @param sign     +1 to add it, -1 to remove it
+     */
+    private void apply(RoomCounters counters, int sign) {
+        for (int tab = 0; tab < TABS_COUNT; tab++) {
+            if (0 != (counters.mTabs & (1 << tab))) {
+                mHighlightCounts[tab] += sign * counters.mHighlightCount;
+                mNotifiedRoomsCounts[tab] += counters.mIsNotified ? sign : 0;
+            }
+        }
+    }
+
+    /**
+     * Compute the contribution of a room.
+     *
+     * @param roomId the room id
+     * @return the room counters, null if the room is not displayed in a tab
+     */
+    private RoomCounters computeCounters(String roomId) {
+        IMXStore store = mSession.getDataHandler().getStore();
+        Room room = (null != store) ? store.getRoom(roomId) : null;
+
+        if (null == room) {
+            return null;
+        }
+
+        RoomsCategoriesIndex index = RoomsCategoriesIndex.getInstance(mSession);
+        int tabs = 0;
+        boolean isInvitation = false;
+
+        if (index.isDirectChatInvitation(roomId)) {
+            tabs = 1 << TAB_PEOPLE;
+            isInvitation = true;
+        } else if (index.isRoomInvitation(roomId)) {
+            tabs = 1 << TAB_ROOMS;
+            isInvitation = true;
+        } else {
+            int categories = index.getRoomCategories(roomId);
+
+            if (categories < 0) {
+                return null;
+            }
+
+            if (0 != (categories & RoomsCategoriesIndex.CATEGORY_FAVOURITE)) {
+                tabs |= 1 << TAB_FAVOURITES;
+            }
+
+            if (0 == (categories & RoomsCategoriesIndex.CATEGORY_LOW_PRIORITY)) {
+                tabs |= (0 != (categories & RoomsCategoriesIndex.CATEGORY_DIRECT)) ? (1 << TAB_PEOPLE) : (1 << TAB_ROOMS);
+            }
+        }
+
+        if (0 == tabs) {
+            return null;
+        }
+
+        RoomCounters counters = new RoomCounters();
+        counters.mTabs = tabs;
+        counters.mHighlightCount = room.getHighlightCount();
+
+        if (isInvitation) {
+            counters.mIsNotified = true;
+        } else {
+            int notificationCount = room.getNotificationCount();
+
+            if (mSession.getDataHandler().getBingRulesManager().isRoomMentionOnly(roomId)) {
+                notificationCount = room.getHighlightCount();
+            }
+
+            counters.mIsNotified = (notificationCount > 0);
+        }
+
+        return counters;
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.rest.callback.ApiCallback;
+import org.matrix.androidsdk.rest.model.MatrixError;
+import org.matrix.androidsdk.rest.model.Search.SearchUsersResponse;
+import org.matrix.androidsdk.rest.model.User;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Searches the users directory while the user is typing a pattern.
+ * The requests are sent once the pattern is unchanged during a short delay, and the responses
+ * of the superseded requests are not dispatched. The responses are cached by pattern :
+ * when a cached pattern is a prefix of the searched one, its results are narrowed locally
+ * and the request is not sent if they were complete.
+ * The methods must be called from the UI thread.
+ */
+public class UserDirectorySearch {
+    private static final String LOG_TAG = UserDirectorySearch.class.getSimpleName();
+
+    // the delay before sending a request
+    private static final long SEARCH_DELAY_MS = 300;
+
+    // the max number of cached patterns
+    private static final int MAX_CACHED_PATTERNS = 20;
+
+    /**
+     * Search listener
+     */
+    public interface IUserDirectorySearchListener {
+        /**
+         * Some users match the pattern.
+         * It can be called twice for a pattern : with the narrowed results of a cached pattern,
+         * then with the server response.
+         *
+         * @param pattern   the searched pattern
+         * @param users     the matching users
+         * @param isLimited true if the server limited the results count
+         */
+        void onSearchResults(String pattern, List<User> users, boolean isLimited);
+
+        /**
+         * The users directory cannot be searched.
+         *
+         * @param pattern the searched pattern
+         */
+        void onSearchFailed(String pattern);
+    }
+
+    /**
+     * Search results
+     */
+    private static class SearchResults {
+        final List<User> mUsers;
+        final boolean mIsLimited;
+
+        SearchResults(List<User> users, boolean isLimited) {
+            mUsers = users;
+            mIsLimited = isLimited;
+        }
+    }
+
+    private final MXSession mSession;
+    private final int mLimit;
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+
+    // the results, by pattern, the least recently used ones are removed first
+    private final Map<String, SearchResults> mCache = new LinkedHashMap<String, SearchResults>(MAX_CACHED_PATTERNS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SearchResults> eldest) {
+            return size() > MAX_CACHED_PATTERNS;
+        }
+    };
+
+    // the user ids excluded from the cached results
+    private Set<String> mExcludedUserIds = new HashSet<>();
+
+    // the current request identifier, incremented when a request is superseded
+    private int mRequestId = 0;
+
+    // the request waiting for the pattern to be stable
+    private Runnable mPendingRequest = null;
+
+    /**
+     * Constructor
+     *
+     * @param session the session
+     * @param limit   the max number of users by request
+     */
+    public UserDirectorySearch(MXSession session, int limit) {
+        mSession = session;
+        mLimit = limit;
+    }
+
+    /**
+     * Search a pattern in the users directory.
+     * The previous search is cancelled.
+     *
+     * @param pattern         the lower case pattern
+     * @param excludedUserIds the user ids to exclude from the results
+     * @param listener        the listener
+     */
+    public void search(final String pattern, Set<String> excludedUserIds, final IUserDirectorySearchListener listener) {
+        cancel();
+
+        final int requestId = mRequestId;
+
+        // the cached results are not valid anymore
+        Set<String> userIds = (null != excludedUserIds) ? excludedUserIds : Collections.<String>emptySet();
+
+        if (!mExcludedUserIds.equals(userIds)) {
+            mCache.clear();
+            mExcludedUserIds = new HashSet<>(userIds);
+        }
+
+        SearchResults results = mCache.get(pattern);
+
+        if (null != results) {
+            dispatchResults(requestId, pattern, results, listener);
+            return;
+        }
+
+        results = narrowCachedResults(pattern);
+
+        if (null != results) {
+            // the server would not provide other users
+            if (!results.mIsLimited) {
+                mCache.put(pattern, results);
+                dispatchResults(requestId, pattern, results, listener);
+                return;
+            }
+
+            // display them until the server response is received
+            dispatchResults(requestId, pattern, results, listener);
+        }
+
+        mPendingRequest = new Runnable() {
+            @Override
+            public void run() {
+                mPendingRequest = null;
+                sendRequest(requestId, pattern, listener);
+            }
+        };
+
+        mUiHandler.postDelayed(mPendingRequest, SEARCH_DELAY_MS);
+    }
+
+    /**
+     * Cancel the current search.
+     * The pending request is not sent, and the running one is not dispatched anymore.
+     */
+    public void cancel() {
+        mRequestId++;
+
+        if (null != mPendingRequest) {
+            mUiHandler.removeCallbacks(mPendingRequest);
+            mPendingRequest = null;
+        }
+    }
+
+    /**
+     * Narrow the results of the longest cached prefix of a pattern.
+     *
+     * @param pattern the pattern
+     * @return the narrowed results, null if no prefix is cached
+     */
+    private SearchResults narrowCachedResults(String pattern) {
+        for (int length = pattern.length() - 1; length > 0; length--) {
+            SearchResults prefixResults = mCache.get(pattern.substring(0, length));
+
+            if (null != prefixResults) {
+                List<User> users = new ArrayList<>();
+
+                for (User user : prefixResults.mUsers) {
+                    if (match(user, pattern)) {
+                        users.add(user);
+                    }
+                }
+
+                return new SearchResults(users, prefixResults.mIsLimited);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Tells if an user could match a pattern.
+     *
+     * @param user    the user
+     * @param pattern the lower case pattern
+     * @return true if the user id or the display name contains the pattern
+     */
+    private static boolean match(User user, String pattern) {
+        return ((null != user.user_id) && user.user_id.toLowerCase().contains(pattern)) ||
+                ((null != user.displayname) && user.displayname.toLowerCase().contains(pattern));
+    }
+
+    /**
+     * Dispatch some results if the request is not superseded.
+     *
+     * @param requestId the request identifier
+     * @param pattern   the pattern
+     * @param results   the results
+     * @param listener  the listener
+     */
+    private void dispatchResults(final int requestId, final String pattern, final SearchResults results, final IUserDirectorySearchListener listener) {
+        mUiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (requestId == mRequestId) {
+                    listener.onSearchResults(pattern, results.mUsers, results.mIsLimited);
+                }
+            }
+        });
+    }
+
+    /**
+     * Send a search request.
+     * The response is cached even if the request has been superseded.
+     *
+     * @param requestId the request identifier
+     * @param pattern   the pattern
+     * @param listener  the listener
+     */
+    private void sendRequest(final int requestId, final String pattern, final IUserDirectorySearchListener listener) {
+        if (!mSession.isAlive()) {
+            Log.e(LOG_TAG, "## sendRequest() : the session is not anymore active");
+            return;
+        }
+
+        final Set<String> excludedUserIds = mExcludedUserIds;
+
+        mSession.searchUsers(pattern, mLimit, new HashSet<>(excludedUserIds), new ApiCallback<SearchUsersResponse>() {
+            @Override
+            public void onSuccess(SearchUsersResponse searchUsersResponse) {
+                List<User> users = (null != searchUsersResponse.results) ? searchUsersResponse.results : new ArrayList<User>();
+                boolean isLimited = (null != searchUsersResponse.limited) ? searchUsersResponse.limited : false;
+                SearchResults results = new SearchResults(users, isLimited);
+
+                // the excluded users might have been updated in the meantime
+                if (excludedUserIds == mExcludedUserIds) {
+                    mCache.put(pattern, results);
+                }
+
+                if (requestId == mRequestId) {
+                    listener.onSearchResults(pattern, results.mUsers, results.mIsLimited);
+                }
+            }
+
+            private void onError(String errorMessage) {
+                Log.e(LOG_TAG, "## sendRequest() : failed " + errorMessage);
+
+                if (requestId == mRequestId) {
+                    listener.onSearchFailed(pattern);
+                }
+            }
+
+            @Override
+            public void onNetworkError(Exception e) {
+                onError(e.getMessage());
+            }
+
+            @Override
+            public void onMatrixError(MatrixError e) {
+                onError(e.getMessage());
+            }
+
+            @Override
+            public void onUnexpectedError(Exception e) {
+                onError(e.getMessage());
+            }
+        });
+    }
+}
@@ -0,0 +1,431 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.text.TextUtils;
+
+import org.matrix.androidsdk.rest.model.User;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Prefix index of users, on their display names and on their user ids.
+ * The keys are case folded and accent insensitive, and they are stored in sorted arrays :
+ * a prefix search is a binary search followed by a range scan.
+ * The ranked searches use some buckets of entries sorted by rank, one by key prefix (up to MAX_BUCKET_PREFIX_LENGTH chars) :
+ * they only read the expected entries.
+ * The index is updated in place from the UI thread while it is read from the filter thread,
+ * so its methods are synchronized.
+ */
+public class UsersPrefixIndex {
+
+    // above this number of new keys, they are merged instead of being inserted one by one
+    private static final int MAX_INSERTIONS = 32;
+
+    // the max length of the prefixes which have their own ranked bucket
+    private static final int MAX_BUCKET_PREFIX_LENGTH = 8;
+
+    /**
+     * An indexed key
+     */
+    private static class IndexEntry {
+        final String mKey;
+        final User mUser;
+        // the user insertion rank
+        final int mRank;
+
+        IndexEntry(String key, User user, int rank) {
+            mKey = key;
+            mUser = user;
+            mRank = rank;
+        }
+    }
+
+    // sort by key, then by insertion rank
+    private static final Comparator<IndexEntry> mKeyComparator = new Comparator<IndexEntry>() {
+        @Override
+        public int compare(IndexEntry entryA, IndexEntry entryB) {
+            int res = entryA.mKey.compareTo(entryB.mKey);
+
+            if (0 == res) {
+                res = (entryA.mRank < entryB.mRank) ? -1 : ((entryA.mRank == entryB.mRank) ? 0 : +1);
+            }
+
+            return res;
+        }
+    };
+
+    // sort by insertion rank
+    private static final Comparator<IndexEntry> mRankComparator = new Comparator<IndexEntry>() {
+        @Override
+        public int compare(IndexEntry entryA, IndexEntry entryB) {
+            return (entryA.mRank < entryB.mRank) ? -1 : ((entryA.mRank == entryB.mRank) ? 0 : +1);
+        }
+    };
+
+    // the sorted display names keys
+    private final List<IndexEntry> mDisplayNameEntries = new ArrayList<>();
+
+    // the sorted user ids keys
+    private final List<IndexEntry> mUserIdEntries = new ArrayList<>();
+
+    // the display names entries sorted by rank, by key prefix
+    private final Map<String, TreeSet<IndexEntry>> mDisplayNameBuckets = new HashMap<>();
+
+    // the user ids entries sorted by rank, by key prefix
+    private final Map<String, TreeSet<IndexEntry>> mUserIdBuckets = new HashMap<>();
+
+    // the indexed user id key and display name key (null if there is none), by user id
+    private final Map<String, IndexEntry[]> mEntriesByUserId = new HashMap<>();
+
+    // the insertion ranks by user id, they are kept when an user is indexed again
+    private final Map<String, Integer> mRankByUserId = new HashMap<>();
+
+    // the next insertion rank
+    private int mNextRank = 0;
+
+    /**
+     * @return the number of indexed users
+     */
+    public synchronized int size() {
+        return mEntriesByUserId.size();
+    }
+
+    /**
+     * Fold a text : lower case, without accents.
+     *
+     * @param text the text
+     * @return the folded text
+     */
+    public static String fold(String text) {
+        if (TextUtils.isEmpty(text)) {
+            return "";
+        }
+
+        String decomposed = Normalizer.normalize(text.toLowerCase(), Normalizer.Form.NFD);
+        StringBuilder builder = new StringBuilder(decomposed.length());
+
+        for (int index = 0; index < decomposed.length(); index++) {
+            char c = decomposed.charAt(index);
+
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                builder.append(c);
+            }
+        }
+
+        return builder.toString();
+    }
+
+    //================================================================================
+    // Updates
+    //================================================================================
+
+    /**
+     * Add some users.
+     * The users which are already indexed are ignored.
+     * The users keep their first insertion order in the ranked searches.
+     *
+     * @param users the users
+     */
+    public synchronized void addUsers(Collection<User> users) {
+        List<IndexEntry> displayNameEntries = new ArrayList<>();
+        List<IndexEntry> userIdEntries = new ArrayList<>();
+
+        for (User user : users) {
+            if ((null == user.user_id) || mEntriesByUserId.containsKey(user.user_id)) {
+                continue;
+            }
+
+            int rank = getRank(user.user_id);
+            IndexEntry[] entries = new IndexEntry[2];
+
+            entries[0] = new IndexEntry(fold(user.user_id), user, rank);
+            userIdEntries.add(entries[0]);
+            addToBuckets(mUserIdBuckets, entries[0]);
+
+            if (null != user.displayname) {
+                entries[1] = new IndexEntry(fold(user.displayname), user, rank);
+                displayNameEntries.add(entries[1]);
+                addToBuckets(mDisplayNameBuckets, entries[1]);
+            }
+
+            mEntriesByUserId.put(user.user_id, entries);
+        }
+
+        insert(mUserIdEntries, userIdEntries);
+        insert(mDisplayNameEntries, displayNameEntries);
+    }
+
+    /**
+     * Index an user again, for example when its display name has been updated.
+     * The user keeps its rank.
+     *
+     * @param user the user
+     */
+    public synchronized void updateUser(User user) {
+        if ((null == user) || (null == user.user_id)) {
+            return;
+        }
+
+        removeEntries(user.user_id);
+        addUsers(Collections.singletonList(user));
+    }
+
+    /**
+     * Remove an user.
+     * The user gets a new rank if it is added again.
+     *
+     * @param userId the user id
+     */
+    public synchronized void removeUser(String userId) {
+        if (null != userId) {
+            removeEntries(userId);
+            mRankByUserId.remove(userId);
+        }
+    }
+
+    /**
+     * Remove the entries of an user.
+     *
+     * @param userId the user id
+     */
+    private void removeEntries(String userId) {
+        IndexEntry[] entries = mEntriesByUserId.remove(userId);
+
+        if (null != entries) {
+            removeEntry(mUserIdEntries, entries[0]);
+            removeFromBuckets(mUserIdBuckets, entries[0]);
+
+            if (null != entries[1]) {
+                removeEntry(mDisplayNameEntries, entries[1]);
+                removeFromBuckets(mDisplayNameBuckets, entries[1]);
+            }
+        }
+    }
+
+    /**
+     * Provides the insertion rank of an user.
+     *
+     * @param userId the user id
+     * @return the rank
+     */
+    private int getRank(String userId) {
+        Integer rank = mRankByUserId.get(userId);
+
+        if (null == rank) {
+            rank = mNextRank++;
+            mRankByUserId.put(userId, rank);
+        }
+
+        return rank;
+    }
+
+    /**
+     * Insert some new entries into a sorted entries list.
+     *
+     * @param sortedEntries the sorted entries
+     * @param newEntries    the entries to add
+     */
+    private static void insert(List<IndexEntry> sortedEntries, List<IndexEntry> newEntries) {
+        if (newEntries.isEmpty()) {
+            return;
+        }
+
+        // a few entries : binary insertions
+        if (newEntries.size() <= MAX_INSERTIONS) {
+            for (IndexEntry entry : newEntries) {
+                int index = Collections.binarySearch(sortedEntries, entry, mKeyComparator);
+                sortedEntries.add((index < 0) ? (-index - 1) : index, entry);
+            }
+
+            return;
+        }
+
+        // a page of entries : single merge
+        Collections.sort(newEntries, mKeyComparator);
+
+        List<IndexEntry> merged = new ArrayList<>(sortedEntries.size() + newEntries.size());
+        int i = 0;
+        int j = 0;
+
+        while ((i < sortedEntries.size()) && (j < newEntries.size())) {
+            if (mKeyComparator.compare(sortedEntries.get(i), newEntries.get(j)) <= 0) {
+                merged.add(sortedEntries.get(i++));
+            } else {
+                merged.add(newEntries.get(j++));
+            }
+        }
+
+        merged.addAll(sortedEntries.subList(i, sortedEntries.size()));
+        merged.addAll(newEntries.subList(j, newEntries.size()));
+
+        sortedEntries.clear();
+        sortedEntries.addAll(merged);
+    }
+
+    /**
+     * Remove an entry from a sorted entries list.
+     *
+     * @param sortedEntries the sorted entries
+     * @param entry         the entry to remove
+     */
+    private static void removeEntry(List<IndexEntry> sortedEntries, IndexEntry entry) {
+        // the key and the rank identify the entry
+        int index = Collections.binarySearch(sortedEntries, entry, mKeyComparator);
+
+        if (index >= 0) {
+            sortedEntries.remove(index);
+        }
+    }
+
+    /**
+     * Add an entry to the ranked buckets of its key prefixes.
+     *
+     * @param buckets the buckets
+     * @param entry   the entry
+     */
+    private static void addToBuckets(Map<String, TreeSet<IndexEntry>> buckets, IndexEntry entry) {
+        int maxLength = Math.min(entry.mKey.length(), MAX_BUCKET_PREFIX_LENGTH);
+
+        for (int length = 0; length <= maxLength; length++) {
+            String prefix = entry.mKey.substring(0, length);
+            TreeSet<IndexEntry> bucket = buckets.get(prefix);
+
+            if (null == bucket) {
+                bucket = new TreeSet<>(mRankComparator);
+                buckets.put(prefix, bucket);
+            }
+
+            bucket.add(entry);
+        }
+    }
+
+    /**
+     * Remove an entry from the ranked buckets of its key prefixes.
+     *
+     * @param buckets the buckets
+     * @param entry   the entry
+     */
+    private static void removeFromBuckets(Map<String, TreeSet<IndexEntry>> buckets, IndexEntry entry) {
+        int maxLength = Math.min(entry.mKey.length(), MAX_BUCKET_PREFIX_LENGTH);
+
+        for (int length = 0; length <= maxLength; length++) {
+            String prefix = entry.mKey.substring(0, length);
+            TreeSet<IndexEntry> bucket = buckets.get(prefix);
+
+            // the rank identifies the entry in a bucket
+            if ((null != bucket) && bucket.remove(entry) && bucket.isEmpty()) {
+                buckets.remove(prefix);
+            }
+        }
+    }
+
+    //================================================================================
+    // Search
+    //================================================================================
+
+    /**
+     * Search the users whose display name or user id starts with a prefix.
+     *
+     * @param prefix         the prefix
+     * @param isUserIdSearch true to search in the user ids, false to search in the display names
+     * @param limit          the max number of results
+     * @param isRanked       true to provide the first inserted users, false to provide them in the keys order
+     * @return the matched users
+     */
+    public synchronized List<User> search(String prefix, boolean isUserIdSearch, int limit, boolean isRanked) {
+        List<User> users = new ArrayList<>();
+
+        if (limit <= 0) {
+            return users;
+        }
+
+        String foldedPrefix = fold(prefix);
+
+        if (isRanked) {
+            Map<String, TreeSet<IndexEntry>> buckets = isUserIdSearch ? mUserIdBuckets : mDisplayNameBuckets;
+            TreeSet<IndexEntry> bucket = buckets.get(foldedPrefix.substring(0, Math.min(foldedPrefix.length(), MAX_BUCKET_PREFIX_LENGTH)));
+
+            if (null != bucket) {
+                // the bucket is sorted by rank : the first matching entries are the expected ones
+                // the keys only need to be checked when the prefix is longer than the bucket one
+                for (IndexEntry entry : bucket) {
+                    if ((foldedPrefix.length() <= MAX_BUCKET_PREFIX_LENGTH) || entry.mKey.startsWith(foldedPrefix)) {
+                        users.add(entry.mUser);
+
+                        if (users.size() == limit) {
+                            break;
+                        }
+                    }
+                }
+            }
+
+            return users;
+        }
+
+        List<IndexEntry> sortedEntries = isUserIdSearch ? mUserIdEntries : mDisplayNameEntries;
+
+        for (int index = lowerBound(sortedEntries, foldedPrefix); index < sortedEntries.size(); index++) {
+            IndexEntry entry = sortedEntries.get(index);
+
+            if (!entry.mKey.startsWith(foldedPrefix)) {
+                break;
+            }
+
+            users.add(entry.mUser);
+
+            // the range is sorted by keys : the first entries are the expected ones
+            if (users.size() == limit) {
+                break;
+            }
+        }
+
+        return users;
+    }
+
+    /**
+     * Provides the index of the first key which is greater than or equal to a prefix.
+     *
+     * @param sortedEntries the sorted entries
+     * @param prefix        the folded prefix
+     * @return the index
+     */
+    private static int lowerBound(List<IndexEntry> sortedEntries, String prefix) {
+        int low = 0;
+        int high = sortedEntries.size();
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (sortedEntries.get(mid).mKey.compareTo(prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+}
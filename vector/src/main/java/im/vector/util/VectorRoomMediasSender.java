@@ -32,7 +32,10 @@ import org.matrix.androidsdk.util.Log;
 import android.view.View;
 import android.widget.Toast;
 
+import org.matrix.androidsdk.data.Room;
 import org.matrix.androidsdk.db.MXMediasCache;
+import org.matrix.androidsdk.rest.model.FileMessage;
+import org.matrix.androidsdk.rest.model.ImageMessage;
 import org.matrix.androidsdk.rest.model.Message;
 import org.matrix.androidsdk.util.ImageUtils;
 
@@ -340,15 +343,34 @@ public class VectorRoomMediasSender {
      * @param resource the media resource
      */
     private void sendFileMessage(final SharedDataItem sharedDataItem, final ResourceUtils.Resource resource) {
+        final String mimeType = sharedDataItem.getMimeType(mVectorRoomActivity);
+        final String filename =  sharedDataItem.getFileName(mVectorRoomActivity);
+
+        // save the file in the filesystem
+        final String mediaUrl = MediaContentStore.getInstance(mVectorRoomActivity).saveMedia(mMediasCache, resource.mContentStream, mimeType, mVectorMessageListFragment.isRoomEncrypted());
+        resource.close();
+
         mVectorRoomActivity.runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                String mimeType = sharedDataItem.getMimeType(mVectorRoomActivity);
-                String filename =  sharedDataItem.getFileName(mVectorRoomActivity);
+                MediaContentStore contentStore = MediaContentStore.getInstance(mVectorRoomActivity);
+                String contentUrl = mVectorMessageListFragment.isRoomEncrypted() ? null : contentStore.getUploadedContentUrl(mediaUrl, mimeType);
 
-                String mediaUrl = mMediasCache.saveMedia(resource.mContentStream, null, mimeType);
-                mVectorMessageListFragment.uploadFileContent(mediaUrl, mimeType, filename);
-                resource.close();
+                // the same content has already been uploaded
+                if (null != contentUrl) {
+                    Log.d(LOG_TAG, "sendFileMessage : reuse " + contentUrl);
+
+                    FileMessage fileMessage = new FileMessage();
+                    fileMessage.url = contentUrl;
+                    fileMessage.body = filename;
+                    Room.fillFileInfo(mVectorRoomActivity, fileMessage, Uri.parse(mediaUrl), mimeType);
+
+                    contentStore.onContentReused(mediaUrl);
+                    mVectorMessageListFragment.sendMediaMessage(fileMessage);
+                } else {
+                    contentStore.forgetMedia(mediaUrl);
+                    mVectorMessageListFragment.uploadFileContent(mediaUrl, mimeType, filename);
+                }
             }
         });
 
@@ -372,7 +394,7 @@ public class VectorRoomMediasSender {
         String mimeType = sharedDataItem.getMimeType(mVectorRoomActivity);
 
         // save the file in the filesystem
-        String mediaUrl = mMediasCache.saveMedia(resource.mContentStream, null, mimeType);
+        String mediaUrl = MediaContentStore.getInstance(mVectorRoomActivity).saveMedia(mMediasCache, resource.mContentStream, mimeType, mVectorMessageListFragment.isRoomEncrypted());
         resource.close();
 
         // compute the thumbnail
@@ -752,6 +774,8 @@ public class VectorRoomMediasSender {
                     String bitmapURL = mMediasCache.saveMedia(resizeBitmapStream, null, CommonActivityUtils.MIME_TYPE_JPEG);
 
                     if (null != bitmapURL) {
+                        // the original image will not be sent
+                        MediaContentStore.getInstance(mVectorRoomActivity).forgetMedia(imageUrl);
                         imageUrl = bitmapURL;
                     }
 
@@ -764,6 +788,11 @@ public class VectorRoomMediasSender {
                 // rotate the image content
                 ImageUtils.rotateImage(mVectorRoomActivity, imageUrl, rotationAngle, mMediasCache);
             }
+
+            // the image content has been updated
+            if (((null != dstImageSize) || (0 != rotationAngle)) && !mVectorMessageListFragment.isRoomEncrypted()) {
+                MediaContentStore.getInstance(mVectorRoomActivity).onMediaSaved(imageUrl);
+            }
         } catch (Exception e) {
             Log.e(LOG_TAG, "resizeImage " + e.getMessage());
         }
@@ -771,6 +800,42 @@ public class VectorRoomMediasSender {
         return imageUrl;
     }
 
+    /**
+     * Upload an image content and send it.
+     * The content url is reused when the same payload has already been uploaded.
+     * @param thumbnailUrl the thumbnail url
+     * @param imageUrl the image url
+     * @param filename the image filename
+     * @param mimeType the image mimetype
+     */
+    private void uploadImageContent(String thumbnailUrl, String imageUrl, String filename, String mimeType) {
+        MediaContentStore contentStore = MediaContentStore.getInstance(mVectorRoomActivity);
+        String contentUrl = mVectorMessageListFragment.isRoomEncrypted() ? null : contentStore.getUploadedContentUrl(imageUrl, mimeType);
+
+        // the same content has already been uploaded
+        if (null != contentUrl) {
+            Log.d(LOG_TAG, "uploadImageContent : reuse " + contentUrl);
+
+            // the clients use the content url when there is no thumbnail
+            ImageMessage imageMessage = new ImageMessage();
+            imageMessage.url = contentUrl;
+            imageMessage.body = filename;
+            Room.fillImageInfo(mVectorRoomActivity, imageMessage, Uri.parse(imageUrl), mimeType);
+
+            // the thumbnail is not uploaded but its size is still useful to the clients layout
+            if (null != thumbnailUrl) {
+                Room.fillThumbnailInfo(mVectorRoomActivity, imageMessage, Uri.parse(thumbnailUrl), CommonActivityUtils.MIME_TYPE_JPEG);
+                contentStore.deleteLocalMedia(thumbnailUrl);
+            }
+
+            contentStore.onContentReused(imageUrl);
+            mVectorMessageListFragment.sendMediaMessage(imageMessage);
+        } else {
+            contentStore.forgetMedia(imageUrl);
+            mVectorMessageListFragment.uploadImageContent(null, null, thumbnailUrl, imageUrl, filename, mimeType);
+        }
+    }
+
     /**
      * Offer to resize the image before sending it.
      * @param aThumbnailURL the thumbnail url
@@ -829,7 +894,7 @@ public class VectorRoomMediasSender {
                     mVectorRoomActivity.runOnUiThread(new Runnable() {
                         @Override
                         public void run() {
-                            mVectorMessageListFragment.uploadImageContent(null, null, aThumbnailURL, fImageUrl, anImageFilename, anImageMimeType);
+                            uploadImageContent(aThumbnailURL, fImageUrl, anImageFilename, anImageMimeType);
                             aListener.onDone();
                         }
                     });
@@ -879,7 +944,7 @@ public class VectorRoomMediasSender {
                                             mVectorRoomActivity.runOnUiThread(new Runnable() {
                                                 @Override
                                                 public void run() {
-                                                    mVectorMessageListFragment.uploadImageContent(null, null, aThumbnailURL, fImageUrl, anImageFilename, anImageMimeType);
+                                                    uploadImageContent(aThumbnailURL, fImageUrl, anImageFilename, anImageMimeType);
                                                     aListener.onDone();
                                                 }
                                             });
@@ -914,7 +979,7 @@ public class VectorRoomMediasSender {
             mVectorRoomActivity.runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
-                    mVectorMessageListFragment.uploadImageContent(null, null, aThumbnailURL, anImageUrl, anImageFilename, anImageMimeType);
+                    uploadImageContent(aThumbnailURL, anImageUrl, anImageFilename, anImageMimeType);
                     if (null != aListener) {
                         aListener.onDone();
                     }
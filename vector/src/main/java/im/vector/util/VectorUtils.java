@@ -48,7 +48,6 @@ import android.widget.ImageView;
 import android.widget.Toast;
 
 import org.matrix.androidsdk.MXSession;
-import org.matrix.androidsdk.call.MXCallsManager;
 import org.matrix.androidsdk.data.Room;
 import org.matrix.androidsdk.data.RoomState;
 import org.matrix.androidsdk.db.MXMediasCache;
@@ -69,13 +68,11 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import im.vector.R;
 import im.vector.VectorApp;
-import im.vector.adapters.ParticipantAdapterItem;
 
 public class VectorUtils {
 
@@ -963,35 +960,6 @@ public class VectorUtils {
         return presenceText;
     }
 
-    //==============================================================================================================
-    // Users list
-    //==============================================================================================================
-
-    /**
-     * List the active users i.e the active rooms users (invited or joined) and the contacts with matrix id emails.
-     * This function could require a long time to process so it should be called in background.
-     *
-     * @param session the session.
-     * @return a map indexed by the matrix id.
-     */
-    public static Map<String, ParticipantAdapterItem> listKnownParticipants(MXSession session) {
-        // check known users
-        Collection<User> users = session.getDataHandler().getStore().getUsers();
-
-        // a hash map is a lot faster than a list search
-        Map<String, ParticipantAdapterItem> map = new HashMap<>(users.size());
-
-        // we don't need to populate the room members or each room
-        // because an user is created for each joined / invited room member event
-        for (User user : users) {
-            if (!MXCallsManager.isConferenceUserId(user.user_id)) {
-                map.put(user.user_id, new ParticipantAdapterItem(user));
-            }
-        }
-
-        return map;
-    }
-
     //==============================================================================================================
     // URL parser
     //==============================================================================================================
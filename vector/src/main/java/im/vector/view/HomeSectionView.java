@@ -41,6 +41,7 @@ import im.vector.R;
 import im.vector.adapters.AbsAdapter;
 import im.vector.adapters.HomeRoomAdapter;
 import im.vector.fragments.AbsHomeFragment;
+import im.vector.util.HomeSnapshot;
 import im.vector.util.ThemeUtils;
 import im.vector.util.RoomUtils;
 
@@ -206,6 +207,21 @@ public class HomeSectionView extends RelativeLayout {
                 super.onChanged();
                 onDataUpdated();
             }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                onDataUpdated();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                onDataUpdated();
+            }
+
+            @Override
+            public void onItemRangeChanged(int positionStart, int itemCount) {
+                onDataUpdated();
+            }
         });
     }
 
@@ -254,6 +270,17 @@ public class HomeSectionView extends RelativeLayout {
         }
     }
 
+    /**
+     * Set the saved rooms of the section, displayed until the rooms are set
+     *
+     * @param entries the saved rooms
+     */
+    public void setSnapshotEntries(final List<HomeSnapshot.RoomEntry> entries) {
+        if (mAdapter != null) {
+            mAdapter.setSnapshotEntries(entries);
+        }
+    }
+
     /**
      * Scrolls the list to display the item first
      * @param index the item index
@@ -0,0 +1,738 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.view;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.v4.util.LruCache;
+import android.util.AttributeSet;
+import android.util.DisplayMetrics;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+import android.widget.OverScroller;
+
+import org.matrix.androidsdk.util.ImageUtils;
+import org.matrix.androidsdk.util.Log;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Zoomable image view which decodes the displayed image by tiles.
+ * A downsampled version of the whole image is always displayed, and the visible area
+ * is refined with tiles decoded by a BitmapRegionDecoder at the sample size matching the zoom level.
+ */
+public class TiledImageView extends View {
+    private static final String LOG_TAG = TiledImageView.class.getSimpleName();
+
+    // tile edge (in decoded pixels)
+    private static final int TILE_SIZE = 512;
+
+    // max zoom (number of screen pixels per image pixel)
+    private static final float MAX_PIXEL_ZOOM = 3.0f;
+
+    // zoom factor applied on double tap
+    private static final float DOUBLE_TAP_ZOOM = 2.5f;
+
+    // the decoding thread is shared by all the instances
+    private static HandlerThread mDecoderThread = null;
+    private static Handler mDecoderHandler = null;
+
+    // decoded bitmaps cache, shared by all the instances
+    private static LruCache<String, Bitmap> mBitmapsCache = null;
+
+    // true on low RAM devices
+    private static boolean mIsLowRamDevice = false;
+
+    /**
+     * Information about a loaded image.
+     */
+    private static class ImageDescription {
+        int mWidth;
+        int mHeight;
+        int mRotationAngle;
+        int mBaseSampleSize;
+        Bitmap mBaseBitmap;
+    }
+
+    // the displayed image
+    private File mImageFile = null;
+    private String mCacheKeyPrefix = null;
+    private int mRotationAngle = 0;
+    private int mImageWidth = -1;
+    private int mImageHeight = -1;
+
+    // the whole image, downsampled to fit the screen
+    private Bitmap mBaseBitmap = null;
+    private int mBaseSampleSize = 1;
+
+    // the tiles decoder (null if the format cannot be decoded by regions)
+    private BitmapRegionDecoder mRegionDecoder = null;
+
+    // incremented each time the displayed image is updated to ignore stale decoding results
+    private volatile int mGeneration = 0;
+
+    // the sample size of the current zoom level
+    private volatile int mTilesSampleSize = 1;
+
+    // the tiles which are currently decoded
+    private final Set<String> mPendingTiles = new HashSet<>();
+
+    // display parameters
+    private float mScale = 0;
+    private float mMinScale = 1;
+    private float mMaxScale = 1;
+    private float mTranslateX = 0;
+    private float mTranslateY = 0;
+
+    private final Matrix mDrawMatrix = new Matrix();
+    private final Matrix mInverseMatrix = new Matrix();
+    private final RectF mVisibleRect = new RectF();
+    private final RectF mTileRectF = new RectF();
+    private final Rect mTileRect = new Rect();
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private final OverScroller mScroller;
+    private final ScaleGestureDetector mScaleGestureDetector;
+    private final GestureDetector mGestureDetector;
+
+    public TiledImageView(Context context) {
+        this(context, null);
+    }
+
+    public TiledImageView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+
+        initDecoder(context);
+
+        mScroller = new OverScroller(context);
+        mScaleGestureDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                zoomTo(mScale * detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        });
+
+        mGestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                if (!mScaleGestureDetector.isInProgress()) {
+                    mTranslateX -= distanceX;
+                    mTranslateY -= distanceY;
+                    updateMatrix();
+                    invalidate();
+                }
+                return true;
+            }
+
+            @Override
+            public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
+                int minX = (int) Math.min(mTranslateX, getWidth() - getOrientedWidth() * mScale);
+                int minY = (int) Math.min(mTranslateY, getHeight() - getOrientedHeight() * mScale);
+
+                mScroller.fling((int) mTranslateX, (int) mTranslateY, (int) velocityX, (int) velocityY, minX, (int) Math.max(0, mTranslateX), minY, (int) Math.max(0, mTranslateY));
+                postInvalidateOnAnimation();
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(MotionEvent e) {
+                if (mScale > mMinScale * 1.05f) {
+                    zoomTo(mMinScale, e.getX(), e.getY());
+                } else {
+                    zoomTo(mMinScale * DOUBLE_TAP_ZOOM, e.getX(), e.getY());
+                }
+                return true;
+            }
+
+            @Override
+            public void onLongPress(MotionEvent e) {
+                performLongClick();
+            }
+        });
+    }
+
+    /**
+     * Init the shared decoding thread and bitmaps cache.
+     *
+     * @param context the context
+     */
+    private static synchronized void initDecoder(Context context) {
+        if (null == mDecoderThread) {
+            mDecoderThread = new HandlerThread("TiledImageViewThread", Thread.MIN_PRIORITY);
+            mDecoderThread.start();
+            mDecoderHandler = new Handler(mDecoderThread.getLooper());
+
+            ActivityManager activityManager = (ActivityManager) context.getApplicationContext().getSystemService(Context.ACTIVITY_SERVICE);
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                mIsLowRamDevice = activityManager.isLowRamDevice();
+            }
+
+            // use 1/8 of the application heap (1/16 on low RAM devices)
+            int cacheSize = activityManager.getMemoryClass() * 1024 * 1024 / (mIsLowRamDevice ? 16 : 8);
+
+            Log.d(LOG_TAG, "## initDecoder() : cache size " + cacheSize);
+
+            mBitmapsCache = new LruCache<String, Bitmap>(cacheSize) {
+                @Override
+                protected int sizeOf(String key, Bitmap bitmap) {
+                    return bitmap.getRowBytes() * bitmap.getHeight();
+                }
+            };
+        }
+    }
+
+    /**
+     * Release the cached bitmaps.
+     */
+    public static void clearCache() {
+        if (null != mBitmapsCache) {
+            mBitmapsCache.evictAll();
+        }
+    }
+
+    /**
+     * Decode in background the downsampled version of an image file,
+     * to display it without delay when it is bound to a view.
+     *
+     * @param context       the context
+     * @param file          the image file
+     * @param rotationAngle the rotation angle (Integer.MAX_VALUE to read it from the exif data)
+     */
+    public static void prefetch(final Context context, final File file, final int rotationAngle) {
+        if ((null == file) || !file.exists()) {
+            return;
+        }
+
+        initDecoder(context);
+
+        mDecoderHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                loadImageDescription(context, file, rotationAngle);
+            }
+        });
+    }
+
+    /**
+     * Tells if the view displays an image.
+     *
+     * @return true if the image is loaded
+     */
+    private boolean isImageReady() {
+        return (null != mBaseBitmap) && (mImageWidth > 0) && (mImageHeight > 0);
+    }
+
+    /**
+     * Update the displayed image.
+     *
+     * @param file          the image file (null to clear the view)
+     * @param rotationAngle the rotation angle (Integer.MAX_VALUE to read it from the exif data)
+     */
+    public void setImageFile(final File file, final int rotationAngle) {
+        if ((null != file) && (null != mImageFile) && (null != mBaseBitmap) && file.equals(mImageFile) && (file.lastModified() == mImageFile.lastModified())) {
+            return;
+        }
+
+        releaseImage();
+        mImageFile = file;
+
+        if ((null == file) || !file.exists()) {
+            invalidate();
+            return;
+        }
+
+        final int generation = mGeneration;
+        final Context context = getContext();
+
+        mDecoderHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mGeneration) {
+                    return;
+                }
+
+                final ImageDescription description = loadImageDescription(context, file, rotationAngle);
+
+                if (null == description) {
+                    return;
+                }
+
+                BitmapRegionDecoder regionDecoder = null;
+
+                try {
+                    regionDecoder = BitmapRegionDecoder.newInstance(file.getAbsolutePath(), false);
+                } catch (Exception e) {
+                    // some formats (e.g. gif) cannot be decoded by regions
+                    Log.e(LOG_TAG, "## setImageFile() : cannot create a region decoder " + e.getMessage());
+                }
+
+                final BitmapRegionDecoder fRegionDecoder = regionDecoder;
+
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            recycleDecoder(fRegionDecoder);
+                            return;
+                        }
+
+                        mCacheKeyPrefix = getCacheKeyPrefix(file);
+                        mImageWidth = description.mWidth;
+                        mImageHeight = description.mHeight;
+                        mRotationAngle = description.mRotationAngle;
+                        mBaseSampleSize = description.mBaseSampleSize;
+                        mBaseBitmap = description.mBaseBitmap;
+                        mRegionDecoder = fRegionDecoder;
+
+                        resetScale();
+                        invalidate();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Release the displayed image resources.
+     */
+    private void releaseImage() {
+        mGeneration++;
+        mScroller.forceFinished(true);
+
+        recycleDecoder(mRegionDecoder);
+        mRegionDecoder = null;
+
+        mImageFile = null;
+        mCacheKeyPrefix = null;
+        mBaseBitmap = null;
+        mImageWidth = -1;
+        mImageHeight = -1;
+        mRotationAngle = 0;
+        mScale = 0;
+        mPendingTiles.clear();
+    }
+
+    /**
+     * Recycle a region decoder once the pending decodings are done.
+     *
+     * @param regionDecoder the region decoder
+     */
+    private static void recycleDecoder(final BitmapRegionDecoder regionDecoder) {
+        if (null != regionDecoder) {
+            mDecoderHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    regionDecoder.recycle();
+                }
+            });
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        releaseImage();
+    }
+
+    //==============================================================================================================
+    // Decoding
+    //==============================================================================================================
+
+    /**
+     * Provides the cache key prefix of an image file.
+     *
+     * @param file the file
+     * @return the key prefix
+     */
+    private static String getCacheKeyPrefix(File file) {
+        return file.getAbsolutePath() + "_" + file.lastModified();
+    }
+
+    /**
+     * Compute the decoding sample size to display an image with a dedicated scale.
+     *
+     * @param scale the number of screen pixels per image pixel
+     * @return the sample size (a power of 2)
+     */
+    private static int getSampleSize(float scale) {
+        int sampleSize = 1;
+
+        while ((scale > 0) && ((sampleSize * 2) * scale <= 1.0f)) {
+            sampleSize *= 2;
+        }
+
+        return sampleSize;
+    }
+
+    /**
+     * Retrieve the image size, its rotation and its downsampled version.
+     * It must be called in the decoding thread.
+     *
+     * @param context       the context
+     * @param file          the image file
+     * @param rotationAngle the rotation angle (Integer.MAX_VALUE to read it from the exif data)
+     * @return the image description, null on failure
+     */
+    private static ImageDescription loadImageDescription(Context context, File file, int rotationAngle) {
+        ImageDescription description = new ImageDescription();
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+
+        if ((options.outWidth <= 0) || (options.outHeight <= 0)) {
+            Log.e(LOG_TAG, "## loadImageDescription() : cannot decode " + file.getAbsolutePath());
+            return null;
+        }
+
+        description.mWidth = options.outWidth;
+        description.mHeight = options.outHeight;
+
+        if (Integer.MAX_VALUE == rotationAngle) {
+            rotationAngle = ImageUtils.getRotationAngleForBitmap(context, Uri.fromFile(file));
+        }
+
+        rotationAngle = ((rotationAngle % 360) + 360) % 360;
+
+        if ((90 != rotationAngle) && (180 != rotationAngle) && (270 != rotationAngle)) {
+            rotationAngle = 0;
+        }
+
+        description.mRotationAngle = rotationAngle;
+
+        // the downsampled image must fill the screen
+        boolean isSwapped = (90 == rotationAngle) || (270 == rotationAngle);
+        int orientedWidth = isSwapped ? description.mHeight : description.mWidth;
+        int orientedHeight = isSwapped ? description.mWidth : description.mHeight;
+
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        float fitScale = Math.min((float) metrics.widthPixels / orientedWidth, (float) metrics.heightPixels / orientedHeight);
+        description.mBaseSampleSize = getSampleSize(fitScale);
+
+        String key = getCacheKeyPrefix(file) + "_base_" + description.mBaseSampleSize;
+        description.mBaseBitmap = mBitmapsCache.get(key);
+
+        if (null == description.mBaseBitmap) {
+            options = new BitmapFactory.Options();
+            options.inSampleSize = description.mBaseSampleSize;
+            options.inPreferredConfig = mIsLowRamDevice ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+
+            try {
+                description.mBaseBitmap = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+            } catch (OutOfMemoryError oom) {
+                Log.e(LOG_TAG, "## loadImageDescription() : failed " + oom.getMessage());
+                // retry with less memory
+                mBitmapsCache.evictAll();
+                description.mBaseSampleSize *= 2;
+                options.inSampleSize = description.mBaseSampleSize;
+                key = getCacheKeyPrefix(file) + "_base_" + description.mBaseSampleSize;
+
+                try {
+                    description.mBaseBitmap = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+                } catch (OutOfMemoryError oom2) {
+                    Log.e(LOG_TAG, "## loadImageDescription() : failed again " + oom2.getMessage());
+                }
+            }
+
+            if (null == description.mBaseBitmap) {
+                return null;
+            }
+
+            mBitmapsCache.put(key, description.mBaseBitmap);
+        }
+
+        return description;
+    }
+
+    /**
+     * Request a tile decoding.
+     *
+     * @param key        the tile key
+     * @param tileRect   the tile rectangle in the image coordinates
+     * @param sampleSize the sample size
+     */
+    private void requestTile(final String key, final Rect tileRect, final int sampleSize) {
+        if (mPendingTiles.contains(key)) {
+            return;
+        }
+
+        mPendingTiles.add(key);
+
+        final BitmapRegionDecoder regionDecoder = mRegionDecoder;
+        final int generation = mGeneration;
+
+        mDecoderHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // the zoom level or the image might have been updated
+                if ((generation == mGeneration) && (sampleSize == mTilesSampleSize) && !regionDecoder.isRecycled() && (null == mBitmapsCache.get(key))) {
+                    BitmapFactory.Options options = new BitmapFactory.Options();
+                    options.inSampleSize = sampleSize;
+                    options.inPreferredConfig = mIsLowRamDevice ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+
+                    try {
+                        Bitmap bitmap = regionDecoder.decodeRegion(tileRect, options);
+
+                        if (null != bitmap) {
+                            mBitmapsCache.put(key, bitmap);
+                        }
+                    } catch (OutOfMemoryError oom) {
+                        Log.e(LOG_TAG, "## requestTile() : failed " + oom.getMessage());
+                        mBitmapsCache.evictAll();
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "## requestTile() : failed " + e.getMessage());
+                    }
+                }
+
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mGeneration) {
+                            mPendingTiles.remove(key);
+                            invalidate();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    //==============================================================================================================
+    // Display
+    //==============================================================================================================
+
+    /**
+     * @return the image width once rotated
+     */
+    private int getOrientedWidth() {
+        return ((90 == mRotationAngle) || (270 == mRotationAngle)) ? mImageHeight : mImageWidth;
+    }
+
+    /**
+     * @return the image height once rotated
+     */
+    private int getOrientedHeight() {
+        return ((90 == mRotationAngle) || (270 == mRotationAngle)) ? mImageWidth : mImageHeight;
+    }
+
+    /**
+     * Fit the image in the view.
+     */
+    private void resetScale() {
+        if (!isImageReady() || (0 == getWidth()) || (0 == getHeight())) {
+            return;
+        }
+
+        mMinScale = Math.min((float) getWidth() / getOrientedWidth(), (float) getHeight() / getOrientedHeight());
+        mMaxScale = Math.max(mMinScale, MAX_PIXEL_ZOOM);
+        mScale = mMinScale;
+
+        updateMatrix();
+    }
+
+    /**
+     * Zoom around a focus point.
+     *
+     * @param scale  the new scale
+     * @param focusX the focus X coordinate
+     * @param focusY the focus Y coordinate
+     */
+    private void zoomTo(float scale, float focusX, float focusY) {
+        if (!isImageReady() || (0 == mScale)) {
+            return;
+        }
+
+        float newScale = Math.max(mMinScale, Math.min(mMaxScale, scale));
+        float ratio = newScale / mScale;
+
+        mTranslateX = focusX - (focusX - mTranslateX) * ratio;
+        mTranslateY = focusY - (focusY - mTranslateY) * ratio;
+        mScale = newScale;
+
+        updateMatrix();
+        invalidate();
+    }
+
+    /**
+     * Keep the image in the view bounds and update the drawing matrix.
+     */
+    private void updateMatrix() {
+        float scaledWidth = getOrientedWidth() * mScale;
+        float scaledHeight = getOrientedHeight() * mScale;
+
+        if (scaledWidth <= getWidth()) {
+            mTranslateX = (getWidth() - scaledWidth) / 2;
+        } else {
+            mTranslateX = Math.min(0, Math.max(getWidth() - scaledWidth, mTranslateX));
+        }
+
+        if (scaledHeight <= getHeight()) {
+            mTranslateY = (getHeight() - scaledHeight) / 2;
+        } else {
+            mTranslateY = Math.min(0, Math.max(getHeight() - scaledHeight, mTranslateY));
+        }
+
+        mDrawMatrix.reset();
+
+        switch (mRotationAngle) {
+            case 90:
+                mDrawMatrix.postRotate(90);
+                mDrawMatrix.postTranslate(mImageHeight, 0);
+                break;
+            case 180:
+                mDrawMatrix.postRotate(180);
+                mDrawMatrix.postTranslate(mImageWidth, mImageHeight);
+                break;
+            case 270:
+                mDrawMatrix.postRotate(270);
+                mDrawMatrix.postTranslate(0, mImageWidth);
+                break;
+        }
+
+        mDrawMatrix.postScale(mScale, mScale);
+        mDrawMatrix.postTranslate(mTranslateX, mTranslateY);
+        mDrawMatrix.invert(mInverseMatrix);
+
+        mTilesSampleSize = getSampleSize(mScale);
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        resetScale();
+    }
+
+    @Override
+    public void computeScroll() {
+        if (mScroller.computeScrollOffset()) {
+            mTranslateX = mScroller.getCurrX();
+            mTranslateY = mScroller.getCurrY();
+            updateMatrix();
+            postInvalidateOnAnimation();
+        }
+    }
+
+    @Override
+    public boolean canScrollHorizontally(int direction) {
+        if (!isImageReady()) {
+            return false;
+        }
+
+        if (direction < 0) {
+            return mTranslateX < -0.5f;
+        } else {
+            return mTranslateX > (getWidth() - getOrientedWidth() * mScale + 0.5f);
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (!isImageReady()) {
+            return super.onTouchEvent(event);
+        }
+
+        if (MotionEvent.ACTION_DOWN == event.getActionMasked()) {
+            mScroller.forceFinished(true);
+        }
+
+        // the pager must not steal the pinch gestures
+        if ((event.getPointerCount() > 1) && (null != getParent())) {
+            getParent().requestDisallowInterceptTouchEvent(true);
+        }
+
+        mScaleGestureDetector.onTouchEvent(event);
+        mGestureDetector.onTouchEvent(event);
+
+        return true;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        if (!isImageReady()) {
+            return;
+        }
+
+        if (0 == mScale) {
+            resetScale();
+        }
+
+        canvas.save();
+        canvas.concat(mDrawMatrix);
+
+        // the whole image
+        mTileRectF.set(0, 0, mImageWidth, mImageHeight);
+        canvas.drawBitmap(mBaseBitmap, null, mTileRectF, mPaint);
+
+        // refine the visible area with tiles
+        int sampleSize = mTilesSampleSize;
+
+        if ((null != mRegionDecoder) && (sampleSize < mBaseSampleSize)) {
+            mVisibleRect.set(0, 0, getWidth(), getHeight());
+            mInverseMatrix.mapRect(mVisibleRect);
+
+            int tileSize = TILE_SIZE * sampleSize;
+            int firstCol = Math.max(0, (int) (mVisibleRect.left / tileSize));
+            int lastCol = Math.min((mImageWidth - 1) / tileSize, (int) (mVisibleRect.right / tileSize));
+            int firstRow = Math.max(0, (int) (mVisibleRect.top / tileSize));
+            int lastRow = Math.min((mImageHeight - 1) / tileSize, (int) (mVisibleRect.bottom / tileSize));
+
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int col = firstCol; col <= lastCol; col++) {
+                    String key = mCacheKeyPrefix + "_" + sampleSize + "_" + col + "_" + row;
+                    Bitmap tile = mBitmapsCache.get(key);
+
+                    mTileRect.set(col * tileSize, row * tileSize, Math.min(mImageWidth, (col + 1) * tileSize), Math.min(mImageHeight, (row + 1) * tileSize));
+
+                    if (null != tile) {
+                        mTileRectF.set(mTileRect);
+                        canvas.drawBitmap(tile, null, mTileRectF, mPaint);
+                    } else {
+                        requestTile(key, new Rect(mTileRect), sampleSize);
+                    }
+                }
+            }
+        }
+
+        canvas.restore();
+    }
+}
@@ -44,6 +44,7 @@ import java.util.List;
 
 import im.vector.R;
 import im.vector.adapters.AutoCompletedUserAdapter;
+import im.vector.util.RoomMembersPager;
 
 import org.matrix.androidsdk.util.Log;
 
@@ -56,6 +57,21 @@ public class VectorAutoCompleteTextView extends AppCompatMultiAutoCompleteTextVi
     // results adapter
     private AutoCompletedUserAdapter mAdapter;
 
+    // the room members pager, the matching members are loaded while the user is typing
+    private RoomMembersPager mMembersPager;
+
+    // the latest prefix whose matching members have been requested
+    private String mMembersPrefix;
+
+    // true when some other members match the latest prefix
+    private boolean mHasMoreMembers;
+
+    // true when the next members page is loading
+    private boolean mIsLoadingNextPage;
+
+    // the room whose members are proposed, null if the proposals are not room members
+    private Room mRoom;
+
     // the pending patter,
     private String mPendingFilter;
 
@@ -88,6 +104,7 @@ public class VectorAutoCompleteTextView extends AppCompatMultiAutoCompleteTextVi
      * @param session the session
      */
     public void initAutoCompletion(MXSession session) {
+        cancelMembersPager();
         initAutoCompletion(session, session.getDataHandler().getStore().getUsers());
     }
 
@@ -98,25 +115,150 @@ public class VectorAutoCompleteTextView extends AppCompatMultiAutoCompleteTextVi
      * @param roomId  the room Id
      */
     public void initAutoCompletion(MXSession session, String roomId) {
-        List<User> users = new ArrayList<>();
+        cancelMembersPager();
+        initAutoCompletion(session, new ArrayList<User>());
 
         if (!TextUtils.isEmpty(roomId)) {
             Room room = session.getDataHandler().getStore().getRoom(roomId);
 
             if (null != room) {
-                Collection<RoomMember> members = room.getMembers();
-
-                for (RoomMember member : members) {
-                    User user = session.getDataHandler().getUser(member.getUserId());
+                // the members are proposed by relevance
+                mAdapter.setUsersOrderKept(true);
+                mRoom = room;
+
+                // the first page is loaded in background, the other members when they match the typed prefix
+                final AutoCompletedUserAdapter adapter = mAdapter;
+                mMembersPager = new RoomMembersPager(session, room);
+                mMembersPager.loadFirstPage(new RoomMembersPager.IRoomMembersPageListener() {
+                    @Override
+                    public void onPageLoaded(List<User> users, boolean hasMorePages) {
+                        adapter.addUsers(users);
+                    }
+                });
 
-                    if (null != user) {
-                        users.add(user);
+                // the next matching members are loaded when the proposals list is scrolled to its end
+                mAdapter.setOnEndReachedListener(new AutoCompletedUserAdapter.IOnEndReachedListener() {
+                    @Override
+                    public void onEndReached() {
+                        loadNextMembersPage();
                     }
-                }
+                });
             }
         }
+    }
 
-        initAutoCompletion(session, users);
+    /**
+     * Cancel the pending room members pages loading.
+     */
+    private void cancelMembersPager() {
+        if (null != mMembersPager) {
+            mMembersPager.cancel();
+            mMembersPager = null;
+        }
+
+        mMembersPrefix = null;
+        mHasMoreMembers = false;
+        mIsLoadingNextPage = false;
+        mRoom = null;
+    }
+
+    /**
+     * Update the auto completions list when a room member has been updated.
+     *
+     * @param session the session
+     * @param userId  the member user id
+     */
+    public void onRoomMemberUpdate(MXSession session, String userId) {
+        if ((null == mRoom) || (null == mAdapter) || (null == userId)) {
+            return;
+        }
+
+        if (null != mMembersPager) {
+            mMembersPager.onMembersUpdate();
+        }
+
+        RoomMember member = mRoom.getMember(userId);
+        User user = session.getDataHandler().getUser(userId);
+
+        if ((null != user) && (null != member) && !RoomMember.MEMBERSHIP_LEAVE.equals(member.membership) && !RoomMember.MEMBERSHIP_BAN.equals(member.membership)) {
+            // the user is indexed again to refresh its display name
+            mAdapter.updateUser(user);
+        } else {
+            mAdapter.removeUser(userId);
+        }
+    }
+
+    /**
+     * Load the room members matching the typed prefix.
+     * The current filter is refreshed when they are loaded.
+     *
+     * @param prefix the typed prefix
+     */
+    private void loadMatchingMembers(String prefix) {
+        if ((null == mMembersPager) || (prefix.length() < getThreshold()) || TextUtils.equals(prefix, mMembersPrefix)) {
+            return;
+        }
+
+        mMembersPrefix = prefix;
+        mHasMoreMembers = false;
+        mIsLoadingNextPage = false;
+        mAdapter.resetMaxResultsCount();
+
+        final AutoCompletedUserAdapter adapter = mAdapter;
+        mMembersPager.loadMatchingMembers(prefix, new RoomMembersPager.IRoomMembersPageListener() {
+            @Override
+            public void onPageLoaded(List<User> users, boolean hasMorePages) {
+                onMembersPageLoaded(adapter, users, hasMorePages);
+            }
+        });
+    }
+
+    /**
+     * Load the next page of the room members matching the typed prefix.
+     */
+    private void loadNextMembersPage() {
+        if ((null == mMembersPager) || !mHasMoreMembers || mIsLoadingNextPage) {
+            return;
+        }
+
+        mIsLoadingNextPage = true;
+
+        final AutoCompletedUserAdapter adapter = mAdapter;
+        mMembersPager.loadNextPage(new RoomMembersPager.IRoomMembersPageListener() {
+            @Override
+            public void onPageLoaded(List<User> users, boolean hasMorePages) {
+                mIsLoadingNextPage = false;
+                adapter.increaseMaxResultsCount();
+                onMembersPageLoaded(adapter, users, hasMorePages);
+            }
+        });
+    }
+
+    /**
+     * A room members page has been loaded : the current filter is refreshed.
+     *
+     * @param adapter      the adapter
+     * @param users        the page users
+     * @param hasMorePages true if some other members match the typed prefix
+     */
+    private void onMembersPageLoaded(AutoCompletedUserAdapter adapter, List<User> users, boolean hasMorePages) {
+        // the adapter has been replaced
+        if (adapter != mAdapter) {
+            return;
+        }
+
+        mHasMoreMembers = hasMorePages;
+
+        if (users.isEmpty()) {
+            return;
+        }
+
+        adapter.addUsers(users);
+
+        if (hasFocus() && enoughToFilter()) {
+            Log.d(LOG_TAG, "## onMembersPageLoaded() : " + users.size() + " members are loaded, refresh the filter");
+            performFiltering(getText(), 0);
+        }
     }
 
     /**
@@ -230,6 +372,11 @@ public class VectorAutoCompleteTextView extends AppCompatMultiAutoCompleteTextVi
 
     @Override
     protected void performFiltering(final CharSequence text, final int start, final int end, int keyCode) {
+        // the user is typing : load the members matching the typed prefix
+        if ((null != text) && (start >= 0) && (end <= text.length()) && (start < end)) {
+            loadMatchingMembers(text.subSequence(start, end).toString());
+        }
+
         // cannot retrieve mPopupCanBeUpdated
         // use the default implementation
         if (null == mPopupCanBeUpdatedField) {